@@ -0,0 +1,159 @@
+package no.cantara.flow.flowlogger.benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs the benchmarks with the GC profiler, so every result also reports the bytes allocated per operation, and
+ * writes the results as JMH json. Given a baseline written by an earlier run, the two are compared and the run fails
+ * if any benchmark got slower by more than the threshold, or allocates more bytes per operation than the allocation
+ * threshold allows. Allocation is compared with a slack of {@value #ALLOCATION_SLACK_BYTES} bytes per operation, so
+ * the noise of the GC profiler around zero is not a regression.
+ * <p>
+ * Usage: {@code java -jar target/benchmarks.jar [--out result.json] [--baseline baseline.json] [--threshold percent]
+ * [--alloc-threshold percent] [regexp]}
+ * <p>
+ * To publish a baseline, run on the main branch with {@code --out baseline.json} and keep the file, e.g. as a build
+ * artifact. Scores are only comparable between runs on the same machine and JVM.
+ */
+public class BenchmarkRunner {
+
+    static final double ALLOCATION_SLACK_BYTES = 8;
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        Path out = Paths.get("benchmark-result.json");
+        Path baseline = null;
+        double threshold = 10;
+        double allocationThreshold = 10;
+        String include = BenchmarkRunner.class.getPackage().getName() + ".*";
+        for (int i = 0; i < args.length; i++) {
+            if ("--out".equals(args[i]) && i + 1 < args.length) {
+                out = Paths.get(args[++i]);
+            } else if ("--baseline".equals(args[i]) && i + 1 < args.length) {
+                baseline = Paths.get(args[++i]);
+            } else if ("--threshold".equals(args[i]) && i + 1 < args.length) {
+                threshold = Double.parseDouble(args[++i]);
+            } else if ("--alloc-threshold".equals(args[i]) && i + 1 < args.length) {
+                allocationThreshold = Double.parseDouble(args[++i]);
+            } else {
+                include = args[i];
+            }
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(out.toString());
+        new Runner(options.build()).run();
+
+        if (baseline != null) {
+            int regressions = compare(read(baseline), read(out), threshold, allocationThreshold);
+            if (regressions > 0) {
+                System.out.println(regressions + " benchmark(s) regressed by more than " + threshold + "% in score or "
+                        + allocationThreshold + "% in allocation");
+                System.exit(1);
+            }
+        }
+    }
+
+    private static final class Score {
+        final double score;
+        final String unit;
+        final double allocatedBytes;
+
+        Score(double score, String unit, double allocatedBytes) {
+            this.score = score;
+            this.unit = unit;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        /**
+         * @return the relative change from the baseline in percent, positive when this score is worse.
+         */
+        double regression(Score baseline) {
+            double change = (score - baseline.score) / baseline.score * 100;
+            return unit.startsWith("ops/") ? -change : change;
+        }
+
+        /**
+         * @return true if this allocates more per operation than the baseline plus the threshold and the slack, false
+         * if either run was without allocation data.
+         */
+        boolean allocationRegressed(Score baseline, double threshold) {
+            return allocatedBytes > baseline.allocatedBytes * (1 + threshold / 100) + ALLOCATION_SLACK_BYTES;
+        }
+    }
+
+    /**
+     * @return the results by benchmark name and parameters.
+     */
+    private static Map<String, Score> read(Path file) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        JsonArray results;
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            results = JsonParser.parseReader(reader).getAsJsonArray();
+        }
+        for (JsonElement element : results) {
+            JsonObject result = element.getAsJsonObject();
+            String key = result.get("benchmark").getAsString();
+            if (result.has("params")) {
+                key += " " + new TreeMap<>(result.getAsJsonObject("params").asMap());
+            }
+            JsonObject primary = result.getAsJsonObject("primaryMetric");
+            double allocated = Double.NaN;
+            if (result.has("secondaryMetrics")) {
+                for (Map.Entry<String, JsonElement> secondary : result.getAsJsonObject("secondaryMetrics").entrySet()) {
+                    if (secondary.getKey().endsWith("gc.alloc.rate.norm")) {
+                        allocated = secondary.getValue().getAsJsonObject().get("score").getAsDouble();
+                    }
+                }
+            }
+            scores.put(key, new Score(primary.get("score").getAsDouble(), primary.get("scoreUnit").getAsString(), allocated));
+        }
+        return scores;
+    }
+
+    /**
+     * Print the baseline and current score and allocation of every benchmark found in both.
+     *
+     * @return the number of benchmarks whose score or allocation regressed by more than its threshold.
+     */
+    private static int compare(Map<String, Score> baseline, Map<String, Score> current, double threshold, double allocationThreshold) {
+        int regressions = 0;
+        System.out.printf("%-90s %14s %14s %8s %12s %12s%n", "Benchmark", "Baseline", "Current", "Worse", "B/op before", "B/op now");
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            Score before = baseline.get(entry.getKey());
+            if (before == null) {
+                continue;
+            }
+            Score now = entry.getValue();
+            double regression = now.regression(before);
+            boolean slower = regression > threshold;
+            boolean allocating = now.allocationRegressed(before, allocationThreshold);
+            if (slower || allocating) {
+                regressions++;
+            }
+            System.out.printf("%-90s %14.3f %14.3f %+7.1f%% %12.1f %12.1f%s%s%n", entry.getKey(), before.score, now.score,
+                    regression, before.allocatedBytes, now.allocatedBytes, slower ? "  REGRESSION" : "", allocating ? "  ALLOCATION" : "");
+        }
+        return regressions;
+    }
+}
@@ -0,0 +1,69 @@
+package no.cantara.flow.flowlogger.benchmarks;
+
+import no.cantara.flow.flowlogger.FlowLogger;
+import no.cantara.flow.flowlogger.ReporterFlowLogger;
+import no.cantara.flow.flowlogger.event.Builder;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating events: the fluent api end to end, {@link Builder#build()} of an already filled in builder, and emitting
+ * from a pooled logger.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventBuildingBenchmark {
+
+    private Builder prepared;
+    private ReporterFlowLogger pooledLogger;
+
+    @Setup
+    public void setup() {
+        prepared = new Builder();
+        prepared.event().correlationId("corrId382").history("A,B").id("C")
+                .reporter().deployment("prod").name("order-service").version("1.0").containerId("c0ffee").instance("1")
+                .source().type("queue").address("orders").payloadType("Order").payloadId("1234")
+                .destination().type("http").address("/orders").payloadType("Order").payloadId("1234")
+                .edge().milestone("received").status("OK");
+        pooledLogger = FlowLogger.forReporter("prod", "order-service", "1.0", "c0ffee", "1").pooled();
+    }
+
+    @Benchmark
+    public FlowEvent fluentEvent() {
+        return FlowLogger.event("corrId382", "A,B").id("C")
+                .source().type("queue").address("orders").payloadType("Order").payloadId("1234")
+                .destination().type("http").address("/orders").payloadType("Order").payloadId("1234")
+                .edge().milestone("received").status("OK")
+                .build();
+    }
+
+    @Benchmark
+    public FlowEvent buildPrepared() {
+        return prepared.build();
+    }
+
+    @Benchmark
+    public boolean pooledEmit(Blackhole blackhole) {
+        return pooledLogger.event("corrId382", "A,B").id("C")
+                .source().type("queue").address("orders").payloadType("Order").payloadId("1234")
+                .destination().type("http").address("/orders").payloadType("Order").payloadId("1234")
+                .edge().milestone("received").status("OK")
+                .emit(blackhole::consume);
+    }
+}
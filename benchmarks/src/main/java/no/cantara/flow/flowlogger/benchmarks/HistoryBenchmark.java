@@ -0,0 +1,70 @@
+package no.cantara.flow.flowlogger.benchmarks;
+
+import no.cantara.flow.flowlogger.FlowLogger;
+import no.cantara.flow.flowlogger.event.Builder;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.FlowHistory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extending and parsing histories of increasing length.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HistoryBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int length;
+
+    private String header;
+    private FlowEvent event;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder(length * 6);
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(Builder.generateShortRandomId());
+        }
+        header = sb.toString();
+        event = FlowLogger.event("corrId382", header).generateId().build();
+    }
+
+    @Benchmark
+    public String nextHistory() {
+        return event.nextHistory();
+    }
+
+    @Benchmark
+    public FlowHistory nextFlowHistory() {
+        return event.nextFlowHistory();
+    }
+
+    @Benchmark
+    public FlowHistory parse() {
+        return FlowHistory.parse(header);
+    }
+
+    @Benchmark
+    public Builder.EdgeBuilder edgeBuilderHistory() {
+        return FlowLogger.event("corrId382").history(header);
+    }
+}
@@ -0,0 +1,43 @@
+package no.cantara.flow.flowlogger.benchmarks;
+
+import no.cantara.flow.flowlogger.event.Builder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Builder#generateShortRandomId()} with one, four and as many threads as there are processors, to show
+ * whether id generation contends between threads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdGenerationBenchmark {
+
+    @Benchmark
+    @Threads(1)
+    public String oneThread() {
+        return Builder.generateShortRandomId();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String fourThreads() {
+        return Builder.generateShortRandomId();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String allProcessors() {
+        return Builder.generateShortRandomId();
+    }
+}
@@ -0,0 +1,64 @@
+package no.cantara.flow.flowlogger.benchmarks;
+
+import com.google.gson.Gson;
+import no.cantara.flow.flowlogger.FlowLogger;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Json serialization with {@link FlowEvent#toJson()} compared to Gson, and Gson round trips.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+    private final Gson gson = new Gson();
+    private FlowEvent event;
+    private String json;
+
+    @Setup
+    public void setup() {
+        event = FlowLogger.event("corrId382", "A,B").id("C")
+                .reporter().deployment("prod").name("order-service").version("1.0").containerId("c0ffee").instance("1")
+                .source().type("queue").address("orders").payloadType("Order").payloadId("1234")
+                .destination().type("http").address("/orders").payloadType("Order").payloadId("1234")
+                .edge().milestone("received").status("OK").comment("a \"quoted\" comment")
+                .build();
+        json = event.toJson();
+    }
+
+    @Benchmark
+    public String toJson() {
+        return event.toJson();
+    }
+
+    @Benchmark
+    public String gsonToJson() {
+        return gson.toJson(event);
+    }
+
+    @Benchmark
+    public FlowEvent gsonFromJson() {
+        return gson.fromJson(json, FlowEvent.class);
+    }
+
+    @Benchmark
+    public FlowEvent gsonRoundTrip() {
+        return gson.fromJson(gson.toJson(event), FlowEvent.class);
+    }
+}
@@ -1,11 +1,25 @@
 package no.cantara.flow.flowlogger;
 
+import no.cantara.flow.flowlogger.context.FlowContext;
 import no.cantara.flow.flowlogger.event.Builder;
+import no.cantara.flow.flowlogger.event.Reporter;
 
 public class FlowLogger {
 
+    /**
+     * @return a builder with the correlation id and history of the {@link FlowContext} bound to the current thread,
+     * if any.
+     */
     public static Builder.EdgeBuilder event() {
-        return new Builder().event();
+        return withContext(new Builder().event());
+    }
+
+    static Builder.EdgeBuilder withContext(Builder.EdgeBuilder builder) {
+        FlowContext context = FlowContext.current();
+        if (context == null) {
+            return builder;
+        }
+        return builder.correlationId(context.getCorrelationId()).history(context.getHistory());
     }
 
     public static Builder.EdgeBuilder event(String correlationId) {
@@ -15,4 +29,16 @@ public class FlowLogger {
     public static Builder.EdgeBuilder event(String correlationId, String history) {
         return new Builder().event().correlationId(correlationId).history(history);
     }
+
+    /**
+     * @param reporter the identity of this process, shared by all events.
+     * @return a logger whose events are all reported by the given reporter.
+     */
+    public static ReporterFlowLogger forReporter(Reporter reporter) {
+        return new ReporterFlowLogger(reporter);
+    }
+
+    public static ReporterFlowLogger forReporter(String deployment, String name, String version, String containerId, String instance) {
+        return new ReporterFlowLogger(new Reporter(deployment, name, version, containerId, instance));
+    }
 }
@@ -0,0 +1,115 @@
+package no.cantara.flow.flowlogger;
+
+import no.cantara.flow.flowlogger.context.FlowContext;
+import no.cantara.flow.flowlogger.event.Builder;
+import no.cantara.flow.flowlogger.event.BuilderPool;
+import no.cantara.flow.flowlogger.event.FlowEventGuard;
+import no.cantara.flow.flowlogger.event.Reporter;
+
+/**
+ * Creates events that all share one immutable {@link Reporter} instance, so the reporter is neither allocated nor
+ * re-serialized per event. Instances are thread-safe and typically held in a static field.
+ *
+ * @see FlowLogger#forReporter(Reporter)
+ */
+public class ReporterFlowLogger {
+
+    private final Reporter reporter;
+    private final FlowEventGuard guard;
+    private final int poolSlots; // -1 if not pooled, 0 for one builder per thread
+    private final BuilderPool pool;
+
+    ReporterFlowLogger(Reporter reporter) {
+        this(reporter, null, -1);
+    }
+
+    private ReporterFlowLogger(Reporter reporter, FlowEventGuard guard, int poolSlots) {
+        if (reporter == null) {
+            throw new IllegalArgumentException("reporter cannot be null");
+        }
+        this.reporter = reporter;
+        this.guard = guard;
+        this.poolSlots = poolSlots;
+        if (poolSlots < 0) {
+            this.pool = null;
+        } else if (poolSlots == 0) {
+            this.pool = BuilderPool.threadLocal(this::newBuilder);
+        } else {
+            this.pool = BuilderPool.striped(poolSlots, this::newBuilder);
+        }
+    }
+
+    private Builder newBuilder() {
+        return new Builder().reporter(reporter).guard(guard);
+    }
+
+    /**
+     * @param guard decides which events are built by {@link Builder.EdgeBuilder#buildLazy()}, e.g. based on a log
+     *              level or a sampling rate.
+     * @return a logger with the same reporter and the given guard.
+     */
+    public ReporterFlowLogger withGuard(FlowEventGuard guard) {
+        return new ReporterFlowLogger(reporter, guard, poolSlots);
+    }
+
+    /**
+     * Reuse one builder per thread. Every event must be finished with build, buildLazy or emit, and the builder
+     * must not be touched after that. Combined with {@link Builder.EdgeBuilder#emit(java.util.function.Consumer)}
+     * the only allocation per event is the event itself.
+     *
+     * @return a logger with the same reporter and guard that reuses builders.
+     * @see BuilderPool#threadLocal(java.util.function.Supplier)
+     */
+    public ReporterFlowLogger pooled() {
+        return new ReporterFlowLogger(reporter, guard, 0);
+    }
+
+    /**
+     * Reuse builders from a pool shared by all threads, for applications that log from many virtual threads.
+     *
+     * @param slots the maximum number of idle builders.
+     * @return a logger with the same reporter and guard that reuses builders.
+     * @see #pooled()
+     * @see BuilderPool#striped(int, java.util.function.Supplier)
+     */
+    public ReporterFlowLogger pooled(int slots) {
+        if (slots < 1) {
+            throw new IllegalArgumentException("slots must be positive, was: " + slots);
+        }
+        return new ReporterFlowLogger(reporter, guard, slots);
+    }
+
+    /**
+     * Check the guard before setting up an event in hot code paths, so rejected events cost nothing.
+     *
+     * @param correlationId the correlation id of the event.
+     * @return false if the event would be rejected by the guard.
+     */
+    public boolean isEnabled(String correlationId) {
+        return guard == null || guard.isEnabled(correlationId);
+    }
+
+    public Reporter getReporter() {
+        return reporter;
+    }
+
+    /**
+     * @return a builder with the correlation id and history of the {@link FlowContext} bound to the current thread,
+     * if any.
+     */
+    public Builder.EdgeBuilder event() {
+        return FlowLogger.withContext(builder());
+    }
+
+    public Builder.EdgeBuilder event(String correlationId) {
+        return builder().correlationId(correlationId);
+    }
+
+    public Builder.EdgeBuilder event(String correlationId, String history) {
+        return builder().correlationId(correlationId).history(history);
+    }
+
+    private Builder.EdgeBuilder builder() {
+        return (pool != null ? pool.acquire() : newBuilder()).event();
+    }
+}
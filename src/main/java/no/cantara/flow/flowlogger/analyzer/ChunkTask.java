@@ -0,0 +1,119 @@
+package no.cantara.flow.flowlogger.analyzer;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.FlowEventJsonParser;
+import no.cantara.flow.flowlogger.event.FlowEventJsonParser.Field;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parses the lines of a region of a file, splitting the region in two at a newline as long as it is larger than the
+ * chunk size.
+ */
+final class ChunkTask extends RecursiveTask<Partial> {
+
+    private static final long serialVersionUID = 1L; // never serialized, ForkJoinTask is only Serializable by inheritance
+
+    /**
+     * Only the fields kept in a {@link Hop}, the rest of the line is skipped without decoding.
+     */
+    private static final FlowEventJsonParser HOP_FIELDS = FlowEventJsonParser.of(Field.CORRELATION_ID, Field.HISTORY,
+            Field.EDGE_ID, Field.EDGE_RETRY_GROUP_ID, Field.EDGE_TIMESTAMP, Field.EDGE_STATUS, Field.EDGE_ERROR_TYPE);
+    private static final int SCAN_WINDOW = 64 * 1024;
+
+    private final FileChannel channel;
+    private final long start;
+    private final long end;
+    private final long chunkSize;
+    private final boolean keepEvents;
+
+    ChunkTask(FileChannel channel, long start, long end, long chunkSize, boolean keepEvents) {
+        this.channel = channel;
+        this.start = start;
+        this.end = end;
+        this.chunkSize = chunkSize;
+        this.keepEvents = keepEvents;
+    }
+
+    @Override
+    protected Partial compute() {
+        try {
+            if (end - start > chunkSize) {
+                long split = lineStartAfter(start + (end - start) / 2);
+                if (split < end) {
+                    ChunkTask first = new ChunkTask(channel, start, split, chunkSize, keepEvents);
+                    ChunkTask second = new ChunkTask(channel, split, end, chunkSize, keepEvents);
+                    first.fork();
+                    Partial secondResult = second.compute();
+                    return first.join().merge(secondResult);
+                }
+            }
+            return parse();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the position following the first newline at or after the given position, or the end of the region.
+     */
+    private long lineStartAfter(long position) throws IOException {
+        while (position < end) {
+            int length = (int) Math.min(SCAN_WINDOW, end - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            for (int i = 0; i < length; i++) {
+                if (window.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += length;
+        }
+        return end;
+    }
+
+    private Partial parse() throws IOException {
+        if (end - start > Integer.MAX_VALUE) {
+            throw new IOException("Line longer than " + Integer.MAX_VALUE + " bytes at position " + start);
+        }
+        Partial partial = new Partial();
+        FlowEventJsonParser parser = keepEvents ? FlowEventJsonParser.all() : HOP_FIELDS;
+        int length = (int) (end - start);
+        MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        int lineStart = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || region.get(i) == '\n') {
+                parseLine(partial, parser, region, lineStart, i);
+                lineStart = i + 1;
+            }
+        }
+        return partial;
+    }
+
+    private void parseLine(Partial partial, FlowEventJsonParser parser, MappedByteBuffer region, int lineStart, int lineEnd) {
+        if (isBlank(region, lineStart, lineEnd)) {
+            return;
+        }
+        FlowEvent event;
+        try {
+            event = parser.parse(region, lineStart, lineEnd - lineStart);
+        } catch (IllegalArgumentException e) {
+            partial.malformedLines++;
+            return;
+        }
+        partial.add(event, keepEvents);
+    }
+
+    private static boolean isBlank(MappedByteBuffer region, int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte b = region.get(i);
+            if (b != ' ' && b != '\t' && b != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,227 @@
+package no.cantara.flow.flowlogger.analyzer;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Summary statistics of the flows found in one or more flow event logs.
+ *
+ * @see FlowLogAnalyzer
+ */
+public class FlowLogAnalysis {
+
+    /**
+     * The path from a root event of a flow to one of its later events, and the time between the two.
+     */
+    public static class SlowPath {
+
+        private final String correlationId;
+        private final List<String> edgeIds;
+        private final Duration duration;
+
+        SlowPath(String correlationId, List<String> edgeIds, Duration duration) {
+            this.correlationId = correlationId;
+            this.edgeIds = Collections.unmodifiableList(edgeIds);
+            this.duration = duration;
+        }
+
+        public String getCorrelationId() {
+            return correlationId;
+        }
+
+        /**
+         * @return the edge ids of the path, root first.
+         */
+        public List<String> getEdgeIds() {
+            return edgeIds;
+        }
+
+        public Duration getDuration() {
+            return duration;
+        }
+
+        @Override
+        public String toString() {
+            return correlationId + " " + String.join(" -> ", edgeIds) + " " + duration;
+        }
+    }
+
+    private final long eventCount;
+    private final long malformedLineCount;
+    private long flowCount;
+    private final SortedMap<Integer, Long> hopCountDistribution = new TreeMap<>();
+    private long errorEdgeCount;
+    private final Map<String, Long> errorCounts = new HashMap<>();
+    private long retryGroupCount;
+    private long retriedEventCount;
+    private int maxRetryAttempts;
+    private final int slowestPathLimit;
+    private final PriorityQueue<SlowPath> slowestPaths = new PriorityQueue<>((a, b) -> a.duration.compareTo(b.duration));
+
+    FlowLogAnalysis(long eventCount, long malformedLineCount, int slowestPathLimit) {
+        this.eventCount = eventCount;
+        this.malformedLineCount = malformedLineCount;
+        this.slowestPathLimit = slowestPathLimit;
+    }
+
+    void addFlow(String correlationId, List<Hop> hops) {
+        flowCount++;
+        hopCountDistribution.merge(hops.size(), 1L, Long::sum);
+        Map<String, Hop> byEdgeId = new HashMap<>();
+        Map<String, Integer> retryGroups = null;
+        for (Hop hop : hops) {
+            if (hop.edgeId != null) {
+                byEdgeId.putIfAbsent(hop.edgeId, hop);
+            }
+            if (hop.isError()) {
+                errorEdgeCount++;
+                errorCounts.merge(hop.errorType != null ? hop.errorType : hop.status, 1L, Long::sum);
+            }
+            if (hop.retryGroupId != null) {
+                if (retryGroups == null) {
+                    retryGroups = new HashMap<>();
+                }
+                retryGroups.merge(hop.retryGroupId, 1, Integer::sum);
+            }
+        }
+        if (retryGroups != null) {
+            retryGroupCount += retryGroups.size();
+            for (int attempts : retryGroups.values()) {
+                retriedEventCount += attempts;
+                maxRetryAttempts = Math.max(maxRetryAttempts, attempts);
+            }
+        }
+        if (slowestPathLimit > 0) {
+            addSlowestPath(correlationId, hops, byEdgeId);
+        }
+    }
+
+    private void addSlowestPath(String correlationId, List<Hop> hops, Map<String, Hop> byEdgeId) {
+        Hop slowestEnd = null;
+        Hop slowestRoot = null;
+        long slowest = -1;
+        for (Hop hop : hops) {
+            if (hop.epochNanos == Hop.UNKNOWN_TIME) {
+                continue;
+            }
+            Hop root = root(hop, byEdgeId, hops.size());
+            if (root.epochNanos != Hop.UNKNOWN_TIME && hop.epochNanos - root.epochNanos > slowest) {
+                slowest = hop.epochNanos - root.epochNanos;
+                slowestEnd = hop;
+                slowestRoot = root;
+            }
+        }
+        if (slowestEnd == null || slowestEnd == slowestRoot) {
+            return;
+        }
+        if (slowestPaths.size() == slowestPathLimit && slowestPaths.peek().duration.toNanos() >= slowest) {
+            return;
+        }
+        List<String> edgeIds = new ArrayList<>();
+        for (Hop hop = slowestEnd; hop != null && edgeIds.size() < hops.size(); hop = parent(hop, byEdgeId)) {
+            edgeIds.add(hop.edgeId);
+        }
+        Collections.reverse(edgeIds);
+        slowestPaths.add(new SlowPath(correlationId, edgeIds, Duration.ofNanos(slowest)));
+        if (slowestPaths.size() > slowestPathLimit) {
+            slowestPaths.poll();
+        }
+    }
+
+    private static Hop root(Hop hop, Map<String, Hop> byEdgeId, int maxDepth) {
+        Hop root = hop;
+        Hop parent;
+        for (int depth = 0; depth < maxDepth && (parent = parent(root, byEdgeId)) != null; depth++) {
+            root = parent;
+        }
+        return root;
+    }
+
+    private static Hop parent(Hop hop, Map<String, Hop> byEdgeId) {
+        return hop.parentId == null ? null : byEdgeId.get(hop.parentId);
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @return the number of non-empty lines that could not be parsed as a flow event with a correlation id.
+     */
+    public long getMalformedLineCount() {
+        return malformedLineCount;
+    }
+
+    public long getFlowCount() {
+        return flowCount;
+    }
+
+    /**
+     * @return the number of flows by the number of events in the flow.
+     */
+    public SortedMap<Integer, Long> getHopCountDistribution() {
+        return Collections.unmodifiableSortedMap(hopCountDistribution);
+    }
+
+    /**
+     * @return the number of events with a status other than OK or with an error type.
+     */
+    public long getErrorEdgeCount() {
+        return errorEdgeCount;
+    }
+
+    /**
+     * @return the number of error edges by error type, or by status for error edges without error type.
+     */
+    public Map<String, Long> getErrorCounts() {
+        return Collections.unmodifiableMap(errorCounts);
+    }
+
+    /**
+     * @return the number of distinct retry group ids, counted per flow.
+     */
+    public long getRetryGroupCount() {
+        return retryGroupCount;
+    }
+
+    /**
+     * @return the number of events that belong to a retry group.
+     */
+    public long getRetriedEventCount() {
+        return retriedEventCount;
+    }
+
+    public int getMaxRetryAttempts() {
+        return maxRetryAttempts;
+    }
+
+    /**
+     * @return the slowest path of each of the slowest flows, slowest first.
+     */
+    public List<SlowPath> getSlowestPaths() {
+        List<SlowPath> paths = new ArrayList<>(slowestPaths);
+        paths.sort((a, b) -> b.duration.compareTo(a.duration));
+        return paths;
+    }
+
+    public void print(PrintStream out) {
+        out.println("events:          " + eventCount);
+        out.println("malformed lines: " + malformedLineCount);
+        out.println("flows:           " + flowCount);
+        out.println("events per flow: " + hopCountDistribution);
+        out.println("error edges:     " + errorEdgeCount + " " + errorCounts);
+        out.println("retry groups:    " + retryGroupCount + ", " + retriedEventCount + " events, max " + maxRetryAttempts + " attempts");
+        out.println("slowest paths:");
+        for (SlowPath path : getSlowestPaths()) {
+            out.println("  " + path);
+        }
+    }
+}
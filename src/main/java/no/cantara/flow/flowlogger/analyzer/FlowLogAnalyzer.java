@@ -0,0 +1,165 @@
+package no.cantara.flow.flowlogger.analyzer;
+
+import no.cantara.flow.flowlogger.graph.FlowGraph;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Offline analysis of newline-delimited json logs of flow events, as written by {@link
+ * no.cantara.flow.flowlogger.event.FlowEvent#toJson()} one event per line. Files are memory-mapped and split at
+ * newlines into chunks that are parsed in parallel on a fork/join pool. The per-chunk results are merged by
+ * correlation id, in log order, into a {@link FlowLogAnalysis}.
+ * <p>
+ * Only the fields needed for the statistics are kept per event, unless a graph listener is set, in which case all
+ * events are kept until the analysis is done.
+ * <p>
+ * Also runnable from the command line: {@code FlowLogAnalyzer [--threads n] [--top n] file...}
+ */
+public class FlowLogAnalyzer {
+
+    private final int parallelism;
+    private final long chunkSize;
+    private final int slowestPaths;
+    private final Consumer<FlowGraph> graphListener;
+
+    private FlowLogAnalyzer(Builder builder) {
+        this.parallelism = builder.parallelism;
+        this.chunkSize = builder.chunkSize;
+        this.slowestPaths = builder.slowestPaths;
+        this.graphListener = builder.graphListener;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @param files the log files, analyzed as if concatenated in the given order.
+     * @return the analysis.
+     * @throws IOException if a file cannot be read.
+     */
+    public FlowLogAnalysis analyze(Path... files) throws IOException {
+        List<FileChannel> channels = new ArrayList<>(files.length);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ChunkTask> tasks = new ArrayList<>(files.length);
+            for (Path file : files) {
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                channels.add(channel);
+                tasks.add(new ChunkTask(channel, 0, channel.size(), chunkSize, graphListener != null));
+            }
+            for (ChunkTask task : tasks) {
+                pool.execute(task);
+            }
+            Partial merged = new Partial();
+            for (ChunkTask task : tasks) {
+                merged.merge(task.join());
+            }
+            return summarize(merged);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+
+    private FlowLogAnalysis summarize(Partial merged) {
+        FlowLogAnalysis analysis = new FlowLogAnalysis(merged.events, merged.malformedLines, slowestPaths);
+        for (Map.Entry<String, Partial.Flow> entry : merged.flows.entrySet()) {
+            Partial.Flow flow = entry.getValue();
+            analysis.addFlow(entry.getKey(), flow.hops);
+            if (graphListener != null) {
+                graphListener.accept(new FlowGraph(entry.getKey(), FlowGraph.Completion.REPLAYED, flow.events));
+            }
+        }
+        return analysis;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Builder builder = builder();
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                builder.parallelism(Integer.parseInt(args[++i]));
+            } else if ("--top".equals(args[i]) && i + 1 < args.length) {
+                builder.slowestPaths(Integer.parseInt(args[++i]));
+            } else {
+                files.add(Paths.get(args[i]));
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: FlowLogAnalyzer [--threads n] [--top n] file...");
+            System.exit(2);
+        }
+        builder.build().analyze(files.toArray(new Path[0])).print(System.out);
+    }
+
+    public static class Builder {
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private long chunkSize = 16 * 1024 * 1024;
+        private int slowestPaths = 10;
+        private Consumer<FlowGraph> graphListener;
+
+        private Builder() {
+        }
+
+        /**
+         * @param parallelism the number of parsing threads, defaults to the number of available processors.
+         * @return this builder.
+         */
+        public Builder parallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("parallelism must be positive, was: " + parallelism);
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param chunkSize the size in bytes below which a part of a file is parsed by a single task.
+         * @return this builder.
+         */
+        public Builder chunkSize(long chunkSize) {
+            if (chunkSize < 1) {
+                throw new IllegalArgumentException("chunkSize must be positive, was: " + chunkSize);
+            }
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * @param slowestPaths the number of slowest flows to report the slowest path of.
+         * @return this builder.
+         */
+        public Builder slowestPaths(int slowestPaths) {
+            this.slowestPaths = Math.max(0, slowestPaths);
+            return this;
+        }
+
+        /**
+         * @param graphListener receives the graph of every flow when the analysis is done.
+         * @return this builder.
+         */
+        public Builder graphListener(Consumer<FlowGraph> graphListener) {
+            this.graphListener = graphListener;
+            return this;
+        }
+
+        public FlowLogAnalyzer build() {
+            return new FlowLogAnalyzer(this);
+        }
+    }
+}
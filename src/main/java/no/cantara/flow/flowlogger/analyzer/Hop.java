@@ -0,0 +1,43 @@
+package no.cantara.flow.flowlogger.analyzer;
+
+import no.cantara.flow.flowlogger.event.Edge;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.FlowHistory;
+
+/**
+ * The part of an event that the analyzer needs, kept instead of the event so that large logs fit in memory.
+ */
+final class Hop {
+
+    static final long UNKNOWN_TIME = Edge.UNKNOWN_TIME;
+
+    final String edgeId;
+    final String parentId;
+    final long epochNanos;
+    final String status;
+    final String errorType;
+    final String retryGroupId;
+
+    private Hop(String edgeId, String parentId, long epochNanos, String status, String errorType, String retryGroupId) {
+        this.edgeId = edgeId;
+        this.parentId = parentId;
+        this.epochNanos = epochNanos;
+        this.status = status;
+        this.errorType = errorType;
+        this.retryGroupId = retryGroupId;
+    }
+
+    static Hop of(FlowEvent event) {
+        FlowHistory history = event.getFlowHistory();
+        String parentId = history == null ? null : history.last();
+        Edge edge = event.getEdge();
+        if (edge == null) {
+            return new Hop(null, parentId, UNKNOWN_TIME, null, null, null);
+        }
+        return new Hop(edge.getId(), parentId, edge.getEpochNanos(), edge.getStatus(), edge.getErrorType(), edge.getRetryGroupId());
+    }
+
+    boolean isError() {
+        return errorType != null || (status != null && !"OK".equals(status));
+    }
+}
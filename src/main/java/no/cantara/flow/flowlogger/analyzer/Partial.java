@@ -0,0 +1,66 @@
+package no.cantara.flow.flowlogger.analyzer;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The events of one part of a log grouped by correlation id, merged with the results of the following parts.
+ */
+final class Partial {
+
+    static final class Flow {
+        final List<Hop> hops = new ArrayList<>(4);
+        List<FlowEvent> events; // only kept when graphs are requested
+
+        Flow append(Flow other) {
+            hops.addAll(other.hops);
+            if (events != null && other.events != null) {
+                events.addAll(other.events);
+            }
+            return this;
+        }
+    }
+
+    final Map<String, Flow> flows = new HashMap<>();
+    long events;
+    long malformedLines;
+
+    void add(FlowEvent event, boolean keepEvent) {
+        String correlationId = event.getCorrelationId();
+        if (correlationId == null) {
+            malformedLines++;
+            return;
+        }
+        events++;
+        Flow flow = flows.get(correlationId);
+        if (flow == null) {
+            flow = new Flow();
+            if (keepEvent) {
+                flow.events = new ArrayList<>(4);
+            }
+            flows.put(correlationId, flow);
+        }
+        flow.hops.add(Hop.of(event));
+        if (keepEvent) {
+            flow.events.add(event);
+        }
+    }
+
+    /**
+     * Add the results of the part that follows this part, keeping the events of each flow in log order.
+     *
+     * @return this.
+     */
+    Partial merge(Partial next) {
+        events += next.events;
+        malformedLines += next.malformedLines;
+        for (Map.Entry<String, Flow> entry : next.flows.entrySet()) {
+            flows.merge(entry.getKey(), entry.getValue(), Flow::append);
+        }
+        return this;
+    }
+}
@@ -0,0 +1,49 @@
+package no.cantara.flow.flowlogger.codec;
+
+/**
+ * Constants of the binary flow event format.
+ * <p>
+ * A stream starts with the magic bytes {@code 'F' 'L' 'B'} followed by the format version. Every record that follows
+ * starts with the {@code flowEventVersion} of the event and a presence bitmask of the optional sections. Integers are
+ * unsigned LEB128 varints, signed integers are zigzag encoded first. Strings that repeat across events, such as the
+ * reporter, node types and addresses and the edge status, are coded against a per-stream dictionary that both sides
+ * build up in the same order.
+ */
+final class BinaryFormat {
+
+    static final byte[] MAGIC = {'F', 'L', 'B'};
+    static final int FORMAT_VERSION = 1;
+
+    static final int HAS_HISTORY = 1;
+    static final int HAS_REPORTER = 1 << 1;
+    static final int HAS_SOURCE = 1 << 2;
+    static final int HAS_DESTINATION = 1 << 3;
+    static final int HAS_EDGE = 1 << 4;
+    static final int HAS_HISTORY_DIGEST = 1 << 5;
+
+    /**
+     * Dictionary coded strings: null.
+     */
+    static final int DICT_NULL = 0;
+    /**
+     * Dictionary coded strings: a literal that is added to the dictionary.
+     */
+    static final int DICT_ADD = 1;
+    /**
+     * Dictionary coded strings: a literal that is not added because the dictionary is full.
+     */
+    static final int DICT_LITERAL = 2;
+    /**
+     * Dictionary coded strings: values from this and up are references to dictionary entry (value - DICT_REF).
+     */
+    static final int DICT_REF = 3;
+
+    static final int TIMESTAMP_NULL = 0;
+    static final int TIMESTAMP_EPOCH = 1;
+    static final int TIMESTAMP_LITERAL = 2;
+
+    static final int DEFAULT_MAX_DICTIONARY_SIZE = 64 * 1024;
+
+    private BinaryFormat() {
+    }
+}
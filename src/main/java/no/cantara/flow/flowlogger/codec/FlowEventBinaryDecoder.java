@@ -0,0 +1,208 @@
+package no.cantara.flow.flowlogger.codec;
+
+import no.cantara.flow.flowlogger.event.Edge;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.FlowHistory;
+import no.cantara.flow.flowlogger.event.Node;
+import no.cantara.flow.flowlogger.event.Reporter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes a stream of flow events written by {@link FlowEventBinaryEncoder}. Events must be decoded in the order they
+ * were encoded, since the decoder rebuilds the string dictionary of the stream as it goes. Instances are not
+ * thread-safe.
+ */
+public class FlowEventBinaryDecoder {
+
+    private final int maxDictionarySize;
+    private final List<String> dictionary = new ArrayList<>();
+    private byte[] scratch = new byte[256];
+    private boolean headerRead;
+
+    public FlowEventBinaryDecoder() {
+        this(BinaryFormat.DEFAULT_MAX_DICTIONARY_SIZE);
+    }
+
+    /**
+     * @param maxDictionarySize the maximum number of distinct strings remembered per stream, must match the encoder.
+     */
+    public FlowEventBinaryDecoder(int maxDictionarySize) {
+        this.maxDictionarySize = maxDictionarySize;
+    }
+
+    /**
+     * Start a new stream. The next decoded event is expected to be preceded by a stream header.
+     */
+    public void reset() {
+        dictionary.clear();
+        headerRead = false;
+    }
+
+    /**
+     * @param encoded one or more encoded events.
+     * @return the first event.
+     */
+    public FlowEvent decode(byte[] encoded) {
+        return decode(ByteBuffer.wrap(encoded));
+    }
+
+    /**
+     * Decode the next event from the buffer, advancing its position past the event.
+     *
+     * @param in the buffer.
+     * @return the event, or null if the buffer has no remaining bytes.
+     * @throws IllegalArgumentException if the data is not a supported binary flow event stream.
+     */
+    public FlowEvent decode(ByteBuffer in) {
+        if (!in.hasRemaining()) {
+            return null;
+        }
+        if (!headerRead) {
+            for (byte b : BinaryFormat.MAGIC) {
+                if (in.get() != b) {
+                    throw new IllegalArgumentException("Not a binary flow event stream, bad magic bytes.");
+                }
+            }
+            int formatVersion = in.get();
+            if (formatVersion != BinaryFormat.FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported binary flow event format version: " + formatVersion);
+            }
+            headerRead = true;
+        }
+        String flowEventVersion = readDictionaryString(in);
+        if (!FlowEvent.VERSION.equals(flowEventVersion)) {
+            throw new IllegalArgumentException("Unsupported flowEventVersion: " + flowEventVersion);
+        }
+        int presence = readVarint(in);
+        String correlationId = readString(in);
+        FlowHistory history = null;
+        if ((presence & BinaryFormat.HAS_HISTORY) != 0) {
+            String[] ids = new String[readVarint(in)];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = readString(in);
+            }
+            if ((presence & BinaryFormat.HAS_HISTORY_DIGEST) != 0) {
+                long digest = readFixed64(in);
+                history = FlowHistory.of(digest, readVarint(in), ids);
+            } else {
+                history = FlowHistory.of(ids);
+            }
+        }
+        Reporter reporter = null;
+        if ((presence & BinaryFormat.HAS_REPORTER) != 0) {
+            reporter = new Reporter(readDictionaryString(in), readDictionaryString(in), readDictionaryString(in), readDictionaryString(in), readDictionaryString(in));
+        }
+        Node source = (presence & BinaryFormat.HAS_SOURCE) != 0 ? readNode(in) : null;
+        Node destination = (presence & BinaryFormat.HAS_DESTINATION) != 0 ? readNode(in) : null;
+        Edge edge = null;
+        if ((presence & BinaryFormat.HAS_EDGE) != 0) {
+            edge = readEdge(in);
+        }
+        return new FlowEvent(correlationId, history, reporter, source, destination, edge);
+    }
+
+    private Node readNode(ByteBuffer in) {
+        return new Node(readDictionaryString(in), readDictionaryString(in), readDictionaryString(in), readString(in));
+    }
+
+    /**
+     * Epoch timestamps are decoded without formatting, they are formatted if and when the edge timestamp is used.
+     */
+    private Edge readEdge(ByteBuffer in) {
+        String id = readString(in);
+        String retryGroupId = readString(in);
+        int kind = readVarint(in);
+        switch (kind) {
+            case BinaryFormat.TIMESTAMP_NULL:
+            case BinaryFormat.TIMESTAMP_LITERAL:
+                String timestamp = kind == BinaryFormat.TIMESTAMP_NULL ? null : readString(in);
+                return new Edge(id, retryGroupId, timestamp, readDictionaryString(in), readDictionaryString(in), readDictionaryString(in), readDictionaryString(in), readString(in));
+            case BinaryFormat.TIMESTAMP_EPOCH:
+                long epochNanos = unzigzag(readVarlong(in));
+                ZoneOffset offset = ZoneOffset.ofTotalSeconds((int) unzigzag(readVarlong(in)));
+                return new Edge(id, retryGroupId, epochNanos, offset, readDictionaryString(in), readDictionaryString(in), readDictionaryString(in), readDictionaryString(in), readString(in));
+            default:
+                throw new IllegalArgumentException("Unknown timestamp kind: " + kind);
+        }
+    }
+
+    private String readDictionaryString(ByteBuffer in) {
+        int tag = readVarint(in);
+        switch (tag) {
+            case BinaryFormat.DICT_NULL:
+                return null;
+            case BinaryFormat.DICT_ADD:
+                String added = readUtf8(in, readVarint(in));
+                if (dictionary.size() < maxDictionarySize) {
+                    dictionary.add(added);
+                }
+                return added;
+            case BinaryFormat.DICT_LITERAL:
+                return readUtf8(in, readVarint(in));
+            default:
+                int index = tag - BinaryFormat.DICT_REF;
+                if (index >= dictionary.size()) {
+                    throw new IllegalArgumentException("Unknown dictionary reference: " + index);
+                }
+                return dictionary.get(index);
+        }
+    }
+
+    private String readString(ByteBuffer in) {
+        int lengthPlusOne = readVarint(in);
+        if (lengthPlusOne == 0) {
+            return null;
+        }
+        return readUtf8(in, lengthPlusOne - 1);
+    }
+
+    private String readUtf8(ByteBuffer in, int byteLength) {
+        if (in.hasArray()) {
+            String value = new String(in.array(), in.arrayOffset() + in.position(), byteLength, StandardCharsets.UTF_8);
+            in.position(in.position() + byteLength);
+            return value;
+        }
+        if (scratch.length < byteLength) {
+            scratch = new byte[Math.max(byteLength, scratch.length * 2)];
+        }
+        in.get(scratch, 0, byteLength);
+        return new String(scratch, 0, byteLength, StandardCharsets.UTF_8);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readFixed64(ByteBuffer in) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value |= (in.get() & 0xFFL) << (8 * i);
+        }
+        return value;
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        long value = readVarlong(in);
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Varint out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    private static long readVarlong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint.");
+    }
+}
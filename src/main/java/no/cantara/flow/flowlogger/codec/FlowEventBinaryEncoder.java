@@ -0,0 +1,388 @@
+package no.cantara.flow.flowlogger.codec;
+
+import no.cantara.flow.flowlogger.event.Edge;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.FlowHistory;
+import no.cantara.flow.flowlogger.event.FlowTimestampFormat;
+import no.cantara.flow.flowlogger.event.Node;
+import no.cantara.flow.flowlogger.event.Reporter;
+import no.cantara.flow.flowlogger.metrics.FlowLoggerMetrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes a stream of flow events in the compact binary format described in {@link BinaryFormat}. The encoder is
+ * stateful: repeated strings are replaced by references to earlier occurrences in the same stream, so the events must
+ * be decoded in the same order by a single {@link FlowEventBinaryDecoder}. Instances are not thread-safe.
+ */
+public class FlowEventBinaryEncoder {
+
+    private final int maxDictionarySize;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final List<String> dictionaryOrder = new ArrayList<>();
+    private byte[] scratch = new byte[256];
+    private int length;
+    private boolean headerWritten;
+    private int dictionaryLiterals;
+
+    /*
+     * Encoded bytes of the last seen instance of each section, reused when the next event shares the instance, as
+     * events from FlowLogger.forReporter(...) and events using shared source or destination nodes do. Only sections
+     * encoded purely as dictionary references are cached, since those bytes stay valid until the stream is reset.
+     * Sections of the event being encoded are only cached once the event is written, since the dictionary entries
+     * they may refer to are rolled back if it is not.
+     */
+    private final Object[] cachedSections = new Object[3];
+    private final byte[][] cachedSectionBytes = new byte[3][];
+    private final Object[] pendingSections = new Object[3];
+    private final int[] pendingSectionStarts = new int[3];
+    private final int[] pendingSectionEnds = new int[3];
+    private int dictionarySizeAtSectionStart;
+    private int dictionaryLiteralsAtSectionStart;
+
+    public FlowEventBinaryEncoder() {
+        this(BinaryFormat.DEFAULT_MAX_DICTIONARY_SIZE);
+    }
+
+    /**
+     * @param maxDictionarySize the maximum number of distinct strings remembered per stream, must match the decoder.
+     */
+    public FlowEventBinaryEncoder(int maxDictionarySize) {
+        this.maxDictionarySize = maxDictionarySize;
+    }
+
+    /**
+     * Start a new stream. The next encoded event is preceded by a stream header and the dictionary is cleared.
+     */
+    public void reset() {
+        dictionary.clear();
+        dictionaryOrder.clear();
+        headerWritten = false;
+        Arrays.fill(cachedSections, null);
+        Arrays.fill(cachedSectionBytes, null);
+    }
+
+    /**
+     * Encode the event into the buffer, preceded by the stream header if this is the first event of the stream. If
+     * the buffer does not have enough room nothing is written and the encoder state is unchanged.
+     *
+     * @param event the event.
+     * @param out   the target buffer.
+     * @throws BufferOverflowException if the buffer does not have enough remaining space.
+     */
+    public void encode(FlowEvent event, ByteBuffer out) {
+        int dictionarySizeBefore = dictionaryOrder.size();
+        encodeToScratch(event);
+        if (out.remaining() < length) {
+            while (dictionaryOrder.size() > dictionarySizeBefore) {
+                dictionary.remove(dictionaryOrder.remove(dictionaryOrder.size() - 1));
+            }
+            throw new BufferOverflowException();
+        }
+        out.put(scratch, 0, length);
+        written();
+    }
+
+    /**
+     * Encode the event to the stream, preceded by the stream header if this is the first event of the stream.
+     *
+     * @param event the event.
+     * @param out   the target stream.
+     * @throws IOException if the stream throws.
+     */
+    public void encode(FlowEvent event, OutputStream out) throws IOException {
+        encodeToScratch(event);
+        written();
+        out.write(scratch, 0, length);
+    }
+
+    /**
+     * @param event the event.
+     * @return the encoded event, preceded by the stream header if this is the first event of the stream.
+     */
+    public byte[] encode(FlowEvent event) {
+        encodeToScratch(event);
+        written();
+        return Arrays.copyOf(scratch, length);
+    }
+
+    /**
+     * The event in scratch is part of the stream: the header is written and its sections can be reused.
+     */
+    private void written() {
+        headerWritten = true;
+        for (int section = 0; section < pendingSections.length; section++) {
+            if (pendingSections[section] != null) {
+                cachedSections[section] = pendingSections[section];
+                cachedSectionBytes[section] = Arrays.copyOfRange(scratch, pendingSectionStarts[section], pendingSectionEnds[section]);
+            }
+        }
+    }
+
+    private void encodeToScratch(FlowEvent event) {
+        FlowLoggerMetrics metrics = FlowLoggerMetrics.global();
+        long started = metrics.serializationStarted();
+        encodeFields(event);
+        metrics.serializationDone(started);
+    }
+
+    private void encodeFields(FlowEvent event) {
+        length = 0;
+        Arrays.fill(pendingSections, null);
+        if (!headerWritten) {
+            for (byte b : BinaryFormat.MAGIC) {
+                writeByte(b);
+            }
+            writeByte(BinaryFormat.FORMAT_VERSION);
+        }
+        writeDictionaryString(event.getFlowEventVersion());
+        FlowHistory history = event.getFlowHistory();
+        Reporter reporter = event.getReporter();
+        Node source = event.getSource();
+        Node destination = event.getDestination();
+        Edge edge = event.getEdge();
+        int presence = (history != null ? BinaryFormat.HAS_HISTORY : 0)
+                | (reporter != null ? BinaryFormat.HAS_REPORTER : 0)
+                | (source != null ? BinaryFormat.HAS_SOURCE : 0)
+                | (destination != null ? BinaryFormat.HAS_DESTINATION : 0)
+                | (edge != null ? BinaryFormat.HAS_EDGE : 0)
+                | (history != null && history.hasDigest() ? BinaryFormat.HAS_HISTORY_DIGEST : 0);
+        writeVarint(presence);
+        writeString(event.getCorrelationId());
+        if (history != null) {
+            int size = history.size();
+            writeVarint(size);
+            for (int i = 0; i < size; i++) {
+                writeString(history.get(i));
+            }
+            if (history.hasDigest()) {
+                writeFixed64(history.digest());
+                writeVarint(history.foldedCount());
+            }
+        }
+        if (reporter != null && !writeCachedSection(0, reporter)) {
+            int start = beginSection();
+            writeDictionaryString(reporter.getDeployment());
+            writeDictionaryString(reporter.getName());
+            writeDictionaryString(reporter.getVersion());
+            writeDictionaryString(reporter.getContainerId());
+            writeDictionaryString(reporter.getInstance());
+            endSection(0, reporter, start);
+        }
+        if (source != null && !writeCachedSection(1, source)) {
+            int start = beginSection();
+            writeNode(source);
+            endSection(1, source, start);
+        }
+        if (destination != null && !writeCachedSection(2, destination)) {
+            int start = beginSection();
+            writeNode(destination);
+            endSection(2, destination, start);
+        }
+        if (edge != null) {
+            writeString(edge.getId());
+            writeString(edge.getRetryGroupId());
+            writeTimestamp(edge);
+            writeDictionaryString(edge.getMilestone());
+            writeDictionaryString(edge.getStatus());
+            writeDictionaryString(edge.getErrorType());
+            writeDictionaryString(edge.getErrorReason());
+            writeString(edge.getComment());
+        }
+    }
+
+    private boolean writeCachedSection(int section, Object instance) {
+        if (cachedSections[section] != instance) {
+            return false;
+        }
+        byte[] bytes = cachedSectionBytes[section];
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, scratch, length, bytes.length);
+        length += bytes.length;
+        return true;
+    }
+
+    private int beginSection() {
+        dictionarySizeAtSectionStart = dictionaryOrder.size();
+        dictionaryLiteralsAtSectionStart = dictionaryLiterals;
+        return length;
+    }
+
+    private void endSection(int section, Object instance, int start) {
+        if (dictionaryOrder.size() == dictionarySizeAtSectionStart && dictionaryLiterals == dictionaryLiteralsAtSectionStart) {
+            pendingSections[section] = instance;
+            pendingSectionStarts[section] = start;
+            pendingSectionEnds[section] = length;
+        }
+    }
+
+    private void writeNode(Node node) {
+        writeDictionaryString(node.getType());
+        writeDictionaryString(node.getAddress());
+        writeDictionaryString(node.getPayloadType());
+        writeString(node.getPayloadId());
+    }
+
+    /**
+     * Timestamps produced by the builder are stored as epoch nanoseconds and offset seconds. Anything that would not
+     * format back to exactly the same string is stored as a literal.
+     */
+    private void writeTimestamp(Edge edge) {
+        if (edge.getTimestampZone() != null) {
+            writeVarint(BinaryFormat.TIMESTAMP_EPOCH);
+            writeVarlong(zigzag(edge.getEpochNanos()));
+            writeVarlong(zigzag(FlowTimestampFormat.offset(edge.getEpochNanos(), edge.getTimestampZone()).getTotalSeconds()));
+            return;
+        }
+        String timestamp = edge.getTimestamp();
+        if (timestamp == null) {
+            writeVarint(BinaryFormat.TIMESTAMP_NULL);
+            return;
+        }
+        OffsetDateTime parsed = null;
+        try {
+            parsed = OffsetDateTime.parse(timestamp, DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+        } catch (DateTimeParseException e) {
+            // stored as literal
+        }
+        if (parsed == null || !timestamp.equals(parsed.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME))
+                || Math.abs(parsed.toEpochSecond()) > Long.MAX_VALUE / 1_000_000_000L - 1) {
+            writeVarint(BinaryFormat.TIMESTAMP_LITERAL);
+            writeString(timestamp);
+            return;
+        }
+        writeVarint(BinaryFormat.TIMESTAMP_EPOCH);
+        writeVarlong(zigzag(parsed.toEpochSecond() * 1_000_000_000L + parsed.getNano()));
+        writeVarlong(zigzag(parsed.getOffset().getTotalSeconds()));
+    }
+
+    private void writeDictionaryString(String value) {
+        if (value == null) {
+            writeVarint(BinaryFormat.DICT_NULL);
+            return;
+        }
+        Integer index = dictionary.get(value);
+        if (index != null) {
+            writeVarint(BinaryFormat.DICT_REF + index);
+            return;
+        }
+        if (dictionaryOrder.size() < maxDictionarySize) {
+            dictionary.put(value, dictionaryOrder.size());
+            dictionaryOrder.add(value);
+            writeVarint(BinaryFormat.DICT_ADD);
+        } else {
+            dictionaryLiterals++;
+            writeVarint(BinaryFormat.DICT_LITERAL);
+        }
+        writeUtf8(value);
+    }
+
+    /**
+     * Literal string: 0 for null, otherwise UTF-8 byte length + 1 followed by the bytes.
+     */
+    private void writeString(String value) {
+        if (value == null) {
+            writeVarint(0);
+            return;
+        }
+        writeUtf8WithLengthOffset(value, 1);
+    }
+
+    private void writeUtf8(String value) {
+        writeUtf8WithLengthOffset(value, 0);
+    }
+
+    private void writeUtf8WithLengthOffset(String value, int lengthOffset) {
+        int utf8Length = utf8Length(value);
+        writeVarint(utf8Length + lengthOffset);
+        ensureCapacity(utf8Length);
+        int n = value.length();
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                scratch[length++] = (byte) c;
+            } else if (c < 0x800) {
+                scratch[length++] = (byte) (0xC0 | (c >> 6));
+                scratch[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                scratch[length++] = (byte) (0xF0 | (codePoint >> 18));
+                scratch[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                scratch[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                scratch[length++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                scratch[length++] = '?';
+            } else {
+                scratch[length++] = (byte) (0xE0 | (c >> 12));
+                scratch[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                scratch[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    static int utf8Length(String value) {
+        int n = value.length();
+        int bytes = n;
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    bytes += 2; // 4 bytes for 2 chars
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        scratch[length++] = (byte) b;
+    }
+
+    private void writeFixed64(long value) {
+        ensureCapacity(8);
+        for (int i = 0; i < 8; i++) {
+            scratch[length++] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private void writeVarint(int value) {
+        writeVarlong(value & 0xFFFFFFFFL);
+    }
+
+    private void writeVarlong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            scratch[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        scratch[length++] = (byte) value;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > scratch.length) {
+            scratch = Arrays.copyOf(scratch, Math.max(scratch.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package no.cantara.flow.flowlogger.collector;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct buffers of one size, so connections that come and go do not allocate direct memory each time.
+ * Buffers beyond the maximum number of idle buffers are left to the garbage collector.
+ */
+final class DirectBufferPool {
+
+    private final int bufferSize;
+    private final int maxIdle;
+    private final ConcurrentLinkedQueue<ByteBuffer> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    DirectBufferPool(int bufferSize, int maxIdle) {
+        this.bufferSize = bufferSize;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * @return a cleared buffer.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = idle.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        idleCount.decrementAndGet();
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            buffer.clear();
+            idle.offer(buffer);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+
+    int idleCount() {
+        return idleCount.get();
+    }
+}
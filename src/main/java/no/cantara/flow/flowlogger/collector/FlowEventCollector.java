@@ -0,0 +1,661 @@
+package no.cantara.flow.flowlogger.collector;
+
+import no.cantara.flow.flowlogger.codec.FlowEventBinaryDecoder;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.FlowEventJsonParser;
+import no.cantara.flow.flowlogger.sink.FlowEventDestination;
+import no.cantara.flow.flowlogger.sink.FlowEventSink;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Embedded collector that receives flow events from other processes over TCP and UDP, as frames of json or binary
+ * encoded events, see {@link FrameFormat}.
+ * <p>
+ * A few selector threads serve all connections: the first accepts connections, which are spread over the selector
+ * threads, and reads the UDP socket. Each connection reads into a direct buffer taken from a pool, and frames are
+ * decoded straight from that buffer. The events decoded in one round of a selector thread are handed off as a batch
+ * to a single consumer thread that writes them to the {@link FlowEventDestination}, so the destination, e.g. an
+ * {@link no.cantara.flow.flowlogger.sink.NdjsonDestination} or a sink such as a
+ * {@link no.cantara.flow.flowlogger.graph.FlowGraphAssembler}, does not need to be thread-safe. When the destination
+ * falls behind, the hand-off queue fills up and the selector threads stop reading, which pushes back on TCP senders
+ * through flow control. UDP datagrams that arrive meanwhile are dropped by the operating system.
+ * <p>
+ * A frame that is not a valid event is skipped if it is json. A bad binary frame closes its connection, since the
+ * rest of the binary stream cannot be decoded without it.
+ * <p>
+ * Example:
+ * <pre>
+ * FlowEventCollector collector = FlowEventCollector.builder(graphAssembler)
+ *         .tcpPort(4560)
+ *         .udpPort(4560)
+ *         .open();
+ * </pre>
+ *
+ * @see TcpCollectorDestination
+ * @see UdpCollectorDestination
+ */
+public class FlowEventCollector implements AutoCloseable {
+
+    private static final List<FlowEvent> END = new ArrayList<>(0);
+
+    private final FlowEventDestination destination;
+    private final Consumer<Exception> errorHandler;
+    private final int batchSize;
+    private final DirectBufferPool buffers;
+    private final ServerSocketChannel server;
+    private final DatagramChannel udp;
+    private final SelectorThread[] selectors;
+    private final BlockingQueue<List<FlowEvent>> handOff;
+    private final Thread consumer;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private volatile boolean closed;
+
+    private FlowEventCollector(Builder builder) throws IOException {
+        this.destination = builder.destination;
+        this.errorHandler = builder.errorHandler;
+        this.batchSize = builder.batchSize;
+        this.buffers = new DirectBufferPool(Frames.HEADER_SIZE + builder.maxFrameSize, builder.maxIdleBuffers);
+        this.handOff = new ArrayBlockingQueue<>(builder.handOffCapacity);
+        this.selectors = new SelectorThread[builder.selectorThreads];
+        ServerSocketChannel serverChannel = null;
+        DatagramChannel udpChannel = null;
+        try {
+            for (int i = 0; i < selectors.length; i++) {
+                selectors[i] = new SelectorThread(builder.threadName + "-selector-" + i);
+            }
+            if (builder.tcpPort >= 0) {
+                serverChannel = ServerSocketChannel.open();
+                serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                serverChannel.bind(new InetSocketAddress(builder.bindAddress, builder.tcpPort), builder.backlog);
+                serverChannel.configureBlocking(false);
+                serverChannel.register(selectors[0].selector, SelectionKey.OP_ACCEPT);
+            }
+            if (builder.udpPort >= 0) {
+                udpChannel = DatagramChannel.open();
+                udpChannel.setOption(StandardSocketOptions.SO_RCVBUF, builder.udpReceiveBufferSize);
+                udpChannel.bind(new InetSocketAddress(builder.bindAddress, builder.udpPort));
+                udpChannel.configureBlocking(false);
+                udpChannel.register(selectors[0].selector, SelectionKey.OP_READ);
+            }
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(serverChannel);
+            closeQuietly(udpChannel);
+            for (SelectorThread selector : selectors) {
+                if (selector != null) {
+                    closeQuietly(selector.selector);
+                }
+            }
+            throw e;
+        }
+        this.server = serverChannel;
+        this.udp = udpChannel;
+        this.consumer = new Thread(this::consume, builder.threadName + "-consumer");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+        for (SelectorThread selector : selectors) {
+            selector.thread.start();
+        }
+    }
+
+    /**
+     * @param destination receives the batches of collected events, and is closed with the collector.
+     * @return a builder.
+     */
+    public static Builder builder(FlowEventDestination destination) {
+        return new Builder(destination);
+    }
+
+    /**
+     * @param sink receives the collected events from the consumer thread, and is flushed when the collector is idle
+     *             and closed with the collector.
+     * @return a builder.
+     */
+    public static Builder builder(FlowEventSink sink) {
+        if (sink == null) {
+            throw new IllegalArgumentException("sink cannot be null");
+        }
+        return new Builder(new SinkDestination(sink));
+    }
+
+    private static final class SinkDestination implements FlowEventDestination {
+        private final FlowEventSink sink;
+
+        SinkDestination(FlowEventSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void write(List<FlowEvent> batch) {
+            for (int i = 0; i < batch.size(); i++) {
+                sink.publish(batch.get(i));
+            }
+        }
+
+        @Override
+        public void flush() {
+            sink.flush();
+        }
+
+        @Override
+        public void close() {
+            sink.close();
+        }
+    }
+
+    /**
+     * A TCP connection with its pooled read buffer and, if it sends binary frames, the decoder of its stream.
+     */
+    private static final class Connection {
+        final SocketChannel channel;
+        final ByteBuffer buffer;
+        FlowEventBinaryDecoder decoder;
+
+        Connection(SocketChannel channel, ByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        FlowEventBinaryDecoder decoder() {
+            if (decoder == null) {
+                decoder = new FlowEventBinaryDecoder();
+            }
+            return decoder;
+        }
+    }
+
+    private final class SelectorThread implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        final ConcurrentLinkedQueue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+        final FlowEventBinaryDecoder datagramDecoder = new FlowEventBinaryDecoder();
+        ByteBuffer datagramBuffer;
+        List<FlowEvent> batch;
+        int nextSelector;
+
+        SelectorThread(String name) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        void register(SocketChannel channel) {
+            registrations.offer(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            batch = new ArrayList<>(batchSize);
+            try {
+                while (!closed) {
+                    selector.select();
+                    SocketChannel registration;
+                    while ((registration = registrations.poll()) != null) {
+                        connections.incrementAndGet();
+                        try {
+                            registration.register(selector, SelectionKey.OP_READ, new Connection(registration, buffers.acquire()));
+                        } catch (IOException e) {
+                            connections.decrementAndGet();
+                            closeQuietly(registration);
+                        }
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        try {
+                            if (key.isAcceptable()) {
+                                accept();
+                            } else if (key.channel() == udp) {
+                                receive();
+                            } else {
+                                read(key);
+                            }
+                        } catch (IOException e) {
+                            if (!closed) {
+                                errorHandler.accept(e);
+                            }
+                        }
+                        if (batch.size() >= batchSize) {
+                            handOff();
+                        }
+                    }
+                    handOff();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (!closed) {
+                    errorHandler.accept(e);
+                }
+            } finally {
+                handOff();
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        disconnect(key);
+                    }
+                }
+                closeQuietly(selector);
+                if (datagramBuffer != null) {
+                    buffers.release(datagramBuffer);
+                }
+            }
+        }
+
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = server.accept()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                    continue;
+                }
+                selectors[nextSelector].register(channel);
+                nextSelector = (nextSelector + 1) % selectors.length;
+            }
+        }
+
+        private void read(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            int read;
+            try {
+                read = connection.channel.read(connection.buffer);
+            } catch (IOException e) {
+                disconnect(key);
+                return;
+            }
+            ByteBuffer buffer = connection.buffer;
+            buffer.flip();
+            boolean valid = decodeFrames(buffer, connection);
+            buffer.compact();
+            if (!valid || read < 0) {
+                disconnect(key);
+            }
+        }
+
+        private void receive() throws IOException {
+            if (datagramBuffer == null) {
+                datagramBuffer = buffers.acquire();
+            }
+            while (udp.receive(datagramBuffer) != null) {
+                datagramBuffer.flip();
+                datagramDecoder.reset(); // every datagram is a binary stream of its own
+                if (decodeFrames(datagramBuffer, null) && datagramBuffer.hasRemaining()) {
+                    rejected.incrementAndGet(); // a frame cut off by the end of the datagram
+                }
+                datagramBuffer.clear();
+                if (batch.size() >= batchSize) {
+                    handOff();
+                }
+            }
+        }
+
+        /**
+         * Decode the complete frames in the buffer, leaving its position at the first incomplete frame.
+         *
+         * @param connection the connection, or null for a datagram.
+         * @return false if the rest of the stream cannot be decoded.
+         */
+        private boolean decodeFrames(ByteBuffer buffer, Connection connection) {
+            while (buffer.remaining() >= Frames.HEADER_SIZE) {
+                int start = buffer.position();
+                FrameFormat format = FrameFormat.of(buffer.get(start));
+                int length = buffer.getInt(start + 1);
+                if (format == null || length < 0 || length > buffer.capacity() - Frames.HEADER_SIZE) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+                if (buffer.remaining() < Frames.HEADER_SIZE + length) {
+                    return true;
+                }
+                int payload = start + Frames.HEADER_SIZE;
+                buffer.position(payload + length);
+                try {
+                    FlowEvent event;
+                    if (format == FrameFormat.JSON) {
+                        event = FlowEventJsonParser.all().parse(buffer, payload, length);
+                    } else {
+                        ByteBuffer frame = buffer.duplicate();
+                        frame.position(payload).limit(payload + length);
+                        event = (connection != null ? connection.decoder() : datagramDecoder).decode(frame);
+                    }
+                    batch.add(event);
+                    received.incrementAndGet();
+                } catch (RuntimeException e) {
+                    rejected.incrementAndGet();
+                    if (format == FrameFormat.BINARY) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private void disconnect(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            key.cancel();
+            closeQuietly(connection.channel);
+            buffers.release(connection.buffer);
+            connections.decrementAndGet();
+        }
+
+        /**
+         * Pass the batch to the consumer thread, waiting while the consumer is behind.
+         */
+        private void handOff() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                handOff.put(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejected.addAndGet(batch.size());
+            }
+            batch = new ArrayList<>(batchSize);
+        }
+    }
+
+    private void consume() {
+        boolean dirty = false;
+        while (true) {
+            List<FlowEvent> batch = handOff.poll();
+            try {
+                if (batch == null) {
+                    if (dirty) {
+                        destination.flush();
+                        dirty = false;
+                    }
+                    batch = handOff.take();
+                }
+                if (batch == END) {
+                    break;
+                }
+                destination.write(batch);
+                dirty = true;
+            } catch (IOException | RuntimeException e) {
+                errorHandler.accept(e);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        try {
+            destination.flush();
+            destination.close();
+        } catch (IOException | RuntimeException e) {
+            errorHandler.accept(e);
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return the address the TCP socket is bound to, or null if TCP is disabled.
+     */
+    public InetSocketAddress getTcpAddress() {
+        return server == null ? null : new InetSocketAddress(server.socket().getInetAddress(), server.socket().getLocalPort());
+    }
+
+    /**
+     * @return the address the UDP socket is bound to, or null if UDP is disabled.
+     */
+    public InetSocketAddress getUdpAddress() {
+        return udp == null ? null : new InetSocketAddress(udp.socket().getLocalAddress(), udp.socket().getLocalPort());
+    }
+
+    /**
+     * @return the number of events received and handed off to the destination.
+     */
+    public long receivedCount() {
+        return received.get();
+    }
+
+    /**
+     * @return the number of frames that could not be decoded.
+     */
+    public long rejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the number of open TCP connections.
+     */
+    public int connectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * Stop accepting and reading, close all connections, and close the destination after it has received every
+     * event read so far.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closeQuietly(server);
+        closeQuietly(udp);
+        boolean interrupted = false;
+        for (SelectorThread selector : selectors) {
+            selector.selector.wakeup();
+            interrupted |= join(selector.thread);
+        }
+        while (true) {
+            try {
+                handOff.put(END);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        interrupted |= join(consumer);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return true if the current thread was interrupted while waiting.
+     */
+    private static boolean join(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        return interrupted;
+    }
+
+    public static class Builder {
+        private final FlowEventDestination destination;
+        private InetAddress bindAddress = InetAddress.getLoopbackAddress();
+        private int tcpPort = 0;
+        private int udpPort = -1;
+        private int backlog = 128;
+        private int selectorThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+        private int maxFrameSize = Frames.DEFAULT_MAX_FRAME_SIZE;
+        private int maxIdleBuffers = 256;
+        private int udpReceiveBufferSize = 4 * 1024 * 1024;
+        private int batchSize = 256;
+        private int handOffCapacity = 64;
+        private String threadName = "flow-event-collector";
+        private Consumer<Exception> errorHandler = e -> {
+        };
+
+        private Builder(FlowEventDestination destination) {
+            if (destination == null) {
+                throw new IllegalArgumentException("destination cannot be null");
+            }
+            this.destination = destination;
+        }
+
+        /**
+         * @param bindAddress the local address to listen on. Defaults to the loopback address, use
+         *                    {@code new InetSocketAddress(0).getAddress()} to listen on all interfaces.
+         * @return this builder.
+         */
+        public Builder bindAddress(InetAddress bindAddress) {
+            if (bindAddress == null) {
+                throw new IllegalArgumentException("bindAddress cannot be null");
+            }
+            this.bindAddress = bindAddress;
+            return this;
+        }
+
+        /**
+         * @param tcpPort the TCP port, 0 for any free port or -1 to disable TCP. Defaults to 0.
+         * @return this builder.
+         */
+        public Builder tcpPort(int tcpPort) {
+            if (tcpPort < -1 || tcpPort > 65535) {
+                throw new IllegalArgumentException("tcpPort out of range: " + tcpPort);
+            }
+            this.tcpPort = tcpPort;
+            return this;
+        }
+
+        /**
+         * @param udpPort the UDP port, 0 for any free port or -1 to disable UDP. Defaults to -1.
+         * @return this builder.
+         */
+        public Builder udpPort(int udpPort) {
+            if (udpPort < -1 || udpPort > 65535) {
+                throw new IllegalArgumentException("udpPort out of range: " + udpPort);
+            }
+            this.udpPort = udpPort;
+            return this;
+        }
+
+        public Builder backlog(int backlog) {
+            this.backlog = backlog;
+            return this;
+        }
+
+        /**
+         * @param selectorThreads the number of threads reading from the sockets. Defaults to half the available
+         *                        processors, between 1 and 4.
+         * @return this builder.
+         */
+        public Builder selectorThreads(int selectorThreads) {
+            if (selectorThreads < 1) {
+                throw new IllegalArgumentException("selectorThreads must be positive, was: " + selectorThreads);
+            }
+            this.selectorThreads = selectorThreads;
+            return this;
+        }
+
+        /**
+         * @param maxFrameSize the largest accepted frame payload in bytes, and the size of the pooled read buffers.
+         *                     A connection sending a larger frame is closed. Defaults to 64 KiB.
+         * @return this builder.
+         */
+        public Builder maxFrameSize(int maxFrameSize) {
+            if (maxFrameSize < 1) {
+                throw new IllegalArgumentException("maxFrameSize must be positive, was: " + maxFrameSize);
+            }
+            this.maxFrameSize = maxFrameSize;
+            return this;
+        }
+
+        /**
+         * @param maxIdleBuffers the maximum number of read buffers kept for reuse by new connections.
+         * @return this builder.
+         */
+        public Builder maxIdleBuffers(int maxIdleBuffers) {
+            this.maxIdleBuffers = maxIdleBuffers;
+            return this;
+        }
+
+        public Builder udpReceiveBufferSize(int udpReceiveBufferSize) {
+            this.udpReceiveBufferSize = udpReceiveBufferSize;
+            return this;
+        }
+
+        /**
+         * @param batchSize the maximum number of events handed off to the destination at a time.
+         * @return this builder.
+         */
+        public Builder batchSize(int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("batchSize must be positive, was: " + batchSize);
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * @param handOffCapacity the number of batches waiting for the destination before reading stops.
+         * @return this builder.
+         */
+        public Builder handOffCapacity(int handOffCapacity) {
+            if (handOffCapacity < 1) {
+                throw new IllegalArgumentException("handOffCapacity must be positive, was: " + handOffCapacity);
+            }
+            this.handOffCapacity = handOffCapacity;
+            return this;
+        }
+
+        public Builder threadName(String threadName) {
+            this.threadName = threadName;
+            return this;
+        }
+
+        /**
+         * @param errorHandler receives exceptions thrown by the destination or the selectors. Defaults to ignoring
+         *                     them.
+         * @return this builder.
+         */
+        public Builder errorHandler(Consumer<Exception> errorHandler) {
+            if (errorHandler == null) {
+                throw new IllegalArgumentException("errorHandler cannot be null");
+            }
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        public FlowEventCollector open() throws IOException {
+            if (tcpPort < 0 && udpPort < 0) {
+                throw new IllegalArgumentException("Both TCP and UDP are disabled");
+            }
+            return new FlowEventCollector(this);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package no.cantara.flow.flowlogger.collector;
+
+/**
+ * The payload format of a frame sent to a {@link FlowEventCollector}.
+ */
+public enum FrameFormat {
+
+    /**
+     * The UTF-8 json of one event, readable by any peer.
+     */
+    JSON(1),
+
+    /**
+     * One event in the format of {@link no.cantara.flow.flowlogger.codec.FlowEventBinaryEncoder}. The frames of a TCP
+     * connection, or of a single UDP datagram, form one binary stream, so repeated strings are only sent once.
+     */
+    BINARY(2);
+
+    private final byte code;
+
+    FrameFormat(int code) {
+        this.code = (byte) code;
+    }
+
+    byte code() {
+        return code;
+    }
+
+    /**
+     * @return the format with the given code, or null if unknown.
+     */
+    static FrameFormat of(byte code) {
+        for (FrameFormat format : values()) {
+            if (format.code == code) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,49 @@
+package no.cantara.flow.flowlogger.collector;
+
+import no.cantara.flow.flowlogger.codec.FlowEventBinaryEncoder;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.FlowEventJsonWriter;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Frame layout shared by the collector and the senders.
+ * <p>
+ * A frame is a 1 byte {@link FrameFormat} code, a 4 byte big-endian payload length and the payload. A TCP connection
+ * is a sequence of frames, and so is each UDP datagram.
+ */
+final class Frames {
+
+    static final int HEADER_SIZE = 5;
+    static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024;
+
+    private Frames() {
+    }
+
+    /**
+     * Write the event as a frame at the position of the buffer.
+     *
+     * @throws BufferOverflowException if the frame does not fit, in which case the buffer and the encoder are left
+     *                                 unchanged.
+     */
+    static void write(FlowEvent event, FrameFormat format, FlowEventBinaryEncoder encoder, ByteBuffer out) {
+        int start = out.position();
+        if (out.remaining() <= HEADER_SIZE) {
+            throw new BufferOverflowException();
+        }
+        out.position(start + HEADER_SIZE);
+        try {
+            if (format == FrameFormat.JSON) {
+                FlowEventJsonWriter.write(event, out);
+            } else {
+                encoder.encode(event, out);
+            }
+        } catch (BufferOverflowException e) {
+            out.position(start);
+            throw e;
+        }
+        out.put(start, format.code());
+        out.putInt(start + 1, out.position() - start - HEADER_SIZE);
+    }
+}
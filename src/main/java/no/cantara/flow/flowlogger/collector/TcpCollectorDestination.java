@@ -0,0 +1,328 @@
+package no.cantara.flow.flowlogger.collector;
+
+import no.cantara.flow.flowlogger.codec.FlowEventBinaryEncoder;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.metrics.FlowLoggerMetrics;
+import no.cantara.flow.flowlogger.sink.FlowEventDestination;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Sends events to a {@link FlowEventCollector} over TCP. Frames are encoded into a direct buffer that is written to
+ * the socket when it is full and on flush, so a batch costs few system calls.
+ * <p>
+ * When the connection breaks, the destination reconnects with exponential backoff and sends again the events whose
+ * frames were not yet written, so the collector may see an event twice but sees every event, unless reconnecting
+ * takes longer than the reconnect timeout, in which case the unsent events are dropped and an IOException thrown.
+ * Events that were written to a socket that turns out to be broken are lost, as with any TCP sender without
+ * acknowledgements. An event whose frame is larger than the send buffer is skipped, counted in
+ * {@link #oversizeCount()} and reported to the error handler, and the rest of the batch is sent.
+ * <p>
+ * Use it behind an {@link no.cantara.flow.flowlogger.sink.AsyncFlowEventSink}, which batches the events and applies
+ * its backpressure policy while the destination is waiting for the collector:
+ * <pre>
+ * AsyncFlowEventSink sender = AsyncFlowEventSink.builder()
+ *         .destination(TcpCollectorDestination.builder(new InetSocketAddress("localhost", 4560)).build())
+ *         .policy(BackpressurePolicy.DROP_OLDEST)
+ *         .build();
+ * </pre>
+ * Like every destination, instances are only used by one thread at a time.
+ */
+public class TcpCollectorDestination implements FlowEventDestination {
+
+    private final InetSocketAddress address;
+    private final FrameFormat format;
+    private final int connectTimeoutMillis;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final long reconnectTimeoutNanos;
+    private final ByteBuffer buffer;
+    private final FlowEventBinaryEncoder encoder = new FlowEventBinaryEncoder();
+    private final List<FlowEvent> unsent = new ArrayList<>();
+    private final Consumer<Exception> errorHandler;
+
+    private SocketChannel channel;
+    private long connects;
+    private long oversize;
+
+    private TcpCollectorDestination(Builder builder) {
+        this.address = builder.address;
+        this.format = builder.format;
+        this.connectTimeoutMillis = (int) Math.min(Integer.MAX_VALUE, builder.connectTimeout.toMillis());
+        this.initialBackoffNanos = builder.initialBackoff.toNanos();
+        this.maxBackoffNanos = builder.maxBackoff.toNanos();
+        this.reconnectTimeoutNanos = builder.reconnectTimeout.toNanos();
+        this.buffer = ByteBuffer.allocateDirect(builder.bufferSize);
+        this.errorHandler = builder.errorHandler;
+    }
+
+    /**
+     * @param address the TCP address of the collector.
+     * @return a builder.
+     */
+    public static Builder builder(InetSocketAddress address) {
+        return new Builder(address);
+    }
+
+    @Override
+    public void write(List<FlowEvent> batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            FlowEvent event = batch.get(i);
+            if (append(event)) {
+                unsent.add(event);
+            }
+        }
+    }
+
+    /**
+     * @return false if the event is larger than the buffer and was skipped.
+     */
+    private boolean append(FlowEvent event) throws IOException {
+        try {
+            Frames.write(event, format, encoder, buffer);
+        } catch (BufferOverflowException e) {
+            if (buffer.position() == 0) {
+                return tooLarge(event);
+            }
+            send();
+            try {
+                Frames.write(event, format, encoder, buffer);
+            } catch (BufferOverflowException tooLarge) {
+                return tooLarge(event);
+            }
+        }
+        return true;
+    }
+
+    private boolean tooLarge(FlowEvent event) {
+        oversize++;
+        errorHandler.accept(new IllegalArgumentException("Event with edge.id " + (event.getEdge() == null ? null : event.getEdge().getId()) + " is larger than the buffer size " + buffer.capacity() + ", dropped"));
+        return false;
+    }
+
+    /**
+     * Write the buffered frames, reconnecting and sending the unsent events again if the connection breaks.
+     */
+    private void send() throws IOException {
+        long deadline = System.nanoTime() + reconnectTimeoutNanos;
+        long backoff = initialBackoffNanos;
+        while (true) {
+            try {
+                if (channel == null) {
+                    connect();
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    FlowLoggerMetrics.global().bytesWritten(channel.write(buffer));
+                }
+                buffer.clear();
+                unsent.clear();
+                return;
+            } catch (IOException e) {
+                disconnect();
+                if (System.nanoTime() + backoff - deadline > 0) {
+                    abandon();
+                    throw e;
+                }
+                try {
+                    sleep(backoff);
+                } catch (InterruptedIOException interrupted) {
+                    abandon();
+                    throw interrupted;
+                }
+                backoff = Math.min(maxBackoffNanos, backoff * 2);
+                reencode();
+            }
+        }
+    }
+
+    /**
+     * Drop the unsent events and start the next connection as a new binary stream, with its own header and
+     * dictionary.
+     */
+    private void abandon() {
+        buffer.clear();
+        unsent.clear();
+        encoder.reset();
+    }
+
+    private void connect() throws IOException {
+        SocketChannel socket = SocketChannel.open();
+        try {
+            socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            socket.socket().connect(address, connectTimeoutMillis);
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+        channel = socket;
+        connects++;
+    }
+
+    private void disconnect() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * A new connection is a new binary stream, so the unsent events are encoded again from scratch.
+     */
+    private void reencode() throws IOException {
+        buffer.clear();
+        encoder.reset();
+        List<FlowEvent> events = new ArrayList<>(unsent);
+        unsent.clear();
+        for (FlowEvent event : events) {
+            if (append(event)) {
+                unsent.add(event);
+            }
+        }
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reconnecting");
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (buffer.position() > 0) {
+            send();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            disconnect();
+        }
+    }
+
+    /**
+     * @return the number of times a connection was established.
+     */
+    public long connectCount() {
+        return connects;
+    }
+
+    /**
+     * @return the number of events dropped because they were larger than the send buffer.
+     */
+    public long oversizeCount() {
+        return oversize;
+    }
+
+    public static class Builder {
+        private final InetSocketAddress address;
+        private FrameFormat format = FrameFormat.BINARY;
+        private int bufferSize = 64 * 1024;
+        private Duration connectTimeout = Duration.ofSeconds(5);
+        private Duration initialBackoff = Duration.ofMillis(100);
+        private Duration maxBackoff = Duration.ofSeconds(5);
+        private Duration reconnectTimeout = Duration.ofSeconds(30);
+        private Consumer<Exception> errorHandler = e -> {
+        };
+
+        private Builder(InetSocketAddress address) {
+            if (address == null) {
+                throw new IllegalArgumentException("address cannot be null");
+            }
+            this.address = address;
+        }
+
+        /**
+         * @param format the frame format. Defaults to binary.
+         * @return this builder.
+         */
+        public Builder format(FrameFormat format) {
+            if (format == null) {
+                throw new IllegalArgumentException("format cannot be null");
+            }
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * @param bufferSize the size of the send buffer, which limits the size of one event. Must not be larger than
+         *                   the collector's maximum frame size. Defaults to 64 KiB.
+         * @return this builder.
+         */
+        public Builder bufferSize(int bufferSize) {
+            if (bufferSize <= Frames.HEADER_SIZE) {
+                throw new IllegalArgumentException("bufferSize too small: " + bufferSize);
+            }
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        public Builder connectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * @param initialBackoff the wait before the first reconnect, doubled for each failed attempt up to
+         *                       maxBackoff.
+         * @param maxBackoff     the longest wait between reconnects.
+         * @return this builder.
+         */
+        public Builder backoff(Duration initialBackoff, Duration maxBackoff) {
+            if (initialBackoff == null || initialBackoff.isNegative() || maxBackoff == null || maxBackoff.compareTo(initialBackoff) < 0) {
+                throw new IllegalArgumentException("Bad backoff: " + initialBackoff + ", " + maxBackoff);
+            }
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        /**
+         * @param reconnectTimeout how long to keep reconnecting before the unsent events are dropped. Defaults to 30
+         *                         seconds.
+         * @return this builder.
+         */
+        public Builder reconnectTimeout(Duration reconnectTimeout) {
+            this.reconnectTimeout = reconnectTimeout;
+            return this;
+        }
+
+        /**
+         * @param errorHandler receives an IllegalArgumentException for every event dropped because it is larger than
+         *                     the send buffer. Defaults to ignoring them, the drops are then only counted in
+         *                     {@link TcpCollectorDestination#oversizeCount()}.
+         * @return this builder.
+         */
+        public Builder errorHandler(Consumer<Exception> errorHandler) {
+            if (errorHandler == null) {
+                throw new IllegalArgumentException("errorHandler cannot be null");
+            }
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        public TcpCollectorDestination build() {
+            return new TcpCollectorDestination(this);
+        }
+    }
+}
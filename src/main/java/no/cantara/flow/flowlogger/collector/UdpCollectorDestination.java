@@ -0,0 +1,177 @@
+package no.cantara.flow.flowlogger.collector;
+
+import no.cantara.flow.flowlogger.codec.FlowEventBinaryEncoder;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.metrics.FlowLoggerMetrics;
+import no.cantara.flow.flowlogger.sink.FlowEventDestination;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Sends events to a {@link FlowEventCollector} over UDP, packing as many frames as fit into each datagram. Every
+ * datagram is a binary stream of its own, so it can be decoded even if others are lost. Delivery is best effort: there
+ * is no backpressure from the collector and nothing is sent again, which suits high-volume, loss-tolerant flows on a
+ * local network. An event whose frame is larger than a datagram is skipped, counted in {@link #oversizeCount()} and
+ * reported to the error handler.
+ *
+ * @see TcpCollectorDestination
+ */
+public class UdpCollectorDestination implements FlowEventDestination {
+
+    /**
+     * The largest payload of a UDP datagram over IPv4.
+     */
+    public static final int MAX_DATAGRAM_SIZE = 65507;
+
+    private final FrameFormat format;
+    private final ByteBuffer buffer;
+    private final FlowEventBinaryEncoder encoder = new FlowEventBinaryEncoder();
+    private final DatagramChannel channel;
+    private final Consumer<Exception> errorHandler;
+
+    private long oversize;
+
+    private UdpCollectorDestination(Builder builder) throws IOException {
+        this.format = builder.format;
+        this.buffer = ByteBuffer.allocateDirect(builder.datagramSize);
+        this.errorHandler = builder.errorHandler;
+        this.channel = DatagramChannel.open();
+        try {
+            channel.connect(builder.address);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param address the UDP address of the collector.
+     * @return a builder.
+     */
+    public static Builder builder(InetSocketAddress address) {
+        return new Builder(address);
+    }
+
+    @Override
+    public void write(List<FlowEvent> batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            FlowEvent event = batch.get(i);
+            try {
+                Frames.write(event, format, encoder, buffer);
+            } catch (BufferOverflowException e) {
+                if (buffer.position() == 0) {
+                    tooLarge(event);
+                    continue;
+                }
+                send();
+                try {
+                    Frames.write(event, format, encoder, buffer);
+                } catch (BufferOverflowException tooLarge) {
+                    tooLarge(event);
+                }
+            }
+        }
+    }
+
+    private void tooLarge(FlowEvent event) {
+        oversize++;
+        errorHandler.accept(new IllegalArgumentException("Event with edge.id " + (event.getEdge() == null ? null : event.getEdge().getId()) + " is larger than the datagram size " + buffer.capacity() + ", dropped"));
+    }
+
+    private void send() throws IOException {
+        buffer.flip();
+        try {
+            FlowLoggerMetrics.global().bytesWritten(channel.write(buffer));
+        } finally {
+            buffer.clear();
+            encoder.reset();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (buffer.position() > 0) {
+            send();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return the number of events dropped because they were larger than a datagram.
+     */
+    public long oversizeCount() {
+        return oversize;
+    }
+
+    public static class Builder {
+        private final InetSocketAddress address;
+        private FrameFormat format = FrameFormat.BINARY;
+        private int datagramSize = 8 * 1024;
+        private Consumer<Exception> errorHandler = e -> {
+        };
+
+        private Builder(InetSocketAddress address) {
+            if (address == null) {
+                throw new IllegalArgumentException("address cannot be null");
+            }
+            this.address = address;
+        }
+
+        /**
+         * @param format the frame format. Defaults to binary.
+         * @return this builder.
+         */
+        public Builder format(FrameFormat format) {
+            if (format == null) {
+                throw new IllegalArgumentException("format cannot be null");
+            }
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * @param datagramSize the maximum size of a datagram, which limits the size of one event. Datagrams larger
+         *                     than the network MTU are fragmented, which raises the loss rate. Defaults to 8 KiB.
+         * @return this builder.
+         */
+        public Builder datagramSize(int datagramSize) {
+            if (datagramSize <= Frames.HEADER_SIZE || datagramSize > MAX_DATAGRAM_SIZE) {
+                throw new IllegalArgumentException("datagramSize out of range: " + datagramSize);
+            }
+            this.datagramSize = datagramSize;
+            return this;
+        }
+
+        /**
+         * @param errorHandler receives an IllegalArgumentException for every event dropped because it is larger than
+         *                     a datagram. Defaults to ignoring them, the drops are then only counted in
+         *                     {@link UdpCollectorDestination#oversizeCount()}.
+         * @return this builder.
+         */
+        public Builder errorHandler(Consumer<Exception> errorHandler) {
+            if (errorHandler == null) {
+                throw new IllegalArgumentException("errorHandler cannot be null");
+            }
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        public UdpCollectorDestination build() throws IOException {
+            return new UdpCollectorDestination(this);
+        }
+    }
+}
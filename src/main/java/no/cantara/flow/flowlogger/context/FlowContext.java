@@ -0,0 +1,191 @@
+package no.cantara.flow.flowlogger.context;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.FlowHistory;
+
+import java.util.Objects;
+
+/**
+ * The correlation id and parsed history of the flow a thread is currently working on. A context is parsed once when
+ * a message arrives and bound to the handling thread, and {@link no.cantara.flow.flowlogger.FlowLogger#event()} picks
+ * it up, so neither needs to be passed around or parsed again:
+ * <pre>
+ * try (FlowContext.Scope scope = FlowContext.parse(correlationIdHeader, historyHeader).bind()) {
+ *     FlowEvent received = FlowLogger.event().generateId().milestone("received").build();
+ *     FlowContext.advance(received);
+ *     executor.execute(...); // with an executor from FlowContexts.wrapExecutor, the task sees the advanced context
+ * }
+ * </pre>
+ * Contexts are immutable. Binding is thread-confined, so it works the same for platform and virtual threads; use
+ * the wrappers in {@link FlowContexts} to carry the context over to other threads.
+ */
+public final class FlowContext {
+
+    private static final ThreadLocal<FlowContext> CURRENT = new ThreadLocal<>();
+
+    private final String correlationId;
+    private final FlowHistory history;
+
+    private FlowContext(String correlationId, FlowHistory history) {
+        this.correlationId = correlationId;
+        this.history = history;
+    }
+
+    /**
+     * @param correlationId the correlation id of the flow.
+     * @param history       the history for the next event, or null at the start of a flow.
+     * @return the context.
+     */
+    public static FlowContext of(String correlationId, FlowHistory history) {
+        if (correlationId == null) {
+            throw new IllegalArgumentException("correlationId cannot be null");
+        }
+        return new FlowContext(correlationId, history == null || history.isEmpty() ? null : history);
+    }
+
+    /**
+     * @param correlationId the correlation id of the flow.
+     * @param history       the comma-separated history header, or null.
+     * @return the context.
+     * @throws IllegalArgumentException if the history is not valid.
+     * @see FlowHistory#parse(String)
+     */
+    public static FlowContext parse(String correlationId, String history) {
+        return of(correlationId, FlowHistory.parse(history));
+    }
+
+    /**
+     * @return the context bound to the current thread, or null if none is bound.
+     */
+    public static FlowContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Replace the context bound to the current thread with the context that follows the given event, so that the
+     * next event is logged as a successor of it. The previous context is still restored when the scope is closed.
+     *
+     * @param event an event of the current flow.
+     * @return the new current context.
+     * @throws IllegalStateException if no context is bound.
+     */
+    public static FlowContext advance(FlowEvent event) {
+        if (CURRENT.get() == null) {
+            throw new IllegalStateException("No flow context is bound to the current thread");
+        }
+        FlowContext next = after(event);
+        CURRENT.set(next);
+        return next;
+    }
+
+    /**
+     * @param event an event.
+     * @return the context of the event that follows the given event.
+     */
+    public static FlowContext after(FlowEvent event) {
+        return of(event.getCorrelationId(), event.nextFlowHistory());
+    }
+
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * @return the history for the next event, or null at the start of a flow.
+     */
+    public FlowHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Bind this context to the current thread until the returned scope is closed.
+     *
+     * @return the scope, which restores the previously bound context when closed.
+     */
+    public Scope bind() {
+        return bind(this);
+    }
+
+    /**
+     * Bind the given context, or unbind the current context if null.
+     */
+    static Scope bind(FlowContext context) {
+        Scope scope = new Scope(Thread.currentThread(), CURRENT.get());
+        if (context == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(context);
+        }
+        return scope;
+    }
+
+    /**
+     * Run the task with this context bound to the current thread.
+     */
+    public void run(Runnable task) {
+        Scope scope = bind();
+        try {
+            task.run();
+        } finally {
+            scope.close();
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FlowContext)) {
+            return false;
+        }
+        FlowContext that = (FlowContext) o;
+        return correlationId.equals(that.correlationId) && Objects.equals(history, that.history);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(correlationId, history);
+    }
+
+    @Override
+    public String toString() {
+        return correlationId + (history == null ? "" : " " + history);
+    }
+
+    /**
+     * A binding of a context to a thread. Must be closed by the thread that created it, in reverse order of binding.
+     */
+    public static final class Scope implements AutoCloseable {
+
+        private final Thread thread;
+        private final FlowContext previous;
+        private boolean closed;
+
+        private Scope(Thread thread, FlowContext previous) {
+            this.thread = thread;
+            this.previous = previous;
+        }
+
+        /**
+         * Restore the context that was bound when this scope was created.
+         *
+         * @throws IllegalStateException if called from another thread.
+         */
+        @Override
+        public void close() {
+            if (Thread.currentThread() != thread) {
+                throw new IllegalStateException("Scope must be closed by the thread that bound it");
+            }
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package no.cantara.flow.flowlogger.context;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Carries the {@link FlowContext} of the submitting thread over to the thread that runs a task. Each wrapper captures
+ * the context that is current when the task is wrapped or submitted, binds it while the task runs, and restores the
+ * context of the running thread afterwards, so pooled threads never leak a context from one task to the next.
+ * <p>
+ * For a {@link CompletableFuture}, pass a wrapped executor to the async stages, or wrap the functions of stages that
+ * may run on the completing thread:
+ * <pre>
+ * Executor executor = FlowContexts.wrapExecutor(pool);
+ * CompletableFuture.supplyAsync(this::fetch, executor)
+ *         .thenApplyAsync(this::transform, executor)
+ *         .thenAccept(FlowContexts.wrapConsumer(result -> ...));
+ * </pre>
+ */
+public final class FlowContexts {
+
+    private FlowContexts() {
+    }
+
+    public static Runnable wrapRunnable(Runnable task) {
+        FlowContext context = FlowContext.current();
+        return () -> {
+            FlowContext.Scope scope = FlowContext.bind(context);
+            try {
+                task.run();
+            } finally {
+                scope.close();
+            }
+        };
+    }
+
+    public static <T> Callable<T> wrapCallable(Callable<T> task) {
+        FlowContext context = FlowContext.current();
+        return () -> {
+            FlowContext.Scope scope = FlowContext.bind(context);
+            try {
+                return task.call();
+            } finally {
+                scope.close();
+            }
+        };
+    }
+
+    public static <T> Supplier<T> wrapSupplier(Supplier<T> supplier) {
+        FlowContext context = FlowContext.current();
+        return () -> {
+            FlowContext.Scope scope = FlowContext.bind(context);
+            try {
+                return supplier.get();
+            } finally {
+                scope.close();
+            }
+        };
+    }
+
+    /**
+     * For {@link CompletableFuture#thenApply(Function)} and similar stages.
+     */
+    public static <T, R> Function<T, R> wrapFunction(Function<T, R> function) {
+        FlowContext context = FlowContext.current();
+        return value -> {
+            FlowContext.Scope scope = FlowContext.bind(context);
+            try {
+                return function.apply(value);
+            } finally {
+                scope.close();
+            }
+        };
+    }
+
+    /**
+     * For {@link CompletableFuture#thenAccept(Consumer)} and similar stages.
+     */
+    public static <T> Consumer<T> wrapConsumer(Consumer<T> consumer) {
+        FlowContext context = FlowContext.current();
+        return value -> {
+            FlowContext.Scope scope = FlowContext.bind(context);
+            try {
+                consumer.accept(value);
+            } finally {
+                scope.close();
+            }
+        };
+    }
+
+    /**
+     * For {@link CompletableFuture#thenCombine(java.util.concurrent.CompletionStage, BiFunction)} and similar stages.
+     */
+    public static <T, U, R> BiFunction<T, U, R> wrapBiFunction(BiFunction<T, U, R> function) {
+        FlowContext context = FlowContext.current();
+        return (first, second) -> {
+            FlowContext.Scope scope = FlowContext.bind(context);
+            try {
+                return function.apply(first, second);
+            } finally {
+                scope.close();
+            }
+        };
+    }
+
+    /**
+     * @param executor the executor that runs the tasks.
+     * @return an executor that runs every task with the context of the thread that submitted it.
+     */
+    public static Executor wrapExecutor(Executor executor) {
+        if (executor instanceof ExecutorService) {
+            return wrapExecutorService((ExecutorService) executor);
+        }
+        return task -> executor.execute(wrapRunnable(task));
+    }
+
+    /**
+     * @param executorService the executor service that runs the tasks, shut down through the returned service.
+     * @return an executor service that runs every task with the context of the thread that submitted it.
+     */
+    public static ExecutorService wrapExecutorService(ExecutorService executorService) {
+        if (executorService instanceof ContextExecutorService) {
+            return executorService;
+        }
+        return new ContextExecutorService(executorService);
+    }
+
+    /**
+     * Same as {@link CompletableFuture#supplyAsync(Supplier, Executor)}, with the current context.
+     */
+    public static <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier, Executor executor) {
+        return CompletableFuture.supplyAsync(wrapSupplier(supplier), executor);
+    }
+
+    /**
+     * Same as {@link CompletableFuture#runAsync(Runnable, Executor)}, with the current context.
+     */
+    public static CompletableFuture<Void> runAsync(Runnable task, Executor executor) {
+        return CompletableFuture.runAsync(wrapRunnable(task), executor);
+    }
+
+    /**
+     * Submitted tasks are all funneled through {@link #execute(Runnable)} on the submitting thread by
+     * {@link AbstractExecutorService}, which is where the context is captured.
+     */
+    private static final class ContextExecutorService extends AbstractExecutorService {
+
+        private final ExecutorService delegate;
+
+        ContextExecutorService(ExecutorService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            delegate.execute(wrapRunnable(task));
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
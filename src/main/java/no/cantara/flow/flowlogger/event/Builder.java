@@ -1,17 +1,32 @@
 package no.cantara.flow.flowlogger.event;
 
-import java.nio.charset.Charset;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import no.cantara.flow.flowlogger.metrics.FlowLoggerMetrics;
+
+import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Base64;
-import java.util.UUID;
-import java.util.regex.Pattern;
+import java.util.function.Consumer;
 
 public class Builder {
+    final EdgeIdGenerator idGenerator;
+    FlowClock clock = FlowClocks.getDefault();
+    boolean lazyTimestamps;
+    FlowEventGuard guard;
+    BuilderPool pool; // the pool this builder is returned to after building, null if not pooled
+
+    private ReporterBuilder reporterView;
+    private SourceBuilder sourceView;
+    private DestinationBuilder destinationView;
+    private EdgeBuilder edgeView;
+
     String correlationId;
-    String[] history;
+    FlowHistory history;
+    int maxHistorySize;
+
+    Reporter reporterTemplate;
+    private Reporter configuredReporter; // restored by reset, the reporter set before the builder was pooled
+    Node sourceTemplate;
+    Node destinationTemplate;
 
     String deployment;
     String name;
@@ -32,81 +47,442 @@ public class Builder {
     String edgeId;
     String retryGroupId;
     ZonedDateTime timestamp;
+    long epochNanos;
+    ZoneId zone; // the clock reading of a lazily built event, null if the clock has not been read
     String milestone;
     String status = "OK";
     String errorType;
     String errorReason;
     String comment;
 
+    public Builder() {
+        this(EdgeIdGenerators.getDefault());
+    }
+
+    public Builder(EdgeIdGenerator idGenerator) {
+        if (idGenerator == null) {
+            throw new IllegalArgumentException("idGenerator cannot be null");
+        }
+        this.idGenerator = idGenerator;
+    }
+
+    /**
+     * Copy the raw fields of a builder, used to defer the creation of the nested objects of a lazily built event.
+     */
+    private Builder(Builder b) {
+        this.idGenerator = b.idGenerator;
+        this.clock = b.clock;
+        this.lazyTimestamps = true;
+        this.reporterTemplate = b.reporterTemplate;
+        this.sourceTemplate = b.sourceTemplate;
+        this.destinationTemplate = b.destinationTemplate;
+        this.deployment = b.deployment;
+        this.name = b.name;
+        this.version = b.version;
+        this.containerId = b.containerId;
+        this.instance = b.instance;
+        this.sourceType = b.sourceType;
+        this.sourceAddress = b.sourceAddress;
+        this.sourcePayloadType = b.sourcePayloadType;
+        this.sourcePayloadId = b.sourcePayloadId;
+        this.destinationType = b.destinationType;
+        this.destinationAddress = b.destinationAddress;
+        this.destinationPayloadType = b.destinationPayloadType;
+        this.destinationPayloadId = b.destinationPayloadId;
+        this.edgeId = b.edgeId;
+        this.retryGroupId = b.retryGroupId;
+        this.timestamp = b.timestamp;
+        this.milestone = b.milestone;
+        this.status = b.status;
+        this.errorType = b.errorType;
+        this.errorReason = b.errorReason;
+        this.comment = b.comment;
+        if (timestamp == null) {
+            this.epochNanos = b.clock.epochNanos();
+            this.zone = b.clock.zone();
+        }
+    }
+
     public FlowEvent build() {
+        checkRequiredFields();
+        FlowEvent event = new FlowEvent(correlationId, boundedHistory(), buildReporter(), buildSource(), buildDestination(), buildEdge());
+        event.maxHistorySize = maxHistorySize;
+        release();
+        FlowLoggerMetrics.global().eventBuilt();
+        return event;
+    }
+
+    /**
+     * Build an event that only records the raw field values and the clock reading. The reporter, source,
+     * destination and edge objects, and the formatted timestamp, are created when first needed by a getter or when
+     * the event is serialized. Checks the {@link #guard(FlowEventGuard) guard} before doing any work.
+     *
+     * @return the event, or null if the guard rejected it.
+     */
+    public FlowEvent buildLazy() {
+        if (guard != null && !guard.isEnabled(correlationId)) {
+            release();
+            return null;
+        }
+        checkRequiredFields();
+        FlowEvent event = new FlowEvent(correlationId, boundedHistory(), new Builder(this));
+        event.maxHistorySize = maxHistorySize;
+        release();
+        FlowLoggerMetrics.global().eventBuilt();
+        return event;
+    }
+
+    /**
+     * Build the event, unless rejected by the {@link #guard(FlowEventGuard) guard}, and hand it to the target.
+     * Combined with a {@link BuilderPool} this emits events without allocating anything but the event itself.
+     *
+     * @param target receives the event, e.g. a FlowEventSink.
+     * @return true if an event was built and handed to the target.
+     */
+    public boolean emit(Consumer<? super FlowEvent> target) {
+        if (guard != null && !guard.isEnabled(correlationId)) {
+            release();
+            return false;
+        }
+        target.accept(build());
+        return true;
+    }
+
+    /**
+     * Take the fields of this builder as the shared parent of events that only differ in destination and edge id,
+     * see {@link FanOut}. The edge id must not be set, each child gets its own. The clock is read once, so all
+     * children have the same timestamp. Checks the {@link #guard(FlowEventGuard) guard} before doing any work.
+     *
+     * @return the fan-out, not {@link FanOut#isEnabled() enabled} if the guard rejected the correlation id.
+     */
+    public FanOut fanOut() {
+        if (guard != null && !guard.isEnabled(correlationId)) {
+            release();
+            return FanOut.disabled();
+        }
+        if (correlationId == null) {
+            throw new IllegalArgumentException("event.correlationId is missing.");
+        }
+        if (edgeId != null) {
+            throw new IllegalArgumentException("edge.id is set per child of a fan-out, was: " + edgeId);
+        }
+        FanOut fanOut = new FanOut(idGenerator, correlationId, boundedHistory(), maxHistorySize, buildReporter(), buildSource(), buildDestination(), buildEdge());
+        release();
+        return fanOut;
+    }
+
+    /**
+     * Clear all per-event fields, so the builder can be reused for the next event. The id generator, clock, guard,
+     * lazy timestamp setting and the reporter set with {@link #reporter(Reporter)} before the builder was acquired
+     * from a {@link BuilderPool} are kept.
+     *
+     * @return this builder.
+     */
+    public Builder reset() {
+        correlationId = null;
+        history = null;
+        maxHistorySize = 0;
+        sourceTemplate = null;
+        destinationTemplate = null;
+        deployment = null;
+        name = null;
+        version = null;
+        containerId = null;
+        instance = null;
+        sourceType = null;
+        sourceAddress = null;
+        sourcePayloadType = null;
+        sourcePayloadId = null;
+        destinationType = null;
+        destinationAddress = null;
+        destinationPayloadType = null;
+        destinationPayloadId = null;
+        edgeId = null;
+        retryGroupId = null;
+        timestamp = null;
+        epochNanos = 0;
+        zone = null;
+        milestone = null;
+        status = "OK";
+        errorType = null;
+        errorReason = null;
+        comment = null;
+        reporterTemplate = configuredReporter;
+        return this;
+    }
+
+    private void release() {
+        BuilderPool p = pool;
+        if (p != null) {
+            pool = null;
+            p.release(this);
+        }
+    }
+
+    private void checkRequiredFields() {
         if (correlationId == null) {
             throw new IllegalArgumentException("event.correlationId is missing.");
         }
         if (edgeId == null) {
             throw new IllegalArgumentException("edge.id is missing.");
         }
-        if (timestamp == null) {
-            timestamp = ZonedDateTime.now();
-        }
+    }
 
-        Reporter reporter;
+    private FlowHistory boundedHistory() {
+        return maxHistorySize > 0 && history != null ? history.bounded(maxHistorySize) : history;
+    }
+
+    Reporter buildReporter() {
         if (deployment == null && name == null && version == null && containerId == null && instance == null) {
-            reporter = null;
-        } else {
-            reporter = new Reporter(deployment, name, version, containerId, instance);
+            return reporterTemplate;
         }
-        Node source;
-        if (sourceType == null && sourceAddress == null) {
-            source = null;
-        } else {
-            source = new Node(sourceType, sourceAddress, sourcePayloadType, sourcePayloadId);
+        if (reporterTemplate == null) {
+            return new Reporter(deployment, name, version, containerId, instance);
         }
-        Node destination;
-        if (destinationType == null && destinationAddress == null) {
-            destination = null;
+        Reporter t = reporterTemplate;
+        return new Reporter(or(deployment, t.deployment), or(name, t.name), or(version, t.version), or(containerId, t.containerId), or(instance, t.instance));
+    }
+
+    Node buildSource() {
+        return node(sourceTemplate, sourceType, sourceAddress, sourcePayloadType, sourcePayloadId);
+    }
+
+    Node buildDestination() {
+        return node(destinationTemplate, destinationType, destinationAddress, destinationPayloadType, destinationPayloadId);
+    }
+
+    Edge buildEdge() {
+        long epochNanos;
+        ZoneId zone;
+        if (timestamp == null) {
+            epochNanos = this.zone != null ? this.epochNanos : clock.epochNanos();
+            zone = this.zone != null ? this.zone : clock.zone();
         } else {
-            destination = new Node(destinationType, destinationAddress, destinationPayloadType, destinationPayloadId);
+            try {
+                epochNanos = FlowClocks.epochNanos(timestamp.toInstant());
+            } catch (ArithmeticException e) {
+                return new Edge(edgeId, retryGroupId, timestamp.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME), milestone, status, errorType, errorReason, comment);
+            }
+            zone = timestamp.getOffset();
+        }
+        Edge edge = new Edge(edgeId, retryGroupId, epochNanos, zone, milestone, status, errorType, errorReason, comment);
+        if (!lazyTimestamps) {
+            edge.getTimestamp();
+        }
+        return edge;
+    }
+
+    private static Node node(Node template, String type, String address, String payloadType, String payloadId) {
+        if (type == null && address == null && payloadType == null && payloadId == null) {
+            return template;
+        }
+        if (template == null) {
+            if (type == null && address == null) {
+                return null;
+            }
+            return new Node(type, address, payloadType, payloadId);
         }
-        Edge edge = new Edge(edgeId, retryGroupId, timestamp.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME), milestone, status, errorType, errorReason, comment);
+        return new Node(or(type, template.type), or(address, template.address), or(payloadType, template.payloadType), or(payloadId, template.payloadId));
+    }
+
+    private static String or(String value, String templateValue) {
+        return value != null ? value : templateValue;
+    }
+
+    /**
+     * Use the given clock for the timestamp of events that are not given an explicit timestamp.
+     *
+     * @param clock the clock, e.g. a fixed or stepping clock in tests.
+     * @return this builder.
+     * @see FlowClocks
+     */
+    public Builder clock(FlowClock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("clock cannot be null");
+        }
+        this.clock = clock;
+        return this;
+    }
+
+    /**
+     * Keep the edge timestamp of built events as a number, and only format it when the event is serialized or
+     * {@link Edge#getTimestamp()} is called. Saves the formatting cost for events that are never written.
+     *
+     * @param lazy true to format timestamps lazily, false (default) to format them when the event is built.
+     * @return this builder.
+     */
+    public Builder lazyTimestamps(boolean lazy) {
+        this.lazyTimestamps = lazy;
+        return this;
+    }
 
-        return new FlowEvent(
-                correlationId,
-                history,
-                reporter,
-                source,
-                destination,
-                edge
-        );
+    /**
+     * Skip events rejected by the given guard when built with {@link #buildLazy()}, e.g. to apply a level or
+     * sampling decision before any event objects are created.
+     *
+     * @param guard the guard, or null to build all events.
+     * @return this builder.
+     */
+    public Builder guard(FlowEventGuard guard) {
+        this.guard = guard;
+        return this;
     }
 
     public EdgeBuilder event() {
-        return new EdgeBuilder();
+        return edgeView();
+    }
+
+    private EdgeBuilder edgeView() {
+        if (edgeView == null) {
+            edgeView = new EdgeBuilder();
+        }
+        return edgeView;
+    }
+
+    private ReporterBuilder reporterView() {
+        if (reporterView == null) {
+            reporterView = new ReporterBuilder();
+        }
+        return reporterView;
+    }
+
+    private SourceBuilder sourceView() {
+        if (sourceView == null) {
+            sourceView = new SourceBuilder();
+        }
+        return sourceView;
+    }
+
+    private DestinationBuilder destinationView() {
+        if (destinationView == null) {
+            destinationView = new DestinationBuilder();
+        }
+        return destinationView;
+    }
+
+    /**
+     * Use the given reporter instance for all events built by this builder, unless individual reporter fields are
+     * set, in which case those fields override the values of the given reporter. The reporter is serialized once and
+     * the cached json is reused by every event sharing the instance.
+     * <p>
+     * On a builder acquired from a {@link BuilderPool} the reporter applies to the current event only, and the
+     * reporter set by the factory of the pool is restored when the builder is returned.
+     *
+     * @param reporter the shared reporter.
+     * @return this builder.
+     */
+    public Builder reporter(Reporter reporter) {
+        this.reporterTemplate = prebuilt(reporter);
+        if (pool == null) {
+            configuredReporter = reporterTemplate;
+        }
+        return this;
+    }
+
+    static Reporter prebuilt(Reporter reporter) {
+        if (reporter != null) {
+            reporter.json();
+        }
+        return reporter;
+    }
+
+    static Node prebuilt(Node node) {
+        if (node != null) {
+            node.json();
+        }
+        return node;
     }
 
     public abstract class AbstractBuilder<T> {
 
         public ReporterBuilder reporter() {
-            return new ReporterBuilder();
+            return reporterView();
+        }
+
+        /**
+         * @param reporter a reporter shared between events, see {@link Builder#reporter(Reporter)}.
+         * @return a builder that can override individual fields of the shared reporter.
+         */
+        public ReporterBuilder reporter(Reporter reporter) {
+            Builder.this.reporter(reporter);
+            return reporterView();
         }
 
         public SourceBuilder source() {
-            return new SourceBuilder();
+            return sourceView();
+        }
+
+        /**
+         * Use a node instance that is shared between events, e.g. a fixed queue, as source. The node is serialized
+         * once and the cached json is reused as long as none of its fields are overridden.
+         *
+         * @param source the shared node.
+         * @return a builder that can override individual fields of the shared node, typically the payload id.
+         */
+        public SourceBuilder source(Node source) {
+            Builder.this.sourceTemplate = prebuilt(source);
+            return sourceView();
         }
 
         public DestinationBuilder destination() {
-            return new DestinationBuilder();
+            return destinationView();
+        }
+
+        /**
+         * Use a node instance that is shared between events as destination.
+         *
+         * @param destination the shared node.
+         * @return a builder that can override individual fields of the shared node, typically the payload id.
+         * @see #source(Node)
+         */
+        public DestinationBuilder destination(Node destination) {
+            Builder.this.destinationTemplate = prebuilt(destination);
+            return destinationView();
         }
 
         public EdgeBuilder edge() {
-            return new EdgeBuilder();
+            return edgeView();
         }
 
         public FlowEvent build() {
             return Builder.this.build();
         }
+
+        /**
+         * @return the event, or null if it was rejected by the guard.
+         * @see Builder#buildLazy()
+         */
+        public FlowEvent buildLazy() {
+            return Builder.this.buildLazy();
+        }
+
+        /**
+         * @param target receives the event, e.g. a FlowEventSink.
+         * @return true if an event was built and handed to the target.
+         * @see Builder#emit(Consumer)
+         */
+        public boolean emit(Consumer<? super FlowEvent> target) {
+            return Builder.this.emit(target);
+        }
+
+        /**
+         * @return the shared parent of events that only differ in destination and edge id.
+         * @see Builder#fanOut()
+         */
+        public FanOut fanOut() {
+            return Builder.this.fanOut();
+        }
+
+        /**
+         * @return false if an event with the current correlation id would be rejected by the guard, so that callers
+         * can skip setting up the rest of the event.
+         */
+        public boolean isEnabled() {
+            return guard == null || guard.isEnabled(correlationId);
+        }
     }
 
-    public class ReporterBuilder extends AbstractBuilder {
+    public class ReporterBuilder extends AbstractBuilder<ReporterBuilder> {
 
         private ReporterBuilder() {
         }
@@ -137,7 +513,7 @@ public class Builder {
         }
     }
 
-    public class SourceBuilder extends AbstractBuilder {
+    public class SourceBuilder extends AbstractBuilder<SourceBuilder> {
 
         private SourceBuilder() {
         }
@@ -163,7 +539,7 @@ public class Builder {
         }
     }
 
-    public class DestinationBuilder extends AbstractBuilder {
+    public class DestinationBuilder extends AbstractBuilder<DestinationBuilder> {
 
         private DestinationBuilder() {
         }
@@ -189,12 +565,16 @@ public class Builder {
         }
     }
 
-    private static final Pattern COMMA_SEPARATED_EDGE_IDS_PATTERN = Pattern.compile("[a-zA-Z0-9+/=]+?(,[a-zA-Z0-9+/=]+)*");
-
-    public class EdgeBuilder extends AbstractBuilder {
+    public class EdgeBuilder extends AbstractBuilder<EdgeBuilder> {
 
+        /**
+         * Generate a correlation id using the {@link EdgeIdGenerator} of this builder, by default a random UUID.
+         *
+         * @return this builder.
+         */
         public EdgeBuilder generateCorrelationId() {
-            return correlationId(UUID.randomUUID().toString());
+            FlowLoggerMetrics.global().idGenerated();
+            return correlationId(idGenerator.generateCorrelationId());
         }
 
         public EdgeBuilder correlationId(String correlationId) {
@@ -203,34 +583,54 @@ public class Builder {
         }
 
         /**
-         * Expects a list of edge ids separated by space. Each edge-id must only have characters taken from the Base64
+         * Expects a list of edge ids separated by comma. Each edge-id must only have characters taken from the Base64
          * basic alphabet, an IllegalArgumentException is thrown if this requirement is not met.
          *
          * @param history
          * @return this builder.
+         * @see FlowHistory#parse(String)
          */
         public EdgeBuilder history(String history) {
-            if (history == null || history.isEmpty()) {
-                Builder.this.history = null;
-            } else {
-                if (!COMMA_SEPARATED_EDGE_IDS_PATTERN.matcher(history).matches()) {
-                    throw new IllegalArgumentException("History must match a pattern of a comma-separated list of IDs with alphabet taken from the Base64 basic type. Bad history: \"" + history + "\"");
-                }
-                Builder.this.history = history.split("[, ]");
+            return history(FlowHistory.parse(history));
+        }
+
+        /**
+         * @param history the history, typically {@link FlowEvent#nextFlowHistory()} of the previous event.
+         * @return this builder.
+         */
+        public EdgeBuilder history(FlowHistory history) {
+            Builder.this.history = history == null || history.isEmpty() ? null : history;
+            return this;
+        }
+
+        /**
+         * Bound the history of this event and of {@link FlowEvent#nextHistory()} to the given number of newest edge
+         * ids. Older edge ids are folded into a fixed-size digest that is passed on as part of the history and logged
+         * as the historyDigest field, so header and event size stay constant in long or cyclic flows.
+         *
+         * @param maxHistorySize the maximum number of edge ids kept verbatim, or 0 for unbounded (default).
+         * @return this builder.
+         * @see FlowHistory#bounded(int)
+         */
+        public EdgeBuilder maxHistorySize(int maxHistorySize) {
+            if (maxHistorySize < 0) {
+                throw new IllegalArgumentException("maxHistorySize cannot be negative, was: " + maxHistorySize);
             }
+            Builder.this.maxHistorySize = maxHistorySize;
             return this;
         }
 
         /**
-         * Generate a random (with characters from the basic Base64 alphabet) 5-character long string. Assuming a true
-         * random function, this gives approximately 1 to a billion chance of collision. This is useful when a flow is
-         * split, so that we never (in practice) get the same history for separate paths.
+         * Generate an edge id using the {@link EdgeIdGenerator} of this builder. The default generator produces a
+         * random (with characters from the basic Base64 alphabet) 5-character long string. Assuming a true random
+         * function, this gives approximately 1 to a billion chance of collision. This is useful when a flow is split,
+         * so that we never (in practice) get the same history for separate paths.
          *
          * @return this builder.
          */
         public EdgeBuilder generateId() {
-            String shorterRandomId = generateShortRandomId();
-            return id(shorterRandomId);
+            FlowLoggerMetrics.global().idGenerated();
+            return id(idGenerator.generateId());
         }
 
         public EdgeBuilder id(String edgeId) {
@@ -282,12 +682,7 @@ public class Builder {
      * @return the generated id.
      */
     public static String generateShortRandomId() {
-        try {
-            MessageDigest md5 = MessageDigest.getInstance("MD5");
-            String randomUuid = UUID.randomUUID().toString();
-            return Base64.getEncoder().encodeToString(md5.digest(randomUuid.getBytes(Charset.forName("ASCII")))).substring(0, 5);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
+        FlowLoggerMetrics.global().idGenerated();
+        return EdgeIdGenerators.threadLocalRandom().generateId();
     }
 }
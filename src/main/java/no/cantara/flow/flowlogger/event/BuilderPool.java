@@ -0,0 +1,133 @@
+package no.cantara.flow.flowlogger.event;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Reuses {@link Builder}s between events. A builder taken with {@link #acquire()} is reset and returned to the pool
+ * when its event is built or emitted, and must not be used after that. Builders that are never built are simply not
+ * reused, and a new builder is created whenever the pool has none available.
+ * <p>
+ * The builders are created by the given factory, so configuration like the reporter, clock and guard is set up once
+ * and survives the reset between events.
+ */
+public abstract class BuilderPool {
+
+    private final Supplier<Builder> factory;
+
+    BuilderPool(Supplier<Builder> factory) {
+        if (factory == null) {
+            throw new IllegalArgumentException("factory cannot be null");
+        }
+        this.factory = factory;
+    }
+
+    /**
+     * One builder per thread. The cheapest choice for a fixed set of platform threads, but every virtual thread
+     * would get a builder of its own.
+     *
+     * @param factory creates and configures new builders.
+     * @return the pool.
+     */
+    public static BuilderPool threadLocal(Supplier<Builder> factory) {
+        return new ThreadLocalPool(factory);
+    }
+
+    /**
+     * A fixed number of builders shared by all threads, suitable for virtual threads. Threads are spread over the
+     * slots by thread id, so contention is low as long as there are more slots than concurrently logging threads.
+     *
+     * @param slots   the maximum number of idle builders kept, rounded up to a power of two.
+     * @param factory creates and configures new builders.
+     * @return the pool.
+     */
+    public static BuilderPool striped(int slots, Supplier<Builder> factory) {
+        if (slots < 1) {
+            throw new IllegalArgumentException("slots must be positive, was: " + slots);
+        }
+        return new StripedPool(slots == 1 ? 1 : Integer.highestOneBit(slots - 1) << 1, factory);
+    }
+
+    /**
+     * @return a builder without any per-event fields set.
+     */
+    public Builder acquire() {
+        Builder builder = take();
+        if (builder == null) {
+            builder = factory.get();
+        }
+        builder.pool = this;
+        return builder;
+    }
+
+    void release(Builder builder) {
+        offer(builder.reset());
+    }
+
+    abstract Builder take();
+
+    abstract void offer(Builder builder);
+
+    private static final class ThreadLocalPool extends BuilderPool {
+
+        private final ThreadLocal<Builder[]> idle = ThreadLocal.withInitial(() -> new Builder[1]);
+
+        private ThreadLocalPool(Supplier<Builder> factory) {
+            super(factory);
+        }
+
+        @Override
+        Builder take() {
+            Builder[] slot = idle.get();
+            Builder builder = slot[0];
+            slot[0] = null;
+            return builder;
+        }
+
+        @Override
+        void offer(Builder builder) {
+            idle.get()[0] = builder;
+        }
+    }
+
+    private static final class StripedPool extends BuilderPool {
+
+        private final AtomicReferenceArray<Builder> idle;
+        private final int mask;
+
+        private StripedPool(int slots, Supplier<Builder> factory) {
+            super(factory);
+            this.idle = new AtomicReferenceArray<>(slots);
+            this.mask = slots - 1;
+        }
+
+        @SuppressWarnings("deprecation") // Thread.threadId() is not available before Java 19
+        private int home() {
+            return (int) Thread.currentThread().getId();
+        }
+
+        @Override
+        Builder take() {
+            int home = home();
+            for (int i = 0; i < 2; i++) {
+                int index = (home + i) & mask;
+                Builder builder = idle.get(index);
+                if (builder != null && idle.compareAndSet(index, builder, null)) {
+                    return builder;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        void offer(Builder builder) {
+            int home = home();
+            for (int i = 0; i < 2; i++) {
+                int index = (home + i) & mask;
+                if (idle.get(index) == null && idle.compareAndSet(index, null, builder)) {
+                    return;
+                }
+            }
+        }
+    }
+}
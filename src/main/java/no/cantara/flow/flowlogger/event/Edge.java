@@ -1,20 +1,56 @@
 package no.cantara.flow.flowlogger.event;
 
+import com.google.gson.annotations.JsonAdapter;
+
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+
+@JsonAdapter(EdgeTypeAdapter.class)
 public class Edge {
 
+    /**
+     * Returned by {@link #getEpochNanos()} when the edge has no timestamp or it cannot be parsed.
+     */
+    public static final long UNKNOWN_TIME = Long.MIN_VALUE;
+
+    private static final long NOT_PARSED = Long.MIN_VALUE + 1; // outside the range of FlowTimestampFormat.parse
+
     final String id;
     final String retryGroupId;
-    final String timestamp;
+    String timestamp; // formatted on first use when created from epochNanos and zone
     final String milestone;
     final String status;
     final String errorType;
     final String errorReason;
     final String comment;
 
+    final transient long epochNanos;
+    final transient ZoneId zone;
+    private transient volatile long parsedEpochNanos = NOT_PARSED; // the formatted timestamp, parsed on first use
+
     public Edge(String id, String retryGroupId, String timestamp, String milestone, String status, String errorType, String errorReason, String comment) {
+        this(id, retryGroupId, timestamp, 0, null, milestone, status, errorType, errorReason, comment);
+    }
+
+    /**
+     * Create an edge whose timestamp is kept as a number and only formatted when it is first needed.
+     *
+     * @param epochNanos the timestamp in nanoseconds since 1970-01-01T00:00:00Z.
+     * @param zone       the zone the timestamp is formatted in.
+     */
+    public Edge(String id, String retryGroupId, long epochNanos, ZoneId zone, String milestone, String status, String errorType, String errorReason, String comment) {
+        this(id, retryGroupId, null, epochNanos, zone, milestone, status, errorType, errorReason, comment);
+        if (zone == null) {
+            throw new IllegalArgumentException("zone cannot be null");
+        }
+    }
+
+    private Edge(String id, String retryGroupId, String timestamp, long epochNanos, ZoneId zone, String milestone, String status, String errorType, String errorReason, String comment) {
         this.id = id;
         this.retryGroupId = retryGroupId;
         this.timestamp = timestamp;
+        this.epochNanos = epochNanos;
+        this.zone = zone;
         this.milestone = milestone;
         this.status = status;
         this.errorType = errorType;
@@ -22,6 +58,15 @@ public class Edge {
         this.comment = comment;
     }
 
+    /**
+     * Create an edge with the given id and all other fields, including the formatted timestamp, shared with the
+     * template.
+     */
+    Edge(String id, Edge template) {
+        this(id, template.retryGroupId, template.timestamp, template.epochNanos, template.zone, template.milestone, template.status, template.errorType, template.errorReason, template.comment);
+        this.parsedEpochNanos = template.parsedEpochNanos;
+    }
+
     public String getId() {
         return id;
     }
@@ -30,8 +75,51 @@ public class Edge {
         return retryGroupId;
     }
 
+    /**
+     * @return the timestamp in ISO-8601 format with offset, formatted on first use if the edge was created from an
+     * epoch timestamp.
+     */
     public String getTimestamp() {
-        return timestamp;
+        String result = timestamp;
+        if (result == null && zone != null) {
+            result = FlowTimestampFormat.format(epochNanos, zone);
+            timestamp = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return the zone of the epoch timestamp, or null if the edge was created from a formatted timestamp.
+     */
+    public ZoneId getTimestampZone() {
+        return zone;
+    }
+
+    /**
+     * @return the timestamp in nanoseconds since 1970-01-01T00:00:00Z, parsed on first use if the edge was created
+     * from a formatted timestamp, or {@link #UNKNOWN_TIME} if there is no timestamp or it cannot be parsed.
+     */
+    public long getEpochNanos() {
+        if (zone != null) {
+            return epochNanos;
+        }
+        long result = parsedEpochNanos;
+        if (result == NOT_PARSED) {
+            result = parseTimestamp();
+            parsedEpochNanos = result;
+        }
+        return result;
+    }
+
+    private long parseTimestamp() {
+        if (timestamp == null) {
+            return UNKNOWN_TIME;
+        }
+        try {
+            return FlowTimestampFormat.parse(timestamp);
+        } catch (DateTimeParseException | ArithmeticException e) {
+            return UNKNOWN_TIME;
+        }
     }
 
     public String getMilestone() {
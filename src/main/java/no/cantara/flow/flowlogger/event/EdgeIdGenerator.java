@@ -0,0 +1,20 @@
+package no.cantara.flow.flowlogger.event;
+
+/**
+ * Strategy for generating edge ids and correlation ids. Implementations must be thread-safe. Edge ids must only use
+ * characters from the basic Base64 alphabet so that they are accepted as history elements.
+ *
+ * @see EdgeIdGenerators
+ */
+public interface EdgeIdGenerator {
+
+    /**
+     * @return a new edge id.
+     */
+    String generateId();
+
+    /**
+     * @return a new correlation id.
+     */
+    String generateCorrelationId();
+}
@@ -0,0 +1,177 @@
+package no.cantara.flow.flowlogger.event;
+
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Factory for the built-in {@link EdgeIdGenerator} strategies, and holder of the default generator used by new
+ * {@link Builder}s.
+ */
+public final class EdgeIdGenerators {
+
+    static final char[] BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    /**
+     * The length of generated ids when nothing else is specified. With 6 random bits per character this gives 30
+     * random bits, approximately 1 to a billion chance of collision.
+     */
+    public static final int DEFAULT_ID_LENGTH = 5;
+
+    private static final EdgeIdGenerator THREAD_LOCAL_RANDOM = new ThreadLocalRandomGenerator(DEFAULT_ID_LENGTH);
+
+    private static volatile EdgeIdGenerator defaultGenerator = THREAD_LOCAL_RANDOM;
+
+    private EdgeIdGenerators() {
+    }
+
+    /**
+     * @return the generator used by builders that were not given an explicit generator.
+     */
+    public static EdgeIdGenerator getDefault() {
+        return defaultGenerator;
+    }
+
+    /**
+     * Replace the generator used by builders that were not given an explicit generator.
+     *
+     * @param generator the new default generator.
+     */
+    public static void setDefault(EdgeIdGenerator generator) {
+        if (generator == null) {
+            throw new IllegalArgumentException("generator cannot be null");
+        }
+        defaultGenerator = generator;
+    }
+
+    /**
+     * @return a contention-free generator of 5-character ids based on {@link ThreadLocalRandom}, with correlation ids
+     * from {@link UUID#randomUUID()}.
+     */
+    public static EdgeIdGenerator threadLocalRandom() {
+        return THREAD_LOCAL_RANDOM;
+    }
+
+    /**
+     * Use longer ids when collisions between split paths of the same flow matter more than header size.
+     *
+     * @param length the number of Base64 characters in each generated edge id.
+     * @return a contention-free generator of ids with the given length based on {@link ThreadLocalRandom}, with
+     * correlation ids from {@link UUID#randomUUID()}.
+     */
+    public static EdgeIdGenerator threadLocalRandom(int length) {
+        if (length == DEFAULT_ID_LENGTH) {
+            return THREAD_LOCAL_RANDOM;
+        }
+        return new ThreadLocalRandomGenerator(checkLength(length));
+    }
+
+    /**
+     * A deterministic generator, typically used in tests. The sequence of generated ids depends only on the seed and
+     * on the order of calls.
+     *
+     * @param seed the seed.
+     * @return a generator of 5-character ids.
+     */
+    public static EdgeIdGenerator seeded(long seed) {
+        return seeded(seed, DEFAULT_ID_LENGTH);
+    }
+
+    /**
+     * @param seed   the seed.
+     * @param length the number of Base64 characters in each generated edge id.
+     * @return a deterministic generator of ids with the given length.
+     * @see #seeded(long)
+     */
+    public static EdgeIdGenerator seeded(long seed, int length) {
+        return new SeededGenerator(seed, checkLength(length));
+    }
+
+    private static int checkLength(int length) {
+        if (length < 1) {
+            throw new IllegalArgumentException("length must be positive, was: " + length);
+        }
+        return length;
+    }
+
+    static String base64Id(SplittableRandom random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i += 10) {
+            fill(chars, i, random.nextLong());
+        }
+        return new String(chars);
+    }
+
+    static String base64Id(ThreadLocalRandom random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i += 10) {
+            fill(chars, i, random.nextLong());
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Fill up to 10 characters starting at offset, using 6 bits of the given random value per character.
+     */
+    private static void fill(char[] chars, int offset, long bits) {
+        int end = Math.min(chars.length, offset + 10);
+        for (int i = offset; i < end; i++) {
+            chars[i] = BASE64_ALPHABET[(int) (bits & 0x3F)];
+            bits >>>= 6;
+        }
+    }
+
+    /**
+     * Create a version 4 (random) UUID string from the given random bits, the same layout as
+     * {@link UUID#randomUUID()} but reproducible from a seed.
+     */
+    static String uuid(long mostSigBits, long leastSigBits) {
+        mostSigBits = (mostSigBits & ~0xF000L) | 0x4000L; // version 4
+        leastSigBits = (leastSigBits & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L; // IETF variant
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+
+    private static final class ThreadLocalRandomGenerator implements EdgeIdGenerator {
+
+        private final int length;
+
+        private ThreadLocalRandomGenerator(int length) {
+            this.length = length;
+        }
+
+        @Override
+        public String generateId() {
+            return base64Id(ThreadLocalRandom.current(), length);
+        }
+
+        /**
+         * Correlation ids are generated once per flow and identify it across systems, so they keep the unpredictable
+         * ids of the shared SecureRandom rather than the cheaper edge id source.
+         */
+        @Override
+        public String generateCorrelationId() {
+            return UUID.randomUUID().toString();
+        }
+    }
+
+    private static final class SeededGenerator implements EdgeIdGenerator {
+
+        private final SplittableRandom random;
+        private final int length;
+
+        private SeededGenerator(long seed, int length) {
+            this.random = new SplittableRandom(seed);
+            this.length = length;
+        }
+
+        @Override
+        public synchronized String generateId() {
+            return base64Id(random, length);
+        }
+
+        @Override
+        public synchronized String generateCorrelationId() {
+            return uuid(random.nextLong(), random.nextLong());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package no.cantara.flow.flowlogger.event;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Reads and writes {@link Edge} with Gson through its getters, so that timestamps that are formatted lazily are
+ * included.
+ */
+final class EdgeTypeAdapter extends TypeAdapter<Edge> {
+
+    @Override
+    public void write(JsonWriter out, Edge edge) throws IOException {
+        out.beginObject();
+        out.name("id").value(edge.id);
+        out.name("retryGroupId").value(edge.retryGroupId);
+        out.name("timestamp").value(edge.getTimestamp());
+        out.name("milestone").value(edge.milestone);
+        out.name("status").value(edge.status);
+        out.name("errorType").value(edge.errorType);
+        out.name("errorReason").value(edge.errorReason);
+        out.name("comment").value(edge.comment);
+        out.endObject();
+    }
+
+    @Override
+    public Edge read(JsonReader in) throws IOException {
+        String id = null;
+        String retryGroupId = null;
+        String timestamp = null;
+        String milestone = null;
+        String status = null;
+        String errorType = null;
+        String errorReason = null;
+        String comment = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":
+                    id = string(in);
+                    break;
+                case "retryGroupId":
+                    retryGroupId = string(in);
+                    break;
+                case "timestamp":
+                    timestamp = string(in);
+                    break;
+                case "milestone":
+                    milestone = string(in);
+                    break;
+                case "status":
+                    status = string(in);
+                    break;
+                case "errorType":
+                    errorType = string(in);
+                    break;
+                case "errorReason":
+                    errorReason = string(in);
+                    break;
+                case "comment":
+                    comment = string(in);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new Edge(id, retryGroupId, timestamp, milestone, status, errorType, errorReason, comment);
+    }
+
+    private static String string(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+}
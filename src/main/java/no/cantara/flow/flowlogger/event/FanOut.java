@@ -0,0 +1,207 @@
+package no.cantara.flow.flowlogger.event;
+
+import no.cantara.flow.flowlogger.metrics.FlowLoggerMetrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The shared parent of events that split one flow to many destinations. The correlation id, history, reporter,
+ * source and the edge fields other than the id are taken from a {@link Builder} once, validated once and serialized
+ * once. Each child event only adds its destination and edge id, and shares everything else, including the json of
+ * the shared fields, with its siblings.
+ * <p>
+ * Example:
+ * <pre>
+ * FanOut fanOut = FlowLogger.event(correlationId, history)
+ *         .reporter(reporter)
+ *         .source(inbox).payloadId(messageId)
+ *         .edge().milestone("dispatched")
+ *         .fanOut();
+ * sink.publishAll(fanOut.children(subscribers));
+ * </pre>
+ * A fan-out is immutable and can be used from several threads.
+ */
+public final class FanOut {
+
+    private static final FanOut DISABLED = new FanOut();
+
+    private final EdgeIdGenerator idGenerator;
+    final String correlationId;
+    final FlowHistory history;
+    final String historyDigest;
+    final int maxHistorySize;
+    final Reporter reporter;
+    final Node source;
+    private final Node destinationTemplate;
+    private final Edge edgeTemplate;
+
+    /**
+     * The json of the event up to, but not including, the destination.
+     */
+    final String head;
+
+    /**
+     * The json of the edge after its id, including the closing brace of the edge.
+     */
+    final String edgeTail;
+
+    private FanOut() {
+        this.idGenerator = null;
+        this.correlationId = null;
+        this.history = null;
+        this.historyDigest = null;
+        this.maxHistorySize = 0;
+        this.reporter = null;
+        this.source = null;
+        this.destinationTemplate = null;
+        this.edgeTemplate = null;
+        this.head = null;
+        this.edgeTail = null;
+    }
+
+    FanOut(EdgeIdGenerator idGenerator, String correlationId, FlowHistory history, int maxHistorySize, Reporter reporter, Node source, Node destinationTemplate, Edge edgeTemplate) {
+        this.idGenerator = idGenerator;
+        this.correlationId = correlationId;
+        this.history = history;
+        this.maxHistorySize = maxHistorySize;
+        this.reporter = Builder.prebuilt(reporter);
+        this.source = Builder.prebuilt(source);
+        this.destinationTemplate = destinationTemplate;
+        edgeTemplate.getTimestamp();
+        this.edgeTemplate = edgeTemplate;
+        FlowEvent shared = new FlowEvent(correlationId, history, this.reporter, this.source, null, null);
+        this.historyDigest = shared.historyDigest;
+        StringBuilder json = new StringBuilder(256);
+        StringBuilder edge = new StringBuilder(128);
+        try {
+            FlowEventJsonWriter.writeEvent(shared, json);
+            FlowEventJsonWriter.writeEdge(new Edge("", edgeTemplate), edge);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder never throws
+        }
+        this.head = json.substring(0, json.length() - 1);
+        this.edgeTail = edge.substring("{\"id\":\"\"".length());
+    }
+
+    /**
+     * @return a fan-out that produces no children, returned by {@link Builder#fanOut()} when the guard rejects the
+     * correlation id.
+     */
+    static FanOut disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * @return false if the guard of the builder rejected the correlation id, in which case no children are produced.
+     */
+    public boolean isEnabled() {
+        return this != DISABLED;
+    }
+
+    /**
+     * Create a child with a generated edge id.
+     *
+     * @param destination the destination of the child.
+     * @return the child, or null if this fan-out is not {@link #isEnabled() enabled}.
+     */
+    public FlowEvent child(Node destination) {
+        if (!isEnabled()) {
+            return null;
+        }
+        FlowLoggerMetrics.global().idGenerated();
+        return child(destination, idGenerator.generateId());
+    }
+
+    /**
+     * @param destination the destination of the child.
+     * @param edgeId      the edge id of the child.
+     * @return the child, or null if this fan-out is not {@link #isEnabled() enabled}.
+     */
+    public FlowEvent child(Node destination, String edgeId) {
+        if (!isEnabled()) {
+            return null;
+        }
+        if (destination == null) {
+            throw new IllegalArgumentException("destination cannot be null");
+        }
+        if (edgeId == null) {
+            throw new IllegalArgumentException("edge.id is missing.");
+        }
+        FlowLoggerMetrics.global().eventBuilt();
+        return new FlowEvent(this, destination, new Edge(edgeId, edgeTemplate));
+    }
+
+    /**
+     * Create a child with a generated edge id whose destination is the destination set on the builder, with the
+     * given address.
+     *
+     * @param destinationAddress the address of the destination of the child.
+     * @return the child, or null if this fan-out is not {@link #isEnabled() enabled}.
+     */
+    public FlowEvent childAt(String destinationAddress) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Node t = destinationTemplate;
+        Node destination = t == null
+                ? new Node(null, destinationAddress, null, null)
+                : new Node(t.type, destinationAddress, t.payloadType, t.payloadId);
+        return child(destination);
+    }
+
+    /**
+     * Create one child with a generated edge id for each destination.
+     *
+     * @param destinations the destinations.
+     * @return the children in the order of the destinations, or an empty list if this fan-out is not
+     * {@link #isEnabled() enabled}.
+     */
+    public List<FlowEvent> children(Collection<? extends Node> destinations) {
+        if (!isEnabled()) {
+            return Collections.emptyList();
+        }
+        List<FlowEvent> children = new ArrayList<>(destinations.size());
+        for (Node destination : destinations) {
+            children.add(child(destination));
+        }
+        return children;
+    }
+
+    /**
+     * Create one child for each destination and hand the children to the target as one batch, e.g.
+     * {@code fanOut.emit(destinations, sink::publishAll)}.
+     *
+     * @param destinations the destinations.
+     * @param target       receives the children.
+     * @return true if children were created and handed to the target.
+     */
+    public boolean emit(Collection<? extends Node> destinations, Consumer<? super List<FlowEvent>> target) {
+        if (!isEnabled()) {
+            return false;
+        }
+        target.accept(children(destinations));
+        return true;
+    }
+
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    public FlowHistory getFlowHistory() {
+        return history;
+    }
+
+    public Reporter getReporter() {
+        return reporter;
+    }
+
+    public Node getSource() {
+        return source;
+    }
+}
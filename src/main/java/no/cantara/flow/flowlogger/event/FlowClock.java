@@ -0,0 +1,21 @@
+package no.cantara.flow.flowlogger.event;
+
+import java.time.ZoneId;
+
+/**
+ * Source of the edge timestamp of events built without an explicit timestamp.
+ *
+ * @see FlowClocks
+ */
+public interface FlowClock {
+
+    /**
+     * @return the current time in nanoseconds since 1970-01-01T00:00:00Z.
+     */
+    long epochNanos();
+
+    /**
+     * @return the zone the timestamp is reported in.
+     */
+    ZoneId zone();
+}
@@ -0,0 +1,160 @@
+package no.cantara.flow.flowlogger.event;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Factory for the built-in {@link FlowClock}s, and holder of the default clock used by new {@link Builder}s.
+ */
+public final class FlowClocks {
+
+    static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private static final FlowClock SYSTEM = new SystemClock(ZoneId.systemDefault(), false);
+    private static final FlowClock COARSE = new SystemClock(ZoneId.systemDefault(), true);
+
+    private static volatile FlowClock defaultClock = SYSTEM;
+
+    private FlowClocks() {
+    }
+
+    /**
+     * @return the clock used by builders that were not given an explicit clock.
+     */
+    public static FlowClock getDefault() {
+        return defaultClock;
+    }
+
+    /**
+     * Replace the clock used by builders that were not given an explicit clock.
+     *
+     * @param clock the new default clock.
+     */
+    public static void setDefault(FlowClock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("clock cannot be null");
+        }
+        defaultClock = clock;
+    }
+
+    /**
+     * @return the system clock with the best available precision, in the default zone of the JVM when this class
+     * was loaded.
+     */
+    public static FlowClock system() {
+        return SYSTEM;
+    }
+
+    /**
+     * @param zone the zone of the reported timestamps.
+     * @return the system clock with the best available precision.
+     */
+    public static FlowClock system(ZoneId zone) {
+        return new SystemClock(checkZone(zone), false);
+    }
+
+    /**
+     * @return a millisecond precision system clock in the default zone of the JVM when this class was loaded.
+     * @see #coarse(ZoneId)
+     */
+    public static FlowClock coarse() {
+        return COARSE;
+    }
+
+    /**
+     * A millisecond precision system clock, cheaper to read than {@link #system()} on most platforms and with fewer
+     * distinct sub-second parts to format.
+     *
+     * @param zone the zone of the reported timestamps.
+     * @return the clock.
+     */
+    public static FlowClock coarse(ZoneId zone) {
+        return new SystemClock(checkZone(zone), true);
+    }
+
+    /**
+     * @param time the time to report.
+     * @return a clock that always reports the given time, typically used in tests.
+     */
+    public static FlowClock fixed(ZonedDateTime time) {
+        return stepping(time, Duration.ZERO);
+    }
+
+    /**
+     * A clock that reports the start time on the first read and advances by step on every read, typically used in
+     * tests that need distinct and predictable timestamps.
+     *
+     * @param start the first reported time.
+     * @param step  the amount to advance after each read.
+     * @return the clock.
+     */
+    public static FlowClock stepping(ZonedDateTime start, Duration step) {
+        if (start == null || step == null) {
+            throw new IllegalArgumentException("start and step cannot be null");
+        }
+        return new SteppingClock(epochNanos(start.toInstant()), step.toNanos(), start.getZone());
+    }
+
+    static long epochNanos(Instant instant) {
+        return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), NANOS_PER_SECOND), instant.getNano());
+    }
+
+    private static ZoneId checkZone(ZoneId zone) {
+        if (zone == null) {
+            throw new IllegalArgumentException("zone cannot be null");
+        }
+        return zone;
+    }
+
+    private static final class SystemClock implements FlowClock {
+
+        private final ZoneId zone;
+        private final boolean coarse;
+
+        private SystemClock(ZoneId zone, boolean coarse) {
+            this.zone = zone;
+            this.coarse = coarse;
+        }
+
+        @Override
+        public long epochNanos() {
+            if (coarse) {
+                return System.currentTimeMillis() * 1_000_000L;
+            }
+            Instant now = Clock.systemUTC().instant();
+            return now.getEpochSecond() * NANOS_PER_SECOND + now.getNano();
+        }
+
+        @Override
+        public ZoneId zone() {
+            return zone;
+        }
+    }
+
+    private static final class SteppingClock implements FlowClock {
+
+        private final AtomicLong next;
+        private final long step;
+        private final ZoneId zone;
+
+        private SteppingClock(long start, long step, ZoneId zone) {
+            this.next = new AtomicLong(start);
+            this.step = step;
+            this.zone = zone;
+        }
+
+        @Override
+        public long epochNanos() {
+            return step == 0 ? next.get() : next.getAndAdd(step);
+        }
+
+        @Override
+        public ZoneId zone() {
+            return zone;
+        }
+    }
+}
@@ -1,26 +1,91 @@
 package no.cantara.flow.flowlogger.event;
 
-import com.google.gson.Gson;
+import com.google.gson.annotations.JsonAdapter;
 
-import java.util.StringJoiner;
+import java.io.IOException;
 
+@JsonAdapter(FlowEventTypeAdapterFactory.class)
 public class FlowEvent {
 
-    final String flowEventVersion = "0.1";
+    /**
+     * The flowEventVersion of the events created and read by this library.
+     */
+    public static final String VERSION = "0.1";
+
+    final String flowEventVersion = VERSION;
     final String correlationId;
-    final String[] history;
-    final Reporter reporter;
-    final Node source;
-    final Node destination;
-    final Edge edge;
+    @JsonAdapter(FlowHistoryTypeAdapter.class)
+    final FlowHistory history;
+    final String historyDigest;
+    Reporter reporter;
+    Node source;
+    Node destination;
+    Edge edge;
+
+    /**
+     * The maximum number of edge ids kept verbatim in the next history, 0 for unbounded.
+     */
+    transient int maxHistorySize;
+
+    /**
+     * The raw field values of a lazily built event, null once the nested objects have been created.
+     */
+    private transient volatile Builder pending;
+
+    /**
+     * The fan-out this event is a child of, whose pre-serialized shared fields are written instead of serializing
+     * them again, or null.
+     */
+    final transient FanOut parent;
 
     public FlowEvent(String correlationId, String[] history, Reporter reporter, Node source, Node destination, Edge edge) {
+        this(correlationId, history == null ? null : FlowHistory.of(history), reporter, source, destination, edge);
+    }
+
+    public FlowEvent(String correlationId, FlowHistory history, Reporter reporter, Node source, Node destination, Edge edge) {
         this.correlationId = correlationId;
         this.history = history;
+        this.historyDigest = history == null ? null : history.digestString();
         this.reporter = reporter;
         this.source = source;
         this.destination = destination;
         this.edge = edge;
+        this.parent = null;
+    }
+
+    FlowEvent(FanOut parent, Node destination, Edge edge) {
+        this.correlationId = parent.correlationId;
+        this.history = parent.history;
+        this.historyDigest = parent.historyDigest;
+        this.reporter = parent.reporter;
+        this.source = parent.source;
+        this.destination = destination;
+        this.edge = edge;
+        this.maxHistorySize = parent.maxHistorySize;
+        this.parent = parent;
+    }
+
+    FlowEvent(String correlationId, FlowHistory history, Builder pending) {
+        this(correlationId, history, null, null, null, null);
+        this.pending = pending;
+    }
+
+    /**
+     * Create the nested objects of a lazily built event, a no-op for other events.
+     */
+    void materialize() {
+        if (pending != null) {
+            synchronized (this) {
+                Builder p = pending;
+                if (p != null) {
+                    reporter = p.buildReporter();
+                    source = p.buildSource();
+                    destination = p.buildDestination();
+                    edge = p.buildEdge();
+                    pending = null;
+                }
+            }
+        }
     }
 
     /**
@@ -29,18 +94,35 @@ public class FlowEvent {
      * @return the history to be used with the next FlowEvent.
      */
     public String nextHistory() {
-        StringJoiner sj = new StringJoiner(",");
-        if (history != null) {
-            for (String p : history) {
-                sj.add(p);
-            }
-        }
-        sj.add(edge.id);
-        return sj.toString();
+        return nextFlowHistory().toString();
+    }
+
+    /**
+     * Will add the edge.id to the current history without copying it.
+     *
+     * @return the history to be used with the next FlowEvent.
+     */
+    public FlowHistory nextFlowHistory() {
+        FlowHistory current = getFlowHistory();
+        FlowHistory next = (current == null ? FlowHistory.empty() : current).append(getEdge().id);
+        return maxHistorySize > 0 ? next.bounded(maxHistorySize) : next;
     }
 
     public String toJson() {
-        return new Gson().toJson(this);
+        StringBuilder sb = new StringBuilder(256);
+        FlowEventJsonWriter.write(this, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Write the json representation of this event directly to the given target without creating an intermediate
+     * string.
+     *
+     * @param out the target, e.g. a StringBuilder or a Writer.
+     * @throws IOException if the target throws.
+     */
+    public void writeJson(Appendable out) throws IOException {
+        FlowEventJsonWriter.write(this, out);
     }
 
     public String getFlowEventVersion() {
@@ -51,23 +133,49 @@ public class FlowEvent {
         return correlationId;
     }
 
+    /**
+     * @return a copy of the edge ids of the history, or null if the event has no history.
+     */
     public String[] getHistory() {
+        return history == null ? null : history.toArray();
+    }
+
+    /**
+     * @return the history, or null if the event has no history.
+     */
+    public FlowHistory getFlowHistory() {
+        if (historyDigest != null && history != null && !history.hasDigest()) {
+            return FlowHistory.withDigest(historyDigest, history.ids()); // read by Gson, where the digest is a separate field
+        }
         return history;
     }
 
+    /**
+     * @return the digest of the edge ids that are folded out of a bounded history, or null if the history is not
+     * bounded.
+     * @see FlowHistory#digestString()
+     */
+    public String getHistoryDigest() {
+        return historyDigest;
+    }
+
     public Reporter getReporter() {
+        materialize();
         return reporter;
     }
 
     public Node getSource() {
+        materialize();
         return source;
     }
 
     public Node getDestination() {
+        materialize();
         return destination;
     }
 
     public Edge getEdge() {
+        materialize();
         return edge;
     }
 }
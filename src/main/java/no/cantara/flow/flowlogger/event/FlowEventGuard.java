@@ -0,0 +1,15 @@
+package no.cantara.flow.flowlogger.event;
+
+/**
+ * Decides whether an event is built at all, checked before any event objects are created.
+ *
+ * @see Builder#guard(FlowEventGuard)
+ */
+public interface FlowEventGuard {
+
+    /**
+     * @param correlationId the correlation id of the event, may be null if not yet set.
+     * @return true if the event should be built.
+     */
+    boolean isEnabled(String correlationId);
+}
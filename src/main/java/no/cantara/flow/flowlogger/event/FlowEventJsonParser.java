@@ -0,0 +1,604 @@
+package no.cantara.flow.flowlogger.event;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Streaming parser for the json written by {@link FlowEventJsonWriter}, and by Gson, specialized for the
+ * {@link FlowEvent} schema. Parses straight from a char sequence or from UTF-8 in a byte array or byte buffer, and
+ * only creates strings for the fields that are asked for: a parser created with {@link #of(Field...)} skips the
+ * other fields without decoding them, and leaves out nested objects of which no field is asked for.
+ * <p>
+ * Unknown fields are skipped like Gson does. The {@code flowEventVersion}, when present, must be the version this
+ * library writes. Malformed input is reported with an {@link IllegalArgumentException}.
+ * <p>
+ * Parsers are immutable and may be shared between threads.
+ * <pre>
+ * FlowEventJsonParser ids = FlowEventJsonParser.of(Field.CORRELATION_ID, Field.EDGE_ID);
+ * FlowEvent event = ids.parse(line);
+ * </pre>
+ */
+public final class FlowEventJsonParser {
+
+    /**
+     * The fields that can be selected for parsing. The reporter, source and destination are parsed as a whole.
+     */
+    public enum Field {
+        CORRELATION_ID,
+        /**
+         * The history and its digest.
+         */
+        HISTORY,
+        REPORTER,
+        SOURCE,
+        DESTINATION,
+        EDGE_ID,
+        EDGE_RETRY_GROUP_ID,
+        EDGE_TIMESTAMP,
+        EDGE_MILESTONE,
+        EDGE_STATUS,
+        EDGE_ERROR_TYPE,
+        EDGE_ERROR_REASON,
+        EDGE_COMMENT
+    }
+
+    private static final String[] TOP_LEVEL = {"flowEventVersion", "correlationId", "history", "historyDigest", "reporter", "source", "destination", "edge"};
+    private static final String[] REPORTER_FIELDS = {"deployment", "name", "version", "containerId", "instance"};
+    private static final String[] NODE_FIELDS = {"type", "address", "payloadType", "payloadId"};
+    private static final String[] EDGE_FIELDS = {"id", "retryGroupId", "timestamp", "milestone", "status", "errorType", "errorReason", "comment"};
+    private static final int FIRST_EDGE_FIELD = Field.EDGE_ID.ordinal();
+
+    private static final FlowEventJsonParser ALL = new FlowEventJsonParser(EnumSet.allOf(Field.class));
+
+    private final boolean[] wanted = new boolean[Field.values().length];
+    private final boolean anyEdgeField;
+
+    private FlowEventJsonParser(Set<Field> fields) {
+        boolean edge = false;
+        for (Field field : fields) {
+            wanted[field.ordinal()] = true;
+            edge |= field.ordinal() >= FIRST_EDGE_FIELD;
+        }
+        this.anyEdgeField = edge;
+    }
+
+    /**
+     * @return a parser of all fields.
+     */
+    public static FlowEventJsonParser all() {
+        return ALL;
+    }
+
+    /**
+     * @param fields the fields to parse, all other fields are left null.
+     * @return a parser of the given fields.
+     */
+    public static FlowEventJsonParser of(Field... fields) {
+        return new FlowEventJsonParser(fields.length == 0 ? EnumSet.noneOf(Field.class) : EnumSet.copyOf(Arrays.asList(fields)));
+    }
+
+    /**
+     * @param json one json object.
+     * @return the event.
+     * @throws IllegalArgumentException if the input is not a single json object of a supported version.
+     */
+    public FlowEvent parse(CharSequence json) {
+        return parse(new CharInput(json, 0, json.length()));
+    }
+
+    /**
+     * @param utf8 one json object encoded as UTF-8.
+     * @return the event.
+     * @throws IllegalArgumentException if the input is not a single json object of a supported version.
+     */
+    public FlowEvent parse(byte[] utf8) {
+        return parse(utf8, 0, utf8.length);
+    }
+
+    /**
+     * @param utf8   the bytes holding one json object encoded as UTF-8.
+     * @param offset the index of the first byte of the object.
+     * @param length the number of bytes of the object.
+     * @return the event.
+     * @throws IllegalArgumentException if the input is not a single json object of a supported version.
+     */
+    public FlowEvent parse(byte[] utf8, int offset, int length) {
+        return parse(ByteBuffer.wrap(utf8), offset, length);
+    }
+
+    /**
+     * Parse the remaining bytes of the buffer, without changing its position.
+     *
+     * @param utf8 one json object encoded as UTF-8.
+     * @return the event.
+     * @throws IllegalArgumentException if the input is not a single json object of a supported version.
+     */
+    public FlowEvent parse(ByteBuffer utf8) {
+        return parse(utf8, utf8.position(), utf8.remaining());
+    }
+
+    /**
+     * @param utf8   the buffer holding one json object encoded as UTF-8.
+     * @param offset the absolute index of the first byte of the object, independent of the position of the buffer.
+     * @param length the number of bytes of the object.
+     * @return the event.
+     * @throws IllegalArgumentException if the input is not a single json object of a supported version.
+     */
+    public FlowEvent parse(ByteBuffer utf8, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > utf8.limit()) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", limit " + utf8.limit());
+        }
+        return parse(new ByteInput(utf8, offset, offset + length));
+    }
+
+    private FlowEvent parse(Input in) {
+        String correlationId = null;
+        String[] history = null;
+        String historyDigest = null;
+        Reporter reporter = null;
+        Node source = null;
+        Node destination = null;
+        Edge edge = null;
+        in.expect('{');
+        if (!in.consume('}')) {
+            do {
+                int field = in.key(TOP_LEVEL);
+                switch (field) {
+                    case 0:
+                        String version = in.stringUnless(FlowEvent.VERSION);
+                        if (version != null) {
+                            throw new IllegalArgumentException("Unsupported flowEventVersion: \"" + version + "\"");
+                        }
+                        break;
+                    case 1:
+                        correlationId = wanted(Field.CORRELATION_ID) ? in.string() : in.skip();
+                        break;
+                    case 2:
+                        history = wanted(Field.HISTORY) ? in.stringArray() : in.skip();
+                        break;
+                    case 3:
+                        historyDigest = wanted(Field.HISTORY) ? in.string() : in.skip();
+                        break;
+                    case 4:
+                        reporter = wanted(Field.REPORTER) ? reporter(in) : in.skip();
+                        break;
+                    case 5:
+                        source = wanted(Field.SOURCE) ? node(in) : in.skip();
+                        break;
+                    case 6:
+                        destination = wanted(Field.DESTINATION) ? node(in) : in.skip();
+                        break;
+                    case 7:
+                        edge = anyEdgeField ? edge(in) : in.skip();
+                        break;
+                    default:
+                        in.skip();
+                }
+            } while (in.next('}'));
+        }
+        in.end();
+        FlowHistory flowHistory = history == null ? null : FlowHistory.withDigest(historyDigest, history);
+        return new FlowEvent(correlationId, flowHistory, reporter, source, destination, edge);
+    }
+
+    private boolean wanted(Field field) {
+        return wanted[field.ordinal()];
+    }
+
+    private static Reporter reporter(Input in) {
+        String[] values = in.object(REPORTER_FIELDS, null, 0);
+        return values == null ? null : new Reporter(values[0], values[1], values[2], values[3], values[4]);
+    }
+
+    private static Node node(Input in) {
+        String[] values = in.object(NODE_FIELDS, null, 0);
+        return values == null ? null : new Node(values[0], values[1], values[2], values[3]);
+    }
+
+    private Edge edge(Input in) {
+        String[] v = in.object(EDGE_FIELDS, wanted, FIRST_EDGE_FIELD);
+        return v == null ? null : new Edge(v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7]);
+    }
+
+    /**
+     * A cursor over the input, reading chars or bytes. Bytes are handed out as unsigned values, so structural
+     * characters compare the same, and strings are decoded from UTF-8 only when they are created.
+     */
+    private abstract static class Input {
+
+        private final int end;
+        int pos;
+
+        Input(int start, int end) {
+            this.pos = start;
+            this.end = end;
+        }
+
+        abstract int at(int index);
+
+        /**
+         * @return the raw input between the given indexes, which contains no escapes, as a string.
+         */
+        abstract String decode(int start, int end);
+
+        /**
+         * Append the raw input between the given indexes, which contains no escapes.
+         */
+        abstract void decode(int start, int end, StringBuilder sb);
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at offset " + pos);
+        }
+
+        int peek() {
+            while (pos < end) {
+                int c = at(pos);
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    return c;
+                }
+                pos++;
+            }
+            return -1;
+        }
+
+        void expect(char c) {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        boolean consume(char c) {
+            if (peek() == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Consume the separator after a value.
+         *
+         * @return true if another member follows, false at the given closing bracket.
+         */
+        boolean next(char close) {
+            int c = peek();
+            pos++;
+            if (c == ',') {
+                return true;
+            }
+            if (c == close) {
+                return false;
+            }
+            pos--;
+            throw error("Expected ',' or '" + close + "'");
+        }
+
+        void end() {
+            if (peek() != -1) {
+                throw error("Unexpected data after the event");
+            }
+        }
+
+        /**
+         * Read a member name and the colon after it.
+         *
+         * @return the index of the name among the given names, or -1 if it is not one of them.
+         */
+        int key(String[] names) {
+            expect('"');
+            int start = pos;
+            boolean escaped = false;
+            int c;
+            while ((c = charAt(pos)) != '"') {
+                if (c == '\\') {
+                    escaped = true;
+                    pos++;
+                }
+                pos++;
+            }
+            int nameEnd = pos++;
+            int field = -1;
+            if (escaped) {
+                pos = start;
+                field = Arrays.asList(names).indexOf(quoted());
+            } else {
+                for (int i = 0; i < names.length && field < 0; i++) {
+                    if (matches(start, nameEnd, names[i])) {
+                        field = i;
+                    }
+                }
+            }
+            expect(':');
+            return field;
+        }
+
+        private boolean matches(int start, int end, String name) {
+            if (end - start != name.length()) {
+                return false;
+            }
+            for (int i = 0; i < name.length(); i++) {
+                if (at(start + i) != name.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int charAt(int index) {
+            if (index >= end) {
+                pos = index;
+                throw error("Unterminated string");
+            }
+            return at(index);
+        }
+
+        /**
+         * @return a string value, or null for a json null.
+         */
+        String string() {
+            int c = peek();
+            if (c == '"') {
+                pos++;
+                return quoted();
+            }
+            if (c == 'n') {
+                literal("null");
+                return null;
+            }
+            throw error("Expected a string");
+        }
+
+        /**
+         * Read a string value without decoding it if it is the expected value.
+         *
+         * @return null if the value is the expected value or a json null, otherwise the value.
+         */
+        String stringUnless(String expected) {
+            if (peek() != '"') {
+                return string();
+            }
+            int start = ++pos;
+            int c;
+            while ((c = charAt(pos)) != '"') {
+                if (c == '\\') {
+                    pos = start;
+                    String value = quoted();
+                    return expected.equals(value) ? null : value;
+                }
+                pos++;
+            }
+            int stop = pos++;
+            return matches(start, stop, expected) ? null : decode(start, stop);
+        }
+
+        /**
+         * Read the rest of a string whose opening quote has been consumed.
+         */
+        private String quoted() {
+            int start = pos;
+            int c;
+            while ((c = charAt(pos)) != '"') {
+                if (c == '\\') {
+                    return escaped(start);
+                }
+                pos++;
+            }
+            return decode(start, pos++);
+        }
+
+        private String escaped(int start) {
+            StringBuilder sb = new StringBuilder(pos - start + 16);
+            int run = start;
+            int c;
+            while ((c = charAt(pos)) != '"') {
+                if (c != '\\') {
+                    pos++;
+                    continue;
+                }
+                decode(run, pos, sb);
+                int e = charAt(pos + 1);
+                pos += 2;
+                switch (e) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        sb.append((char) e);
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        int value = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(charAt(pos++), 16);
+                            if (digit < 0) {
+                                throw error("Bad unicode escape");
+                            }
+                            value = value << 4 | digit;
+                        }
+                        sb.append((char) value);
+                        break;
+                    default:
+                        throw error("Bad escape");
+                }
+                run = pos;
+            }
+            decode(run, pos++, sb);
+            return sb.toString();
+        }
+
+        String[] stringArray() {
+            if (peek() == 'n') {
+                literal("null");
+                return null;
+            }
+            expect('[');
+            if (consume(']')) {
+                return new String[0];
+            }
+            String[] values = new String[8];
+            int size = 0;
+            do {
+                if (size == values.length) {
+                    values = Arrays.copyOf(values, size * 2);
+                }
+                values[size++] = string();
+            } while (next(']'));
+            return size == values.length ? values : Arrays.copyOf(values, size);
+        }
+
+        /**
+         * Read an object of string fields.
+         *
+         * @param names  the field names.
+         * @param wanted which of the fields to decode, by index plus offset, or null for all.
+         * @return the values by the index of the names, or null for a json null.
+         */
+        String[] object(String[] names, boolean[] wanted, int offset) {
+            if (peek() == 'n') {
+                literal("null");
+                return null;
+            }
+            String[] values = new String[names.length];
+            expect('{');
+            if (consume('}')) {
+                return values;
+            }
+            do {
+                int field = key(names);
+                if (field >= 0 && (wanted == null || wanted[offset + field])) {
+                    values[field] = string();
+                } else {
+                    skip();
+                }
+            } while (next('}'));
+            return values;
+        }
+
+        private void literal(String literal) {
+            for (int i = 0; i < literal.length(); i++) {
+                if (pos >= end || at(pos) != literal.charAt(i)) {
+                    throw error("Expected " + literal);
+                }
+                pos++;
+            }
+        }
+
+        /**
+         * Skip a value of any type without decoding it.
+         *
+         * @return null, for convenience.
+         */
+        <T> T skip() {
+            int c = peek();
+            if (c == '"') {
+                pos++;
+                while ((c = charAt(pos)) != '"') {
+                    pos += c == '\\' ? 2 : 1;
+                }
+                pos++;
+            } else if (c == '{' || c == '[') {
+                int depth = 0;
+                do {
+                    c = charAt(pos++);
+                    if (c == '{' || c == '[') {
+                        depth++;
+                    } else if (c == '}' || c == ']') {
+                        depth--;
+                    } else if (c == '"') {
+                        pos--;
+                        skip();
+                    }
+                } while (depth > 0);
+            } else {
+                int start = pos;
+                while (pos < end && (c = at(pos)) != ',' && c != '}' && c != ']' && c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    pos++;
+                }
+                if (pos == start) {
+                    throw error("Expected a value");
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class CharInput extends Input {
+
+        private final CharSequence chars;
+
+        CharInput(CharSequence chars, int start, int end) {
+            super(start, end);
+            this.chars = chars;
+        }
+
+        @Override
+        int at(int index) {
+            return chars.charAt(index);
+        }
+
+        @Override
+        String decode(int start, int end) {
+            return chars.subSequence(start, end).toString();
+        }
+
+        @Override
+        void decode(int start, int end, StringBuilder sb) {
+            sb.append(chars, start, end);
+        }
+    }
+
+    private static final class ByteInput extends Input {
+
+        private final ByteBuffer bytes;
+        private byte[] scratch;
+
+        ByteInput(ByteBuffer bytes, int start, int end) {
+            super(start, end);
+            this.bytes = bytes;
+        }
+
+        @Override
+        int at(int index) {
+            return bytes.get(index) & 0xff;
+        }
+
+        @Override
+        String decode(int start, int end) {
+            if (bytes.hasArray()) {
+                return new String(bytes.array(), bytes.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+            }
+            int length = end - start;
+            if (scratch == null || scratch.length < length) {
+                scratch = new byte[Math.max(length, 64)];
+            }
+            for (int i = 0; i < length; i++) {
+                scratch[i] = bytes.get(start + i);
+            }
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        void decode(int start, int end, StringBuilder sb) {
+            if (start < end) {
+                sb.append(decode(start, end));
+            }
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package no.cantara.flow.flowlogger.event;
+
+import no.cantara.flow.flowlogger.metrics.FlowLoggerMetrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Hand-written JSON serializer for {@link FlowEvent}. Output is byte-identical to what a default
+ * {@code new Gson().toJson(event)} produces: fields in declaration order, null fields omitted, null array elements
+ * written as {@code null}, and strings escaped the HTML-safe way Gson does by default.
+ * <p>
+ * The serializer writes directly into the caller-supplied target and does not create intermediate strings.
+ */
+public final class FlowEventJsonWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private FlowEventJsonWriter() {
+    }
+
+    /**
+     * Write the json representation of the event to the given appendable, e.g. a {@link java.io.Writer}.
+     *
+     * @param event the event to serialize.
+     * @param out   the target.
+     * @throws IOException if the target throws.
+     */
+    public static void write(FlowEvent event, Appendable out) throws IOException {
+        FlowLoggerMetrics metrics = FlowLoggerMetrics.global();
+        long started = metrics.serializationStarted();
+        writeEvent(event, out);
+        metrics.serializationDone(started);
+    }
+
+    static void writeEvent(FlowEvent event, Appendable out) throws IOException {
+        event.materialize();
+        FanOut parent = event.parent;
+        if (parent != null) {
+            out.append(parent.head);
+            if (event.destination != null) {
+                out.append(",\"destination\":");
+                writeNode(event.destination, out);
+            }
+            out.append(",\"edge\":{\"id\":");
+            string(out, event.edge.id);
+            out.append(parent.edgeTail).append('}');
+            return;
+        }
+        out.append('{');
+        boolean first = field(out, true, "flowEventVersion", event.flowEventVersion);
+        first = field(out, first, "correlationId", event.correlationId);
+        if (event.history != null) {
+            first = name(out, first, "history");
+            writeHistory(event.history, out);
+        }
+        first = field(out, first, "historyDigest", event.historyDigest);
+        if (event.reporter != null) {
+            first = name(out, first, "reporter");
+            writeReporter(event.reporter, out);
+        }
+        if (event.source != null) {
+            first = name(out, first, "source");
+            writeNode(event.source, out);
+        }
+        if (event.destination != null) {
+            first = name(out, first, "destination");
+            writeNode(event.destination, out);
+        }
+        if (event.edge != null) {
+            name(out, first, "edge");
+            writeEdge(event.edge, out);
+        }
+        out.append('}');
+    }
+
+    /**
+     * Write the json representation of the event to the given string builder.
+     *
+     * @param event the event to serialize.
+     * @param out   the target.
+     */
+    public static void write(FlowEvent event, StringBuilder out) {
+        try {
+            write(event, (Appendable) out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder never throws
+        }
+    }
+
+    /**
+     * Write the json representation of the event as UTF-8 to the given buffer, starting at its current position.
+     * Unpaired surrogates are written as '?', the same as {@link String#getBytes(java.nio.charset.Charset)} does.
+     *
+     * @param event the event to serialize.
+     * @param out   the target.
+     * @throws java.nio.BufferOverflowException if the buffer does not have enough remaining space.
+     */
+    public static void write(FlowEvent event, ByteBuffer out) {
+        Utf8ByteBufferAppendable appendable = new Utf8ByteBufferAppendable(out);
+        try {
+            write(event, appendable);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // ByteBuffer never throws IOException
+        }
+        appendable.finish();
+    }
+
+    /**
+     * A history parsed from a header is written straight from the header without splitting it into ids.
+     */
+    static void writeHistory(FlowHistory history, Appendable out) throws IOException {
+        out.append('[');
+        String header = history.header();
+        if (header != null) {
+            int start = history.headerStart();
+            if (start >= header.length()) {
+                out.append(']');
+                return;
+            }
+            int comma;
+            while ((comma = header.indexOf(',', start)) >= 0) {
+                string(out, header, start, comma);
+                out.append(',');
+                start = comma + 1;
+            }
+            string(out, header, start, header.length());
+        } else {
+            String[] ids = history.ids();
+            for (int i = 0; i < ids.length; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                string(out, ids[i]);
+            }
+        }
+        out.append(']');
+    }
+
+    /**
+     * Writes the cached json of a reporter that is shared between events, see {@link Builder#reporter(Reporter)}, or
+     * serializes the fields of a reporter that is not.
+     */
+    static void writeReporter(Reporter reporter, Appendable out) throws IOException {
+        String fragment = reporter.json;
+        if (fragment != null) {
+            out.append(fragment);
+            return;
+        }
+        out.append('{');
+        boolean first = field(out, true, "deployment", reporter.deployment);
+        first = field(out, first, "name", reporter.name);
+        first = field(out, first, "version", reporter.version);
+        first = field(out, first, "containerId", reporter.containerId);
+        field(out, first, "instance", reporter.instance);
+        out.append('}');
+    }
+
+    static void writeNode(Node node, Appendable out) throws IOException {
+        String fragment = node.json;
+        if (fragment != null) {
+            out.append(fragment);
+            return;
+        }
+        out.append('{');
+        boolean first = field(out, true, "type", node.type);
+        first = field(out, first, "address", node.address);
+        first = field(out, first, "payloadType", node.payloadType);
+        field(out, first, "payloadId", node.payloadId);
+        out.append('}');
+    }
+
+    static void writeEdge(Edge edge, Appendable out) throws IOException {
+        out.append('{');
+        boolean first = field(out, true, "id", edge.id);
+        first = field(out, first, "retryGroupId", edge.retryGroupId);
+        first = field(out, first, "timestamp", edge.getTimestamp());
+        first = field(out, first, "milestone", edge.milestone);
+        first = field(out, first, "status", edge.status);
+        first = field(out, first, "errorType", edge.errorType);
+        first = field(out, first, "errorReason", edge.errorReason);
+        field(out, first, "comment", edge.comment);
+        out.append('}');
+    }
+
+    /**
+     * Writes the field if value is not null.
+     *
+     * @return whether the next field is still the first field of the object.
+     */
+    private static boolean field(Appendable out, boolean first, String name, String value) throws IOException {
+        if (value == null) {
+            return first;
+        }
+        name(out, first, name);
+        string(out, value);
+        return false;
+    }
+
+    private static boolean name(Appendable out, boolean first, String name) throws IOException {
+        if (!first) {
+            out.append(',');
+        }
+        out.append('"').append(name).append("\":");
+        return false;
+    }
+
+    /**
+     * Writes a quoted and escaped json string, or null. Escaping follows Gson's html-safe defaults.
+     */
+    static void string(Appendable out, String value) throws IOException {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        string(out, value, 0, value.length());
+    }
+
+    /**
+     * Writes the given range of the value as a quoted and escaped json string.
+     */
+    static void string(Appendable out, String value, int start, int end) throws IOException {
+        out.append('"');
+        int last = start;
+        int length = end;
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+            String replacement;
+            if (c < 128) {
+                switch (c) {
+                    case '"':
+                        replacement = "\\\"";
+                        break;
+                    case '\\':
+                        replacement = "\\\\";
+                        break;
+                    case '\t':
+                        replacement = "\\t";
+                        break;
+                    case '\b':
+                        replacement = "\\b";
+                        break;
+                    case '\n':
+                        replacement = "\\n";
+                        break;
+                    case '\r':
+                        replacement = "\\r";
+                        break;
+                    case '\f':
+                        replacement = "\\f";
+                        break;
+                    case '<':
+                    case '>':
+                    case '&':
+                    case '=':
+                    case '\'':
+                        replacement = null;
+                        break;
+                    default:
+                        if (c >= 0x20) {
+                            continue;
+                        }
+                        replacement = null;
+                }
+            } else if (c == '\u2028' || c == '\u2029') {
+                replacement = null;
+            } else {
+                continue;
+            }
+            if (last < i) {
+                out.append(value, last, i);
+            }
+            if (replacement != null) {
+                out.append(replacement);
+            } else {
+                out.append("\\u").append(HEX[(c >> 12) & 0xF]).append(HEX[(c >> 8) & 0xF]).append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+            }
+            last = i + 1;
+        }
+        if (last < length) {
+            out.append(value, last, length);
+        }
+        out.append('"');
+    }
+
+    /**
+     * Encodes appended chars as UTF-8 straight into a byte buffer.
+     */
+    static final class Utf8ByteBufferAppendable implements Appendable {
+
+        private final ByteBuffer buffer;
+        private char pendingHighSurrogate;
+
+        Utf8ByteBufferAppendable(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) {
+            for (int i = start; i < end; i++) {
+                append(csq.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) {
+            if (pendingHighSurrogate != 0) {
+                char high = pendingHighSurrogate;
+                pendingHighSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int codePoint = Character.toCodePoint(high, c);
+                    buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+                    return this;
+                }
+                buffer.put((byte) '?');
+            }
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c)) {
+                pendingHighSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+            return this;
+        }
+
+        void finish() {
+            if (pendingHighSurrogate != 0) {
+                pendingHighSurrogate = 0;
+                buffer.put((byte) '?');
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package no.cantara.flow.flowlogger.event;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Makes sure a lazily built {@link FlowEvent} is materialized before Gson serializes its fields, otherwise delegates
+ * to the reflective adapter Gson would use anyway.
+ */
+final class FlowEventTypeAdapterFactory implements TypeAdapterFactory {
+
+    @Override
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        if (type.getRawType() != FlowEvent.class) {
+            return null;
+        }
+        final TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+        return new TypeAdapter<T>() {
+            @Override
+            public void write(JsonWriter out, T value) throws IOException {
+                if (value != null) {
+                    ((FlowEvent) value).materialize();
+                }
+                delegate.write(out, value);
+            }
+
+            @Override
+            public T read(JsonReader in) throws IOException {
+                return delegate.read(in);
+            }
+        };
+    }
+}
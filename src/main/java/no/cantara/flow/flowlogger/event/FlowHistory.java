@@ -0,0 +1,487 @@
+package no.cantara.flow.flowlogger.event;
+
+import java.util.Arrays;
+
+/**
+ * Immutable list of the edge ids a flow has passed through, oldest first.
+ * <p>
+ * A history is either parsed from the comma-separated header passed between processing steps, created from an array
+ * of ids, or the result of appending one edge id to another history. Appending is O(1) and shares the existing
+ * history instead of copying it. A parsed header is validated in a single pass when parsed, but only split into ids
+ * if the individual ids are needed, and the comma-separated rendering of any history is computed once and cached.
+ * <p>
+ * A history can be bounded, see {@link #bounded(int)}. The oldest edge ids of a bounded history are folded into a
+ * rolling digest, and only the newest ids are kept verbatim. In the header the digest is carried as the first element,
+ * written as '=' followed by the 11 character digest and the number of folded ids, all in the Base64 basic alphabet.
+ * Peers that do not know about digests see it as just another history element.
+ */
+public final class FlowHistory {
+
+    /**
+     * The digest of nothing, the FNV-1a 64-bit offset basis.
+     */
+    public static final long EMPTY_DIGEST = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final int DIGEST_CHARS = 11;
+
+    private static final FlowHistory EMPTY = new FlowHistory(null, null, null, 0, new String[0], 0, EMPTY_DIGEST, 0);
+
+    private final FlowHistory parent;
+    private final String edgeId;
+    private final String header;
+    private final int headerStart;
+    private final int size;
+    private final long digest;
+    private final int folded;
+    private volatile String[] ids; // volatile since the array is filled before publication, unlike String
+    private String rendered;
+
+    private FlowHistory(FlowHistory parent, String edgeId, String header, int headerStart, String[] ids, int size, long digest, int folded) {
+        this.parent = parent;
+        this.edgeId = edgeId;
+        this.header = header;
+        this.headerStart = headerStart;
+        this.ids = ids;
+        this.size = size;
+        this.digest = digest;
+        this.folded = folded;
+        this.rendered = header;
+    }
+
+    public static FlowHistory empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Parse a comma-separated list of edge ids. Each edge-id must be non-empty and only have characters taken from
+     * the Base64 basic alphabet, an IllegalArgumentException is thrown if this requirement is not met.
+     *
+     * @param header the comma-separated edge ids, optionally starting with a digest element.
+     * @return the parsed history, empty if header is null or empty.
+     */
+    public static FlowHistory parse(String header) {
+        if (header == null || header.isEmpty()) {
+            return EMPTY;
+        }
+        int count = validate(header);
+        if (count < 0) {
+            throw new IllegalArgumentException("History must match a pattern of a comma-separated list of IDs with alphabet taken from the Base64 basic type. Bad history: \"" + header + "\"");
+        }
+        if (header.charAt(0) == '=') {
+            int tokenEnd = header.indexOf(',');
+            if (tokenEnd < 0) {
+                tokenEnd = header.length();
+            }
+            if (isDigestToken(header, 1, tokenEnd)) {
+                long digest = decodeDigest(header, 1);
+                int folded = (int) decodeNumber(header, 1 + DIGEST_CHARS, tokenEnd);
+                return new FlowHistory(null, null, header, Math.min(tokenEnd + 1, header.length()), null, count - 1, digest, folded);
+            }
+        }
+        return new FlowHistory(null, null, header, 0, null, count, EMPTY_DIGEST, 0);
+    }
+
+    /**
+     * Create a history from edge ids as they are, without validation.
+     *
+     * @param ids the edge ids, oldest first.
+     * @return the history.
+     */
+    public static FlowHistory of(String... ids) {
+        if (ids.length == 0) {
+            return EMPTY;
+        }
+        return new FlowHistory(null, null, null, 0, ids.clone(), ids.length, EMPTY_DIGEST, 0);
+    }
+
+    /**
+     * Create a bounded history from its parts, without validation.
+     *
+     * @param digest the digest of the folded edge ids, see {@link #digest()}.
+     * @param folded the number of folded edge ids, 0 if nothing is folded.
+     * @param ids    the edge ids kept verbatim, oldest first.
+     * @return the history.
+     */
+    public static FlowHistory of(long digest, int folded, String... ids) {
+        if (folded <= 0) {
+            return of(ids);
+        }
+        return new FlowHistory(null, null, null, 0, ids.clone(), ids.length, digest, folded);
+    }
+
+    /**
+     * @param digestString a digest as returned by {@link #digestString()}, or null.
+     * @param ids          the edge ids kept verbatim, oldest first.
+     * @return the history.
+     * @throws IllegalArgumentException if the digest string is malformed.
+     */
+    public static FlowHistory withDigest(String digestString, String... ids) {
+        if (digestString == null) {
+            return of(ids);
+        }
+        if (!isDigestToken(digestString, 0, digestString.length())) {
+            throw new IllegalArgumentException("Bad history digest: \"" + digestString + "\"");
+        }
+        return of(decodeDigest(digestString, 0), (int) decodeNumber(digestString, DIGEST_CHARS, digestString.length()), ids);
+    }
+
+    /**
+     * @return the number of edge ids in the comma-separated header, or -1 if the header is not valid.
+     */
+    static int validate(CharSequence header) {
+        int count = 1;
+        boolean emptyId = true;
+        int length = header.length();
+        for (int i = 0; i < length; i++) {
+            char c = header.charAt(i);
+            if (c == ',') {
+                if (emptyId) {
+                    return -1;
+                }
+                count++;
+                emptyId = true;
+            } else if (isBase64(c)) {
+                emptyId = false;
+            } else {
+                return -1;
+            }
+        }
+        return emptyId ? -1 : count;
+    }
+
+    static boolean isBase64(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '+' || c == '/' || c == '=';
+    }
+
+    /**
+     * Fold an edge id into a digest. Starting from {@link #EMPTY_DIGEST}, folding ids one by one gives the FNV-1a
+     * 64-bit hash of the ids each followed by a comma.
+     *
+     * @param digest the digest so far.
+     * @param edgeId the edge id to fold.
+     * @return the new digest.
+     */
+    public static long fold(long digest, String edgeId) {
+        long h = digest;
+        for (int i = 0; i < edgeId.length(); i++) {
+            h ^= edgeId.charAt(i);
+            h *= FNV_PRIME;
+        }
+        h ^= ',';
+        h *= FNV_PRIME;
+        return h;
+    }
+
+    /**
+     * @param edgeIds the edge ids, oldest first.
+     * @return the digest a bounded history has after folding the given edge ids.
+     */
+    public static long digestOf(String... edgeIds) {
+        long h = EMPTY_DIGEST;
+        for (String edgeId : edgeIds) {
+            h = fold(h, edgeId);
+        }
+        return h;
+    }
+
+    /**
+     * @param edgeId the edge id to add.
+     * @return a new history with the given edge id as the last element, sharing this history.
+     */
+    public FlowHistory append(String edgeId) {
+        return new FlowHistory(this == EMPTY ? null : this, edgeId, null, 0, size == 0 ? new String[]{edgeId} : null, size + 1, digest, folded);
+    }
+
+    /**
+     * Keep at most the given number of edge ids verbatim, folding older ids into the digest.
+     *
+     * @param maxSize the maximum number of edge ids to keep verbatim, at least 1.
+     * @return this history if it is not larger than maxSize, otherwise a bounded copy.
+     */
+    public FlowHistory bounded(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive, was: " + maxSize);
+        }
+        if (size <= maxSize) {
+            return this;
+        }
+        String[] all = ids();
+        int evicted = size - maxSize;
+        long d = digest;
+        for (int i = 0; i < evicted; i++) {
+            d = fold(d, all[i]);
+        }
+        return new FlowHistory(null, null, null, 0, Arrays.copyOfRange(all, evicted, size), maxSize, d, folded + evicted);
+    }
+
+    /**
+     * Check whether a path of edge ids is the start of the full history, including the part folded into the digest.
+     * A path that ends inside the folded part can only be checked if it covers exactly the folded part.
+     *
+     * @param path the full sequence of edge ids of a candidate ancestor, oldest first.
+     * @return true if the full history is known to start with the given path.
+     */
+    public boolean startsWith(String... path) {
+        if (path.length < folded || path.length > folded + size) {
+            return false;
+        }
+        long d = EMPTY_DIGEST;
+        for (int i = 0; i < folded; i++) {
+            d = fold(d, path[i]);
+        }
+        if (folded > 0 && d != digest) {
+            return false;
+        }
+        String[] visible = ids();
+        for (int i = folded; i < path.length; i++) {
+            if (!visible[i - folded].equals(path[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of edge ids kept verbatim.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if there are neither edge ids nor a digest.
+     */
+    public boolean isEmpty() {
+        return size == 0 && folded == 0;
+    }
+
+    /**
+     * @return true if older edge ids have been folded into a digest.
+     */
+    public boolean hasDigest() {
+        return folded > 0;
+    }
+
+    /**
+     * @return the digest of the folded edge ids, {@link #EMPTY_DIGEST} if nothing is folded.
+     * @see #digestOf(String...)
+     */
+    public long digest() {
+        return digest;
+    }
+
+    /**
+     * @return the number of edge ids folded into the digest.
+     */
+    public int foldedCount() {
+        return folded;
+    }
+
+    /**
+     * @return the digest and the number of folded ids in the Base64 basic alphabet, or null if nothing is folded.
+     */
+    public String digestString() {
+        if (folded == 0) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(DIGEST_CHARS + 4);
+        appendDigest(sb);
+        return sb.toString();
+    }
+
+    private void appendDigest(StringBuilder sb) {
+        long d = digest;
+        for (int i = 0; i < DIGEST_CHARS; i++) {
+            sb.append(EdgeIdGenerators.BASE64_ALPHABET[(int) (d & 0x3F)]);
+            d >>>= 6;
+        }
+        int start = sb.length();
+        int n = folded;
+        do {
+            sb.insert(start, EdgeIdGenerators.BASE64_ALPHABET[n & 0x3F]);
+            n >>>= 6;
+        } while (n != 0);
+    }
+
+    private static boolean isDigestToken(String s, int start, int end) {
+        if (end - start < DIGEST_CHARS + 1) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (base64Value(s.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return decodeNumber(s, start + DIGEST_CHARS, end) > 0;
+    }
+
+    private static long decodeDigest(String s, int start) {
+        long d = 0;
+        for (int i = DIGEST_CHARS - 1; i >= 0; i--) {
+            d = (d << 6) | base64Value(s.charAt(start + i));
+        }
+        return d;
+    }
+
+    private static long decodeNumber(String s, int start, int end) {
+        long n = 0;
+        for (int i = start; i < end && n <= Integer.MAX_VALUE; i++) {
+            n = (n << 6) | base64Value(s.charAt(i));
+        }
+        return n > Integer.MAX_VALUE ? -1 : n;
+    }
+
+    private static int base64Value(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        }
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 26;
+        }
+        if (c >= '0' && c <= '9') {
+            return c - '0' + 52;
+        }
+        if (c == '+') {
+            return 62;
+        }
+        if (c == '/') {
+            return 63;
+        }
+        return -1;
+    }
+
+    /**
+     * @param index the position, 0 is the oldest edge id kept verbatim.
+     * @return the edge id at the given position.
+     */
+    public String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        if (index == size - 1 && edgeId != null) {
+            return edgeId;
+        }
+        return ids()[index];
+    }
+
+    /**
+     * @return the newest edge id, or null if there are no edge ids.
+     */
+    public String last() {
+        if (size == 0) {
+            return null;
+        }
+        if (edgeId != null) {
+            return edgeId;
+        }
+        String[] known = ids;
+        if (known != null) {
+            return known[size - 1];
+        }
+        return header.substring(header.lastIndexOf(',') + 1);
+    }
+
+    /**
+     * @return a copy of the edge ids kept verbatim, oldest first.
+     */
+    public String[] toArray() {
+        return ids().clone();
+    }
+
+    /**
+     * @return the edge ids kept verbatim, shared and cached. Must not be modified.
+     */
+    String[] ids() {
+        String[] result = ids;
+        if (result == null) {
+            result = new String[size];
+            FlowHistory node = this;
+            int i = size;
+            String[] known;
+            while ((known = node.ids) == null && node.parent != null) {
+                result[--i] = node.edgeId;
+                node = node.parent;
+            }
+            if (known != null) {
+                System.arraycopy(known, 0, result, 0, i);
+            } else {
+                split(node.header, node.headerStart, result, i);
+            }
+            ids = result;
+        }
+        return result;
+    }
+
+    private static void split(String header, int start, String[] target, int count) {
+        if (count == 0) {
+            return;
+        }
+        for (int i = 0; i < count - 1; i++) {
+            int comma = header.indexOf(',', start);
+            target[i] = header.substring(start, comma);
+            start = comma + 1;
+        }
+        target[count - 1] = header.substring(start);
+    }
+
+    /**
+     * @return the raw header this history was parsed from, or null if it was not parsed.
+     */
+    String header() {
+        return header;
+    }
+
+    /**
+     * @return the index in {@link #header()} of the first edge id, after any digest element.
+     */
+    int headerStart() {
+        return headerStart;
+    }
+
+    /**
+     * @return the history as a comma-separated string, the format expected by {@link #parse(String)}.
+     */
+    @Override
+    public String toString() {
+        String result = rendered;
+        if (result == null) {
+            if (parent != null && parent.rendered != null && !parent.rendered.isEmpty()) {
+                result = parent.rendered + "," + edgeId;
+            } else {
+                String[] all = ids();
+                StringBuilder sb = new StringBuilder(size * 6 + 16);
+                if (folded > 0) {
+                    sb.append('=');
+                    appendDigest(sb);
+                }
+                for (String id : all) {
+                    if (sb.length() > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(id);
+                }
+                result = sb.toString();
+            }
+            rendered = result;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FlowHistory)) {
+            return false;
+        }
+        FlowHistory that = (FlowHistory) o;
+        return size == that.size && folded == that.folded && digest == that.digest && Arrays.equals(ids(), that.ids());
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(digest) + Arrays.hashCode(ids());
+    }
+}
@@ -0,0 +1,42 @@
+package no.cantara.flow.flowlogger.event;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the json representation of {@link FlowEvent#history} an array of edge ids when read or written with Gson.
+ */
+final class FlowHistoryTypeAdapter extends TypeAdapter<FlowHistory> {
+
+    @Override
+    public void write(JsonWriter out, FlowHistory history) throws IOException {
+        out.beginArray();
+        String[] ids = history.ids();
+        for (String id : ids) {
+            out.value(id);
+        }
+        out.endArray();
+    }
+
+    @Override
+    public FlowHistory read(JsonReader in) throws IOException {
+        List<String> ids = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                ids.add(null);
+            } else {
+                ids.add(in.nextString());
+            }
+        }
+        in.endArray();
+        return FlowHistory.of(ids.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,102 @@
+package no.cantara.flow.flowlogger.event;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Formats epoch timestamps exactly like {@link DateTimeFormatter#ISO_OFFSET_DATE_TIME}, e.g.
+ * "2017-06-07T10:44:31.123+02:00". The date, time and offset of the most recently formatted second are cached, so
+ * formatting timestamps within the same second only fills in the sub-second digits.
+ */
+public final class FlowTimestampFormat {
+
+    private static volatile Second cached = new Second(0, ZoneOffset.UTC);
+
+    private FlowTimestampFormat() {
+    }
+
+    /**
+     * @param epochNanos nanoseconds since 1970-01-01T00:00:00Z.
+     * @param zone       the zone to format the timestamp in.
+     * @return the formatted timestamp.
+     */
+    public static String format(long epochNanos, ZoneId zone) {
+        int nanos = (int) Math.floorMod(epochNanos, FlowClocks.NANOS_PER_SECOND);
+        Second second = second(Math.floorDiv(epochNanos, FlowClocks.NANOS_PER_SECOND), zone);
+        if (nanos == 0) {
+            return second.whole;
+        }
+        char[] prefix = second.prefix;
+        char[] suffix = second.suffix;
+        char[] chars = new char[prefix.length + 10 + suffix.length];
+        System.arraycopy(prefix, 0, chars, 0, prefix.length);
+        int fractionEnd = prefix.length + 10;
+        chars[prefix.length] = '.';
+        for (int i = fractionEnd - 1; i > prefix.length; i--) {
+            chars[i] = (char) ('0' + nanos % 10);
+            nanos /= 10;
+        }
+        while (chars[fractionEnd - 1] == '0') {
+            fractionEnd--;
+        }
+        System.arraycopy(suffix, 0, chars, fractionEnd, suffix.length);
+        return new String(chars, 0, fractionEnd + suffix.length);
+    }
+
+    /**
+     * @param epochNanos nanoseconds since 1970-01-01T00:00:00Z.
+     * @param zone       the zone.
+     * @return the offset of the zone at the given time.
+     */
+    public static ZoneOffset offset(long epochNanos, ZoneId zone) {
+        if (zone instanceof ZoneOffset) {
+            return (ZoneOffset) zone;
+        }
+        return second(Math.floorDiv(epochNanos, FlowClocks.NANOS_PER_SECOND), zone).offset;
+    }
+
+    /**
+     * @param timestamp a timestamp in ISO-8601 format with offset.
+     * @return the timestamp in nanoseconds since 1970-01-01T00:00:00Z.
+     * @throws DateTimeParseException if the timestamp cannot be parsed.
+     * @throws ArithmeticException    if the timestamp does not fit in a long.
+     */
+    public static long parse(CharSequence timestamp) {
+        OffsetDateTime time = OffsetDateTime.parse(timestamp, DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+        return Math.addExact(Math.multiplyExact(time.toEpochSecond(), FlowClocks.NANOS_PER_SECOND), time.getNano());
+    }
+
+    private static Second second(long epochSecond, ZoneId zone) {
+        Second second = cached;
+        if (second.epochSecond != epochSecond || (second.zone != zone && !second.zone.equals(zone))) {
+            second = new Second(epochSecond, zone);
+            cached = second;
+        }
+        return second;
+    }
+
+    private static final class Second {
+
+        final long epochSecond;
+        final ZoneId zone;
+        final ZoneOffset offset;
+        final char[] prefix;
+        final char[] suffix;
+        final String whole;
+
+        Second(long epochSecond, ZoneId zone) {
+            this.epochSecond = epochSecond;
+            this.zone = zone;
+            OffsetDateTime time = Instant.ofEpochSecond(epochSecond).atZone(zone).toOffsetDateTime();
+            this.offset = time.getOffset();
+            this.whole = time.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+            String offsetId = offset.getId();
+            this.prefix = whole.substring(0, whole.length() - offsetId.length()).toCharArray();
+            this.suffix = offsetId.toCharArray();
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package no.cantara.flow.flowlogger.event;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 public class Node {
 
     final String type;
@@ -7,6 +10,8 @@ public class Node {
     final String payloadType;
     final String payloadId;
 
+    transient String json;
+
     public Node(String type, String address, String payloadType, String payloadId) {
         this.type = type;
         this.address = address;
@@ -29,4 +34,22 @@ public class Node {
     public String getPayloadId() {
         return payloadId;
     }
+
+    /**
+     * @return the escaped json object of this node, rendered on first call and cached for the lifetime of this
+     * instance.
+     */
+    String json() {
+        String fragment = json;
+        if (fragment == null) {
+            StringBuilder sb = new StringBuilder(96);
+            try {
+                FlowEventJsonWriter.writeNode(this, sb);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            json = fragment = sb.toString();
+        }
+        return fragment;
+    }
 }
@@ -1,5 +1,8 @@
 package no.cantara.flow.flowlogger.event;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 public class Reporter {
 
     final String deployment;
@@ -8,6 +11,8 @@ public class Reporter {
     final String containerId;
     final String instance;
 
+    transient String json;
+
     public Reporter(String deployment, String name, String version, String containerId, String instance) {
         this.deployment = deployment;
         this.name = name;
@@ -35,4 +40,22 @@ public class Reporter {
     public String getInstance() {
         return instance;
     }
+
+    /**
+     * @return the escaped json object of this reporter, rendered on first call and cached for the lifetime of this
+     * instance.
+     */
+    String json() {
+        String fragment = json;
+        if (fragment == null) {
+            StringBuilder sb = new StringBuilder(128);
+            try {
+                FlowEventJsonWriter.writeReporter(this, sb);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            json = fragment = sb.toString();
+        }
+        return fragment;
+    }
 }
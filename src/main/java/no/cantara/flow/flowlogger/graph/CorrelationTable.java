@@ -0,0 +1,214 @@
+package no.cantara.flow.flowlogger.graph;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table from correlation id to value, keyed by a 64-bit hash of the id, that also keeps its
+ * entries in least recently touched order. Entries live in slots that are reused after removal, and everything but
+ * the ids and values is kept in primitive arrays. Not thread-safe.
+ */
+final class CorrelationTable<V> {
+
+    private static final int NONE = -1;
+
+    // table, indexed by position
+    private long[] hashes; // 0 means empty
+    private int[] slotAt;
+    private int mask;
+
+    // entries, indexed by slot
+    private String[] ids;
+    private Object[] values;
+    private long[] touched;
+    private int[] prev;
+    private int[] next; // also links the free slots
+    private int eldest = NONE;
+    private int youngest = NONE;
+    private int free = NONE;
+    private int used; // slots ever used
+    private int size;
+
+    CorrelationTable(int initialCapacity) {
+        int slots = Math.max(16, Integer.highestOneBit(Math.max(1, initialCapacity - 1)) << 1);
+        hashes = new long[slots * 2];
+        slotAt = new int[slots * 2];
+        mask = slots * 2 - 1;
+        ids = new String[slots];
+        values = new Object[slots];
+        touched = new long[slots];
+        prev = new int[slots];
+        next = new int[slots];
+    }
+
+    static long hash(String id) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            h ^= id.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 29;
+        return h == 0 ? 1 : h;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the slot of the id, or -1 if not present.
+     */
+    int find(String id, long hash) {
+        for (int pos = home(hash); hashes[pos] != 0; pos = (pos + 1) & mask) {
+            if (hashes[pos] == hash && ids[slotAt[pos]].equals(id)) {
+                return slotAt[pos];
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Add an id that is not present, as the most recently touched entry.
+     *
+     * @return the slot of the new entry.
+     */
+    int insert(String id, long hash, V value, long now) {
+        if (free == NONE && used == ids.length) {
+            grow();
+        }
+        int slot;
+        if (free != NONE) {
+            slot = free;
+            free = next[slot];
+        } else {
+            slot = used++;
+        }
+        ids[slot] = id;
+        values[slot] = value;
+        int pos = home(hash);
+        while (hashes[pos] != 0) {
+            pos = (pos + 1) & mask;
+        }
+        hashes[pos] = hash;
+        slotAt[pos] = slot;
+        size++;
+        link(slot, now);
+        return slot;
+    }
+
+    void touch(int slot, long now) {
+        unlink(slot);
+        link(slot, now);
+    }
+
+    @SuppressWarnings("unchecked")
+    V value(int slot) {
+        return (V) values[slot];
+    }
+
+    String id(int slot) {
+        return ids[slot];
+    }
+
+    long touched(int slot) {
+        return touched[slot];
+    }
+
+    /**
+     * @return the slot of the least recently touched entry, or -1 if the table is empty.
+     */
+    int eldest() {
+        return eldest;
+    }
+
+    /**
+     * Remove the entry in the given slot.
+     *
+     * @return the value of the removed entry.
+     */
+    V remove(int slot, long hash) {
+        V value = value(slot);
+        int pos = home(hash);
+        while (slotAt[pos] != slot || hashes[pos] != hash) {
+            pos = (pos + 1) & mask;
+        }
+        deleteAt(pos);
+        unlink(slot);
+        ids[slot] = null;
+        values[slot] = null;
+        next[slot] = free;
+        free = slot;
+        size--;
+        return value;
+    }
+
+    /**
+     * Backward shift deletion, keeps probe sequences intact without tombstones.
+     */
+    private void deleteAt(int pos) {
+        int gap = pos;
+        for (int i = (gap + 1) & mask; hashes[i] != 0; i = (i + 1) & mask) {
+            int home = home(hashes[i]);
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                hashes[gap] = hashes[i];
+                slotAt[gap] = slotAt[i];
+                gap = i;
+            }
+        }
+        hashes[gap] = 0;
+    }
+
+    private int home(long hash) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void link(int slot, long now) {
+        touched[slot] = now;
+        prev[slot] = youngest;
+        next[slot] = NONE;
+        if (youngest != NONE) {
+            next[youngest] = slot;
+        } else {
+            eldest = slot;
+        }
+        youngest = slot;
+    }
+
+    private void unlink(int slot) {
+        int p = prev[slot];
+        int n = next[slot];
+        if (p != NONE) {
+            next[p] = n;
+        } else {
+            eldest = n;
+        }
+        if (n != NONE) {
+            prev[n] = p;
+        } else {
+            youngest = p;
+        }
+    }
+
+    private void grow() {
+        int slots = ids.length * 2;
+        ids = Arrays.copyOf(ids, slots);
+        values = Arrays.copyOf(values, slots);
+        touched = Arrays.copyOf(touched, slots);
+        prev = Arrays.copyOf(prev, slots);
+        next = Arrays.copyOf(next, slots);
+        long[] oldHashes = hashes;
+        int[] oldSlotAt = slotAt;
+        hashes = new long[slots * 2];
+        slotAt = new int[slots * 2];
+        mask = slots * 2 - 1;
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHashes[i] != 0) {
+                int pos = home(oldHashes[i]);
+                while (hashes[pos] != 0) {
+                    pos = (pos + 1) & mask;
+                }
+                hashes[pos] = oldHashes[i];
+                slotAt[pos] = oldSlotAt[i];
+            }
+        }
+    }
+}
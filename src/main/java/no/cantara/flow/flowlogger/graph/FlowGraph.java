@@ -0,0 +1,177 @@
+package no.cantara.flow.flowlogger.graph;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.FlowHistory;
+import no.cantara.flow.flowlogger.event.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The events of one flow, linked into a directed acyclic graph. Each event is a vertex. Its parent is the event
+ * whose edge id is the last element of its history, or, for events without history, the latest earlier event whose
+ * destination is the source of this event.
+ */
+public class FlowGraph {
+
+    /**
+     * Why a flow was considered complete.
+     */
+    public enum Completion {
+        /**
+         * An event matching the terminal predicate of the assembler was received.
+         */
+        TERMINAL,
+        /**
+         * No event was received for the flow within the time-to-live.
+         */
+        TIMED_OUT,
+        /**
+         * Evicted as the least recently active flow to keep the number of flows in flight bounded.
+         */
+        EVICTED,
+        /**
+         * Emitted when the assembler was closed.
+         */
+        CLOSED,
+        /**
+         * Reconstructed offline from logged events.
+         */
+        REPLAYED
+    }
+
+    public static class Vertex {
+
+        final FlowEvent event;
+        Vertex parent;
+        final List<Vertex> children = new ArrayList<>(2);
+
+        Vertex(FlowEvent event) {
+            this.event = event;
+        }
+
+        public FlowEvent getEvent() {
+            return event;
+        }
+
+        /**
+         * @return the parent, or null if this is a root of the graph.
+         */
+        public Vertex getParent() {
+            return parent;
+        }
+
+        public List<Vertex> getChildren() {
+            return Collections.unmodifiableList(children);
+        }
+    }
+
+    private final String correlationId;
+    private final Completion completion;
+    private final List<Vertex> vertices;
+    private final List<Vertex> roots;
+
+    /**
+     * @param correlationId the correlation id shared by the events.
+     * @param completion    why the flow is considered complete.
+     * @param events        the events of the flow, in the order they were received.
+     */
+    public FlowGraph(String correlationId, Completion completion, List<FlowEvent> events) {
+        this.correlationId = correlationId;
+        this.completion = completion;
+        List<Vertex> vertices = new ArrayList<>(events.size());
+        Map<String, Vertex> byEdgeId = new HashMap<>();
+        for (FlowEvent event : events) {
+            Vertex vertex = new Vertex(event);
+            vertices.add(vertex);
+            if (event.getEdge() != null && event.getEdge().getId() != null) {
+                byEdgeId.putIfAbsent(event.getEdge().getId(), vertex);
+            }
+        }
+        List<Vertex> roots = new ArrayList<>();
+        for (int i = 0; i < vertices.size(); i++) {
+            Vertex vertex = vertices.get(i);
+            Vertex parent = parentByHistory(vertex.event, byEdgeId);
+            if (parent == null) {
+                parent = parentBySource(vertices, i);
+            }
+            if (parent != null && !isAncestorOrSelf(vertex, parent)) {
+                vertex.parent = parent;
+                parent.children.add(vertex);
+            } else {
+                roots.add(vertex);
+            }
+        }
+        this.vertices = Collections.unmodifiableList(vertices);
+        this.roots = Collections.unmodifiableList(roots);
+    }
+
+    /**
+     * Histories from misbehaving peers could form a cycle, those links are dropped to keep the graph acyclic.
+     */
+    private static boolean isAncestorOrSelf(Vertex vertex, Vertex candidate) {
+        for (Vertex v = candidate; v != null; v = v.parent) {
+            if (v == vertex) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Vertex parentByHistory(FlowEvent event, Map<String, Vertex> byEdgeId) {
+        FlowHistory history = event.getFlowHistory();
+        if (history == null || history.last() == null) {
+            return null;
+        }
+        return byEdgeId.get(history.last());
+    }
+
+    private static Vertex parentBySource(List<Vertex> vertices, int index) {
+        FlowEvent event = vertices.get(index).event;
+        Node source = event.getSource();
+        if (event.getFlowHistory() != null || source == null || source.getAddress() == null) {
+            return null;
+        }
+        for (int i = index - 1; i >= 0; i--) {
+            Node destination = vertices.get(i).event.getDestination();
+            if (destination != null && source.getAddress().equals(destination.getAddress())
+                    && Objects.equals(source.getPayloadId(), destination.getPayloadId())) {
+                return vertices.get(i);
+            }
+        }
+        return null;
+    }
+
+    public String getCorrelationId() {
+        return correlationId;
+    }
+
+    public Completion getCompletion() {
+        return completion;
+    }
+
+    /**
+     * @return all vertices, in the order the events were received.
+     */
+    public List<Vertex> getVertices() {
+        return vertices;
+    }
+
+    /**
+     * @return the vertices without a known parent, in the order the events were received.
+     */
+    public List<Vertex> getRoots() {
+        return roots;
+    }
+
+    /**
+     * @return the number of events in the flow.
+     */
+    public int size() {
+        return vertices.size();
+    }
+}
@@ -0,0 +1,281 @@
+package no.cantara.flow.flowlogger.graph;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.sink.FlowEventSink;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Groups a stream of flow events by correlation id and emits each flow as a {@link FlowGraph} once it is complete.
+ * A flow is complete when an event matching the terminal predicate arrives, when no event has arrived for the flow
+ * within the time-to-live, or when it is the least recently active flow and the maximum number of flows in flight
+ * is reached.
+ * <p>
+ * Flows are spread over shards by a hash of the correlation id. Each shard has its own lock and keeps its flows in a
+ * primitive-keyed hash table ordered by last activity, so expiry only looks at the flows that are due. Expiry is
+ * checked whenever an event arrives in a shard. Call {@link #expire()} periodically to also expire flows in shards
+ * that receive no events. Graphs are handed to the listener outside the shard lock, on the publishing thread.
+ * <p>
+ * Example:
+ * <pre>
+ * FlowGraphAssembler assembler = FlowGraphAssembler.builder(graph -&gt; store(graph))
+ *         .ttl(Duration.ofMinutes(5))
+ *         .terminalMilestones("delivered", "rejected")
+ *         .build();
+ * </pre>
+ */
+public class FlowGraphAssembler implements FlowEventSink {
+
+    private final Shard[] shards;
+    private final long ttlNanos;
+    private final int maxInFlightPerShard;
+    private final Predicate<FlowEvent> terminal;
+    private final Consumer<FlowGraph> listener;
+    private final LongSupplier nanoClock;
+
+    private volatile boolean closed;
+
+    private FlowGraphAssembler(Builder builder) {
+        this.shards = new Shard[builder.shards];
+        this.maxInFlightPerShard = Math.max(1, builder.maxInFlight / builder.shards);
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(Math.min(maxInFlightPerShard, 1024));
+        }
+        this.ttlNanos = builder.ttl.toNanos();
+        this.terminal = builder.terminal;
+        this.listener = builder.listener;
+        this.nanoClock = builder.nanoClock;
+    }
+
+    /**
+     * @param listener receives completed flows.
+     * @return a builder.
+     */
+    public static Builder builder(Consumer<FlowGraph> listener) {
+        return new Builder(listener);
+    }
+
+    /**
+     * Add an event to its flow.
+     *
+     * @param event the event.
+     * @return false if the event has no correlation id or the assembler is closed.
+     */
+    @Override
+    public boolean publish(FlowEvent event) {
+        String correlationId = event.getCorrelationId();
+        if (correlationId == null || closed) {
+            return false;
+        }
+        long hash = CorrelationTable.hash(correlationId);
+        Shard shard = shards[(int) ((hash >>> 33) % shards.length)];
+        long now = nanoClock.getAsLong();
+        List<FlowGraph> completed = null;
+        synchronized (shard) {
+            CorrelationTable<List<FlowEvent>> flows = shard.flows;
+            completed = shard.expire(now - ttlNanos, completed);
+            int slot = flows.find(correlationId, hash);
+            if (terminal.test(event)) {
+                List<FlowEvent> events = slot < 0 ? new ArrayList<>(1) : flows.remove(slot, hash);
+                events.add(event);
+                completed = add(completed, new FlowGraph(correlationId, FlowGraph.Completion.TERMINAL, events));
+            } else if (slot >= 0) {
+                flows.value(slot).add(event);
+                flows.touch(slot, now);
+            } else {
+                if (flows.size() >= maxInFlightPerShard) {
+                    completed = shard.evictEldest(FlowGraph.Completion.EVICTED, completed);
+                }
+                List<FlowEvent> events = new ArrayList<>(4);
+                events.add(event);
+                flows.insert(correlationId, hash, events, now);
+            }
+        }
+        emit(completed);
+        return true;
+    }
+
+    /**
+     * Emit all flows that have been inactive for longer than the time-to-live.
+     */
+    public void expire() {
+        long deadline = nanoClock.getAsLong() - ttlNanos;
+        for (Shard shard : shards) {
+            List<FlowGraph> completed;
+            synchronized (shard) {
+                completed = shard.expire(deadline, null);
+            }
+            emit(completed);
+        }
+    }
+
+    /**
+     * Same as {@link #expire()}.
+     */
+    @Override
+    public void flush() {
+        expire();
+    }
+
+    /**
+     * Emit all flows in flight as {@link FlowGraph.Completion#CLOSED}. Events published after close are ignored.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Shard shard : shards) {
+            List<FlowGraph> completed = null;
+            synchronized (shard) {
+                while (shard.flows.size() > 0) {
+                    completed = shard.evictEldest(FlowGraph.Completion.CLOSED, completed);
+                }
+            }
+            emit(completed);
+        }
+    }
+
+    /**
+     * @return the number of flows that have not yet been emitted.
+     */
+    public int inFlightCount() {
+        int count = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                count += shard.flows.size();
+            }
+        }
+        return count;
+    }
+
+    private void emit(List<FlowGraph> completed) {
+        if (completed != null) {
+            for (FlowGraph graph : completed) {
+                listener.accept(graph);
+            }
+        }
+    }
+
+    private static List<FlowGraph> add(List<FlowGraph> list, FlowGraph graph) {
+        if (list == null) {
+            list = new ArrayList<>(2);
+        }
+        list.add(graph);
+        return list;
+    }
+
+    private static final class Shard {
+
+        final CorrelationTable<List<FlowEvent>> flows;
+
+        Shard(int initialCapacity) {
+            this.flows = new CorrelationTable<>(initialCapacity);
+        }
+
+        List<FlowGraph> expire(long deadline, List<FlowGraph> completed) {
+            int eldest;
+            while ((eldest = flows.eldest()) >= 0 && flows.touched(eldest) - deadline < 0) {
+                completed = evictEldest(FlowGraph.Completion.TIMED_OUT, completed);
+            }
+            return completed;
+        }
+
+        List<FlowGraph> evictEldest(FlowGraph.Completion completion, List<FlowGraph> completed) {
+            int eldest = flows.eldest();
+            String correlationId = flows.id(eldest);
+            List<FlowEvent> events = flows.remove(eldest, CorrelationTable.hash(correlationId));
+            return add(completed, new FlowGraph(correlationId, completion, events));
+        }
+    }
+
+    public static class Builder {
+        private final Consumer<FlowGraph> listener;
+        private int shards = Runtime.getRuntime().availableProcessors() * 4;
+        private Duration ttl = Duration.ofMinutes(10);
+        private int maxInFlight = 1_000_000;
+        private Predicate<FlowEvent> terminal = event -> false;
+        private LongSupplier nanoClock = System::nanoTime;
+
+        private Builder(Consumer<FlowGraph> listener) {
+            if (listener == null) {
+                throw new IllegalArgumentException("listener cannot be null");
+            }
+            this.listener = listener;
+        }
+
+        /**
+         * @param shards the number of independently locked shards, defaults to 4 per available processor.
+         * @return this builder.
+         */
+        public Builder shards(int shards) {
+            if (shards < 1) {
+                throw new IllegalArgumentException("shards must be positive, was: " + shards);
+            }
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * @param ttl how long a flow may be inactive before it is emitted as timed out.
+         * @return this builder.
+         */
+        public Builder ttl(Duration ttl) {
+            if (ttl == null || ttl.isNegative()) {
+                throw new IllegalArgumentException("ttl must be zero or positive, was: " + ttl);
+            }
+            this.ttl = ttl;
+            return this;
+        }
+
+        /**
+         * @param maxInFlight the approximate maximum number of flows kept, divided evenly between the shards.
+         * @return this builder.
+         */
+        public Builder maxInFlight(int maxInFlight) {
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("maxInFlight must be positive, was: " + maxInFlight);
+            }
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * @param terminal true for the last event of a flow, which emits the flow immediately.
+         * @return this builder.
+         */
+        public Builder terminal(Predicate<FlowEvent> terminal) {
+            if (terminal == null) {
+                throw new IllegalArgumentException("terminal cannot be null");
+            }
+            this.terminal = terminal;
+            return this;
+        }
+
+        /**
+         * @param milestones edge milestones that mark the end of a flow.
+         * @return this builder.
+         */
+        public Builder terminalMilestones(String... milestones) {
+            List<String> terminalMilestones = new ArrayList<>(Arrays.asList(milestones));
+            return terminal(event -> event.getEdge() != null && terminalMilestones.contains(event.getEdge().getMilestone()));
+        }
+
+        /**
+         * @param nanoClock the source of {@link System#nanoTime()}-like timestamps used for expiry, e.g. in tests.
+         * @return this builder.
+         */
+        public Builder nanoClock(LongSupplier nanoClock) {
+            this.nanoClock = nanoClock;
+            return this;
+        }
+
+        public FlowGraphAssembler build() {
+            return new FlowGraphAssembler(this);
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package no.cantara.flow.flowlogger.header;
+
+import no.cantara.flow.flowlogger.context.FlowContext;
+import no.cantara.flow.flowlogger.event.FlowHistory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Packs the correlation id and history of a flow into one compact header, as bytes or as URL-safe Base64 without
+ * padding. A UUID correlation id takes 16 bytes and, when all edge ids have the same length and only use the 64
+ * Base64 characters, each edge id takes 6 bits per character, 30 bits for the default 5-character ids. The history
+ * digest of a bounded history is carried as 8 raw bytes. Decoding builds the {@link FlowHistory} directly from the
+ * packed ids, without a comma-separated string to validate and split.
+ * <p>
+ * Layout, all integers unsigned LEB128 varints unless noted:
+ * <pre>
+ * byte    format version
+ * byte    flags: 1 = correlation id is a UUID, 2 = history has a digest
+ * 16      UUID, most significant byte first, or varint length and UTF-8 bytes of the correlation id
+ * 8       digest, most significant byte first, and varint number of folded ids, if flag 2 is set
+ * varint  number of edge ids
+ * varint  characters per edge id, or 0 if the ids follow as varint length and ASCII bytes each
+ * bits    the packed edge ids, 6 bits per character, most significant bit first, padded to a whole byte
+ * </pre>
+ * Peers that do not know the compact header, or a newer version of it, still understand the text headers. During a
+ * rollout, send both and decode with {@link #decode(String, String, String)}, which falls back to the text headers
+ * when the compact header is missing or has an unknown version.
+ */
+public final class FlowHeaderCodec {
+
+    /**
+     * The version of the compact format written by this codec.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int UUID_CORRELATION_ID = 1;
+    private static final int HAS_DIGEST = 1 << 1;
+    private static final int MAX_PACKED_ID_CHARS = 10;
+
+    private static final char[] BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private FlowHeaderCodec() {
+    }
+
+    /**
+     * @param context the correlation id and history to send.
+     * @return the compact header as URL-safe Base64 without padding.
+     * @throws IllegalArgumentException if an edge id of the history is null or not in the Base64 basic alphabet.
+     */
+    public static String encodeToString(FlowContext context) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(encode(context));
+    }
+
+    /**
+     * @param context the correlation id and history to send.
+     * @return the compact header as bytes, for binary transports.
+     * @throws IllegalArgumentException if an edge id of the history is null or not in the Base64 basic alphabet.
+     */
+    public static byte[] encode(FlowContext context) {
+        String correlationId = context.getCorrelationId();
+        FlowHistory history = context.getHistory() == null ? FlowHistory.empty() : context.getHistory();
+        int size = history.size();
+        checkIds(history);
+        int idChars = packedIdChars(history);
+
+        Output out = new Output(24 + correlationId.length() + (history.hasDigest() ? 13 : 0) + size * (idChars > 0 ? idChars : 12));
+        out.write(FORMAT_VERSION);
+        long[] uuid = parseUuid(correlationId);
+        out.write((uuid != null ? UUID_CORRELATION_ID : 0) | (history.hasDigest() ? HAS_DIGEST : 0));
+        if (uuid != null) {
+            out.writeLong(uuid[0]);
+            out.writeLong(uuid[1]);
+        } else {
+            byte[] bytes = correlationId.getBytes(StandardCharsets.UTF_8);
+            out.writeVarint(bytes.length);
+            out.write(bytes);
+        }
+        if (history.hasDigest()) {
+            out.writeLong(history.digest());
+            out.writeVarint(history.foldedCount());
+        }
+        out.writeVarint(size);
+        out.writeVarint(idChars);
+        if (idChars > 0) {
+            long bits = 0;
+            int bitCount = 0;
+            for (int i = 0; i < size; i++) {
+                String id = history.get(i);
+                for (int c = 0; c < idChars; c++) {
+                    bits = (bits << 6) | base64Value(id.charAt(c));
+                    bitCount += 6;
+                    if (bitCount >= 8) {
+                        bitCount -= 8;
+                        out.write((int) (bits >>> bitCount));
+                    }
+                }
+            }
+            if (bitCount > 0) {
+                out.write((int) (bits << (8 - bitCount)));
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                String id = history.get(i);
+                out.writeVarint(id.length());
+                for (int c = 0; c < id.length(); c++) {
+                    out.write(id.charAt(c));
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Edge ids are written as one byte per character when they cannot be packed, so only ids that decode back the
+     * same are accepted.
+     */
+    private static void checkIds(FlowHistory history) {
+        for (int i = 0; i < history.size(); i++) {
+            String id = history.get(i);
+            if (id == null) {
+                throw new IllegalArgumentException("edge id at index " + i + " of the history is null");
+            }
+            for (int c = 0; c < id.length(); c++) {
+                char ch = id.charAt(c);
+                if (base64Value(ch) < 0 && ch != '=') {
+                    throw new IllegalArgumentException("edge id with character outside the Base64 basic alphabet: \"" + id + "\"");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the common length of all edge ids if they can be packed, otherwise 0.
+     */
+    private static int packedIdChars(FlowHistory history) {
+        if (history.size() == 0) {
+            return 0;
+        }
+        int length = history.get(0).length();
+        if (length > MAX_PACKED_ID_CHARS) {
+            return 0;
+        }
+        for (int i = 0; i < history.size(); i++) {
+            String id = history.get(i);
+            if (id.length() != length) {
+                return 0;
+            }
+            for (int c = 0; c < length; c++) {
+                if (base64Value(id.charAt(c)) < 0) {
+                    return 0;
+                }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return the most and least significant bits of a lowercase UUID in canonical form, which decodes back to the
+     * same string, or null.
+     */
+    private static long[] parseUuid(String s) {
+        if (s.length() != 36) {
+            return null;
+        }
+        long[] bits = new long[2];
+        int digits = 0;
+        for (int i = 0; i < 36; i++) {
+            char c = s.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return null;
+                }
+                continue;
+            }
+            int value;
+            if (c >= '0' && c <= '9') {
+                value = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                value = c - 'a' + 10;
+            } else {
+                return null;
+            }
+            bits[digits / 16] = (bits[digits / 16] << 4) | value;
+            digits++;
+        }
+        return bits;
+    }
+
+    /**
+     * @param header the compact header as URL-safe Base64, with or without padding.
+     * @return the decoded correlation id and history.
+     * @throws IllegalArgumentException if the header is malformed or has an unknown format version.
+     */
+    public static FlowContext decode(String header) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(header);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Bad flow header, not URL-safe Base64: \"" + header + "\"", e);
+        }
+        return decode(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @param bytes the compact header.
+     * @return the decoded correlation id and history.
+     * @throws IllegalArgumentException if the header is malformed or has an unknown format version.
+     */
+    public static FlowContext decode(byte[] bytes) {
+        return decode(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @param bytes  a buffer holding the compact header.
+     * @param offset the index of the first byte of the header.
+     * @param length the length of the header.
+     * @return the decoded correlation id and history.
+     * @throws IllegalArgumentException if the header is malformed or has an unknown format version.
+     */
+    public static FlowContext decode(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > bytes.length || offset + length < 0) {
+            throw new IllegalArgumentException("Bad offset or length: " + offset + ", " + length + ", buffer length: " + bytes.length);
+        }
+        Input in = new Input(bytes, offset, offset + length);
+        int version = in.read();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unknown flow header version: " + version);
+        }
+        int flags = in.read();
+        String correlationId;
+        if ((flags & UUID_CORRELATION_ID) != 0) {
+            correlationId = uuidString(in.readLong(), in.readLong());
+        } else {
+            int n = in.readLength();
+            correlationId = new String(bytes, in.pos, n, StandardCharsets.UTF_8);
+            in.pos += n;
+        }
+        long digest = FlowHistory.EMPTY_DIGEST;
+        int folded = 0;
+        if ((flags & HAS_DIGEST) != 0) {
+            digest = in.readLong();
+            folded = in.readVarint();
+            if (folded <= 0) {
+                throw new IllegalArgumentException("Bad flow header, digest without folded ids");
+            }
+        }
+        int count = in.readVarint();
+        int idChars = in.readVarint();
+        if (idChars > MAX_PACKED_ID_CHARS) {
+            throw new IllegalArgumentException("Bad flow header, packed edge ids of " + idChars + " characters");
+        }
+        String[] ids;
+        if (idChars > 0) {
+            if ((long) count * idChars * 6 > (long) (in.end - in.pos) * 8) {
+                throw new IllegalArgumentException("Bad flow header, truncated edge ids");
+            }
+            ids = new String[count];
+            long bits = 0;
+            int bitCount = 0;
+            char[] chars = new char[idChars];
+            for (int i = 0; i < count; i++) {
+                for (int c = 0; c < idChars; c++) {
+                    if (bitCount < 6) {
+                        bits = (bits << 8) | in.read();
+                        bitCount += 8;
+                    }
+                    bitCount -= 6;
+                    chars[c] = BASE64_ALPHABET[(int) (bits >>> bitCount) & 0x3F];
+                }
+                ids[i] = new String(chars);
+            }
+        } else {
+            if (count > in.end - in.pos) {
+                throw new IllegalArgumentException("Bad flow header, truncated edge ids");
+            }
+            ids = new String[count];
+            for (int i = 0; i < count; i++) {
+                int n = in.readLength();
+                char[] chars = new char[n];
+                for (int c = 0; c < n; c++) {
+                    chars[c] = (char) in.read();
+                    if (base64Value(chars[c]) < 0 && chars[c] != '=') {
+                        throw new IllegalArgumentException("Bad flow header, edge id with character outside the Base64 basic alphabet");
+                    }
+                }
+                ids[i] = new String(chars);
+            }
+        }
+        if (in.pos != in.end) {
+            throw new IllegalArgumentException("Bad flow header, " + (in.end - in.pos) + " trailing bytes");
+        }
+        return FlowContext.of(correlationId, FlowHistory.of(digest, folded, ids));
+    }
+
+    /**
+     * Decode the compact header if present and understood, otherwise the text headers of peers that do not send it.
+     *
+     * @param header        the compact header, or null.
+     * @param correlationId the correlation id text header, or null.
+     * @param history       the comma-separated history text header, or null.
+     * @return the decoded context, or null if there is neither a compact header of a known version nor a
+     * correlation id.
+     * @throws IllegalArgumentException if the header that is used is malformed.
+     */
+    public static FlowContext decode(String header, String correlationId, String history) {
+        if (header != null && !header.isEmpty() && isKnownVersion(header)) {
+            return decode(header);
+        }
+        if (correlationId == null) {
+            return null;
+        }
+        return FlowContext.parse(correlationId, history);
+    }
+
+    /**
+     * @return true if the first Base64 characters hold the version written by this codec.
+     */
+    private static boolean isKnownVersion(String header) {
+        if (header.length() < 2) {
+            return false;
+        }
+        int first = base64UrlValue(header.charAt(0));
+        int second = base64UrlValue(header.charAt(1));
+        return first >= 0 && second >= 0 && ((first << 2) | (second >>> 4)) == FORMAT_VERSION;
+    }
+
+    private static String uuidString(long mostSigBits, long leastSigBits) {
+        char[] chars = new char[36];
+        int pos = 0;
+        for (int i = 0; i < 32; i++) {
+            if (i == 8 || i == 12 || i == 16 || i == 20) {
+                chars[pos++] = '-';
+            }
+            long bits = i < 16 ? mostSigBits : leastSigBits;
+            chars[pos++] = HEX[(int) (bits >>> (60 - 4 * (i & 15))) & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private static int base64Value(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        }
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 26;
+        }
+        if (c >= '0' && c <= '9') {
+            return c - '0' + 52;
+        }
+        if (c == '+') {
+            return 62;
+        }
+        if (c == '/') {
+            return 63;
+        }
+        return -1;
+    }
+
+    private static int base64UrlValue(char c) {
+        if (c == '-') {
+            return 62;
+        }
+        if (c == '_') {
+            return 63;
+        }
+        return c == '+' || c == '/' ? -1 : base64Value(c);
+    }
+
+    private static final class Output {
+        private byte[] buffer;
+        private int pos;
+
+        Output(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void write(int b) {
+            if (pos == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[pos++] = (byte) b;
+        }
+
+        void write(byte[] bytes) {
+            for (byte b : bytes) {
+                write(b);
+            }
+        }
+
+        void writeLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                write((int) (value >>> shift));
+            }
+        }
+
+        void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, pos);
+        }
+    }
+
+    private static final class Input {
+        private final byte[] buffer;
+        private final int end;
+        private int pos;
+
+        Input(byte[] buffer, int pos, int end) {
+            this.buffer = buffer;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        int read() {
+            if (pos >= end) {
+                throw new IllegalArgumentException("Bad flow header, truncated");
+            }
+            return buffer[pos++] & 0xFF;
+        }
+
+        long readLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | read();
+            }
+            return value;
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 28; shift += 7) {
+                int b = read();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            int b = read();
+            if (b <= 7) {
+                return value | b << 28;
+            }
+            throw new IllegalArgumentException("Bad flow header, varint out of range");
+        }
+
+        /**
+         * @return a number of bytes that fits in the remaining bytes.
+         */
+        int readLength() {
+            int n = readVarint();
+            if (n > end - pos) {
+                throw new IllegalArgumentException("Bad flow header, truncated");
+            }
+            return n;
+        }
+    }
+}
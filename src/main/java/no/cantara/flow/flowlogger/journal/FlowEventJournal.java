@@ -0,0 +1,264 @@
+package no.cantara.flow.flowlogger.journal;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.FlowEventJsonWriter;
+import no.cantara.flow.flowlogger.metrics.FlowLoggerMetrics;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of flow events stored in memory-mapped segment files. Events are serialized straight into the
+ * mapped segment, so appending costs no system calls until the segment is rolled or synced.
+ * <p>
+ * Segments are rolled when the next record does not fit or when the segment has been open longer than the configured
+ * maximum age. Every record carries its length and a checksum, and opening a journal recovers from a crash by
+ * discarding a torn record at the tail of the newest segment.
+ * <p>
+ * Appended events are forced to disk by {@link #sync()}, by {@link #close()}, and, if configured, after every
+ * {@code syncEvery} records. Appending a collection of events forces them with a single sync (group commit).
+ * Closing the journal unmaps the current segment, so the files can be moved or deleted right away, also on Windows.
+ * Instances are thread-safe.
+ *
+ * @see FlowEventJournalReader
+ */
+public class FlowEventJournal implements AutoCloseable {
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxSegmentAgeMillis;
+    private final int syncEvery;
+    private final CRC32 crc = new CRC32();
+
+    private long segmentSequence;
+    private MappedByteBuffer segment;
+    private long segmentOpenedMillis;
+    private int unsyncedRecords;
+    private boolean closed;
+
+    private FlowEventJournal(Builder builder) throws IOException {
+        this.directory = builder.directory;
+        this.segmentSize = builder.segmentSize;
+        this.maxSegmentAgeMillis = builder.maxSegmentAge == null ? Long.MAX_VALUE : builder.maxSegmentAge.toMillis();
+        this.syncEvery = builder.syncEvery;
+        Files.createDirectories(directory);
+        List<Path> segments = JournalSegments.list(directory);
+        if (segments.isEmpty()) {
+            openSegment(0);
+        } else {
+            openSegment(JournalSegments.sequence(segments.get(segments.size() - 1)));
+            recover();
+        }
+    }
+
+    public static Builder builder(Path directory) {
+        return new Builder(directory);
+    }
+
+    private void openSegment(long sequence) throws IOException {
+        Path file = directory.resolve(JournalSegments.fileName(sequence));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = Math.max(segmentSize, channel.size());
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        segmentSequence = sequence;
+        segmentOpenedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Position the newest segment after its last valid record, and clear a torn record left by a crash.
+     */
+    private void recover() {
+        segment.position(0);
+        int length;
+        while ((length = JournalSegments.validRecordLength(segment, crc)) > 0) {
+            segment.position(segment.position() + JournalSegments.RECORD_HEADER_SIZE + length);
+        }
+        if (length < 0) {
+            int end = segment.position();
+            for (int i = end; i < segment.limit(); i++) {
+                segment.put(i, (byte) 0);
+            }
+            segment.force();
+        }
+    }
+
+    private void roll() throws IOException {
+        segment.force();
+        MappedBuffers.unmap(segment);
+        openSegment(segmentSequence + 1);
+        unsyncedRecords = 0;
+    }
+
+    /**
+     * Append an event, syncing if {@code syncEvery} records have been appended since the last sync.
+     *
+     * @param event the event.
+     * @throws IOException              if a new segment could not be created.
+     * @throws IllegalArgumentException if the event does not fit in an empty segment, in which case nothing is
+     *                                  appended.
+     */
+    public synchronized void append(FlowEvent event) throws IOException {
+        write(event);
+        if (syncEvery > 0 && unsyncedRecords >= syncEvery) {
+            sync();
+        }
+    }
+
+    /**
+     * Append all events and sync them to disk together.
+     *
+     * @param events the events, appended in iteration order.
+     * @throws IOException              if a new segment could not be created.
+     * @throws IllegalArgumentException if an event does not fit in an empty segment, in which case the events
+     *                                  before it are appended and synced and the rest are not.
+     */
+    public synchronized void append(Collection<FlowEvent> events) throws IOException {
+        try {
+            for (FlowEvent event : events) {
+                write(event);
+            }
+        } finally {
+            sync();
+        }
+    }
+
+    private void write(FlowEvent event) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed: " + directory);
+        }
+        if (System.currentTimeMillis() - segmentOpenedMillis > maxSegmentAgeMillis && segment.position() > 0) {
+            roll();
+        }
+        if (!tryWrite(event)) {
+            if (segment.position() == 0 || recordSize(event) > segmentSize) {
+                throw new IllegalArgumentException("Event with edge.id " + event.getEdge().getId() + " is larger than the segment size " + segmentSize);
+            }
+            roll();
+            if (!tryWrite(event)) {
+                throw new IllegalStateException("Event with edge.id " + event.getEdge().getId() + " does not fit in a new segment");
+            }
+        }
+        unsyncedRecords++;
+    }
+
+    /**
+     * Only called when the current segment is full, so the extra serialization is paid once per segment.
+     */
+    private static long recordSize(FlowEvent event) {
+        return JournalSegments.RECORD_HEADER_SIZE + (long) event.toJson().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Serialize the event directly into the mapped segment. The length is written last, so a record that is only
+     * partially written is never seen as complete.
+     *
+     * @return false if the record did not fit in the current segment.
+     */
+    private boolean tryWrite(FlowEvent event) {
+        int start = segment.position();
+        if (segment.limit() - start <= JournalSegments.RECORD_HEADER_SIZE) {
+            return false;
+        }
+        segment.position(start + JournalSegments.RECORD_HEADER_SIZE);
+        try {
+            FlowEventJsonWriter.write(event, segment);
+        } catch (BufferOverflowException e) {
+            segment.position(start); // the length at start is still 0, so the partial payload is never read
+            return false;
+        }
+        int end = segment.position();
+        int length = end - start - JournalSegments.RECORD_HEADER_SIZE;
+        ByteBuffer payload = segment.duplicate();
+        payload.position(start + JournalSegments.RECORD_HEADER_SIZE).limit(end);
+        crc.reset();
+        crc.update(payload);
+        segment.putInt(start + 4, (int) crc.getValue());
+        segment.putInt(start, length);
+        segment.position(end);
+        FlowLoggerMetrics.global().bytesWritten(end - start);
+        return true;
+    }
+
+    /**
+     * Force all appended events to disk.
+     */
+    public synchronized void sync() {
+        if (unsyncedRecords > 0) {
+            segment.force();
+            unsyncedRecords = 0;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            sync();
+            closed = true;
+            MappedBuffers.unmap(segment);
+            segment = null;
+        }
+    }
+
+    public static class Builder {
+        private final Path directory;
+        private int segmentSize = 64 * 1024 * 1024;
+        private Duration maxSegmentAge;
+        private int syncEvery;
+
+        private Builder(Path directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * @param segmentSize the size in bytes of each pre-allocated segment file. Defaults to 64 MiB.
+         * @return this builder.
+         */
+        public Builder segmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * @param maxSegmentAge roll to a new segment when the current segment has been open longer than this.
+         * @return this builder.
+         */
+        public Builder maxSegmentAge(Duration maxSegmentAge) {
+            this.maxSegmentAge = maxSegmentAge;
+            return this;
+        }
+
+        /**
+         * @param syncEvery force to disk after this many appended records, or 0 to only sync explicitly.
+         * @return this builder.
+         */
+        public Builder syncEvery(int syncEvery) {
+            this.syncEvery = syncEvery;
+            return this;
+        }
+
+        public FlowEventJournal open() throws IOException {
+            if (directory == null) {
+                throw new IllegalArgumentException("directory is missing.");
+            }
+            if (segmentSize <= JournalSegments.RECORD_HEADER_SIZE) {
+                throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+            }
+            if (syncEvery < 0) {
+                throw new IllegalArgumentException("syncEvery cannot be negative: " + syncEvery);
+            }
+            return new FlowEventJournal(this);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package no.cantara.flow.flowlogger.journal;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.FlowEventJsonParser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Sequentially replays the events of a {@link FlowEventJournal}, oldest segment first. Reading of a segment stops at
+ * its end marker or at the first record that fails its checksum.
+ */
+public class FlowEventJournalReader implements Iterator<FlowEvent> {
+
+    private final List<Path> segments;
+    private final CRC32 crc = new CRC32();
+    private int nextSegment;
+    private MappedByteBuffer segment;
+    private FlowEvent next;
+
+    public FlowEventJournalReader(Path directory) throws IOException {
+        this.segments = JournalSegments.list(directory);
+    }
+
+    /**
+     * Replay all events in the journal.
+     *
+     * @param directory the journal directory.
+     * @param consumer  receives the events in the order they were appended.
+     * @throws IOException if the journal cannot be read.
+     */
+    public static void replay(Path directory, Consumer<FlowEvent> consumer) throws IOException {
+        FlowEventJournalReader reader = new FlowEventJournalReader(directory);
+        try {
+            while (reader.hasNext()) {
+                consumer.accept(reader.next());
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = readNext();
+        }
+        return next != null;
+    }
+
+    @Override
+    public FlowEvent next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        FlowEvent event = next;
+        next = null;
+        return event;
+    }
+
+    private FlowEvent readNext() {
+        while (true) {
+            if (segment != null) {
+                int length = JournalSegments.validRecordLength(segment, crc);
+                if (length > 0) {
+                    int payload = segment.position() + JournalSegments.RECORD_HEADER_SIZE;
+                    segment.position(payload + length);
+                    return FlowEventJsonParser.all().parse(segment, payload, length);
+                }
+                MappedBuffers.unmap(segment); // the parsed events do not refer to the buffer
+                segment = null;
+            }
+            if (nextSegment >= segments.size()) {
+                return null;
+            }
+            segment = map(segments.get(nextSegment++));
+        }
+    }
+
+    private static MappedByteBuffer map(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
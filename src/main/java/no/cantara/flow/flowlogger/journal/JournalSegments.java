@@ -0,0 +1,78 @@
+package no.cantara.flow.flowlogger.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Segment file naming and record layout shared by the journal writer and reader.
+ * <p>
+ * A segment is a pre-allocated file of records. Each record is a 4 byte payload length, a 4 byte CRC32 of the
+ * payload and the payload itself, the UTF-8 json of one event. A zero length marks the end of the written part of the
+ * segment, since the unwritten part of a pre-allocated file reads as zeros.
+ */
+final class JournalSegments {
+
+    static final int RECORD_HEADER_SIZE = 8;
+    static final String SUFFIX = ".journal";
+
+    private JournalSegments() {
+    }
+
+    static String fileName(long sequence) {
+        return String.format("%020d%s", sequence, SUFFIX);
+    }
+
+    static long sequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * @return the segment files of the journal directory, oldest first.
+     */
+    static List<Path> list(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Validate the record at the current position of the buffer without moving the position.
+     *
+     * @return the payload length of a valid record, 0 at the end of the segment, or -1 if the record is torn.
+     */
+    static int validRecordLength(ByteBuffer segment, CRC32 crc) {
+        int position = segment.position();
+        if (segment.limit() - position < RECORD_HEADER_SIZE) {
+            return 0;
+        }
+        int length = segment.getInt(position);
+        if (length == 0) {
+            return 0;
+        }
+        if (length < 0 || length > segment.limit() - position - RECORD_HEADER_SIZE) {
+            return -1;
+        }
+        int checksum = segment.getInt(position + 4);
+        ByteBuffer payload = segment.duplicate();
+        payload.position(position + RECORD_HEADER_SIZE).limit(position + RECORD_HEADER_SIZE + length);
+        crc.reset();
+        crc.update(payload);
+        if ((int) crc.getValue() != checksum) {
+            return -1;
+        }
+        return length;
+    }
+}
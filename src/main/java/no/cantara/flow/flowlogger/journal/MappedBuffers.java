@@ -0,0 +1,58 @@
+package no.cantara.flow.flowlogger.journal;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Unmapping of memory-mapped files, shared by the journal and the {@link no.cantara.flow.flowlogger.store store}.
+ */
+public final class MappedBuffers {
+
+    private static final Consumer<ByteBuffer> UNMAPPER = unmapper();
+
+    private MappedBuffers() {
+    }
+
+    /**
+     * Release the mapping of a file now instead of when the buffer is garbage collected. Windows does not let a
+     * mapped file be deleted or renamed. The buffer, and any view of it, must not be used afterwards. Does nothing
+     * if the JVM offers no way to unmap.
+     *
+     * @param buffer a mapped buffer, or null.
+     */
+    public static void unmap(ByteBuffer buffer) {
+        if (buffer != null) {
+            UNMAPPER.accept(buffer);
+        }
+    }
+
+    private static Consumer<ByteBuffer> unmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class); // Java 9 and later
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> invoke(invokeCleaner, unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            try {
+                Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner"); // Java 8
+                Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+                return buffer -> invoke(clean, invoke(cleaner, buffer));
+            } catch (ReflectiveOperationException | RuntimeException java8) {
+                return buffer -> {
+                };
+            }
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not unmap buffer", e);
+        }
+    }
+}
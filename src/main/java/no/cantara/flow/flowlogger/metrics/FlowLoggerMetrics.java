@@ -0,0 +1,330 @@
+package no.cantara.flow.flowlogger.metrics;
+
+import no.cantara.flow.flowlogger.sink.BackpressurePolicy;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Counters and gauges of the cost of flow logging itself: events built, ids generated, events serialized and the
+ * time spent serializing them, bytes written by the destinations, the depth of the queues of asynchronous sinks and
+ * the events they dropped or failed to write. The builder, serializers, destinations and sinks of this library record into the
+ * {@link #global() global} instance.
+ * <p>
+ * Counters are {@link LongAdder}s and the serialization time is recorded in a striped {@link LogLinearHistogram}, so
+ * recording never locks and rarely contends between threads. Serialized events are only counted by default, since
+ * timing a serialization reads {@link System#nanoTime()} twice, some tens of nanoseconds per event on common
+ * platforms; turn the histogram on with {@link #setSerializationTimingEnabled(boolean)} while investigating. Read the
+ * values with {@link #snapshot()}, or over JMX after {@link #registerMBean()}.
+ * <p>
+ * Example:
+ * <pre>
+ * FlowLoggerMetricsSnapshot before = FlowLoggerMetrics.global().snapshot();
+ * ...
+ * FlowLoggerMetricsSnapshot now = FlowLoggerMetrics.global().snapshot();
+ * double idsPerSecond = now.idGenerationRate(before);
+ * </pre>
+ */
+public final class FlowLoggerMetrics implements FlowLoggerMetricsMXBean {
+
+    /**
+     * The name the global metrics are registered under by {@link #registerMBean()}.
+     */
+    public static final String OBJECT_NAME = "no.cantara.flow.flowlogger:type=FlowLoggerMetrics";
+
+    private static final BackpressurePolicy[] POLICIES = BackpressurePolicy.values();
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private static final FlowLoggerMetrics GLOBAL = new FlowLoggerMetrics();
+
+    private final LongAdder eventsBuilt = new LongAdder();
+    private final LongAdder idsGenerated = new LongAdder();
+    private final LongAdder eventsSerialized = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LogLinearHistogram serializationNanos = new LogLinearHistogram();
+    private final LongAdder[] dropped = new LongAdder[POLICIES.length];
+    private final LongAdder failedWrites = new LongAdder();
+    private final List<IntSupplier> queues = new CopyOnWriteArrayList<>();
+
+    private final long rateWindowNanos;
+    private final AtomicReference<RateWindow> rateWindow;
+    private volatile boolean serializationTimingEnabled;
+
+    public FlowLoggerMetrics() {
+        this(TimeUnit.MINUTES.toNanos(1));
+    }
+
+    FlowLoggerMetrics(long rateWindowNanos) {
+        for (int i = 0; i < dropped.length; i++) {
+            dropped[i] = new LongAdder();
+        }
+        this.rateWindowNanos = rateWindowNanos;
+        this.rateWindow = new AtomicReference<>(new RateWindow(System.nanoTime(), 0, 0));
+    }
+
+    /**
+     * The start of the current window of {@link #getIdGenerationRate()} and the rate of the window before it.
+     */
+    private static final class RateWindow {
+        final long startNanos;
+        final long startIds;
+        final double previousRate;
+
+        RateWindow(long startNanos, long startIds, double previousRate) {
+            this.startNanos = startNanos;
+            this.startIds = startIds;
+            this.previousRate = previousRate;
+        }
+    }
+
+    /**
+     * @return the metrics recorded by this library.
+     */
+    public static FlowLoggerMetrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Register the global metrics with the platform MBean server under {@link #OBJECT_NAME}, unless already
+     * registered.
+     *
+     * @return the object name.
+     */
+    public static ObjectName registerMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = objectName();
+        synchronized (FlowLoggerMetrics.class) {
+            if (!server.isRegistered(name)) {
+                try {
+                    server.registerMBean(GLOBAL, name);
+                } catch (JMException e) {
+                    throw new IllegalStateException("Could not register " + name, e);
+                }
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Remove the global metrics from the platform MBean server, if registered.
+     */
+    public static void unregisterMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        synchronized (FlowLoggerMetrics.class) {
+            try {
+                server.unregisterMBean(objectName());
+            } catch (InstanceNotFoundException e) {
+                // not registered
+            } catch (JMException e) {
+                throw new IllegalStateException("Could not unregister " + OBJECT_NAME, e);
+            }
+        }
+    }
+
+    private static ObjectName objectName() {
+        try {
+            return new ObjectName(OBJECT_NAME);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(e); // constant name
+        }
+    }
+
+    public void eventBuilt() {
+        eventsBuilt.increment();
+    }
+
+    public void idGenerated() {
+        idsGenerated.increment();
+    }
+
+    /**
+     * @param nanos the time it took to serialize the event.
+     */
+    public void eventSerialized(long nanos) {
+        eventsSerialized.increment();
+        serializationNanos.record(nanos);
+    }
+
+    /**
+     * Call before serializing an event and pass the result to {@link #serializationDone(long)}.
+     *
+     * @return the start time, or a marker without reading the clock if serialization timing is disabled.
+     */
+    public long serializationStarted() {
+        return serializationTimingEnabled ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * Count a serialized event, and record its serialization time if it was timed.
+     *
+     * @param started the value returned by {@link #serializationStarted()}.
+     */
+    public void serializationDone(long started) {
+        if (started == NOT_TIMED) {
+            eventsSerialized.increment();
+        } else {
+            eventSerialized(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * @param enabled true to also record the time each serialized event took, false to only count them. Disabled by
+     *                default.
+     */
+    @Override
+    public void setSerializationTimingEnabled(boolean enabled) {
+        serializationTimingEnabled = enabled;
+    }
+
+    @Override
+    public boolean isSerializationTimingEnabled() {
+        return serializationTimingEnabled;
+    }
+
+    public void bytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
+    /**
+     * @param policy the backpressure policy of the sink that dropped the events.
+     * @param count  the number of dropped events.
+     */
+    public void dropped(BackpressurePolicy policy, long count) {
+        dropped[policy.ordinal()].add(count);
+    }
+
+    /**
+     * @param count the number of events in a batch the destination of a sink failed to write.
+     */
+    public void writeFailed(long count) {
+        failedWrites.add(count);
+    }
+
+    /**
+     * Include the depth of a queue in {@link FlowLoggerMetricsSnapshot#getQueueDepth()} until it is removed.
+     *
+     * @param queueDepth returns the number of events waiting in the queue.
+     */
+    public void addQueue(IntSupplier queueDepth) {
+        queues.add(queueDepth);
+    }
+
+    public void removeQueue(IntSupplier queueDepth) {
+        queues.remove(queueDepth);
+    }
+
+    public FlowLoggerMetricsSnapshot snapshot() {
+        Map<BackpressurePolicy, Long> droppedByPolicy = new EnumMap<>(BackpressurePolicy.class);
+        for (int i = 0; i < dropped.length; i++) {
+            droppedByPolicy.put(POLICIES[i], dropped[i].sum());
+        }
+        return new FlowLoggerMetricsSnapshot(System.nanoTime(), eventsBuilt.sum(), idsGenerated.sum(), eventsSerialized.sum(),
+                bytesWritten.sum(), serializationNanos.snapshot(), queueDepth(), droppedByPolicy, failedWrites.sum());
+    }
+
+    private int queueDepth() {
+        int depth = 0;
+        for (IntSupplier queue : queues) {
+            depth += queue.getAsInt();
+        }
+        return depth;
+    }
+
+    @Override
+    public long getEventsBuilt() {
+        return eventsBuilt.sum();
+    }
+
+    @Override
+    public long getIdsGenerated() {
+        return idsGenerated.sum();
+    }
+
+    /**
+     * The window is advanced by the first read after it has ended, so every reader sees the same value within a
+     * window. A window without reads is merged into the next one.
+     */
+    @Override
+    public double getIdGenerationRate() {
+        RateWindow window = rateWindow.get();
+        long now = System.nanoTime();
+        long elapsed = now - window.startNanos;
+        if (elapsed < rateWindowNanos) {
+            return window.previousRate;
+        }
+        long ids = idsGenerated.sum();
+        RateWindow next = new RateWindow(now, ids, (ids - window.startIds) * 1e9 / elapsed);
+        return rateWindow.compareAndSet(window, next) ? next.previousRate : rateWindow.get().previousRate;
+    }
+
+    @Override
+    public long getEventsSerialized() {
+        return eventsSerialized.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public double getSerializationTimeMeanNanos() {
+        return serializationNanos.snapshot().getMean();
+    }
+
+    @Override
+    public long getSerializationTimeP50Nanos() {
+        return serializationNanos.snapshot().getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getSerializationTimeP99Nanos() {
+        return serializationNanos.snapshot().getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getSerializationTimeMaxNanos() {
+        return serializationNanos.snapshot().getMax();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth();
+    }
+
+    @Override
+    public long getDroppedEvents() {
+        long total = 0;
+        for (LongAdder adder : dropped) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    @Override
+    public long getFailedWrites() {
+        return failedWrites.sum();
+    }
+
+    @Override
+    public Map<String, Long> getDroppedEventsByPolicy() {
+        Map<String, Long> byName = new TreeMap<>();
+        for (int i = 0; i < dropped.length; i++) {
+            byName.put(POLICIES[i].name(), dropped[i].sum());
+        }
+        return byName;
+    }
+}
@@ -0,0 +1,53 @@
+package no.cantara.flow.flowlogger.metrics;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link FlowLoggerMetrics}, registered with {@link FlowLoggerMetrics#registerMBean()}.
+ */
+public interface FlowLoggerMetricsMXBean {
+
+    long getEventsBuilt();
+
+    long getIdsGenerated();
+
+    /**
+     * @return the ids generated per second in the last completed window of one minute, or 0 during the first
+     * minute. Reading the attribute does not affect other readers; compute rates over other periods from
+     * {@link #getIdsGenerated()}.
+     */
+    double getIdGenerationRate();
+
+    long getEventsSerialized();
+
+    long getBytesWritten();
+
+    /**
+     * @return false if serialized events are only counted, and the serialization time attributes are not updated.
+     */
+    boolean isSerializationTimingEnabled();
+
+    void setSerializationTimingEnabled(boolean enabled);
+
+    double getSerializationTimeMeanNanos();
+
+    long getSerializationTimeP50Nanos();
+
+    long getSerializationTimeP99Nanos();
+
+    long getSerializationTimeMaxNanos();
+
+    int getQueueDepth();
+
+    long getDroppedEvents();
+
+    /**
+     * @return the number of dropped events by the name of the backpressure policy of the sink that dropped them.
+     */
+    Map<String, Long> getDroppedEventsByPolicy();
+
+    /**
+     * @return the number of events in batches the destinations of asynchronous sinks failed to write.
+     */
+    long getFailedWrites();
+}
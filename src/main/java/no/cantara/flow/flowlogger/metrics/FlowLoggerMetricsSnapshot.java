@@ -0,0 +1,129 @@
+package no.cantara.flow.flowlogger.metrics;
+
+import no.cantara.flow.flowlogger.sink.BackpressurePolicy;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The values of {@link FlowLoggerMetrics} at one point in time. Counters are totals since the metrics were created,
+ * rates are computed between two snapshots.
+ */
+public class FlowLoggerMetricsSnapshot {
+
+    private final long takenAtNanos;
+    private final long eventsBuilt;
+    private final long idsGenerated;
+    private final long eventsSerialized;
+    private final long bytesWritten;
+    private final HistogramSnapshot serializationNanos;
+    private final int queueDepth;
+    private final Map<BackpressurePolicy, Long> droppedByPolicy;
+    private final long failedWrites;
+
+    FlowLoggerMetricsSnapshot(long takenAtNanos, long eventsBuilt, long idsGenerated, long eventsSerialized, long bytesWritten,
+                              HistogramSnapshot serializationNanos, int queueDepth, Map<BackpressurePolicy, Long> droppedByPolicy,
+                              long failedWrites) {
+        this.takenAtNanos = takenAtNanos;
+        this.eventsBuilt = eventsBuilt;
+        this.idsGenerated = idsGenerated;
+        this.eventsSerialized = eventsSerialized;
+        this.bytesWritten = bytesWritten;
+        this.serializationNanos = serializationNanos;
+        this.queueDepth = queueDepth;
+        this.droppedByPolicy = droppedByPolicy;
+        this.failedWrites = failedWrites;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} when the snapshot was taken.
+     */
+    public long getTakenAtNanos() {
+        return takenAtNanos;
+    }
+
+    public long getEventsBuilt() {
+        return eventsBuilt;
+    }
+
+    public long getIdsGenerated() {
+        return idsGenerated;
+    }
+
+    public long getEventsSerialized() {
+        return eventsSerialized;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return the time spent serializing single events, in nanoseconds.
+     */
+    public HistogramSnapshot getSerializationNanos() {
+        return serializationNanos;
+    }
+
+    /**
+     * @return the number of events waiting in the queues of all open asynchronous sinks.
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * @return the number of dropped events by the backpressure policy of the sink that dropped them.
+     */
+    public Map<BackpressurePolicy, Long> getDroppedByPolicy() {
+        return Collections.unmodifiableMap(droppedByPolicy);
+    }
+
+    public long getDroppedCount() {
+        long total = 0;
+        for (long dropped : droppedByPolicy.values()) {
+            total += dropped;
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of events in batches the destinations of asynchronous sinks failed to write.
+     */
+    public long getFailedWrites() {
+        return failedWrites;
+    }
+
+    /**
+     * @param previous an earlier snapshot of the same metrics.
+     * @return the ids generated per second between the snapshots.
+     */
+    public double idGenerationRate(FlowLoggerMetricsSnapshot previous) {
+        return rate(idsGenerated - previous.idsGenerated, previous);
+    }
+
+    /**
+     * @param previous an earlier snapshot of the same metrics.
+     * @return the events built per second between the snapshots.
+     */
+    public double eventBuildRate(FlowLoggerMetricsSnapshot previous) {
+        return rate(eventsBuilt - previous.eventsBuilt, previous);
+    }
+
+    private double rate(long delta, FlowLoggerMetricsSnapshot previous) {
+        long elapsed = takenAtNanos - previous.takenAtNanos;
+        return elapsed <= 0 ? 0 : delta * 1e9 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "eventsBuilt=" + eventsBuilt
+                + " idsGenerated=" + idsGenerated
+                + " eventsSerialized=" + eventsSerialized
+                + " bytesWritten=" + bytesWritten
+                + " queueDepth=" + queueDepth
+                + " dropped=" + droppedByPolicy
+                + " failedWrites=" + failedWrites
+                + " serializationNanos=[" + serializationNanos + "]";
+    }
+}
@@ -0,0 +1,72 @@
+package no.cantara.flow.flowlogger.metrics;
+
+/**
+ * The counts of a {@link LogLinearHistogram} at one point in time.
+ */
+public class HistogramSnapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    HistogramSnapshot(long[] counts, long sum, long max) {
+        this.counts = counts;
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        this.count = total;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100.
+     * @return the highest value that is counted as equal to the value at the given percentile, never more than the
+     * largest recorded value, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100, was: " + percentile);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(LogLinearHistogram.upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count
+                + " mean=" + (long) getMean()
+                + " p50=" + getValueAtPercentile(50)
+                + " p90=" + getValueAtPercentile(90)
+                + " p99=" + getValueAtPercentile(99)
+                + " max=" + max;
+    }
+}
@@ -0,0 +1,87 @@
+package no.cantara.flow.flowlogger.metrics;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.Node;
+
+import java.util.Objects;
+
+/**
+ * Identifies a hop by the type and address of its source and destination and the milestone of its edge. The payload
+ * of the nodes is not part of the key, so all messages sent the same way are aggregated together.
+ */
+public final class HopKey {
+
+    private final String sourceType;
+    private final String sourceAddress;
+    private final String destinationType;
+    private final String destinationAddress;
+    private final String milestone;
+    private final int hash;
+
+    public HopKey(String sourceType, String sourceAddress, String destinationType, String destinationAddress, String milestone) {
+        this.sourceType = sourceType;
+        this.sourceAddress = sourceAddress;
+        this.destinationType = destinationType;
+        this.destinationAddress = destinationAddress;
+        this.milestone = milestone;
+        this.hash = Objects.hash(sourceType, sourceAddress, destinationType, destinationAddress, milestone);
+    }
+
+    static HopKey of(FlowEvent event) {
+        Node source = event.getSource();
+        Node destination = event.getDestination();
+        return new HopKey(
+                source == null ? null : source.getType(),
+                source == null ? null : source.getAddress(),
+                destination == null ? null : destination.getType(),
+                destination == null ? null : destination.getAddress(),
+                event.getEdge() == null ? null : event.getEdge().getMilestone());
+    }
+
+    public String getSourceType() {
+        return sourceType;
+    }
+
+    public String getSourceAddress() {
+        return sourceAddress;
+    }
+
+    public String getDestinationType() {
+        return destinationType;
+    }
+
+    public String getDestinationAddress() {
+        return destinationAddress;
+    }
+
+    public String getMilestone() {
+        return milestone;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof HopKey)) {
+            return false;
+        }
+        HopKey that = (HopKey) o;
+        return hash == that.hash
+                && Objects.equals(sourceType, that.sourceType)
+                && Objects.equals(sourceAddress, that.sourceAddress)
+                && Objects.equals(destinationType, that.destinationType)
+                && Objects.equals(destinationAddress, that.destinationAddress)
+                && Objects.equals(milestone, that.milestone);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return sourceType + ":" + sourceAddress + " -> " + destinationType + ":" + destinationAddress + " [" + milestone + "]";
+    }
+}
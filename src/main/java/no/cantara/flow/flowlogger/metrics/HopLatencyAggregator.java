@@ -0,0 +1,177 @@
+package no.cantara.flow.flowlogger.metrics;
+
+import no.cantara.flow.flowlogger.event.Edge;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.FlowHistory;
+import no.cantara.flow.flowlogger.sink.FlowEventSink;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Aggregates the latency of each hop in-process: the time from the edge an event follows, the last edge of its
+ * history, to the edge of the event itself. Latencies are recorded in nanoseconds in a {@link LogLinearHistogram} per
+ * {@link HopKey}.
+ * <p>
+ * The timestamps of recently published edges are kept in a fixed size, direct-mapped table, so publishing never
+ * blocks and memory use is bounded. An event is only measured if the edge it follows was published to this
+ * aggregator before it, and has not been overwritten in the table since. Latencies that come out negative, because
+ * of clock differences between reporters, are recorded as 0.
+ */
+public class HopLatencyAggregator implements FlowEventSink {
+
+    private static final class Seen {
+        final String correlationId;
+        final String edgeId;
+        final long epochNanos;
+
+        Seen(String correlationId, String edgeId, long epochNanos) {
+            this.correlationId = correlationId;
+            this.edgeId = edgeId;
+            this.epochNanos = epochNanos;
+        }
+    }
+
+    private final AtomicReferenceArray<Seen> recent;
+    private final int mask;
+    private final int stripes;
+    private final ConcurrentMap<HopKey, LogLinearHistogram> histograms = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    private HopLatencyAggregator(Builder builder) {
+        this.recent = new AtomicReferenceArray<>(builder.recentEdges);
+        this.mask = builder.recentEdges - 1;
+        this.stripes = builder.stripes;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Remember the edge of the event and record the latency from the edge it follows, if that edge is known.
+     *
+     * @return false if the aggregator is closed.
+     */
+    @Override
+    public boolean publish(FlowEvent event) {
+        if (closed) {
+            return false;
+        }
+        String correlationId = event.getCorrelationId();
+        Edge edge = event.getEdge();
+        if (correlationId == null || edge == null) {
+            return true;
+        }
+        long epochNanos = edge.getEpochNanos();
+        if (epochNanos == Edge.UNKNOWN_TIME) {
+            return true;
+        }
+        if (edge.getId() != null) {
+            recent.set(slot(correlationId, edge.getId()), new Seen(correlationId, edge.getId(), epochNanos));
+        }
+        FlowHistory history = event.getFlowHistory();
+        String parentId = history == null ? null : history.last();
+        if (parentId == null) {
+            return true;
+        }
+        Seen parent = recent.get(slot(correlationId, parentId));
+        if (parent != null && parent.edgeId.equals(parentId) && parent.correlationId.equals(correlationId)) {
+            histogram(HopKey.of(event)).record(epochNanos - parent.epochNanos);
+        }
+        return true;
+    }
+
+    private int slot(String correlationId, String edgeId) {
+        int h = correlationId.hashCode() * 31 + edgeId.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private LogLinearHistogram histogram(HopKey key) {
+        LogLinearHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(key, k -> new LogLinearHistogram(stripes));
+        }
+        return histogram;
+    }
+
+    /**
+     * @return the latencies recorded per hop since creation or the last reset.
+     */
+    public Map<HopKey, HistogramSnapshot> snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * Take a snapshot of every hop and start a new interval.
+     *
+     * @return the latencies recorded per hop since creation or the last reset.
+     * @see LogLinearHistogram#snapshotAndReset()
+     */
+    public Map<HopKey, HistogramSnapshot> snapshotAndReset() {
+        return snapshot(true);
+    }
+
+    private Map<HopKey, HistogramSnapshot> snapshot(boolean reset) {
+        Map<HopKey, HistogramSnapshot> result = new HashMap<>();
+        for (Map.Entry<HopKey, LogLinearHistogram> entry : histograms.entrySet()) {
+            LogLinearHistogram histogram = entry.getValue();
+            result.put(entry.getKey(), reset ? histogram.snapshotAndReset() : histogram.snapshot());
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Nothing to flush, latencies are recorded when published.
+     */
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    public static class Builder {
+        private int recentEdges = 64 * 1024;
+        private int stripes = Math.min(8, Runtime.getRuntime().availableProcessors());
+
+        private Builder() {
+        }
+
+        /**
+         * @param recentEdges the number of edge timestamps kept to find the edge an event follows, rounded up to a
+         *                    power of two.
+         * @return this builder.
+         */
+        public Builder recentEdges(int recentEdges) {
+            if (recentEdges < 1) {
+                throw new IllegalArgumentException("recentEdges must be positive, was: " + recentEdges);
+            }
+            this.recentEdges = recentEdges == 1 ? 1 : Integer.highestOneBit(recentEdges - 1) << 1;
+            return this;
+        }
+
+        /**
+         * @param stripes the number of stripes of each histogram.
+         * @return this builder.
+         * @see LogLinearHistogram#LogLinearHistogram(int)
+         */
+        public Builder stripes(int stripes) {
+            if (stripes < 1) {
+                throw new IllegalArgumentException("stripes must be positive, was: " + stripes);
+            }
+            this.stripes = stripes;
+            return this;
+        }
+
+        public HopLatencyAggregator build() {
+            return new HopLatencyAggregator(this);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package no.cantara.flow.flowlogger.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative long values. Every power of two is split into {@value #SUB_BUCKETS} linear
+ * buckets, so recorded values are reported with a relative error below 1/{@value #SUB_BUCKETS}, using a fixed
+ * number of counters for the whole range of long.
+ * <p>
+ * Recording threads are spread over stripes by thread id, each stripe a separate array of counters, so that
+ * concurrent recording rarely contends on the same cache lines. Snapshots sum the stripes.
+ */
+public class LogLinearHistogram {
+
+    static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private static final int SUM = BUCKETS;
+    private static final int MAX = BUCKETS + 1;
+
+    private final AtomicLongArray[] stripes;
+    private final int mask;
+
+    /**
+     * Create a histogram with one stripe per available processor, at most 8.
+     */
+    public LogLinearHistogram() {
+        this(Math.min(8, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param stripes the number of stripes, rounded up to a power of two.
+     */
+    public LogLinearHistogram(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("stripes must be positive, was: " + stripes);
+        }
+        int count = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new AtomicLongArray[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new AtomicLongArray(BUCKETS + 2);
+        }
+        this.mask = count - 1;
+    }
+
+    /**
+     * @param value the value to record, negative values are recorded as 0.
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        AtomicLongArray stripe = stripes[home() & mask];
+        stripe.incrementAndGet(index(v));
+        stripe.addAndGet(SUM, v);
+        long max;
+        while ((max = stripe.get(MAX)) < v && !stripe.compareAndSet(MAX, max, v)) {
+            // retry
+        }
+    }
+
+    /**
+     * @return the values recorded since creation or the last reset.
+     */
+    public HistogramSnapshot snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * Take a snapshot and start a new interval. Every value recorded concurrently ends up in either this or the next
+     * interval, though not necessarily with all its counters in the same one.
+     *
+     * @return the values recorded since creation or the last reset.
+     */
+    public HistogramSnapshot snapshotAndReset() {
+        return snapshot(true);
+    }
+
+    private HistogramSnapshot snapshot(boolean reset) {
+        long[] counts = new long[BUCKETS];
+        long sum = 0;
+        long max = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += reset ? stripe.getAndSet(i, 0) : stripe.get(i);
+            }
+            sum += reset ? stripe.getAndSet(SUM, 0) : stripe.get(SUM);
+            max = Math.max(max, reset ? stripe.getAndSet(MAX, 0) : stripe.get(MAX));
+        }
+        return new HistogramSnapshot(counts, sum, max);
+    }
+
+    @SuppressWarnings("deprecation") // Thread.threadId() is not available before Java 19
+    private static int home() {
+        return (int) Thread.currentThread().getId();
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    static long lowerBound(int index) {
+        int shift = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+        return (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+    }
+
+    static long upperBound(int index) {
+        return index == BUCKETS - 1 ? Long.MAX_VALUE : lowerBound(index + 1) - 1;
+    }
+}
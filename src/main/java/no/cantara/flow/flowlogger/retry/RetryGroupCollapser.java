@@ -0,0 +1,351 @@
+package no.cantara.flow.flowlogger.retry;
+
+import no.cantara.flow.flowlogger.event.Edge;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.sink.FlowEventSink;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Collapses the attempts of a retry group, the events with the same correlation id and {@link Edge#getRetryGroupId()},
+ * into one summary event per time window. The summary is the last attempt, with the first and last timestamp, the
+ * number of attempts, the distinct error types and reasons and the final status recorded as a {@link RetrySummary}
+ * in its comment. Its edge id is the id of the last attempt, so later events still find it in their history.
+ * <p>
+ * A group is emitted when its window, counted from its first attempt, has passed, or right away when an attempt
+ * succeeds if {@link Builder#completeOnSuccess(boolean)} is set. A group of a single attempt is forwarded
+ * unchanged. Events without retry group id are forwarded immediately. When the maximum number of open groups is
+ * reached, the oldest group is emitted early, so no attempt is ever lost without being counted.
+ * <p>
+ * Example:
+ * <pre>
+ * RetryGroupCollapser collapser = RetryGroupCollapser.builder(asyncSink)
+ *         .window(Duration.ofMinutes(1))
+ *         .build();
+ * </pre>
+ */
+public class RetryGroupCollapser implements FlowEventSink {
+
+    private static final class Group {
+        final long started;
+        FlowEvent earliest;
+        FlowEvent last;
+        int attempts;
+        final List<String> errorTypes = new ArrayList<>(2);
+        final List<String> errorReasons = new ArrayList<>(2);
+
+        Group(long started) {
+            this.started = started;
+        }
+    }
+
+    private static final class Shard {
+        final LinkedHashMap<String, Group> groups = new LinkedHashMap<>(); // by first attempt, so eldest expires first
+    }
+
+    private final FlowEventSink downstream;
+    private final Shard[] shards;
+    private final long windowNanos;
+    private final int maxGroupsPerShard;
+    private final int maxDistinctValues;
+    private final boolean completeOnSuccess;
+    private final LongSupplier nanoClock;
+
+    private final AtomicLong collapsed = new AtomicLong();
+
+    private volatile boolean closed;
+
+    private RetryGroupCollapser(Builder builder) {
+        this.downstream = builder.downstream;
+        this.shards = new Shard[builder.shards];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard();
+        }
+        this.windowNanos = builder.window.toNanos();
+        this.maxGroupsPerShard = Math.max(1, builder.maxGroups / builder.shards);
+        this.maxDistinctValues = builder.maxDistinctValues;
+        this.completeOnSuccess = builder.completeOnSuccess;
+        this.nanoClock = builder.nanoClock;
+    }
+
+    /**
+     * @param downstream receives the summaries and all other events, and is flushed and closed with this sink.
+     * @return a builder.
+     */
+    public static Builder builder(FlowEventSink downstream) {
+        return new Builder(downstream);
+    }
+
+    /**
+     * @return false if the collapser is closed or the downstream sink dropped an event.
+     */
+    @Override
+    public boolean publish(FlowEvent event) {
+        if (closed) {
+            return false;
+        }
+        String correlationId = event.getCorrelationId();
+        Edge edge = event.getEdge();
+        if (correlationId == null || edge == null || edge.getRetryGroupId() == null) {
+            return downstream.publish(event);
+        }
+        String key = correlationId + '\u0000' + edge.getRetryGroupId();
+        Shard shard = shards[(key.hashCode() & 0x7fffffff) % shards.length];
+        long now = nanoClock.getAsLong();
+        List<Group> completed = null;
+        synchronized (shard) {
+            completed = expire(shard, now - windowNanos, completed);
+            Group group = shard.groups.get(key);
+            if (group == null) {
+                if (shard.groups.size() >= maxGroupsPerShard) {
+                    Iterator<Group> eldest = shard.groups.values().iterator();
+                    completed = add(completed, eldest.next());
+                    eldest.remove();
+                }
+                group = new Group(now);
+                shard.groups.put(key, group);
+            }
+            add(group, event);
+            if (completeOnSuccess && isSuccess(edge)) {
+                shard.groups.remove(key);
+                completed = add(completed, group);
+            }
+        }
+        return emit(completed);
+    }
+
+    private void add(Group group, FlowEvent event) {
+        Edge edge = event.getEdge();
+        group.attempts++;
+        if (group.last == null || !isBefore(edge, group.last.getEdge())) {
+            group.last = event;
+        }
+        if (group.earliest == null || isBefore(edge, group.earliest.getEdge())) {
+            group.earliest = event;
+        }
+        addDistinct(group.errorTypes, edge.getErrorType());
+        addDistinct(group.errorReasons, edge.getErrorReason());
+    }
+
+    /**
+     * @return true if both timestamps are known and the first is before the other, so unknown timestamps order the
+     * attempts by arrival.
+     */
+    private static boolean isBefore(Edge edge, Edge other) {
+        long time = edge.getEpochNanos();
+        long otherTime = other.getEpochNanos();
+        return time != Edge.UNKNOWN_TIME && otherTime != Edge.UNKNOWN_TIME && time < otherTime;
+    }
+
+    private void addDistinct(List<String> values, String value) {
+        if (value != null && values.size() < maxDistinctValues && !values.contains(value)) {
+            values.add(value);
+        }
+    }
+
+    private static boolean isSuccess(Edge edge) {
+        return edge.getErrorType() == null && (edge.getStatus() == null || "OK".equals(edge.getStatus()));
+    }
+
+    private List<Group> expire(Shard shard, long deadline, List<Group> completed) {
+        Iterator<Group> groups = shard.groups.values().iterator();
+        while (groups.hasNext()) {
+            Group group = groups.next();
+            if (group.started - deadline >= 0) {
+                break;
+            }
+            groups.remove();
+            completed = add(completed, group);
+        }
+        return completed;
+    }
+
+    private static List<Group> add(List<Group> list, Group group) {
+        if (list == null) {
+            list = new ArrayList<>(2);
+        }
+        list.add(group);
+        return list;
+    }
+
+    private boolean emit(List<Group> completed) {
+        boolean accepted = true;
+        if (completed != null) {
+            for (Group group : completed) {
+                accepted &= downstream.publish(summarize(group));
+            }
+        }
+        return accepted;
+    }
+
+    private FlowEvent summarize(Group group) {
+        if (group.attempts == 1) {
+            return group.last;
+        }
+        collapsed.addAndGet(group.attempts - 1);
+        FlowEvent last = group.last;
+        Edge edge = last.getEdge();
+        RetrySummary summary = new RetrySummary(group.attempts, group.earliest.getEdge().getTimestamp(), edge.getTimestamp(),
+                group.errorTypes.isEmpty() ? null : group.errorTypes,
+                group.errorReasons.isEmpty() ? null : group.errorReasons,
+                edge.getStatus(), edge.getComment());
+        Edge summaryEdge = edge.getTimestampZone() != null
+                ? new Edge(edge.getId(), edge.getRetryGroupId(), edge.getEpochNanos(), edge.getTimestampZone(), edge.getMilestone(), edge.getStatus(), edge.getErrorType(), edge.getErrorReason(), summary.toJson())
+                : new Edge(edge.getId(), edge.getRetryGroupId(), edge.getTimestamp(), edge.getMilestone(), edge.getStatus(), edge.getErrorType(), edge.getErrorReason(), summary.toJson());
+        return new FlowEvent(last.getCorrelationId(), last.getFlowHistory(), last.getReporter(), last.getSource(), last.getDestination(), summaryEdge);
+    }
+
+    /**
+     * Emit the summaries of all groups whose window has passed. Expiry is also checked whenever an event arrives in
+     * a shard, call this periodically to emit groups in shards that receive no events.
+     */
+    public void expire() {
+        long deadline = nanoClock.getAsLong() - windowNanos;
+        for (Shard shard : shards) {
+            List<Group> completed;
+            synchronized (shard) {
+                completed = expire(shard, deadline, null);
+            }
+            emit(completed);
+        }
+    }
+
+    /**
+     * Expire groups and flush the downstream sink. Groups whose window has not passed stay open.
+     */
+    @Override
+    public void flush() {
+        expire();
+        downstream.flush();
+    }
+
+    /**
+     * Emit the summaries of all open groups and close the downstream sink.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Shard shard : shards) {
+            List<Group> completed;
+            synchronized (shard) {
+                completed = new ArrayList<>(shard.groups.values());
+                shard.groups.clear();
+            }
+            emit(completed);
+        }
+        downstream.close();
+    }
+
+    /**
+     * @return the number of retry groups not yet emitted.
+     */
+    public int openGroupCount() {
+        int count = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                count += shard.groups.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of events that were not forwarded because they were collapsed into a summary.
+     */
+    public long collapsedCount() {
+        return collapsed.get();
+    }
+
+    public static class Builder {
+        private final FlowEventSink downstream;
+        private int shards = Runtime.getRuntime().availableProcessors() * 4;
+        private Duration window = Duration.ofMinutes(1);
+        private int maxGroups = 100_000;
+        private int maxDistinctValues = 16;
+        private boolean completeOnSuccess = true;
+        private LongSupplier nanoClock = System::nanoTime;
+
+        private Builder(FlowEventSink downstream) {
+            if (downstream == null) {
+                throw new IllegalArgumentException("downstream cannot be null");
+            }
+            this.downstream = downstream;
+        }
+
+        /**
+         * @param shards the number of independently locked shards, defaults to 4 per available processor.
+         * @return this builder.
+         */
+        public Builder shards(int shards) {
+            if (shards < 1) {
+                throw new IllegalArgumentException("shards must be positive, was: " + shards);
+            }
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * @param window how long after its first attempt a retry group is collapsed into one summary.
+         * @return this builder.
+         */
+        public Builder window(Duration window) {
+            if (window == null || window.isNegative()) {
+                throw new IllegalArgumentException("window must be zero or positive, was: " + window);
+            }
+            this.window = window;
+            return this;
+        }
+
+        /**
+         * @param maxGroups the approximate maximum number of open retry groups, divided evenly between the shards.
+         * @return this builder.
+         */
+        public Builder maxGroups(int maxGroups) {
+            if (maxGroups < 1) {
+                throw new IllegalArgumentException("maxGroups must be positive, was: " + maxGroups);
+            }
+            this.maxGroups = maxGroups;
+            return this;
+        }
+
+        /**
+         * @param maxDistinctValues the maximum number of distinct error types and error reasons kept in a summary.
+         * @return this builder.
+         */
+        public Builder maxDistinctValues(int maxDistinctValues) {
+            if (maxDistinctValues < 0) {
+                throw new IllegalArgumentException("maxDistinctValues cannot be negative, was: " + maxDistinctValues);
+            }
+            this.maxDistinctValues = maxDistinctValues;
+            return this;
+        }
+
+        /**
+         * @param completeOnSuccess emit the summary as soon as an attempt without error arrives, defaults to true.
+         * @return this builder.
+         */
+        public Builder completeOnSuccess(boolean completeOnSuccess) {
+            this.completeOnSuccess = completeOnSuccess;
+            return this;
+        }
+
+        /**
+         * @param nanoClock the source of {@link System#nanoTime()}-like timestamps used for expiry, e.g. in tests.
+         * @return this builder.
+         */
+        public Builder nanoClock(LongSupplier nanoClock) {
+            this.nanoClock = nanoClock;
+            return this;
+        }
+
+        public RetryGroupCollapser build() {
+            return new RetryGroupCollapser(this);
+        }
+    }
+}
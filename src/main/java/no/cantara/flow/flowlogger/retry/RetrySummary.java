@@ -0,0 +1,106 @@
+package no.cantara.flow.flowlogger.retry;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import no.cantara.flow.flowlogger.event.Edge;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The attempts of a retry group collapsed into one event by {@link RetryGroupCollapser}, carried as json in the
+ * comment of the summary event, e.g.
+ * <pre>
+ * {"attempts":3,"firstTimestamp":"2017-06-07T10:44:31.1+02:00","lastTimestamp":"2017-06-07T10:44:35.2+02:00",
+ *  "errorTypes":["Timeout"],"errorReasons":["no response in 2s"],"finalStatus":"OK"}
+ * </pre>
+ * The comment of the last attempt, if any, is kept in the {@code comment} field.
+ */
+public final class RetrySummary {
+
+    private static final Gson GSON = new Gson();
+
+    private final int attempts;
+    private final String firstTimestamp;
+    private final String lastTimestamp;
+    private final List<String> errorTypes;
+    private final List<String> errorReasons;
+    private final String finalStatus;
+    private final String comment;
+
+    RetrySummary(int attempts, String firstTimestamp, String lastTimestamp, List<String> errorTypes, List<String> errorReasons, String finalStatus, String comment) {
+        this.attempts = attempts;
+        this.firstTimestamp = firstTimestamp;
+        this.lastTimestamp = lastTimestamp;
+        this.errorTypes = errorTypes;
+        this.errorReasons = errorReasons;
+        this.finalStatus = finalStatus;
+        this.comment = comment;
+    }
+
+    /**
+     * @param event an event, possibly a summary created by {@link RetryGroupCollapser}.
+     * @return the summary carried by the event, or null if the event is not a summary.
+     */
+    public static RetrySummary of(FlowEvent event) {
+        Edge edge = event.getEdge();
+        if (edge == null || edge.getRetryGroupId() == null || edge.getComment() == null || !edge.getComment().startsWith("{\"attempts\":")) {
+            return null;
+        }
+        try {
+            return GSON.fromJson(edge.getComment(), RetrySummary.class);
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public String getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public String getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * @return the distinct error types of the attempts, in order of first occurrence.
+     */
+    public List<String> getErrorTypes() {
+        return errorTypes == null ? Collections.emptyList() : Collections.unmodifiableList(errorTypes);
+    }
+
+    /**
+     * @return the distinct error reasons of the attempts, in order of first occurrence.
+     */
+    public List<String> getErrorReasons() {
+        return errorReasons == null ? Collections.emptyList() : Collections.unmodifiableList(errorReasons);
+    }
+
+    /**
+     * @return the status of the last attempt.
+     */
+    public String getFinalStatus() {
+        return finalStatus;
+    }
+
+    /**
+     * @return the comment of the last attempt.
+     */
+    public String getComment() {
+        return comment;
+    }
+
+    public String toJson() {
+        return GSON.toJson(this);
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+}
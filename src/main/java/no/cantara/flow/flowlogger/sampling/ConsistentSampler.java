@@ -0,0 +1,108 @@
+package no.cantara.flow.flowlogger.sampling;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.FlowEventGuard;
+
+/**
+ * Keeps or drops whole flows by a hash of the correlation id, so that every service sampling at the same rate makes
+ * the same decision for a flow without coordination, and services sampling at a lower rate keep a subset of the
+ * flows kept at a higher rate.
+ * <p>
+ * The hash is the 64-bit FNV-1a hash of the UTF-8 bytes of the correlation id. A flow is kept if the hash, as an
+ * unsigned number shifted right by one bit, is less than the rate times 2<sup>63</sup>. Implementations in other
+ * languages must follow this definition exactly to agree on the decisions.
+ * <p>
+ * As a {@link FlowEventGuard} the sampler skips building dropped events altogether:
+ * <pre>
+ * FlowLogger logger = new ReporterFlowLogger(reporter).withGuard(ConsistentSampler.ofRate(0.01));
+ * </pre>
+ */
+public final class ConsistentSampler implements FlowEventGuard {
+
+    private static final ConsistentSampler ALWAYS = new ConsistentSampler(1, Long.MAX_VALUE);
+    private static final ConsistentSampler NEVER = new ConsistentSampler(0, 0);
+
+    private final double rate;
+    private final long threshold;
+
+    private ConsistentSampler(double rate, long threshold) {
+        this.rate = rate;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @param rate the fraction of flows to keep, between 0 and 1.
+     * @return the sampler.
+     */
+    public static ConsistentSampler ofRate(double rate) {
+        if (!(rate >= 0 && rate <= 1)) {
+            throw new IllegalArgumentException("rate must be between 0 and 1, was: " + rate);
+        }
+        if (rate == 1) {
+            return ALWAYS;
+        }
+        if (rate == 0) {
+            return NEVER;
+        }
+        return new ConsistentSampler(rate, (long) (rate * 0x1p63));
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @param correlationId the correlation id of a flow.
+     * @return true if the flow is kept. Events without correlation id are always kept, as they cannot be attributed
+     * to a flow.
+     */
+    public boolean isSampled(String correlationId) {
+        if (correlationId == null || this == ALWAYS) {
+            return true;
+        }
+        return (hash(correlationId) >>> 1) < threshold;
+    }
+
+    public boolean isSampled(FlowEvent event) {
+        return isSampled(event.getCorrelationId());
+    }
+
+    @Override
+    public boolean isEnabled(String correlationId) {
+        return isSampled(correlationId);
+    }
+
+    /**
+     * @return the 64-bit FNV-1a hash of the UTF-8 encoding of the given string, without encoding it to an array.
+     */
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                h = (h ^ c) * 0x100000001b3L;
+            } else if (c < 0x800) {
+                h = (h ^ (0xc0 | (c >> 6))) * 0x100000001b3L;
+                h = (h ^ (0x80 | (c & 0x3f))) * 0x100000001b3L;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                h = (h ^ (0xf0 | (cp >> 18))) * 0x100000001b3L;
+                h = (h ^ (0x80 | ((cp >> 12) & 0x3f))) * 0x100000001b3L;
+                h = (h ^ (0x80 | ((cp >> 6) & 0x3f))) * 0x100000001b3L;
+                h = (h ^ (0x80 | (cp & 0x3f))) * 0x100000001b3L;
+            } else if (Character.isSurrogate(c)) {
+                h = (h ^ '?') * 0x100000001b3L; // unpaired surrogate, encoded as '?' like String.getBytes
+            } else {
+                h = (h ^ (0xe0 | (c >> 12))) * 0x100000001b3L;
+                h = (h ^ (0x80 | ((c >> 6) & 0x3f))) * 0x100000001b3L;
+                h = (h ^ (0x80 | (c & 0x3f))) * 0x100000001b3L;
+            }
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "ConsistentSampler{rate=" + rate + "}";
+    }
+}
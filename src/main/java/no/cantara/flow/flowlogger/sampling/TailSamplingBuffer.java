@@ -0,0 +1,353 @@
+package no.cantara.flow.flowlogger.sampling;
+
+import no.cantara.flow.flowlogger.event.Edge;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.sink.FlowEventSink;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Holds the events of each flow for a bounded time and only forwards flows that turn out to be interesting, by
+ * default flows with at least one edge with a status other than OK or with an error type. Once a flow is kept, its
+ * buffered events are forwarded immediately and later events of the flow are forwarded without buffering, until
+ * the hold time since the first event of the flow has passed. Flows without errors are dropped when their hold time
+ * has passed, unless they are also kept by the optional baseline sampler.
+ * <p>
+ * Memory has a hard cap: at most {@code maxBufferedEvents} events are held, counting one for each kept flow that is
+ * remembered. When the cap is reached the oldest flows are dropped to make room. Flows are spread over independently
+ * locked shards, and forwarding happens outside the locks, on the publishing thread.
+ * <p>
+ * Example:
+ * <pre>
+ * TailSamplingBuffer sampler = TailSamplingBuffer.builder(asyncSink)
+ *         .holdTime(Duration.ofSeconds(30))
+ *         .maxBufferedEvents(100_000)
+ *         .baseline(ConsistentSampler.ofRate(0.01))
+ *         .build();
+ * </pre>
+ */
+public class TailSamplingBuffer implements FlowEventSink {
+
+    private static final class Flow {
+        final long started;
+        List<FlowEvent> events; // null once the flow is kept
+
+        Flow(long started) {
+            this.started = started;
+            this.events = new ArrayList<>(4);
+        }
+
+        int weight() {
+            return events == null ? 1 : events.size();
+        }
+    }
+
+    private static final class Shard {
+        final LinkedHashMap<String, Flow> flows = new LinkedHashMap<>(); // by first event, so eldest expires first
+        int weight;
+    }
+
+    private final FlowEventSink downstream;
+    private final Shard[] shards;
+    private final long holdNanos;
+    private final int maxWeightPerShard;
+    private final Predicate<FlowEvent> keep;
+    private final ConsistentSampler baseline;
+    private final LongSupplier nanoClock;
+
+    private final AtomicLong keptFlows = new AtomicLong();
+    private final AtomicLong droppedFlows = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+
+    private volatile boolean closed;
+
+    private TailSamplingBuffer(Builder builder) {
+        this.downstream = builder.downstream;
+        this.shards = new Shard[builder.shards];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard();
+        }
+        this.holdNanos = builder.holdTime.toNanos();
+        this.maxWeightPerShard = Math.max(1, builder.maxBufferedEvents / builder.shards);
+        this.keep = builder.keep;
+        this.baseline = builder.baseline;
+        this.nanoClock = builder.nanoClock;
+    }
+
+    /**
+     * @param downstream receives the events of kept flows, and is flushed and closed with this sink.
+     * @return a builder.
+     */
+    public static Builder builder(FlowEventSink downstream) {
+        return new Builder(downstream);
+    }
+
+    /**
+     * @return true if the edge of the event has a status other than OK or an error type.
+     */
+    public static boolean isError(FlowEvent event) {
+        Edge edge = event.getEdge();
+        return edge != null && (edge.getErrorType() != null || (edge.getStatus() != null && !"OK".equals(edge.getStatus())));
+    }
+
+    /**
+     * @return true if the event was forwarded or buffered, false if it was dropped.
+     */
+    @Override
+    public boolean publish(FlowEvent event) {
+        if (closed) {
+            droppedEvents.incrementAndGet();
+            return false;
+        }
+        String correlationId = event.getCorrelationId();
+        if (correlationId == null || (baseline != null && baseline.isSampled(correlationId))) {
+            return downstream.publish(event);
+        }
+        Shard shard = shards[(correlationId.hashCode() & 0x7fffffff) % shards.length];
+        long now = nanoClock.getAsLong();
+        List<FlowEvent> forward = null;
+        synchronized (shard) {
+            expire(shard, now - holdNanos);
+            Flow flow = shard.flows.get(correlationId);
+            if (flow != null && flow.events == null) {
+                forward = single(event);
+            } else if (keep.test(event)) {
+                int held = flow == null ? 0 : flow.events.size();
+                if (flow == null) {
+                    makeRoom(shard);
+                    flow = new Flow(now);
+                    shard.flows.put(correlationId, flow);
+                    forward = single(event);
+                } else {
+                    forward = flow.events;
+                    forward.add(event);
+                }
+                shard.weight += 1 - held;
+                flow.events = null;
+                keptFlows.incrementAndGet();
+            } else {
+                if (flow == null) {
+                    makeRoom(shard);
+                    flow = new Flow(now);
+                    shard.flows.put(correlationId, flow);
+                } else if (shard.weight >= maxWeightPerShard) {
+                    makeRoom(shard);
+                    if (shard.flows.get(correlationId) != flow) {
+                        flow = new Flow(now); // the flow itself was the oldest and was dropped
+                        shard.flows.put(correlationId, flow);
+                    }
+                }
+                flow.events.add(event);
+                shard.weight++;
+            }
+        }
+        boolean accepted = true;
+        if (forward != null) {
+            for (FlowEvent e : forward) {
+                accepted &= downstream.publish(e);
+            }
+        }
+        return accepted;
+    }
+
+    private static List<FlowEvent> single(FlowEvent event) {
+        List<FlowEvent> list = new ArrayList<>(1);
+        list.add(event);
+        return list;
+    }
+
+    private void expire(Shard shard, long deadline) {
+        Iterator<Flow> flows = shard.flows.values().iterator();
+        while (flows.hasNext()) {
+            Flow flow = flows.next();
+            if (flow.started - deadline >= 0) {
+                return;
+            }
+            remove(shard, flows, flow);
+        }
+    }
+
+    private void makeRoom(Shard shard) {
+        Iterator<Flow> flows = shard.flows.values().iterator();
+        while (shard.weight >= maxWeightPerShard && flows.hasNext()) {
+            remove(shard, flows, flows.next());
+        }
+    }
+
+    private void remove(Shard shard, Iterator<Flow> flows, Flow flow) {
+        flows.remove();
+        shard.weight -= flow.weight();
+        if (flow.events != null) {
+            droppedFlows.incrementAndGet();
+            droppedEvents.addAndGet(flow.events.size());
+        }
+    }
+
+    /**
+     * Drop the buffered flows whose hold time has passed. Expiry is also checked whenever an event arrives in a
+     * shard, call this periodically to release memory held by shards that receive no events.
+     */
+    public void expire() {
+        long deadline = nanoClock.getAsLong() - holdNanos;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                expire(shard, deadline);
+            }
+        }
+    }
+
+    /**
+     * Expire flows and flush the downstream sink. Events of flows that are still undecided stay buffered.
+     */
+    @Override
+    public void flush() {
+        expire();
+        downstream.flush();
+    }
+
+    /**
+     * Drop all undecided flows and close the downstream sink.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                Iterator<Flow> flows = shard.flows.values().iterator();
+                while (flows.hasNext()) {
+                    remove(shard, flows, flows.next());
+                }
+            }
+        }
+        downstream.close();
+    }
+
+    /**
+     * @return the number of events held, counting one for each remembered kept flow.
+     */
+    public int bufferedCount() {
+        int count = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                count += shard.weight;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of flows kept because of an interesting event.
+     */
+    public long keptFlowCount() {
+        return keptFlows.get();
+    }
+
+    /**
+     * @return the number of flows dropped, because their hold time passed, to make room, or on close.
+     */
+    public long droppedFlowCount() {
+        return droppedFlows.get();
+    }
+
+    /**
+     * @return the number of events dropped with their flows, or because the sink was closed.
+     */
+    public long droppedCount() {
+        return droppedEvents.get();
+    }
+
+    public static class Builder {
+        private final FlowEventSink downstream;
+        private int shards = Runtime.getRuntime().availableProcessors() * 4;
+        private Duration holdTime = Duration.ofSeconds(30);
+        private int maxBufferedEvents = 100_000;
+        private Predicate<FlowEvent> keep = TailSamplingBuffer::isError;
+        private ConsistentSampler baseline;
+        private LongSupplier nanoClock = System::nanoTime;
+
+        private Builder(FlowEventSink downstream) {
+            if (downstream == null) {
+                throw new IllegalArgumentException("downstream cannot be null");
+            }
+            this.downstream = downstream;
+        }
+
+        /**
+         * @param shards the number of independently locked shards, defaults to 4 per available processor.
+         * @return this builder.
+         */
+        public Builder shards(int shards) {
+            if (shards < 1) {
+                throw new IllegalArgumentException("shards must be positive, was: " + shards);
+            }
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * @param holdTime how long after its first event a flow is held waiting for an interesting event.
+         * @return this builder.
+         */
+        public Builder holdTime(Duration holdTime) {
+            if (holdTime == null || holdTime.isNegative()) {
+                throw new IllegalArgumentException("holdTime must be zero or positive, was: " + holdTime);
+            }
+            this.holdTime = holdTime;
+            return this;
+        }
+
+        /**
+         * @param maxBufferedEvents the maximum number of events held, divided evenly between the shards.
+         * @return this builder.
+         */
+        public Builder maxBufferedEvents(int maxBufferedEvents) {
+            if (maxBufferedEvents < 1) {
+                throw new IllegalArgumentException("maxBufferedEvents must be positive, was: " + maxBufferedEvents);
+            }
+            this.maxBufferedEvents = maxBufferedEvents;
+            return this;
+        }
+
+        /**
+         * @param keep true for an event that makes its whole flow worth keeping, defaults to {@link #isError}.
+         * @return this builder.
+         */
+        public Builder keep(Predicate<FlowEvent> keep) {
+            if (keep == null) {
+                throw new IllegalArgumentException("keep cannot be null");
+            }
+            this.keep = keep;
+            return this;
+        }
+
+        /**
+         * @param baseline flows kept by this sampler are forwarded without buffering, whether they have errors or
+         *                 not.
+         * @return this builder.
+         */
+        public Builder baseline(ConsistentSampler baseline) {
+            this.baseline = baseline;
+            return this;
+        }
+
+        /**
+         * @param nanoClock the source of {@link System#nanoTime()}-like timestamps used for expiry, e.g. in tests.
+         * @return this builder.
+         */
+        public Builder nanoClock(LongSupplier nanoClock) {
+            this.nanoClock = nanoClock;
+            return this;
+        }
+
+        public TailSamplingBuffer build() {
+            return new TailSamplingBuffer(this);
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package no.cantara.flow.flowlogger.sink;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.metrics.FlowLoggerMetrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Takes serialization and writing of flow events off the publishing threads. Producers publish into a bounded
+ * lock-free ring buffer, and a single background thread drains the buffer and writes the events in batches to a
+ * {@link FlowEventDestination}. What happens when the buffer is full is decided by the {@link BackpressurePolicy}.
+ * <p>
+ * Example:
+ * <pre>
+ * AsyncFlowEventSink sink = AsyncFlowEventSink.builder()
+ *         .destination(NdjsonDestination.appendingTo(Paths.get("flow.log")))
+ *         .policy(BackpressurePolicy.DROP_NEWEST)
+ *         .build();
+ * sink.publish(event("m1").generateId().build());
+ * </pre>
+ */
+public class AsyncFlowEventSink implements FlowEventSink {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final MpscRingBuffer<FlowEvent> buffer;
+    private final FlowEventDestination destination;
+    private final BackpressurePolicy policy;
+    private final int sampleRate;
+    private final int batchSize;
+    private final Consumer<Exception> errorHandler;
+    private final Thread consumer;
+    private final IntSupplier queueDepthGauge = this::queueDepth;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong flushRequested = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * The number of producers between their check of {@link #closed} and the end of their offer. The consumer only
+     * stops once this is 0 after close, so an event is never left in the buffer after publish returned true.
+     */
+    private final AtomicInteger publishing = new AtomicInteger();
+
+    private volatile boolean consumerParked;
+    private volatile boolean closed;
+
+    private AsyncFlowEventSink(Builder builder) {
+        this.buffer = new MpscRingBuffer<>(builder.capacity);
+        this.destination = builder.destination;
+        this.policy = builder.policy;
+        this.sampleRate = builder.sampleRate;
+        this.batchSize = builder.batchSize;
+        this.errorHandler = builder.errorHandler;
+        this.consumer = new Thread(this::consume, builder.threadName);
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+        FlowLoggerMetrics.global().addQueue(queueDepthGauge);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public boolean publish(FlowEvent event) {
+        if (event == null) {
+            throw new IllegalArgumentException("event cannot be null");
+        }
+        publishing.incrementAndGet();
+        try {
+            if (closed || !offer(event)) {
+                dropped(1);
+                return false;
+            }
+        } finally {
+            publishing.decrementAndGet();
+        }
+        accepted.incrementAndGet();
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Offer all events before waking the consumer, so a batch, e.g. the children of a
+     * {@link no.cantara.flow.flowlogger.event.FanOut}, is drained and written together. The backpressure policy is
+     * applied to each event.
+     */
+    @Override
+    public boolean publishAll(Collection<? extends FlowEvent> events) {
+        int count = 0;
+        int rejected = 0;
+        publishing.incrementAndGet();
+        try {
+            for (FlowEvent event : events) {
+                if (event == null) {
+                    throw new IllegalArgumentException("event cannot be null");
+                }
+                count++;
+                if (closed || !offer(event)) {
+                    rejected++;
+                }
+            }
+        } finally {
+            publishing.decrementAndGet();
+        }
+        if (rejected > 0) {
+            dropped(rejected);
+        }
+        if (count > rejected) {
+            accepted.addAndGet(count - rejected);
+            if (consumerParked) {
+                LockSupport.unpark(consumer);
+            }
+        }
+        return rejected == 0;
+    }
+
+    private boolean offer(FlowEvent event) {
+        switch (policy) {
+            case BLOCK:
+                return offerBlocking(event);
+            case DROP_OLDEST:
+                return offerEvictingOldest(event);
+            case SAMPLE:
+                return sampled() && buffer.offer(event);
+            default:
+                return buffer.offer(event);
+        }
+    }
+
+    private boolean offerBlocking(FlowEvent event) {
+        int spins = 0;
+        while (!buffer.offer(event)) {
+            if (closed) {
+                return false;
+            }
+            if (consumerParked) {
+                LockSupport.unpark(consumer);
+            }
+            if (++spins < 100) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+            }
+        }
+        return true;
+    }
+
+    private boolean offerEvictingOldest(FlowEvent event) {
+        while (!buffer.offer(event)) {
+            if (buffer.poll() != null) {
+                dropped(1);
+                completed.incrementAndGet();
+            }
+        }
+        return true;
+    }
+
+    private void dropped(long count) {
+        dropped.addAndGet(count);
+        FlowLoggerMetrics.global().dropped(policy, count);
+    }
+
+    private boolean sampled() {
+        return buffer.size() < buffer.capacity() / 2 || ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+    }
+
+    private void consume() {
+        List<FlowEvent> batch = new ArrayList<>(batchSize);
+        boolean dirty = false;
+        while (true) {
+            FlowEvent event;
+            while (batch.size() < batchSize && (event = buffer.poll()) != null) {
+                batch.add(event);
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    destination.write(batch);
+                    written.addAndGet(batch.size());
+                } catch (IOException | RuntimeException e) {
+                    failed.addAndGet(batch.size());
+                    FlowLoggerMetrics.global().writeFailed(batch.size());
+                    report(e);
+                }
+                completed.addAndGet(batch.size());
+                batch.clear();
+                dirty = true;
+                if (flushed.get() < flushRequested.get()) {
+                    flushDestination();
+                    dirty = false;
+                }
+                continue;
+            }
+            if (flushed.get() < completed.get()) {
+                if (dirty) {
+                    flushDestination();
+                    dirty = false;
+                } else {
+                    flushed.set(completed.get());
+                }
+                continue;
+            }
+            if (closed && publishing.get() == 0 && buffer.isEmpty()) {
+                break;
+            }
+            consumerParked = true;
+            if (buffer.isEmpty() && !closed) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            consumerParked = false;
+        }
+        try {
+            destination.close();
+        } catch (IOException | RuntimeException e) {
+            report(e);
+        }
+    }
+
+    /**
+     * Pass an exception of the destination to the error handler. The consumer is the only thread writing the
+     * events, so an exception thrown by the handler itself is contained rather than allowed to stop it.
+     */
+    private void report(Exception e) {
+        try {
+            errorHandler.accept(e);
+        } catch (RuntimeException handlerFailure) {
+            // ignored, see above
+        }
+    }
+
+    /**
+     * Flush the destination and mark every event completed before the flush as flushed.
+     */
+    private void flushDestination() {
+        long completedSoFar = completed.get();
+        try {
+            destination.flush();
+        } catch (IOException | RuntimeException e) {
+            report(e);
+        }
+        flushed.set(completedSoFar);
+    }
+
+    /**
+     * Events written by the consumer are flushed to the destination as soon as the buffer runs empty, or after the
+     * next batch while a flush is waiting, so this waits until every event accepted before the call has been
+     * written and flushed, also while producers keep the buffer from running empty.
+     */
+    @Override
+    public void flush() {
+        long target = accepted.get();
+        flushRequested.accumulateAndGet(target, Math::max);
+        while (flushed.get() < target && consumer.isAlive()) {
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(consumer);
+        boolean interrupted = false;
+        while (consumer.isAlive()) {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        FlowLoggerMetrics.global().removeQueue(queueDepthGauge);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the number of events currently waiting in the buffer.
+     */
+    public int queueDepth() {
+        return buffer.size();
+    }
+
+    /**
+     * @return the number of events dropped by the backpressure policy, or because the sink was closed.
+     */
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of events successfully written to the destination.
+     */
+    public long writtenCount() {
+        return written.get();
+    }
+
+    /**
+     * @return the number of events in batches the destination failed to write.
+     */
+    public long failedCount() {
+        return failed.get();
+    }
+
+    public BackpressurePolicy policy() {
+        return policy;
+    }
+
+    public static class Builder {
+        private FlowEventDestination destination;
+        private BackpressurePolicy policy = BackpressurePolicy.BLOCK;
+        private int capacity = 8192;
+        private int batchSize = 256;
+        private int sampleRate = 10;
+        private String threadName = "flow-event-sink";
+        private Consumer<Exception> errorHandler = e -> {
+        };
+
+        private Builder() {
+        }
+
+        public Builder destination(FlowEventDestination destination) {
+            this.destination = destination;
+            return this;
+        }
+
+        public Builder policy(BackpressurePolicy policy) {
+            this.policy = policy;
+            return this;
+        }
+
+        /**
+         * @param capacity the maximum number of queued events, rounded up to a power of two.
+         * @return this builder.
+         */
+        public Builder capacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * @param batchSize the maximum number of events handed to the destination in one write.
+         * @return this builder.
+         */
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Only used with {@link BackpressurePolicy#SAMPLE}.
+         *
+         * @param sampleRate accept on average one of this many events while the queue is at least half full.
+         * @return this builder.
+         */
+        public Builder sampleRate(int sampleRate) {
+            this.sampleRate = sampleRate;
+            return this;
+        }
+
+        public Builder threadName(String threadName) {
+            this.threadName = threadName;
+            return this;
+        }
+
+        /**
+         * @param errorHandler receives exceptions thrown by the destination, on the consumer thread. Exceptions thrown
+         *                     by the handler are ignored. Defaults to ignoring them; the events of failed writes are
+         *                     counted in {@link AsyncFlowEventSink#failedCount()} and in the failed writes of
+         *                     {@link FlowLoggerMetrics#global()} either way.
+         * @return this builder.
+         */
+        public Builder errorHandler(Consumer<Exception> errorHandler) {
+            if (errorHandler == null) {
+                throw new IllegalArgumentException("errorHandler cannot be null");
+            }
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        public AsyncFlowEventSink build() {
+            if (destination == null) {
+                throw new IllegalArgumentException("destination is missing.");
+            }
+            if (policy == null) {
+                throw new IllegalArgumentException("policy is missing.");
+            }
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("batchSize must be positive, was: " + batchSize);
+            }
+            if (sampleRate < 1) {
+                throw new IllegalArgumentException("sampleRate must be positive, was: " + sampleRate);
+            }
+            return new AsyncFlowEventSink(this);
+        }
+    }
+}
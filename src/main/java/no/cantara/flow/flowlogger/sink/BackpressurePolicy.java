@@ -0,0 +1,28 @@
+package no.cantara.flow.flowlogger.sink;
+
+/**
+ * What an asynchronous sink does when producers publish faster than events can be written.
+ */
+public enum BackpressurePolicy {
+
+    /**
+     * The publishing thread waits until there is room in the queue.
+     */
+    BLOCK,
+
+    /**
+     * The event being published is dropped when the queue is full.
+     */
+    DROP_NEWEST,
+
+    /**
+     * The oldest queued event is dropped to make room for the event being published.
+     */
+    DROP_OLDEST,
+
+    /**
+     * When the queue is at least half full only a sample of the published events are accepted, and when the queue is
+     * full the event being published is dropped.
+     */
+    SAMPLE
+}
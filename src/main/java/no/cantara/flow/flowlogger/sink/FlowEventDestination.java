@@ -0,0 +1,31 @@
+package no.cantara.flow.flowlogger.sink;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where an asynchronous sink writes its batches. Only called from the single consumer thread of the sink, so
+ * implementations do not need to be thread-safe.
+ */
+public interface FlowEventDestination extends AutoCloseable {
+
+    /**
+     * Write a batch of events. The list is reused by the caller after this method returns.
+     *
+     * @param batch the events, in publishing order.
+     * @throws IOException if writing fails.
+     */
+    void write(List<FlowEvent> batch) throws IOException;
+
+    /**
+     * Flush anything buffered by the destination.
+     *
+     * @throws IOException if flushing fails.
+     */
+    void flush() throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
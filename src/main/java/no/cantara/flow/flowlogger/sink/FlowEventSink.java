@@ -0,0 +1,56 @@
+package no.cantara.flow.flowlogger.sink;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * A destination that flow events are published to. Implementations decide when and how events are serialized and
+ * written, possibly asynchronously.
+ */
+public interface FlowEventSink extends AutoCloseable, Consumer<FlowEvent> {
+
+    /**
+     * Publish an event.
+     *
+     * @param event the event.
+     * @return true if the event was accepted, false if it was dropped.
+     */
+    boolean publish(FlowEvent event);
+
+    /**
+     * Publish a batch of events, e.g. the children of a {@link no.cantara.flow.flowlogger.event.FanOut}. The default
+     * implementation publishes the events one by one.
+     *
+     * @param events the events.
+     * @return true if all events were accepted, false if any was dropped.
+     */
+    default boolean publishAll(Collection<? extends FlowEvent> events) {
+        boolean accepted = true;
+        for (FlowEvent event : events) {
+            accepted &= publish(event);
+        }
+        return accepted;
+    }
+
+    /**
+     * Same as {@link #publish(FlowEvent)}, so that a sink can be the target of
+     * {@link no.cantara.flow.flowlogger.event.Builder#emit(Consumer)}.
+     */
+    @Override
+    default void accept(FlowEvent event) {
+        publish(event);
+    }
+
+    /**
+     * Block until all events accepted before this call have been written.
+     */
+    void flush();
+
+    /**
+     * Write all accepted events and release resources. Events published after close are dropped.
+     */
+    @Override
+    void close();
+}
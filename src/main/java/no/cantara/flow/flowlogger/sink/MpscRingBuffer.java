@@ -0,0 +1,98 @@
+package no.cantara.flow.flowlogger.sink;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer with a sequence number per slot (Vyukov style). Any number of threads may offer.
+ * Polling is normally done by a single consumer thread, but is also safe from producers, which is what
+ * {@link BackpressurePolicy#DROP_OLDEST} relies on to evict the oldest element.
+ *
+ * @param <E> the element type.
+ */
+final class MpscRingBuffer<E> {
+
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    MpscRingBuffer(int requestedCapacity) {
+        if (requestedCapacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2, was: " + requestedCapacity);
+        }
+        int capacity = Integer.highestOneBit(requestedCapacity - 1) << 1;
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity too large: " + requestedCapacity);
+        }
+        this.elements = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @param element the element to add.
+     * @return false if the buffer is full.
+     */
+    boolean offer(E element) {
+        long position = tail.get();
+        for (; ; ) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * @return the oldest element, or null if the buffer is empty.
+     */
+    E poll() {
+        long position = head.get();
+        for (; ; ) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    E element = elements.get(index);
+                    elements.lazySet(index, null);
+                    sequences.lazySet(index, position + mask + 1);
+                    return element;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,77 @@
+package no.cantara.flow.flowlogger.sink;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.metrics.FlowLoggerMetrics;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Writes events as newline-delimited json, one {@link FlowEvent#toJson()} per line, encoded as UTF-8.
+ */
+public class NdjsonDestination implements FlowEventDestination {
+
+    private final Writer writer;
+
+    public NdjsonDestination(OutputStream outputStream) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(new CountingOutputStream(outputStream), StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    /**
+     * Records the bytes passed on to the stream, in the chunks the buffered writer flushes.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            FlowLoggerMetrics.global().bytesWritten(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            FlowLoggerMetrics.global().bytesWritten(len);
+        }
+    }
+
+    /**
+     * @param file the file to append to, created if it does not exist.
+     * @return a destination appending to the given file.
+     * @throws IOException if the file cannot be opened.
+     */
+    public static NdjsonDestination appendingTo(Path file) throws IOException {
+        return new NdjsonDestination(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE));
+    }
+
+    @Override
+    public void write(List<FlowEvent> batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).writeJson(writer);
+            writer.write('\n');
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,59 @@
+package no.cantara.flow.flowlogger.slf4j;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+
+import java.io.IOException;
+
+/**
+ * A log statement argument that renders a flow event as json only when an appender actually formats the message,
+ * so nothing is serialized for disabled loggers or filtered events. Appenders and encoders that know this type can
+ * call {@link #writeTo(Appendable)} to write the json straight into their own buffer instead of calling
+ * {@link #toString()}.
+ */
+public final class FlowEventArgument {
+
+    private final FlowEvent event;
+    private volatile String json;
+
+    private FlowEventArgument(FlowEvent event) {
+        this.event = event;
+    }
+
+    public static FlowEventArgument of(FlowEvent event) {
+        if (event == null) {
+            throw new IllegalArgumentException("event cannot be null");
+        }
+        return new FlowEventArgument(event);
+    }
+
+    public FlowEvent getEvent() {
+        return event;
+    }
+
+    /**
+     * Write the json of the event to the target, or the json rendered by an earlier {@link #toString()}.
+     *
+     * @param out the target, e.g. the StringBuilder an encoder formats into.
+     * @throws IOException if the target throws.
+     */
+    public void writeTo(Appendable out) throws IOException {
+        String rendered = json;
+        if (rendered != null) {
+            out.append(rendered);
+        } else {
+            event.writeJson(out);
+        }
+    }
+
+    /**
+     * @return the json of the event, rendered on first call, as several appenders may format the same message.
+     */
+    @Override
+    public String toString() {
+        String rendered = json;
+        if (rendered == null) {
+            json = rendered = event.toJson();
+        }
+        return rendered;
+    }
+}
@@ -0,0 +1,28 @@
+package no.cantara.flow.flowlogger.slf4j;
+
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+/**
+ * Markers for flow events logged through SLF4J. Appenders can route flow events to a file of their own by this
+ * marker, e.g. with Logback:
+ * <pre>
+ * &lt;appender name="FLOW" class="ch.qos.logback.classic.AsyncAppender"&gt;
+ *   &lt;filter class="ch.qos.logback.core.filter.EvaluatorFilter"&gt;
+ *     &lt;evaluator class="ch.qos.logback.classic.boolex.OnMarkerEvaluator"&gt;&lt;marker&gt;FLOW_EVENT&lt;/marker&gt;&lt;/evaluator&gt;
+ *     &lt;onMismatch&gt;DENY&lt;/onMismatch&gt;&lt;onMatch&gt;ACCEPT&lt;/onMatch&gt;
+ *   &lt;/filter&gt;
+ *   &lt;appender-ref ref="FLOW_FILE"/&gt;
+ * &lt;/appender&gt;
+ * </pre>
+ */
+public final class FlowEventMarkers {
+
+    /**
+     * Set on every flow event logged by {@link Slf4jFlowEventSink}.
+     */
+    public static final Marker FLOW_EVENT = MarkerFactory.getMarker("FLOW_EVENT");
+
+    private FlowEventMarkers() {
+    }
+}
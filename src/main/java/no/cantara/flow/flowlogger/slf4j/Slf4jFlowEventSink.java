@@ -0,0 +1,73 @@
+package no.cantara.flow.flowlogger.slf4j;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.FlowEventGuard;
+import no.cantara.flow.flowlogger.sink.FlowEventSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs flow events at info level through SLF4J, marked with {@link FlowEventMarkers#FLOW_EVENT} and with the event
+ * as a {@link FlowEventArgument}, so the json is only rendered if an appender writes the event. Use
+ * {@link #guard()} to also skip building events when the logger is disabled:
+ * <pre>
+ * Slf4jFlowEventSink sink = new Slf4jFlowEventSink(LoggerFactory.getLogger("flow"));
+ * ReporterFlowLogger flow = FlowLogger.forReporter(reporter).withGuard(sink.guard()).pooled();
+ * flow.event(correlationId).generateId().milestone("received").emit(sink);
+ * </pre>
+ */
+public class Slf4jFlowEventSink implements FlowEventSink {
+
+    private final Logger logger;
+
+    /**
+     * Log to the logger named "FlowEvent".
+     */
+    public Slf4jFlowEventSink() {
+        this(LoggerFactory.getLogger("FlowEvent"));
+    }
+
+    public Slf4jFlowEventSink(Logger logger) {
+        if (logger == null) {
+            throw new IllegalArgumentException("logger cannot be null");
+        }
+        this.logger = logger;
+    }
+
+    public boolean isEnabled() {
+        return logger.isInfoEnabled(FlowEventMarkers.FLOW_EVENT);
+    }
+
+    /**
+     * @return a guard that rejects all events while the logger is disabled for flow events.
+     */
+    public FlowEventGuard guard() {
+        return correlationId -> isEnabled();
+    }
+
+    /**
+     * @return false if the logger is disabled for flow events.
+     */
+    @Override
+    public boolean publish(FlowEvent event) {
+        if (!isEnabled()) {
+            return false;
+        }
+        logger.info(FlowEventMarkers.FLOW_EVENT, "{}", FlowEventArgument.of(event));
+        return true;
+    }
+
+    /**
+     * Nothing to flush, the appenders decide when events are written.
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Nothing to close, the logging backend owns the appenders.
+     */
+    @Override
+    public void close() {
+    }
+}
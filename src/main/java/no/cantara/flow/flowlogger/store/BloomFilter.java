@@ -0,0 +1,81 @@
+package no.cantara.flow.flowlogger.store;
+
+import java.nio.LongBuffer;
+
+/**
+ * A bloom filter over 64-bit key hashes, backed by a {@link LongBuffer} so the filter of a segment is read straight
+ * from the mapped file. The bit positions are derived from the two halves of the hash by double hashing.
+ */
+final class BloomFilter {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final LongBuffer words;
+    private final int hashes;
+    private final long bits;
+
+    BloomFilter(LongBuffer words, int hashes) {
+        this.words = words;
+        this.hashes = hashes;
+        this.bits = (long) words.limit() * 64;
+    }
+
+    /**
+     * @param keys       the number of keys that will be added.
+     * @param bitsPerKey the number of bits per key, 10 gives a false positive rate of about 1%.
+     * @return an empty filter sized for the given number of keys.
+     */
+    static BloomFilter create(int keys, int bitsPerKey) {
+        int words = (int) Math.max(1, ((long) keys * bitsPerKey + 63) / 64);
+        int hashes = Math.max(1, Math.min(30, (int) Math.round(bitsPerKey * Math.log(2))));
+        return new BloomFilter(LongBuffer.allocate(words), hashes);
+    }
+
+    /**
+     * @return the FNV-1a hash of the key with a final avalanche, so both halves are well mixed.
+     */
+    static long hash(byte[] key) {
+        long h = FNV_OFFSET_BASIS;
+        for (byte b : key) {
+            h ^= b & 0xFF;
+            h *= FNV_PRIME;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    void add(long hash) {
+        long h1 = hash & 0xFFFFFFFFL;
+        long h2 = hash >>> 32;
+        for (int i = 0; i < hashes; i++) {
+            long bit = (h1 + i * h2) % bits;
+            int word = (int) (bit >>> 6);
+            words.put(word, words.get(word) | (1L << bit));
+        }
+    }
+
+    boolean mightContain(long hash) {
+        long h1 = hash & 0xFFFFFFFFL;
+        long h2 = hash >>> 32;
+        for (int i = 0; i < hashes; i++) {
+            long bit = (h1 + i * h2) % bits;
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    LongBuffer words() {
+        return words;
+    }
+
+    int hashes() {
+        return hashes;
+    }
+}
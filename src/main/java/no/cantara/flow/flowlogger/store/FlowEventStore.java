@@ -0,0 +1,732 @@
+package no.cantara.flow.flowlogger.store;
+
+import no.cantara.flow.flowlogger.event.Edge;
+import no.cantara.flow.flowlogger.event.FlowClock;
+import no.cantara.flow.flowlogger.event.FlowClocks;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.FlowEventJsonWriter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Local store of flow events in immutable, time-bucketed segment files, for finding all events of a correlation id
+ * without scanning the logs.
+ * <p>
+ * Appended events are buffered in memory and written as one segment per time bucket when the buffer is full or on
+ * {@link #flush()}. Events are bucketed and ordered by their edge timestamp, or by the time they were appended if the
+ * timestamp is missing. Each segment carries a sorted index from correlation id to its records and a bloom filter
+ * over the correlation ids, so a lookup binary-searches only the segments whose filter might contain the id, reading
+ * the index and records through memory-mapped files. A time range scan only reads the segments that overlap the range.
+ * <p>
+ * Frequent flushes leave many small segments, which a compaction merges into larger segments per bucket, in the
+ * background if a compaction interval is configured. A compacted segment records the segments it replaces, so a crash
+ * between writing it and deleting its sources never duplicates events. Buffered events are lost on a crash; put a
+ * {@link no.cantara.flow.flowlogger.journal.FlowEventJournal} in front when that matters.
+ * <p>
+ * Example:
+ * <pre>
+ * try (FlowEventStore store = FlowEventStore.builder(Paths.get("flow-store")).open()) {
+ *     store.append(event);
+ *     List&lt;FlowEvent&gt; flow = store.lookup(correlationId);
+ * }
+ * </pre>
+ * Instances are thread-safe. Closing the store unmaps its segments, after which lookups and scans find nothing.
+ */
+public class FlowEventStore implements AutoCloseable {
+
+    private final Path directory;
+    private final long bucketNanos;
+    private final int maxBufferedEvents;
+    private final int bloomBitsPerKey;
+    private final long smallSegmentSize;
+    private final long maxCompactedSegmentSize;
+    private final FlowClock clock;
+    private final Consumer<Exception> errorHandler;
+    private final ScheduledExecutorService compactor;
+    private final Object compactionLock = new Object();
+    private final Object flushLock = new Object();
+
+    private volatile List<Segment> segments; // immutable, replaced on every change
+    private List<StoredEvent> buffer = new ArrayList<>();
+    private Map<String, List<StoredEvent>> bufferByCorrelationId = new HashMap<>();
+    private List<StoredEvent> flushing = Collections.emptyList(); // the batch being written, still found by lookups
+    private Map<String, List<StoredEvent>> flushingByCorrelationId = Collections.emptyMap();
+    private long nextSequence;
+    private volatile boolean closed;
+
+    private FlowEventStore(Builder builder) throws IOException {
+        this.directory = builder.directory;
+        this.bucketNanos = builder.bucketDuration.toNanos();
+        this.maxBufferedEvents = builder.maxBufferedEvents;
+        this.bloomBitsPerKey = builder.bloomBitsPerKey;
+        this.smallSegmentSize = builder.smallSegmentSize;
+        this.maxCompactedSegmentSize = builder.maxCompactedSegmentSize;
+        this.clock = builder.clock;
+        this.errorHandler = builder.errorHandler;
+        Files.createDirectories(directory);
+        for (Path temp : Segment.list(directory, Segment.TEMP_SUFFIX)) {
+            Files.delete(temp);
+        }
+        this.segments = Collections.unmodifiableList(openSegments());
+        if (builder.compactionInterval != null) {
+            long interval = builder.compactionInterval.toMillis();
+            this.compactor = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, builder.threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+            compactor.scheduleWithFixedDelay(this::compactInBackground, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.compactor = null;
+        }
+    }
+
+    public static Builder builder(Path directory) {
+        return new Builder(directory);
+    }
+
+    /**
+     * Open all segments, deleting the sources of compacted segments that a crash left behind.
+     */
+    private List<Segment> openSegments() throws IOException {
+        List<Segment> opened = new ArrayList<>();
+        Set<Long> replaced = new HashSet<>();
+        for (Path file : Segment.list(directory, Segment.SUFFIX)) {
+            Segment segment = Segment.open(file);
+            opened.add(segment);
+            for (long source : segment.sources()) {
+                replaced.add(source);
+            }
+            nextSequence = Math.max(nextSequence, segment.sequence() + 1);
+        }
+        Iterator<Segment> it = opened.iterator();
+        while (it.hasNext()) {
+            Segment segment = it.next();
+            if (replaced.contains(segment.sequence())) {
+                it.remove();
+                segment.release();
+                Files.deleteIfExists(segment.file());
+            }
+        }
+        return opened;
+    }
+
+    /**
+     * Buffer an event, writing the buffer to segments if it is full.
+     *
+     * @param event the event.
+     * @throws IOException if the buffer could not be written.
+     */
+    public void append(FlowEvent event) throws IOException {
+        Edge edge = event.getEdge();
+        long time = edge == null ? Edge.UNKNOWN_TIME : edge.getEpochNanos();
+        StoredEvent stored = new StoredEvent(time == Edge.UNKNOWN_TIME ? clock.epochNanos() : time, event);
+        boolean full;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Store is closed: " + directory);
+            }
+            add(stored);
+            full = buffer.size() >= maxBufferedEvents;
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    private void add(StoredEvent stored) {
+        buffer.add(stored);
+        bufferByCorrelationId.computeIfAbsent(key(stored.event), k -> new ArrayList<>(4)).add(stored);
+    }
+
+    private static String key(FlowEvent event) {
+        return event.getCorrelationId() == null ? "" : event.getCorrelationId();
+    }
+
+    /**
+     * Write all buffered events to new segments, one per time bucket. The segments are written without holding up
+     * appends and lookups, which see the events being written until the segments replace them.
+     *
+     * @throws IOException if a segment could not be written, in which case the events stay buffered.
+     */
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            List<StoredEvent> batch;
+            synchronized (this) {
+                if (buffer.isEmpty()) {
+                    return;
+                }
+                batch = buffer;
+                flushing = buffer;
+                flushingByCorrelationId = bufferByCorrelationId;
+                buffer = new ArrayList<>();
+                bufferByCorrelationId = new HashMap<>();
+            }
+            List<Segment> written;
+            try {
+                written = write(batch);
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    List<StoredEvent> appended = buffer;
+                    buffer = new ArrayList<>(batch.size() + appended.size());
+                    bufferByCorrelationId = new HashMap<>();
+                    for (StoredEvent stored : batch) {
+                        add(stored);
+                    }
+                    for (StoredEvent stored : appended) {
+                        add(stored);
+                    }
+                    flushing = Collections.emptyList();
+                    flushingByCorrelationId = Collections.emptyMap();
+                }
+                throw e;
+            }
+            synchronized (this) {
+                List<Segment> next = new ArrayList<>(segments);
+                next.addAll(written);
+                segments = Collections.unmodifiableList(next);
+                flushing = Collections.emptyList();
+                flushingByCorrelationId = Collections.emptyMap();
+            }
+        }
+    }
+
+    private List<Segment> write(List<StoredEvent> batch) throws IOException {
+        TreeMap<Long, List<Segment.Entry>> buckets = new TreeMap<>();
+        StringBuilder json = new StringBuilder(512);
+        for (StoredEvent stored : batch) {
+            json.setLength(0);
+            FlowEventJsonWriter.write(stored.event, json);
+            byte[] key = key(stored.event).getBytes(StandardCharsets.UTF_8);
+            buckets.computeIfAbsent(Math.floorDiv(stored.time, bucketNanos), b -> new ArrayList<>())
+                    .add(new Segment.Entry(stored.time, key, json.toString().getBytes(StandardCharsets.UTF_8)));
+        }
+        List<Segment> written = new ArrayList<>(buckets.size());
+        try {
+            for (Map.Entry<Long, List<Segment.Entry>> bucket : buckets.entrySet()) {
+                List<Segment.Entry> entries = bucket.getValue();
+                entries.sort(Comparator.comparingLong(e -> e.time));
+                long sequence;
+                synchronized (this) {
+                    sequence = nextSequence++;
+                }
+                written.add(Segment.write(directory, sequence, bucket.getKey(), entries, new long[0], bloomBitsPerKey));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Segment segment : written) {
+                segment.release();
+                Files.deleteIfExists(segment.file());
+            }
+            throw e;
+        }
+        return written;
+    }
+
+    /**
+     * Find all events of a flow, reading only the segments whose bloom filter might contain the correlation id.
+     *
+     * @param correlationId the correlation id.
+     * @return the events of the flow, oldest first.
+     */
+    public List<FlowEvent> lookup(String correlationId) {
+        return lookup(correlationId, Instant.MIN, Instant.MAX);
+    }
+
+    /**
+     * @param correlationId the correlation id.
+     * @param from          the earliest time to include.
+     * @param to            the time to include events up to, exclusive.
+     * @return the events of the flow in the time range, oldest first.
+     * @see #lookup(String)
+     */
+    public List<FlowEvent> lookup(String correlationId, Instant from, Instant to) {
+        if (correlationId == null) {
+            throw new IllegalArgumentException("correlationId cannot be null");
+        }
+        long fromNanos = epochNanos(from);
+        long toNanos = epochNanos(to);
+        byte[] key = correlationId.getBytes(StandardCharsets.UTF_8);
+        long hash = BloomFilter.hash(key);
+        List<StoredEvent> found = new ArrayList<>();
+        List<Segment> current;
+        synchronized (this) { // the same snapshot of segments and buffer, so a concurrent flush is seen whole
+            current = retain(segments);
+            List<StoredEvent> buffered = flushingByCorrelationId.get(correlationId);
+            if (buffered != null) {
+                found.addAll(buffered);
+            }
+            buffered = bufferByCorrelationId.get(correlationId);
+            if (buffered != null) {
+                found.addAll(buffered);
+            }
+        }
+        try {
+            for (Segment segment : current) {
+                if (segment.maxTime() >= fromNanos && segment.minTime() < toNanos && segment.mightContain(hash)) {
+                    segment.lookup(key, found);
+                }
+            }
+        } finally {
+            release(current);
+        }
+        found.sort(Comparator.comparingLong(e -> e.time));
+        List<FlowEvent> events = new ArrayList<>(found.size());
+        for (StoredEvent stored : found) {
+            if (stored.time >= fromNanos && stored.time < toNanos) {
+                events.add(stored.event);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Pass all events in the time range to the consumer, oldest first, reading only the segments that overlap it.
+     *
+     * @param from     the earliest time to include.
+     * @param to       the time to include events up to, exclusive.
+     * @param consumer receives the events.
+     */
+    public void scan(Instant from, Instant to, Consumer<FlowEvent> consumer) {
+        long fromNanos = epochNanos(from);
+        long toNanos = epochNanos(to);
+        List<Segment> current;
+        List<StoredEvent> buffered = new ArrayList<>();
+        synchronized (this) {
+            current = retain(segments);
+            for (StoredEvent stored : flushing) {
+                if (stored.time >= fromNanos && stored.time < toNanos) {
+                    buffered.add(stored);
+                }
+            }
+            for (StoredEvent stored : buffer) {
+                if (stored.time >= fromNanos && stored.time < toNanos) {
+                    buffered.add(stored);
+                }
+            }
+        }
+        try {
+            PriorityQueue<Head> heads = new PriorityQueue<>();
+            int order = 0;
+            for (Segment segment : current) {
+                if (segment.maxTime() >= fromNanos && segment.minTime() < toNanos) {
+                    Head head = new Head(order++, segment.cursor(), null);
+                    if (head.seek(fromNanos, toNanos)) {
+                        heads.add(head);
+                    }
+                }
+            }
+            buffered.sort(Comparator.comparingLong(e -> e.time));
+            Head bufferHead = new Head(order, null, buffered.iterator());
+            if (bufferHead.seek(fromNanos, toNanos)) {
+                heads.add(bufferHead);
+            }
+            Head head;
+            while ((head = heads.poll()) != null) {
+                consumer.accept(head.event());
+                if (head.seek(fromNanos, toNanos)) {
+                    heads.add(head);
+                }
+            }
+        } finally {
+            release(current);
+        }
+    }
+
+    /**
+     * Called while holding the lock, so none of the segments can be released by the store in between.
+     */
+    private static List<Segment> retain(List<Segment> segments) {
+        for (Segment segment : segments) {
+            segment.retain();
+        }
+        return segments;
+    }
+
+    private static void release(List<Segment> segments) {
+        for (Segment segment : segments) {
+            segment.release();
+        }
+    }
+
+    /**
+     * The current record of a segment or of the buffer during a scan, ordered by time and then by segment age.
+     */
+    private static final class Head implements Comparable<Head> {
+        final int order;
+        final Segment.Cursor cursor;
+        final Iterator<StoredEvent> buffered;
+        StoredEvent current;
+        long time;
+
+        Head(int order, Segment.Cursor cursor, Iterator<StoredEvent> buffered) {
+            this.order = order;
+            this.cursor = cursor;
+            this.buffered = buffered;
+        }
+
+        /**
+         * Move to the next record in the range.
+         *
+         * @return false if there are no more records in the range.
+         */
+        boolean seek(long from, long to) {
+            do {
+                if (cursor != null) {
+                    if (!cursor.next()) {
+                        return false;
+                    }
+                    time = cursor.time();
+                } else {
+                    if (!buffered.hasNext()) {
+                        return false;
+                    }
+                    current = buffered.next();
+                    time = current.time;
+                }
+            } while (time < from);
+            return time < to;
+        }
+
+        FlowEvent event() {
+            return cursor != null ? cursor.event() : current.event;
+        }
+
+        @Override
+        public int compareTo(Head o) {
+            int c = Long.compare(time, o.time);
+            return c != 0 ? c : Integer.compare(order, o.order);
+        }
+    }
+
+    private static long epochNanos(Instant instant) {
+        if (instant.getEpochSecond() >= Long.MAX_VALUE / 1_000_000_000L) {
+            return Long.MAX_VALUE;
+        }
+        if (instant.getEpochSecond() <= Long.MIN_VALUE / 1_000_000_000L) {
+            return Long.MIN_VALUE;
+        }
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    /**
+     * Merge the small segments of each time bucket into larger segments.
+     *
+     * @return the number of segments that were merged away.
+     * @throws IOException if a merged segment could not be written or its sources deleted.
+     */
+    public int compact() throws IOException {
+        synchronized (compactionLock) {
+            int removed = 0;
+            TreeMap<Long, List<Segment>> small = new TreeMap<>();
+            for (Segment segment : segments) {
+                if (segment.size() < smallSegmentSize) {
+                    small.computeIfAbsent(segment.bucket(), b -> new ArrayList<>()).add(segment);
+                }
+            }
+            for (List<Segment> candidates : small.values()) {
+                List<Segment> group = new ArrayList<>();
+                long size = 0;
+                for (Segment segment : candidates) {
+                    if (size + segment.size() > maxCompactedSegmentSize && group.size() > 1) {
+                        removed += merge(group);
+                        group = new ArrayList<>();
+                        size = 0;
+                    }
+                    group.add(segment);
+                    size += segment.size();
+                }
+                if (group.size() > 1) {
+                    removed += merge(group);
+                }
+            }
+            return removed;
+        }
+    }
+
+    private int merge(List<Segment> group) throws IOException {
+        if (closed) {
+            return 0;
+        }
+        PriorityQueue<Head> heads = new PriorityQueue<>();
+        Set<Long> sources = new HashSet<>();
+        int records = 0;
+        for (int i = 0; i < group.size(); i++) {
+            Segment segment = group.get(i);
+            Head head = new Head(i, segment.cursor(), null);
+            if (head.seek(Long.MIN_VALUE, Long.MAX_VALUE)) {
+                heads.add(head);
+            }
+            sources.add(segment.sequence());
+            for (long source : segment.sources()) {
+                if (Files.exists(directory.resolve(Segment.fileName(source)))) {
+                    sources.add(source); // an earlier merge whose sources could not be deleted yet
+                }
+            }
+            records += segment.recordCount();
+        }
+        List<Segment.Entry> entries = new ArrayList<>(records);
+        Head head;
+        while ((head = heads.poll()) != null) {
+            entries.add(head.cursor.entry());
+            if (head.seek(Long.MIN_VALUE, Long.MAX_VALUE)) {
+                heads.add(head);
+            }
+        }
+        long sequence;
+        synchronized (this) {
+            sequence = nextSequence++;
+        }
+        long[] sourceSequences = new long[sources.size()];
+        int i = 0;
+        for (long source : sources) {
+            sourceSequences[i++] = source;
+        }
+        Segment merged = Segment.write(directory, sequence, group.get(0).bucket(), entries, sourceSequences, bloomBitsPerKey);
+        synchronized (this) {
+            List<Segment> next = new ArrayList<>(segments);
+            next.removeAll(group);
+            next.add(merged);
+            segments = Collections.unmodifiableList(next);
+        }
+        for (Segment segment : group) {
+            segment.release(); // lookups in progress keep the file mapped until they are done
+            Files.deleteIfExists(segment.file());
+        }
+        return group.size() - 1;
+    }
+
+    private void compactInBackground() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            errorHandler.accept(e);
+        }
+    }
+
+    /**
+     * Delete the segments that only hold events before the given time, e.g. to enforce a retention period. Buckets
+     * are deleted whole, buffered events are kept.
+     *
+     * @param time the time before which events may be deleted.
+     * @return the number of deleted segments.
+     * @throws IOException if a segment could not be deleted.
+     */
+    public int deleteBefore(Instant time) throws IOException {
+        long nanos = epochNanos(time);
+        synchronized (compactionLock) {
+            List<Segment> expired = new ArrayList<>();
+            synchronized (this) {
+                List<Segment> next = new ArrayList<>(segments);
+                for (Segment segment : segments) {
+                    if (segment.maxTime() < nanos) {
+                        expired.add(segment);
+                    }
+                }
+                next.removeAll(expired);
+                segments = Collections.unmodifiableList(next);
+            }
+            for (Segment segment : expired) {
+                segment.release();
+                Files.deleteIfExists(segment.file());
+            }
+            return expired.size();
+        }
+    }
+
+    /**
+     * @return the number of segment files.
+     */
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return the number of events in memory that are not yet written to a segment.
+     */
+    public synchronized int bufferedCount() {
+        return flushing.size() + buffer.size();
+    }
+
+    /**
+     * Stop background compaction, write the buffered events and unmap the segments.
+     *
+     * @throws IOException if the buffered events could not be written, in which case the segments are unmapped
+     *                     all the same.
+     */
+    @Override
+    public void close() throws IOException {
+        if (compactor != null) {
+            compactor.shutdown();
+            boolean interrupted = false;
+            while (!compactor.isTerminated()) {
+                try {
+                    compactor.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (compactionLock) {
+            synchronized (flushLock) {
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                }
+                try {
+                    flush();
+                } finally {
+                    synchronized (this) {
+                        release(segments);
+                        segments = Collections.emptyList();
+                    }
+                }
+            }
+        }
+    }
+
+    public static class Builder {
+        private final Path directory;
+        private Duration bucketDuration = Duration.ofHours(1);
+        private int maxBufferedEvents = 10_000;
+        private int bloomBitsPerKey = 10;
+        private long smallSegmentSize = 8 * 1024 * 1024;
+        private long maxCompactedSegmentSize = 256 * 1024 * 1024;
+        private Duration compactionInterval;
+        private FlowClock clock = FlowClocks.system();
+        private String threadName = "flow-event-store-compaction";
+        private Consumer<Exception> errorHandler = e -> {
+        };
+
+        private Builder(Path directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * @param bucketDuration the time span of the events in one segment. Defaults to one hour.
+         * @return this builder.
+         */
+        public Builder bucketDuration(Duration bucketDuration) {
+            if (bucketDuration == null || bucketDuration.isZero() || bucketDuration.isNegative()) {
+                throw new IllegalArgumentException("bucketDuration must be positive, was: " + bucketDuration);
+            }
+            this.bucketDuration = bucketDuration;
+            return this;
+        }
+
+        /**
+         * @param maxBufferedEvents write the buffered events to segments when this many are buffered. Defaults to
+         *                          10000.
+         * @return this builder.
+         */
+        public Builder maxBufferedEvents(int maxBufferedEvents) {
+            if (maxBufferedEvents < 1) {
+                throw new IllegalArgumentException("maxBufferedEvents must be positive, was: " + maxBufferedEvents);
+            }
+            this.maxBufferedEvents = maxBufferedEvents;
+            return this;
+        }
+
+        /**
+         * @param bloomBitsPerKey the bloom filter size per correlation id. The default of 10 gives about 1% false
+         *                        positives.
+         * @return this builder.
+         */
+        public Builder bloomBitsPerKey(int bloomBitsPerKey) {
+            if (bloomBitsPerKey < 1) {
+                throw new IllegalArgumentException("bloomBitsPerKey must be positive, was: " + bloomBitsPerKey);
+            }
+            this.bloomBitsPerKey = bloomBitsPerKey;
+            return this;
+        }
+
+        /**
+         * @param smallSegmentSize segments smaller than this many bytes are merged by compaction. Defaults to 8 MiB.
+         * @return this builder.
+         */
+        public Builder smallSegmentSize(long smallSegmentSize) {
+            this.smallSegmentSize = smallSegmentSize;
+            return this;
+        }
+
+        /**
+         * @param maxCompactedSegmentSize the approximate maximum size in bytes of a segment created by compaction.
+         *                                Defaults to 256 MiB.
+         * @return this builder.
+         */
+        public Builder maxCompactedSegmentSize(long maxCompactedSegmentSize) {
+            if (maxCompactedSegmentSize < 1 || maxCompactedSegmentSize > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("maxCompactedSegmentSize must be positive and fit in a mapped buffer, was: " + maxCompactedSegmentSize);
+            }
+            this.maxCompactedSegmentSize = maxCompactedSegmentSize;
+            return this;
+        }
+
+        /**
+         * @param compactionInterval compact in a background thread with this delay between runs, or null to only
+         *                           compact on {@link FlowEventStore#compact()}. Defaults to null.
+         * @return this builder.
+         */
+        public Builder compactionInterval(Duration compactionInterval) {
+            if (compactionInterval != null && (compactionInterval.isZero() || compactionInterval.isNegative())) {
+                throw new IllegalArgumentException("compactionInterval must be positive, was: " + compactionInterval);
+            }
+            this.compactionInterval = compactionInterval;
+            return this;
+        }
+
+        /**
+         * @param clock the time of events without edge timestamp. Defaults to the system clock.
+         * @return this builder.
+         */
+        public Builder clock(FlowClock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public Builder threadName(String threadName) {
+            this.threadName = threadName;
+            return this;
+        }
+
+        /**
+         * @param errorHandler receives exceptions thrown by background compaction. Defaults to ignoring them.
+         * @return this builder.
+         */
+        public Builder errorHandler(Consumer<Exception> errorHandler) {
+            this.errorHandler = errorHandler;
+            return this;
+        }
+
+        public FlowEventStore open() throws IOException {
+            if (directory == null) {
+                throw new IllegalArgumentException("directory is missing.");
+            }
+            return new FlowEventStore(this);
+        }
+    }
+}
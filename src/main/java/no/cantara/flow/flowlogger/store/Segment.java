@@ -0,0 +1,407 @@
+package no.cantara.flow.flowlogger.store;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.FlowEventJsonParser;
+import no.cantara.flow.flowlogger.journal.MappedBuffers;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable segment file of the {@link FlowEventStore}, holding the events of one time bucket.
+ * <p>
+ * Layout, all integers big-endian:
+ * <pre>
+ * records     in time order: int payload length, long epoch nanos, int key length, key, payload
+ * index       per distinct correlation id in unsigned byte order: int key length, key, int count, int[count]
+ *             offsets of its records
+ * key offsets int offset of each index entry, for binary search
+ * bloom       long[] bloom filter words over the correlation ids
+ * sources     long[] sequences of the segments this segment was compacted from
+ * footer      long bucket, long min time, long max time, int record count, int index offset, int key count,
+ *             int key offsets offset, int bloom offset, int bloom words, int bloom hashes, int sources offset,
+ *             int source count, int magic
+ * </pre>
+ * The key is the UTF-8 correlation id, empty for events without one, and the payload is the UTF-8 json of the event.
+ * A segment is written to a temporary file, forced to disk and then renamed into place, so a segment file is always
+ * complete.
+ * <p>
+ * The mapping is reference counted: the store holds one reference while the segment is in its list, and every lookup
+ * or scan holds one while reading. The file is unmapped when the last reference is released.
+ */
+final class Segment {
+
+    static final String SUFFIX = ".segment";
+    static final String TEMP_SUFFIX = ".segment.tmp";
+
+    private static final int MAGIC = 0x464C5331; // "FLS1"
+    private static final int FOOTER_SIZE = 3 * 8 + 10 * 4;
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 4;
+
+    /**
+     * One event as stored in a segment, with its time and correlation id key.
+     */
+    static final class Entry {
+        final long time;
+        final byte[] key;
+        final byte[] payload;
+
+        Entry(long time, byte[] key, byte[] payload) {
+            this.time = time;
+            this.key = key;
+            this.payload = payload;
+        }
+    }
+
+    private final Path file;
+    private final long sequence;
+    private final MappedByteBuffer buffer;
+    private final long bucket;
+    private final long minTime;
+    private final long maxTime;
+    private final int recordCount;
+    private final int indexOffset;
+    private final int keyCount;
+    private final int keyOffsetsOffset;
+    private final BloomFilter bloom;
+    private final long[] sources;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private Segment(Path file, long sequence, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.sequence = sequence;
+        this.buffer = buffer;
+        int footer = buffer.limit() - FOOTER_SIZE;
+        if (footer < 0 || buffer.getInt(buffer.limit() - 4) != MAGIC) {
+            throw new IOException("Not a flow event segment: " + file);
+        }
+        this.bucket = buffer.getLong(footer);
+        this.minTime = buffer.getLong(footer + 8);
+        this.maxTime = buffer.getLong(footer + 16);
+        this.recordCount = buffer.getInt(footer + 24);
+        this.indexOffset = buffer.getInt(footer + 28);
+        this.keyCount = buffer.getInt(footer + 32);
+        this.keyOffsetsOffset = buffer.getInt(footer + 36);
+        int bloomOffset = buffer.getInt(footer + 40);
+        int bloomWords = buffer.getInt(footer + 44);
+        int bloomHashes = buffer.getInt(footer + 48);
+        int sourcesOffset = buffer.getInt(footer + 52);
+        int sourceCount = buffer.getInt(footer + 56);
+        ByteBuffer bloomBytes = buffer.duplicate();
+        bloomBytes.position(bloomOffset).limit(bloomOffset + bloomWords * 8);
+        this.bloom = new BloomFilter(bloomBytes.slice().asLongBuffer(), bloomHashes);
+        this.sources = new long[sourceCount];
+        for (int i = 0; i < sourceCount; i++) {
+            sources[i] = buffer.getLong(sourcesOffset + i * 8);
+        }
+    }
+
+    /**
+     * Take a reference for a reader. Only called for segments the store still holds, so the count is never zero.
+     */
+    void retain() {
+        references.incrementAndGet();
+    }
+
+    /**
+     * Drop a reference, unmapping the segment when it was the last one. The segment must not be read afterwards.
+     */
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            MappedBuffers.unmap(buffer); // rather than when garbage collected, so the file can be deleted on Windows
+        }
+    }
+
+    static String fileName(long sequence) {
+        return String.format("%020d%s", sequence, SUFFIX);
+    }
+
+    static long sequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * @return the segment files of the store directory, oldest first.
+     */
+    static List<Path> list(Path directory, String suffix) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + suffix)) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    static Segment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new Segment(file, sequence(file), channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Write a segment and open it.
+     *
+     * @param entries    the events of one bucket, in time order.
+     * @param sources    the sequences of the segments the new segment replaces.
+     * @param bitsPerKey the size of the bloom filter.
+     */
+    static Segment write(Path directory, long sequence, long bucket, List<Entry> entries, long[] sources, int bitsPerKey) throws IOException {
+        int n = entries.size();
+        int[] offsets = new int[n];
+        Integer[] byKey = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            byKey[i] = i;
+        }
+        Arrays.sort(byKey, Comparator.comparing(i -> entries.get(i).key, Segment::compare)); // stable, so time order within a key
+
+        Path temp = directory.resolve(sequence + TEMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            long minTime = Long.MAX_VALUE;
+            long maxTime = Long.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                Entry entry = entries.get(i);
+                offsets[i] = out.size();
+                out.writeInt(entry.payload.length);
+                out.writeLong(entry.time);
+                out.writeInt(entry.key.length);
+                out.write(entry.key);
+                out.write(entry.payload);
+                minTime = Math.min(minTime, entry.time);
+                maxTime = Math.max(maxTime, entry.time);
+                checkSize(out);
+            }
+
+            int indexOffset = out.size();
+            List<Integer> keyOffsets = new ArrayList<>();
+            BloomFilter bloom = BloomFilter.create(n, bitsPerKey);
+            for (int start = 0; start < n; ) {
+                byte[] key = entries.get(byKey[start]).key;
+                int end = start + 1;
+                while (end < n && Arrays.equals(key, entries.get(byKey[end]).key)) {
+                    end++;
+                }
+                keyOffsets.add(out.size());
+                bloom.add(BloomFilter.hash(key));
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeInt(end - start);
+                for (int i = start; i < end; i++) {
+                    out.writeInt(offsets[byKey[i]]);
+                }
+                checkSize(out);
+                start = end;
+            }
+            int keyOffsetsOffset = out.size();
+            for (int offset : keyOffsets) {
+                out.writeInt(offset);
+            }
+            int bloomOffset = out.size();
+            LongBuffer words = bloom.words();
+            for (int i = 0; i < words.limit(); i++) {
+                out.writeLong(words.get(i));
+            }
+            int sourcesOffset = out.size();
+            for (long source : sources) {
+                out.writeLong(source);
+            }
+            out.writeLong(bucket);
+            out.writeLong(minTime);
+            out.writeLong(maxTime);
+            out.writeInt(n);
+            out.writeInt(indexOffset);
+            out.writeInt(keyOffsets.size());
+            out.writeInt(keyOffsetsOffset);
+            out.writeInt(bloomOffset);
+            out.writeInt(words.limit());
+            out.writeInt(bloom.hashes());
+            out.writeInt(sourcesOffset);
+            out.writeInt(sources.length);
+            out.writeInt(MAGIC);
+            checkSize(out);
+            out.flush();
+            channel.force(true);
+        }
+        Path file = directory.resolve(fileName(sequence));
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        return open(file);
+    }
+
+    /**
+     * DataOutputStream counts in an int that saturates at Integer.MAX_VALUE, which is also the most a single mapped
+     * buffer can address.
+     */
+    private static void checkSize(DataOutputStream out) throws IOException {
+        if (out.size() == Integer.MAX_VALUE) {
+            throw new IOException("Segment larger than " + Integer.MAX_VALUE + " bytes");
+        }
+    }
+
+    /**
+     * Compare byte arrays as unsigned bytes.
+     */
+    static int compare(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private int compareKeyAt(int entryOffset, byte[] key) {
+        int length = buffer.getInt(entryOffset);
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int c = (buffer.get(entryOffset + 4 + i) & 0xFF) - (key[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return length - key.length;
+    }
+
+    boolean mightContain(long keyHash) {
+        return bloom.mightContain(keyHash);
+    }
+
+    /**
+     * Add the events with the given key to the result, in time order.
+     */
+    void lookup(byte[] key, List<StoredEvent> result) {
+        int low = 0;
+        int high = keyCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entryOffset = buffer.getInt(keyOffsetsOffset + mid * 4);
+            int c = compareKeyAt(entryOffset, key);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                int postings = entryOffset + 4 + key.length;
+                int count = buffer.getInt(postings);
+                for (int i = 0; i < count; i++) {
+                    int record = buffer.getInt(postings + 4 + i * 4);
+                    result.add(new StoredEvent(buffer.getLong(record + 4), parse(record)));
+                }
+                return;
+            }
+        }
+    }
+
+    private FlowEvent parse(int record) {
+        int payloadLength = buffer.getInt(record);
+        int keyLength = buffer.getInt(record + 12);
+        return FlowEventJsonParser.all().parse(buffer, record + RECORD_HEADER_SIZE + keyLength, payloadLength);
+    }
+
+    /**
+     * @return a cursor over the records in time order, before the first record.
+     */
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Iterates the records of the segment in time order.
+     */
+    final class Cursor {
+        private int next;
+        private int record = -1;
+
+        /**
+         * @return false if there are no more records.
+         */
+        boolean next() {
+            if (next >= indexOffset) {
+                record = -1;
+                return false;
+            }
+            record = next;
+            next = record + RECORD_HEADER_SIZE + buffer.getInt(record + 12) + buffer.getInt(record);
+            return true;
+        }
+
+        long time() {
+            return buffer.getLong(record + 4);
+        }
+
+        FlowEvent event() {
+            return parse(record);
+        }
+
+        Entry entry() {
+            int payloadLength = buffer.getInt(record);
+            byte[] key = new byte[buffer.getInt(record + 12)];
+            byte[] payload = new byte[payloadLength];
+            ByteBuffer view = buffer.duplicate();
+            view.position(record + RECORD_HEADER_SIZE);
+            view.get(key);
+            view.get(payload);
+            return new Entry(time(), key, payload);
+        }
+
+        Segment segment() {
+            return Segment.this;
+        }
+    }
+
+    Path file() {
+        return file;
+    }
+
+    long sequence() {
+        return sequence;
+    }
+
+    long bucket() {
+        return bucket;
+    }
+
+    long minTime() {
+        return minTime;
+    }
+
+    long maxTime() {
+        return maxTime;
+    }
+
+    int recordCount() {
+        return recordCount;
+    }
+
+    int size() {
+        return buffer.limit();
+    }
+
+    /**
+     * @return the sequences of the segments this segment was compacted from.
+     */
+    long[] sources() {
+        return sources;
+    }
+}
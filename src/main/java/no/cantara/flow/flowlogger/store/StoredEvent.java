@@ -0,0 +1,16 @@
+package no.cantara.flow.flowlogger.store;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+
+/**
+ * An event with the time it is ordered and bucketed by in the store.
+ */
+final class StoredEvent {
+    final long time;
+    final FlowEvent event;
+
+    StoredEvent(long time, FlowEvent event) {
+        this.time = time;
+        this.event = event;
+    }
+}
@@ -2,6 +2,7 @@ package no.cantara.flow.flowlogger;
 
 import com.google.gson.Gson;
 import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.Node;
 import org.json.JSONException;
 import org.skyscreamer.jsonassert.JSONAssert;
 import org.testng.Assert;
@@ -9,6 +10,8 @@ import org.testng.annotations.Test;
 
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 import static no.cantara.flow.flowlogger.FlowLogger.event;
@@ -153,4 +156,75 @@ public class FlowLoggerTest {
 
         flowHistory.toString(); // pass history onto next processing step.
     }
+
+    @Test
+    public void thatReporterFlowLoggerSharesOneReporterInstance() {
+        ReporterFlowLogger flowLogger = FlowLogger.forReporter("test", "unit-test", "1.0", "no container", "the only instance");
+
+        FlowEvent e1 = flowLogger.event("c1").id("A").build();
+        FlowEvent e2 = flowLogger.event("c1", "A").id("B").build();
+
+        Assert.assertSame(e1.getReporter(), flowLogger.getReporter());
+        Assert.assertSame(e2.getReporter(), flowLogger.getReporter());
+        Assert.assertEquals(e2.toJson(), new Gson().toJson(e2));
+    }
+
+    @Test
+    public void thatSharedNodesCanBeOverridden() {
+        Node queue = new Node("queue", "orders.incoming", "OrderCreated", null);
+        ReporterFlowLogger flowLogger = FlowLogger.forReporter("test", "unit-test", "1.0", null, null);
+
+        FlowEvent shared = flowLogger.event("c1").id("A").source(queue).build();
+        FlowEvent overridden = flowLogger.event("c1").id("B").source(queue).payloadId("order-42").reporter().instance("i2").build();
+
+        Assert.assertSame(shared.getSource(), queue);
+        Assert.assertEquals(shared.toJson(), new Gson().toJson(shared));
+        Assert.assertEquals(overridden.getSource().getAddress(), "orders.incoming");
+        Assert.assertEquals(overridden.getSource().getPayloadId(), "order-42");
+        Assert.assertEquals(overridden.getReporter().getName(), "unit-test");
+        Assert.assertEquals(overridden.getReporter().getInstance(), "i2");
+        Assert.assertEquals(overridden.toJson(), new Gson().toJson(overridden));
+    }
+
+    @Test
+    public void thatLazyEventsSerializeLikeEagerEvents() {
+        ReporterFlowLogger flowLogger = FlowLogger.forReporter("test", "unit-test", "1.0", null, null);
+        ZonedDateTime timestamp = ZonedDateTime.of(2017, 6, 7, 10, 44, 31, 5000, ZoneId.of("Europe/Oslo"));
+
+        FlowEvent eager = flowLogger.event("c1", "A").id("B").timestamp(timestamp).source().type("queue").address("q1").payloadId("p1").build();
+        FlowEvent lazy = flowLogger.event("c1", "A").id("B").timestamp(timestamp).source().type("queue").address("q1").payloadId("p1").buildLazy();
+        FlowEvent lazyForGson = flowLogger.event("c1", "A").id("B").timestamp(timestamp).source().type("queue").address("q1").payloadId("p1").buildLazy();
+
+        Assert.assertEquals(new Gson().toJson(lazyForGson), eager.toJson());
+        Assert.assertEquals(lazy.toJson(), eager.toJson());
+        Assert.assertEquals(lazy.nextHistory(), "A,B");
+        Assert.assertSame(lazy.getReporter(), flowLogger.getReporter());
+    }
+
+    @Test
+    public void thatGuardSkipsRejectedEvents() {
+        ReporterFlowLogger flowLogger = FlowLogger.forReporter("test", "unit-test", "1.0", null, null)
+                .withGuard(correlationId -> correlationId.startsWith("keep"));
+
+        Assert.assertTrue(flowLogger.isEnabled("keep-1"));
+        Assert.assertFalse(flowLogger.isEnabled("drop-1"));
+        Assert.assertFalse(flowLogger.event("drop-1").isEnabled());
+        Assert.assertNull(flowLogger.event("drop-1").id("A").buildLazy());
+        Assert.assertEquals(flowLogger.event("keep-1").id("A").buildLazy().getEdge().getId(), "A");
+        Assert.assertNotNull(flowLogger.event("drop-1").id("A").build()); // build() ignores the guard
+    }
+
+    @Test
+    public void thatPooledReporterFlowLoggerEmitsEvents() {
+        ReporterFlowLogger flowLogger = FlowLogger.forReporter("test", "unit-test", "1.0", null, null).pooled();
+        List<FlowEvent> emitted = new ArrayList<>();
+
+        Assert.assertTrue(flowLogger.event("c1").id("A").source().type("queue").address("q1").emit(emitted::add));
+        Assert.assertTrue(flowLogger.event("c1", "A").id("B").emit(emitted::add));
+
+        Assert.assertEquals(emitted.get(0).getSource().getAddress(), "q1");
+        Assert.assertNull(emitted.get(1).getSource());
+        Assert.assertEquals(emitted.get(1).nextHistory(), "A,B");
+        Assert.assertSame(emitted.get(1).getReporter(), flowLogger.getReporter());
+    }
 }
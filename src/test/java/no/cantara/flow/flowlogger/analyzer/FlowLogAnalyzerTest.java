@@ -0,0 +1,98 @@
+package no.cantara.flow.flowlogger.analyzer;
+
+import no.cantara.flow.flowlogger.event.Builder;
+import no.cantara.flow.flowlogger.event.FlowClocks;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.graph.FlowGraph;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class FlowLogAnalyzerTest {
+
+    private static final ZonedDateTime START = ZonedDateTime.of(2017, 6, 7, 10, 44, 31, 0, ZoneId.of("Europe/Oslo"));
+
+    private Path log;
+
+    @BeforeMethod
+    public void createLog() throws IOException {
+        log = Files.createTempFile("flow", ".ndjson");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deleteLog() throws IOException {
+        Files.deleteIfExists(log);
+    }
+
+    private static Builder.EdgeBuilder event(String correlationId, String history, long offsetMillis) {
+        return new Builder().clock(FlowClocks.fixed(START.plus(Duration.ofMillis(offsetMillis)))).event().correlationId(correlationId).history(history);
+    }
+
+    @Test
+    public void thatFlowsAreReconstructedAcrossChunks() throws IOException {
+        List<FlowEvent> events = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String correlationId = "c" + i;
+            events.add(event(correlationId, null, 0).id("A").build());
+            events.add(event(correlationId, "A", 10 + i).id("B").build());
+            if (i % 10 == 0) {
+                events.add(event(correlationId, "A,B", 20 + i).id("R1").retryGroupId("rg").status("FAILED").errorType("Timeout").build());
+                events.add(event(correlationId, "A,B", 30 + i).id("R2").retryGroupId("rg").status("FAILED").errorType("Timeout").build());
+                events.add(event(correlationId, "A,B", 5000 + i).id("R3").retryGroupId("rg").build());
+            }
+        }
+        Collections.shuffle(events.subList(0, 100)); // out of order within a part of the log
+        try (Writer writer = Files.newBufferedWriter(log, StandardCharsets.UTF_8)) {
+            for (FlowEvent event : events) {
+                writer.write(event.toJson());
+                writer.write('\n');
+            }
+            writer.write("\n{not json\n");
+        }
+
+        List<FlowGraph> graphs = Collections.synchronizedList(new ArrayList<>());
+        FlowLogAnalysis analysis = FlowLogAnalyzer.builder()
+                .parallelism(4)
+                .chunkSize(1000)
+                .slowestPaths(3)
+                .graphListener(graphs::add)
+                .build()
+                .analyze(log);
+
+        Assert.assertEquals(analysis.getEventCount(), events.size());
+        Assert.assertEquals(analysis.getMalformedLineCount(), 1);
+        Assert.assertEquals(analysis.getFlowCount(), 200);
+        Assert.assertEquals(analysis.getHopCountDistribution().get(2).longValue(), 180);
+        Assert.assertEquals(analysis.getHopCountDistribution().get(5).longValue(), 20);
+        Assert.assertEquals(analysis.getErrorEdgeCount(), 40);
+        Assert.assertEquals(analysis.getErrorCounts().get("Timeout").longValue(), 40);
+        Assert.assertEquals(analysis.getRetryGroupCount(), 20);
+        Assert.assertEquals(analysis.getMaxRetryAttempts(), 3);
+
+        List<FlowLogAnalysis.SlowPath> slowest = analysis.getSlowestPaths();
+        Assert.assertEquals(slowest.size(), 3);
+        Assert.assertEquals(slowest.get(0).getCorrelationId(), "c190");
+        Assert.assertEquals(slowest.get(0).getEdgeIds(), Arrays.asList("A", "B", "R3"));
+        Assert.assertEquals(slowest.get(0).getDuration(), Duration.ofMillis(5190));
+        Assert.assertEquals(slowest.get(1).getCorrelationId(), "c180");
+
+        Assert.assertEquals(graphs.size(), 200);
+        for (FlowGraph graph : graphs) {
+            Assert.assertEquals(graph.getRoots().size(), 1, graph.getCorrelationId());
+        }
+    }
+}
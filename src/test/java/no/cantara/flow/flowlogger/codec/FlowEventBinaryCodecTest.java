@@ -0,0 +1,139 @@
+package no.cantara.flow.flowlogger.codec;
+
+import no.cantara.flow.flowlogger.FlowLogger;
+import no.cantara.flow.flowlogger.ReporterFlowLogger;
+import no.cantara.flow.flowlogger.event.Edge;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.FlowHistory;
+import no.cantara.flow.flowlogger.event.Node;
+import no.cantara.flow.flowlogger.event.Reporter;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static no.cantara.flow.flowlogger.FlowLogger.event;
+
+public class FlowEventBinaryCodecTest {
+
+    private static FlowEvent typicalEvent(int i) {
+        return event("c0ffee00-1234-4abc-8def-00000000000" + (i % 10), "AbCdE,FgHiJ")
+                .reporter()
+                .deployment("production")
+                .name("order-service")
+                .version("1.4.2")
+                .containerId("3f4e5d6c7b8a")
+                .instance("order-service-7d9f8c-xk2lp")
+                .source().type("queue").address("orders.incoming").payloadType("OrderCreated").payloadId("order-" + i)
+                .destination().type("http").address("https://inventory.internal/reserve").payloadType("ReserveRequest")
+                .edge()
+                .id("E" + i)
+                .timestamp(ZonedDateTime.of(2017, 6, 7, 10, 44, 31, i * 1000, ZoneId.of("Europe/Oslo")))
+                .milestone("reserved")
+                .build();
+    }
+
+    @Test
+    public void thatEventsRoundTrip() {
+        FlowEventBinaryEncoder encoder = new FlowEventBinaryEncoder();
+        FlowEventBinaryDecoder decoder = new FlowEventBinaryDecoder();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        List<FlowEvent> events = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            events.add(typicalEvent(i));
+        }
+        events.add(event("m1").id("A").comment("smile \uD83D\uDE00 \u00e6").timestamp(ZonedDateTime.of(1969, 12, 31, 23, 59, 59, 5, ZoneId.of("UTC"))).build());
+        events.add(new FlowEvent("m2", new String[0], null, null, null, null));
+        events.add(event("m3", "=" + FlowHistory.of("A", "B", "C").bounded(1).digestString() + ",C").id("D").build());
+        for (FlowEvent event : events) {
+            encoder.encode(event, buffer);
+        }
+        buffer.flip();
+        for (FlowEvent event : events) {
+            Assert.assertEquals(decoder.decode(buffer).toJson(), event.toJson());
+        }
+        Assert.assertNull(decoder.decode(buffer));
+    }
+
+    @Test
+    public void thatRepeatedStringsMakeEventsMuchSmallerThanJson() {
+        FlowEventBinaryEncoder encoder = new FlowEventBinaryEncoder();
+        int binaryBytes = 0;
+        int jsonBytes = 0;
+        for (int i = 0; i < 1000; i++) {
+            FlowEvent event = typicalEvent(i);
+            binaryBytes += encoder.encode(event).length;
+            jsonBytes += event.toJson().getBytes(StandardCharsets.UTF_8).length;
+        }
+        Assert.assertTrue(jsonBytes > 5 * binaryBytes, "json=" + jsonBytes + " binary=" + binaryBytes);
+    }
+
+    @Test
+    public void thatOverflowLeavesEncoderUnchanged() {
+        FlowEventBinaryEncoder encoder = new FlowEventBinaryEncoder();
+        FlowEventBinaryDecoder decoder = new FlowEventBinaryDecoder();
+        try {
+            encoder.encode(typicalEvent(1), ByteBuffer.allocate(10));
+            Assert.fail("expected overflow");
+        } catch (BufferOverflowException expected) {
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        encoder.encode(typicalEvent(1), buffer);
+        encoder.encode(typicalEvent(2), buffer);
+        buffer.flip();
+        Assert.assertEquals(decoder.decode(buffer).toJson(), typicalEvent(1).toJson());
+        Assert.assertEquals(decoder.decode(buffer).toJson(), typicalEvent(2).toJson());
+    }
+
+    @Test
+    public void thatOverflowDoesNotCacheSectionsReferringToRolledBackStrings() {
+        Node node = new Node("svc", "svc", null, null);
+        StringBuilder comment = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            comment.append('x');
+        }
+        FlowEvent oversize = new FlowEvent("c1", (FlowHistory) null, new Reporter("d", "svc", null, null, null), node, null,
+                new Edge("E1", null, "2017-06-07T10:44:31.1+02:00", null, "OK", null, null, comment.toString()));
+        FlowEvent next = new FlowEvent("c1", (FlowHistory) null, new Reporter("prod", "other", null, null, null), node, null,
+                new Edge("E2", null, "2017-06-07T10:44:31.2+02:00", null, "OK", null, null, null));
+        FlowEventBinaryEncoder encoder = new FlowEventBinaryEncoder();
+        FlowEventBinaryDecoder decoder = new FlowEventBinaryDecoder();
+        try {
+            encoder.encode(oversize, ByteBuffer.allocate(1024));
+            Assert.fail("expected overflow");
+        } catch (BufferOverflowException expected) {
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        encoder.encode(next, buffer);
+        encoder.encode(next, buffer);
+        buffer.flip();
+        Assert.assertEquals(decoder.decode(buffer).toJson(), next.toJson());
+        Assert.assertEquals(decoder.decode(buffer).toJson(), next.toJson());
+    }
+
+    @Test
+    public void thatSharedReporterAndNodesRoundTrip() {
+        ReporterFlowLogger flowLogger = FlowLogger.forReporter("production", "order-service", "1.4.2", null, "i1");
+        Node queue = new Node("queue", "orders.incoming", null, null);
+        FlowEventBinaryEncoder encoder = new FlowEventBinaryEncoder();
+        FlowEventBinaryDecoder decoder = new FlowEventBinaryDecoder();
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        List<FlowEvent> events = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            events.add(flowLogger.event("c1").id("E" + i).source(queue).build());
+        }
+        for (FlowEvent event : events) {
+            encoder.encode(event, buffer);
+        }
+        buffer.flip();
+        for (FlowEvent event : events) {
+            Assert.assertEquals(decoder.decode(buffer).toJson(), event.toJson());
+        }
+    }
+}
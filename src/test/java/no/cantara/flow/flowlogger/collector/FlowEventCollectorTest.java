@@ -0,0 +1,232 @@
+package no.cantara.flow.flowlogger.collector;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.sink.AsyncFlowEventSink;
+import no.cantara.flow.flowlogger.sink.FlowEventDestination;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static no.cantara.flow.flowlogger.FlowLogger.event;
+
+public class FlowEventCollectorTest {
+
+    private static final class Collected implements FlowEventDestination {
+        final List<FlowEvent> events = new CopyOnWriteArrayList<>();
+        volatile boolean closed;
+
+        @Override
+        public void write(List<FlowEvent> batch) {
+            events.addAll(batch);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    private static Set<String> ids(List<FlowEvent> events) {
+        Set<String> ids = new HashSet<>();
+        for (FlowEvent event : events) {
+            ids.add(event.getEdge().getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void thatJsonAndBinaryFramesAreCollectedOverTcp() throws Exception {
+        Collected collected = new Collected();
+        FlowEventCollector collector = FlowEventCollector.builder(collected).selectorThreads(2).batchSize(16).open();
+        Set<String> expected = new HashSet<>();
+        FlowEvent sample = event("c1", "A,B").id("json0").milestone("m").comment("\u00e6\u00f8\u00e5").build();
+        for (FrameFormat format : FrameFormat.values()) {
+            AsyncFlowEventSink sender = AsyncFlowEventSink.builder()
+                    .destination(TcpCollectorDestination.builder(collector.getTcpAddress()).format(format).bufferSize(1024).build())
+                    .build();
+            String prefix = format.name().toLowerCase();
+            for (int i = 0; i < 500; i++) {
+                FlowEvent event = i == 0 ? event("c1", "A,B").id(prefix + i).milestone("m").comment("\u00e6\u00f8\u00e5").build() : event("c" + i % 7).id(prefix + i).build();
+                sender.publish(event);
+                expected.add(prefix + i);
+            }
+            sender.close();
+        }
+        await(() -> collected.events.size() == 1000);
+        Assert.assertEquals(ids(collected.events), expected);
+        for (FlowEvent event : collected.events) {
+            if (event.getEdge().getId().equals("json0") || event.getEdge().getId().equals("binary0")) {
+                Assert.assertEquals(event.getHistory(), sample.getHistory());
+                Assert.assertEquals(event.getEdge().getComment(), sample.getEdge().getComment());
+            }
+        }
+        Assert.assertEquals(collector.rejectedCount(), 0);
+        await(() -> collector.connectionCount() == 0);
+        collector.close();
+        Assert.assertTrue(collected.closed);
+    }
+
+    @Test
+    public void thatDatagramsAreCollected() throws Exception {
+        Collected collected = new Collected();
+        try (FlowEventCollector collector = FlowEventCollector.builder(collected).tcpPort(-1).udpPort(0).open()) {
+            for (FrameFormat format : FrameFormat.values()) {
+                try (UdpCollectorDestination sender = UdpCollectorDestination.builder(collector.getUdpAddress()).format(format).datagramSize(1024).build()) {
+                    for (int i = 0; i < 10; i++) {
+                        sender.write(Collections.singletonList(event("c1").id(format.name() + i).build()));
+                    }
+                }
+            }
+            await(() -> collected.events.size() == 20);
+            Assert.assertEquals(collector.rejectedCount(), 0);
+        }
+    }
+
+    @Test
+    public void thatOversizeEventIsDroppedAndReportedWithoutLosingTheRest() throws Exception {
+        Collected collected = new Collected();
+        List<Exception> errors = new CopyOnWriteArrayList<>();
+        StringBuilder comment = new StringBuilder();
+        for (int i = 0; i < 2048; i++) {
+            comment.append('x');
+        }
+        try (FlowEventCollector collector = FlowEventCollector.builder(collected).udpPort(0).open()) {
+            TcpCollectorDestination tcp = TcpCollectorDestination.builder(collector.getTcpAddress()).bufferSize(1024).errorHandler(errors::add).build();
+            tcp.write(Arrays.asList(event("c1").id("tcp0").build(), event("c1").id("tcpHuge").comment(comment.toString()).build(), event("c1").id("tcp1").build()));
+            tcp.write(Collections.singletonList(event("c1").id("tcpHuge2").comment(comment.toString()).build()));
+            tcp.write(Collections.singletonList(event("c1").id("tcp2").build()));
+            tcp.close();
+            UdpCollectorDestination udp = UdpCollectorDestination.builder(collector.getUdpAddress()).datagramSize(1024).errorHandler(errors::add).build();
+            udp.write(Arrays.asList(event("c1").id("udpHuge").comment(comment.toString()).build(), event("c1").id("udp0").build()));
+            udp.close();
+
+            await(() -> collected.events.size() == 4);
+            Assert.assertEquals(ids(collected.events), new HashSet<>(Arrays.asList("tcp0", "tcp1", "tcp2", "udp0")));
+            Assert.assertEquals(tcp.oversizeCount(), 2);
+            Assert.assertEquals(udp.oversizeCount(), 1);
+            Assert.assertEquals(errors.size(), 3);
+            Assert.assertTrue(errors.get(0) instanceof IllegalArgumentException);
+            Assert.assertTrue(errors.get(0).getMessage().contains("tcpHuge"), errors.get(0).getMessage());
+        }
+    }
+
+    @Test
+    public void thatSenderReconnectsToRestartedCollector() throws Exception {
+        Collected first = new Collected();
+        FlowEventCollector collector = FlowEventCollector.builder(first).open();
+        InetSocketAddress address = collector.getTcpAddress();
+        TcpCollectorDestination sender = TcpCollectorDestination.builder(address)
+                .backoff(Duration.ofMillis(10), Duration.ofMillis(100))
+                .build();
+        sender.write(Collections.singletonList(event("c1").id("before").build()));
+        sender.flush();
+        await(() -> first.events.size() == 1);
+        collector.close();
+
+        Collected second = new Collected();
+        collector = FlowEventCollector.builder(second).tcpPort(address.getPort()).open();
+        try {
+            for (int i = 0; second.events.isEmpty(); i++) {
+                Assert.assertTrue(i < 1000, "no event after reconnect");
+                sender.write(Collections.singletonList(event("c1").id("after" + i).build()));
+                sender.flush();
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(sender.connectCount() >= 2);
+            sender.close();
+        } finally {
+            collector.close();
+        }
+    }
+
+    @Test
+    public void thatSenderStartsANewStreamAfterGivingUpOnTheCollector() throws Exception {
+        Collected first = new Collected();
+        FlowEventCollector collector = FlowEventCollector.builder(first).open();
+        InetSocketAddress address = collector.getTcpAddress();
+        TcpCollectorDestination sender = TcpCollectorDestination.builder(address)
+                .backoff(Duration.ofMillis(5), Duration.ofMillis(10))
+                .reconnectTimeout(Duration.ofMillis(50))
+                .build();
+        sender.write(Collections.singletonList(event("c1").id("before").build()));
+        sender.flush();
+        await(() -> first.events.size() == 1);
+        collector.close();
+
+        boolean gaveUp = false;
+        for (int i = 0; !gaveUp; i++) {
+            Assert.assertTrue(i < 1000, "sender never gave up");
+            sender.write(Collections.singletonList(event("c1").id("lost" + i).build()));
+            try {
+                sender.flush();
+            } catch (IOException expected) {
+                gaveUp = true;
+            }
+        }
+
+        Collected second = new Collected();
+        collector = FlowEventCollector.builder(second).tcpPort(address.getPort()).open();
+        try {
+            sender.write(Collections.singletonList(event("c1").id("after").build()));
+            sender.flush();
+            await(() -> second.events.size() == 1);
+            Assert.assertEquals(second.events.get(0).getEdge().getId(), "after");
+            Assert.assertEquals(collector.rejectedCount(), 0);
+            sender.close();
+        } finally {
+            collector.close();
+        }
+    }
+
+    @Test
+    public void thatBadFramesAreRejected() throws Exception {
+        Collected collected = new Collected();
+        try (FlowEventCollector collector = FlowEventCollector.builder(collected).open();
+             SocketChannel socket = SocketChannel.open(collector.getTcpAddress())) {
+            ByteBuffer frames = ByteBuffer.allocate(1024);
+            byte[] bad = "{\"flowEventVersion\":".getBytes(StandardCharsets.UTF_8);
+            frames.put(FrameFormat.JSON.code()).putInt(bad.length).put(bad);
+            byte[] good = event("c1").id("good").build().toJson().getBytes(StandardCharsets.UTF_8);
+            frames.put(FrameFormat.JSON.code()).putInt(good.length).put(good);
+            frames.put((byte) 99).putInt(0);
+            frames.flip();
+            while (frames.hasRemaining()) {
+                socket.write(frames);
+            }
+            await(() -> collector.rejectedCount() == 2);
+            await(() -> collected.events.size() == 1);
+            Assert.assertEquals(collected.events.get(0).getEdge().getId(), "good");
+            Assert.assertEquals(socket.read(ByteBuffer.allocate(1)), -1);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void thatNullErrorHandlerIsRejected() {
+        FlowEventCollector.builder(new Collected()).errorHandler(null);
+    }
+}
@@ -0,0 +1,147 @@
+package no.cantara.flow.flowlogger.context;
+
+import no.cantara.flow.flowlogger.FlowLogger;
+import no.cantara.flow.flowlogger.ReporterFlowLogger;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.event.FlowHistory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class FlowContextTest {
+
+    @Test
+    public void thatBindingIsRestoredWhenScopeIsClosed() {
+        FlowContext outer = FlowContext.parse("c1", "A,B");
+        FlowContext inner = FlowContext.of("c2", null);
+        Assert.assertNull(FlowContext.current());
+        try (FlowContext.Scope ignored = outer.bind()) {
+            Assert.assertSame(FlowContext.current(), outer);
+            try (FlowContext.Scope nested = inner.bind()) {
+                Assert.assertSame(FlowContext.current(), inner);
+                nested.close();
+                nested.close();
+                Assert.assertSame(FlowContext.current(), outer);
+            }
+            Assert.assertSame(FlowContext.current(), outer);
+        }
+        Assert.assertNull(FlowContext.current());
+    }
+
+    @Test
+    public void thatEventsPickUpAndAdvanceTheContext() {
+        try (FlowContext.Scope ignored = FlowContext.parse("c1", "A").bind()) {
+            FlowEvent received = FlowLogger.event().id("B").milestone("received").build();
+            Assert.assertEquals(received.getCorrelationId(), "c1");
+            Assert.assertEquals(received.getHistory(), new String[]{"A"});
+
+            FlowContext advanced = FlowContext.advance(received);
+            Assert.assertSame(FlowContext.current(), advanced);
+            Assert.assertEquals(advanced.getHistory(), FlowHistory.of("A", "B"));
+
+            ReporterFlowLogger logger = FlowLogger.forReporter("dev", "app", "1.0", null, "i1");
+            FlowEvent sent = logger.event().id("C").build();
+            Assert.assertEquals(sent.getCorrelationId(), "c1");
+            Assert.assertEquals(sent.getHistory(), new String[]{"A", "B"});
+
+            FlowEvent other = logger.event("c9").id("D").build();
+            Assert.assertEquals(other.getCorrelationId(), "c9");
+            Assert.assertNull(other.getFlowHistory());
+        }
+        Assert.assertNull(FlowContext.current());
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void thatAdvanceRequiresABoundContext() {
+        FlowContext.advance(FlowLogger.event("c1").id("A").build());
+    }
+
+    @Test
+    public void thatScopeMustBeClosedOnTheBindingThread() throws Exception {
+        FlowContext.Scope scope = FlowContext.of("c1", null).bind();
+        try {
+            Thread thread = new Thread(() -> {
+                try {
+                    scope.close();
+                    Assert.fail("Expected IllegalStateException");
+                } catch (IllegalStateException expected) {
+                }
+            });
+            thread.start();
+            thread.join();
+        } finally {
+            scope.close();
+        }
+        Assert.assertNull(FlowContext.current());
+    }
+
+    @Test
+    public void thatExecutorTasksRunWithTheSubmittingContext() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(1);
+        ExecutorService executor = FlowContexts.wrapExecutorService(pool);
+        try {
+            FlowContext context = FlowContext.parse("c1", "A");
+            Future<FlowContext> submitted;
+            List<Future<FlowContext>> invoked;
+            try (FlowContext.Scope ignored = context.bind()) {
+                submitted = executor.submit(FlowContext::current);
+                Callable<FlowContext> current = FlowContext::current;
+                invoked = executor.invokeAll(Arrays.asList(current, current));
+            }
+            Assert.assertSame(submitted.get(), context);
+            Assert.assertSame(invoked.get(0).get(), context);
+            Assert.assertSame(invoked.get(1).get(), context);
+
+            // the pooled thread must not keep the context of an earlier task
+            Assert.assertNull(executor.submit(FlowContext::current).get());
+            Assert.assertNull(pool.submit(FlowContext::current).get());
+        } finally {
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            Assert.assertTrue(pool.isShutdown());
+        }
+    }
+
+    @Test
+    public void thatCompletableFuturesRunWithTheSubmittingContext() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            FlowContext context = FlowContext.parse("c1", "A");
+            String correlationId;
+            try (FlowContext.Scope ignored = context.bind()) {
+                correlationId = FlowContexts.supplyAsync(() -> FlowLogger.event().id("B").build(), pool)
+                        .thenApplyAsync(FlowContexts.wrapFunction(event -> FlowContext.current().getCorrelationId() + event.nextHistory()), pool)
+                        .get(10, TimeUnit.SECONDS);
+            }
+            Assert.assertEquals(correlationId, "c1A,B");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void thatWrappedStageFunctionsRunWithTheWrappingContext() throws Exception {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        List<String> accepted = new ArrayList<>();
+        CompletableFuture<Void> done;
+        try (FlowContext.Scope ignored = FlowContext.parse("c1", "A").bind()) {
+            done = first.thenCombine(second, FlowContexts.wrapBiFunction((a, b) -> a + b + FlowContext.current().getCorrelationId()))
+                    .thenAccept(FlowContexts.wrapConsumer(value -> accepted.add(value + FlowContext.current().getHistory())));
+        }
+        first.complete("x");
+        second.complete("y");
+        done.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(accepted.toString(), "[xyc1A]");
+        Assert.assertNull(FlowContext.current());
+    }
+}
@@ -0,0 +1,93 @@
+package no.cantara.flow.flowlogger.event;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class BuilderPoolTest {
+
+    private static final Reporter REPORTER = new Reporter("test", "unit-test", "1.0", null, null);
+
+    @Test
+    public void thatBuilderIsResetAndReusedAfterBuild() {
+        BuilderPool pool = BuilderPool.threadLocal(() -> new Builder().reporter(REPORTER));
+
+        Builder first = pool.acquire();
+        FlowEvent e1 = first.event().correlationId("c1").id("A").status("FAILED").source().type("queue").address("q1").build();
+        Builder second = pool.acquire();
+        FlowEvent e2 = second.event().correlationId("c2").id("B").build();
+
+        Assert.assertSame(second, first);
+        Assert.assertEquals(e1.getSource().getAddress(), "q1");
+        Assert.assertEquals(e1.getEdge().getStatus(), "FAILED");
+        Assert.assertNull(e2.getSource());
+        Assert.assertEquals(e2.getEdge().getStatus(), "OK");
+        Assert.assertSame(e2.getReporter(), REPORTER);
+    }
+
+    @Test
+    public void thatPerEventReporterDoesNotOutliveItsEvent() {
+        BuilderPool pool = BuilderPool.threadLocal(() -> new Builder().reporter(REPORTER));
+        Reporter other = new Reporter("other", "unit-test", "2.0", null, null);
+
+        FlowEvent e1 = pool.acquire().event().correlationId("c1").id("A").reporter(other).build();
+        FlowEvent e2 = pool.acquire().reporter(other).event().correlationId("c2").id("B").build();
+        FlowEvent e3 = pool.acquire().event().correlationId("c3").id("C").build();
+
+        Assert.assertSame(e1.getReporter(), other);
+        Assert.assertSame(e2.getReporter(), other);
+        Assert.assertSame(e3.getReporter(), REPORTER);
+    }
+
+    @Test
+    public void thatSectionViewsAreSingletons() {
+        Builder builder = new Builder();
+        Builder.EdgeBuilder edge = builder.event();
+        Assert.assertSame(edge.source(), edge.source().edge().source());
+        Assert.assertSame(edge.destination().edge(), edge);
+        Assert.assertSame(edge.reporter(), edge.source().reporter());
+    }
+
+    @Test
+    public void thatEmitRespectsGuardAndReleasesBuilder() {
+        BuilderPool pool = BuilderPool.threadLocal(() -> new Builder().guard(correlationId -> !correlationId.equals("drop")));
+        List<FlowEvent> emitted = new ArrayList<>();
+
+        Builder builder = pool.acquire();
+        Assert.assertFalse(builder.event().correlationId("drop").id("A").emit(emitted::add));
+        Assert.assertSame(pool.acquire(), builder);
+        Assert.assertTrue(builder.event().correlationId("keep").id("B").emit(emitted::add));
+
+        Assert.assertEquals(emitted.size(), 1);
+        Assert.assertEquals(emitted.get(0).getCorrelationId(), "keep");
+    }
+
+    @Test
+    public void thatStripedPoolCanBeSharedByManyThreads() throws InterruptedException {
+        BuilderPool pool = BuilderPool.striped(4, () -> new Builder().reporter(REPORTER));
+        List<FlowEvent> emitted = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            String correlationId = "c" + t;
+            executor.execute(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    pool.acquire().event().correlationId(correlationId).id("E" + i).emit(emitted::add);
+                }
+            });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        Assert.assertEquals(emitted.size(), 8000);
+        for (FlowEvent event : emitted) {
+            Assert.assertTrue(event.getEdge().getId().startsWith("E"));
+            Assert.assertSame(event.getReporter(), REPORTER);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package no.cantara.flow.flowlogger.event;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.UUID;
+
+public class EdgeIdGeneratorsTest {
+
+    @Test
+    public void thatDefaultGeneratorProducesFiveBase64Characters() {
+        for (int i = 0; i < 1000; i++) {
+            String id = EdgeIdGenerators.threadLocalRandom().generateId();
+            Assert.assertTrue(id.matches("[A-Za-z0-9+/]{5}"), id);
+        }
+    }
+
+    @Test
+    public void thatLongerIdsCanBeGenerated() {
+        Assert.assertEquals(EdgeIdGenerators.threadLocalRandom(12).generateId().length(), 12);
+        Assert.assertEquals(EdgeIdGenerators.seeded(1, 22).generateId().length(), 22);
+    }
+
+    @Test
+    public void thatSeededGeneratorIsDeterministic() {
+        EdgeIdGenerator g1 = EdgeIdGenerators.seeded(42);
+        EdgeIdGenerator g2 = EdgeIdGenerators.seeded(42);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(g1.generateId(), g2.generateId());
+            Assert.assertEquals(g1.generateCorrelationId(), g2.generateCorrelationId());
+        }
+    }
+
+    @Test
+    public void thatGeneratedCorrelationIdsAreVersion4Uuids() {
+        UUID uuid = UUID.fromString(EdgeIdGenerators.threadLocalRandom().generateCorrelationId());
+        Assert.assertEquals(uuid.version(), 4);
+        Assert.assertEquals(uuid.variant(), 2);
+    }
+
+    @Test
+    public void thatBuilderUsesGivenGenerator() {
+        EdgeIdGenerator expected = EdgeIdGenerators.seeded(7);
+        FlowEvent event = new Builder(EdgeIdGenerators.seeded(7)).event().generateCorrelationId().generateId().build();
+        Assert.assertEquals(event.getCorrelationId(), expected.generateCorrelationId());
+        Assert.assertEquals(event.getEdge().getId(), expected.generateId());
+    }
+}
@@ -0,0 +1,130 @@
+package no.cantara.flow.flowlogger.event;
+
+import no.cantara.flow.flowlogger.sink.FlowEventSink;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+public class FanOutTest {
+
+    private static final Reporter REPORTER = new Reporter("test", "unit-test", "1.0", null, null);
+    private static final ZonedDateTime TIME = ZonedDateTime.of(2017, 6, 7, 10, 44, 31, 100_000_000, ZoneOffset.ofHours(2));
+
+    private static Builder builder() {
+        return new Builder().clock(FlowClocks.fixed(TIME)).reporter(REPORTER);
+    }
+
+    @Test
+    public void thatChildrenSerializeLikeIndividuallyBuiltEvents() {
+        FanOut fanOut = builder().event()
+                .correlationId("c1").history("A,B").milestone("dispatched").comment("a \"quoted\" <comment>")
+                .source().type("queue").address("inbox").payloadId("m1")
+                .fanOut();
+        Node q1 = new Node("queue", "out-1", "order", "m1");
+        Node q2 = new Node("topic", "out-\u00e6", null, null);
+
+        FlowEvent c1 = fanOut.child(q1, "X1");
+        FlowEvent c2 = fanOut.child(q2, "X2");
+
+        for (FlowEvent child : Arrays.asList(c1, c2)) {
+            FlowEvent expected = builder().event()
+                    .correlationId("c1").history("A,B").milestone("dispatched").comment("a \"quoted\" <comment>")
+                    .id(child.getEdge().getId())
+                    .source().type("queue").address("inbox").payloadId("m1")
+                    .destination(child.getDestination())
+                    .build();
+            Assert.assertEquals(child.toJson(), expected.toJson());
+            Assert.assertEquals(child.getEdge().getTimestamp(), expected.getEdge().getTimestamp());
+        }
+        Assert.assertEquals(c2.nextHistory(), "A,B,X2");
+    }
+
+    @Test
+    public void thatSharedFieldsAreTheSameInstances() {
+        FanOut fanOut = builder().event().correlationId("c1").history("A").fanOut();
+        List<FlowEvent> children = fanOut.children(Arrays.asList(
+                new Node("queue", "q1", null, null), new Node("queue", "q2", null, null), new Node("queue", "q3", null, null)));
+
+        Assert.assertEquals(children.size(), 3);
+        FlowEvent first = children.get(0);
+        for (FlowEvent child : children) {
+            Assert.assertEquals(child.getCorrelationId(), "c1");
+            Assert.assertSame(child.getFlowHistory(), first.getFlowHistory());
+            Assert.assertSame(child.getReporter(), REPORTER);
+            Assert.assertEquals(child.getEdge().getTimestamp(), first.getEdge().getTimestamp());
+        }
+        Assert.assertNotEquals(children.get(1).getEdge().getId(), first.getEdge().getId());
+        Assert.assertEquals(children.get(2).getDestination().getAddress(), "q3");
+    }
+
+    @Test
+    public void thatChildAtUsesTheDestinationOfTheBuilder() {
+        FanOut fanOut = builder().event().correlationId("c1")
+                .destination().type("queue").payloadType("order")
+                .fanOut();
+
+        FlowEvent child = fanOut.childAt("q7");
+
+        Assert.assertEquals(child.getDestination().getType(), "queue");
+        Assert.assertEquals(child.getDestination().getAddress(), "q7");
+        Assert.assertEquals(child.getDestination().getPayloadType(), "order");
+    }
+
+    @Test
+    public void thatChildrenArePublishedAsOneBatch() {
+        List<List<FlowEvent>> batches = new ArrayList<>();
+        FlowEventSink sink = new FlowEventSink() {
+            @Override
+            public boolean publish(FlowEvent event) {
+                throw new AssertionError("published one by one");
+            }
+
+            @Override
+            public boolean publishAll(Collection<? extends FlowEvent> events) {
+                batches.add(new ArrayList<>(events));
+                return true;
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        boolean emitted = builder().event().correlationId("c1").fanOut()
+                .emit(Arrays.asList(new Node("queue", "q1", null, null), new Node("queue", "q2", null, null)), sink::publishAll);
+
+        Assert.assertTrue(emitted);
+        Assert.assertEquals(batches.size(), 1);
+        Assert.assertEquals(batches.get(0).size(), 2);
+    }
+
+    @Test
+    public void thatRejectedCorrelationIdProducesNoChildren() {
+        FanOut fanOut = builder().guard(correlationId -> false).event().correlationId("c1").fanOut();
+
+        Assert.assertFalse(fanOut.isEnabled());
+        Assert.assertNull(fanOut.child(new Node("queue", "q1", null, null)));
+        Assert.assertTrue(fanOut.children(Arrays.asList(new Node("queue", "q1", null, null))).isEmpty());
+        Assert.assertFalse(fanOut.emit(Arrays.asList(new Node("queue", "q1", null, null)), batch -> Assert.fail()));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void thatCorrelationIdIsRequired() {
+        builder().event().history("A").fanOut();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void thatEdgeIdOfTheParentIsRejected() {
+        builder().event().correlationId("c1").id("X").fanOut();
+    }
+}
@@ -0,0 +1,120 @@
+package no.cantara.flow.flowlogger.event;
+
+import com.google.gson.Gson;
+import no.cantara.flow.flowlogger.event.FlowEventJsonParser.Field;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static no.cantara.flow.flowlogger.FlowLogger.event;
+
+public class FlowEventJsonParserTest {
+
+    private static List<FlowEvent> events() {
+        return Arrays.asList(
+                event("abc123", "A,B")
+                        .reporter().deployment("test").name("unit-test").version("1.0").containerId("no container").instance("the only instance")
+                        .source().type("ether").address("void")
+                        .destination().type("internal").address("testng-value-test").payloadType("fubar").payloadId("pid2")
+                        .edge().id("C").retryGroupId("R1")
+                        .timestamp(ZonedDateTime.of(2017, 6, 7, 10, 44, 31, 0, ZoneId.of("Europe/Oslo")))
+                        .status("test-ok").milestone("event-values-test").errorType("no-error").errorReason("none").comment("some comment")
+                        .build(),
+                event("m1").id("A").build(),
+                event("quote\" back\\ <tag> a&b='c'", "A=,B").id("C")
+                        .comment("ctl \u0000\u0001\u001f \t\b\n\r\f del\u007f ls\u2028ps\u2029 \u00E6\u00F8\u00E5 \uD83D\uDE00")
+                        .build(),
+                event("m2", "A,B,C,D").maxHistorySize(2).id("E").build(),
+                new FlowEvent("m3", new String[]{"A", null}, new Reporter(null, null, null, null, null), null, null, null),
+                new FlowEvent("m4", new String[0], null, null, null, null));
+    }
+
+    private static void assertSameEvent(FlowEvent actual, FlowEvent expected) {
+        Assert.assertEquals(actual.toJson(), expected.toJson());
+        Assert.assertEquals(actual.getFlowHistory(), expected.getFlowHistory());
+    }
+
+    @Test
+    public void thatAllInputsParseLikeGson() {
+        Gson gson = new Gson();
+        for (FlowEvent event : events()) {
+            String json = event.toJson();
+            FlowEvent expected = gson.fromJson(json, FlowEvent.class);
+            byte[] utf8 = json.getBytes(StandardCharsets.UTF_8);
+            assertSameEvent(FlowEventJsonParser.all().parse(json), expected);
+            assertSameEvent(FlowEventJsonParser.all().parse(new StringBuilder(json)), expected);
+            assertSameEvent(FlowEventJsonParser.all().parse(utf8), expected);
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(utf8.length + 10);
+            direct.put(new byte[5]).put(utf8).put(new byte[5]);
+            assertSameEvent(FlowEventJsonParser.all().parse(direct, 5, utf8.length), expected);
+            direct.position(5).limit(5 + utf8.length);
+            assertSameEvent(FlowEventJsonParser.all().parse(direct), expected);
+            Assert.assertEquals(direct.position(), 5);
+        }
+    }
+
+    @Test
+    public void thatGsonOutputWhitespaceAndUnknownFieldsAreAccepted() {
+        String json = "{ \"flowEventVersion\" : \"0.1\",\n \"future\": {\"a\": [1, 2.5e3, true, null, \"}]\"]},"
+                + " \"correlationId\": \"c\\u0031\", \"edge\": {\"id\": \"A\", \"weight\": -1, \"status\": null} }\n";
+        FlowEvent event = FlowEventJsonParser.all().parse(json);
+        Assert.assertEquals(event.getCorrelationId(), "c1");
+        Assert.assertEquals(event.getEdge().getId(), "A");
+        Assert.assertNull(event.getEdge().getStatus());
+        Assert.assertNull(event.getFlowHistory());
+        Assert.assertNull(event.getReporter());
+    }
+
+    @Test
+    public void thatProjectionOnlyParsesSelectedFields() {
+        FlowEvent full = events().get(0);
+        FlowEvent event = FlowEventJsonParser.of(Field.CORRELATION_ID, Field.EDGE_ID).parse(full.toJson());
+        Assert.assertEquals(event.getCorrelationId(), "abc123");
+        Assert.assertEquals(event.getEdge().getId(), "C");
+        Assert.assertNull(event.getEdge().getTimestamp());
+        Assert.assertNull(event.getEdge().getComment());
+        Assert.assertNull(event.getFlowHistory());
+        Assert.assertNull(event.getReporter());
+        Assert.assertNull(event.getSource());
+        Assert.assertNull(event.getDestination());
+
+        FlowEvent history = FlowEventJsonParser.of(Field.HISTORY).parse(events().get(3).toJson());
+        Assert.assertNull(history.getCorrelationId());
+        Assert.assertNull(history.getEdge());
+        Assert.assertEquals(history.getFlowHistory(), events().get(3).getFlowHistory());
+        Assert.assertTrue(history.getFlowHistory().hasDigest());
+    }
+
+    @Test
+    public void thatMalformedInputIsRejected() {
+        String[] malformed = {
+                "",
+                "   ",
+                "[]",
+                "{\"correlationId\":\"c\"",
+                "{\"correlationId\":\"c}",
+                "{\"correlationId\":\"c\" \"edge\":{}}",
+                "{\"correlationId\":1}",
+                "{\"history\":[\"A\",]}",
+                "{\"edge\":{\"id\":\"\\x\"}}",
+                "{\"correlationId\":\"c\"} trailing",
+                "{\"flowEventVersion\":\"0.2\",\"correlationId\":\"c\"}",
+                "{\"historyDigest\":\"bad\",\"history\":[\"A\"]}"
+        };
+        for (String json : malformed) {
+            try {
+                FlowEventJsonParser.all().parse(json);
+                Assert.fail("Expected rejection of: " + json);
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package no.cantara.flow.flowlogger.event;
+
+import com.google.gson.Gson;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+
+import static no.cantara.flow.flowlogger.FlowLogger.event;
+
+public class FlowEventJsonWriterTest {
+
+    private FlowEvent fullEvent() {
+        return event("abc123", "A,B")
+                .reporter()
+                .deployment("test")
+                .name("unit-test")
+                .version("1.0")
+                .containerId("no container")
+                .instance("the only instance")
+                .source().type("ether").address("void")
+                .destination().type("internal").address("testng-value-test").payloadType("fubar").payloadId("pid2")
+                .edge()
+                .id("C")
+                .retryGroupId("R1")
+                .timestamp(ZonedDateTime.of(2017, 6, 7, 10, 44, 31, 0, ZoneId.of("Europe/Oslo")))
+                .status("test-ok")
+                .milestone("event-values-test")
+                .errorType("no-error")
+                .errorReason("none")
+                .comment("some comment")
+                .build();
+    }
+
+    @Test
+    public void thatOutputIsIdenticalToGson() {
+        FlowEvent event = fullEvent();
+        Assert.assertEquals(event.toJson(), new Gson().toJson(event));
+    }
+
+    @Test
+    public void thatNullFieldsAreOmittedLikeGson() {
+        FlowEvent event = event("m1").id("A").build();
+        Assert.assertEquals(event.toJson(), new Gson().toJson(event));
+        FlowEvent sparse = new FlowEvent("m1", new String[]{"A", null}, new Reporter(null, null, null, null, null), null, null, null);
+        Assert.assertEquals(sparse.toJson(), new Gson().toJson(sparse));
+    }
+
+    @Test
+    public void thatStringEscapingIsIdenticalToGson() {
+        FlowEvent event = event("quote\" back\\ <tag> a&b='c'", "A=,B")
+                .id("C")
+                .comment("ctl \u0000\u0001\u001f \t\b\n\r\f del\u007f ls\u2028ps\u2029 \u00E6\u00F8\u00E5 \uD83D\uDE00 lone\uD800x")
+                .build();
+        Assert.assertEquals(event.toJson(), new Gson().toJson(event));
+    }
+
+    @Test
+    public void thatWriterAndByteBufferTargetsProduceSameOutput() throws Exception {
+        FlowEvent event = event("\u00E6\u00F8\u00E5", "A,B").id("C").comment("smile \uD83D\uDE00 lone\uDC00 end\uD800").build();
+        String expected = new Gson().toJson(event);
+
+        StringWriter writer = new StringWriter();
+        event.writeJson(writer);
+        Assert.assertEquals(writer.toString(), expected);
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        FlowEventJsonWriter.write(event, buffer);
+        buffer.flip();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        Assert.assertTrue(Arrays.equals(bytes, expected.getBytes(StandardCharsets.UTF_8)));
+    }
+}
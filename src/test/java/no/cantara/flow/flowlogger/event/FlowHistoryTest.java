@@ -0,0 +1,124 @@
+package no.cantara.flow.flowlogger.event;
+
+import com.google.gson.Gson;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class FlowHistoryTest {
+
+    @Test
+    public void thatParsedHeaderIsRenderedUnchanged() {
+        FlowHistory history = FlowHistory.parse("A,Bb+/,C=");
+        Assert.assertEquals(history.size(), 3);
+        Assert.assertEquals(history.last(), "C=");
+        Assert.assertEquals(history.toString(), "A,Bb+/,C=");
+        Assert.assertEquals(history.toArray(), new String[]{"A", "Bb+/", "C="});
+    }
+
+    @Test
+    public void thatInvalidHeadersAreRejected() {
+        for (String bad : new String[]{",", "A,", ",A", "A,,B", "A B", "A;B", "\u00e6"}) {
+            try {
+                FlowHistory.parse(bad);
+                Assert.fail("Expected rejection of \"" + bad + "\"");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        Assert.assertTrue(FlowHistory.parse("").isEmpty());
+        Assert.assertTrue(FlowHistory.parse(null).isEmpty());
+    }
+
+    @Test
+    public void thatAppendSharesAndDoesNotModifyTheOriginal() {
+        FlowHistory parsed = FlowHistory.parse("A,B");
+        FlowHistory c = parsed.append("C");
+        FlowHistory d1 = c.append("D1");
+        FlowHistory d2 = c.append("D2");
+
+        Assert.assertEquals(parsed.toString(), "A,B");
+        Assert.assertEquals(c.toString(), "A,B,C");
+        Assert.assertEquals(d1.toString(), "A,B,C,D1");
+        Assert.assertEquals(d2.toArray(), new String[]{"A", "B", "C", "D2"});
+        Assert.assertEquals(d2.get(1), "B");
+        Assert.assertEquals(d2.last(), "D2");
+        Assert.assertEquals(FlowHistory.parse("A,B,C,D1"), d1);
+    }
+
+    @Test
+    public void thatLongHistoriesCanBeBuiltHopByHop() {
+        FlowHistory history = FlowHistory.empty();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            history = history.append("E" + i);
+            expected.append(i == 0 ? "" : ",").append("E").append(i);
+        }
+        Assert.assertEquals(history.size(), 10000);
+        Assert.assertEquals(history.get(0), "E0");
+        Assert.assertEquals(history.toString(), expected.toString());
+        Assert.assertEquals(FlowHistory.parse(history.toString()).size(), 10000);
+    }
+
+    @Test
+    public void thatEventsCarryFlowHistoryBetweenHops() {
+        FlowEvent first = new Builder().event().correlationId("c").history("A").id("B").build();
+        FlowEvent second = new Builder().event().correlationId("c").history(first.nextFlowHistory()).id("C").build();
+        Assert.assertEquals(second.getHistory(), new String[]{"A", "B"});
+        Assert.assertEquals(second.nextHistory(), "A,B,C");
+    }
+
+    @Test
+    public void thatBoundedHistoryFoldsOldestIdsIntoDigest() {
+        FlowHistory bounded = FlowHistory.parse("A,B,C,D,E").bounded(2);
+        Assert.assertEquals(bounded.toArray(), new String[]{"D", "E"});
+        Assert.assertEquals(bounded.foldedCount(), 3);
+        Assert.assertEquals(bounded.digest(), FlowHistory.digestOf("A", "B", "C"));
+        Assert.assertEquals(bounded.append("F").bounded(2).digest(), FlowHistory.digestOf("A", "B", "C", "D"));
+
+        String header = bounded.toString();
+        Assert.assertTrue(header.startsWith("=" + bounded.digestString() + ","));
+        FlowHistory parsed = FlowHistory.parse(header);
+        Assert.assertEquals(parsed, bounded);
+        Assert.assertEquals(parsed.size(), 2);
+        Assert.assertEquals(parsed.get(0), "D");
+        Assert.assertEquals(parsed.toString(), header);
+        Assert.assertSame(bounded.bounded(2), bounded);
+    }
+
+    @Test
+    public void thatAncestryIsCheckedAcrossTheDigest() {
+        FlowHistory bounded = FlowHistory.of("A", "B", "C", "D").bounded(2);
+        Assert.assertTrue(bounded.startsWith("A", "B"));
+        Assert.assertTrue(bounded.startsWith("A", "B", "C"));
+        Assert.assertTrue(bounded.startsWith("A", "B", "C", "D"));
+        Assert.assertFalse(bounded.startsWith("A", "X", "C"));
+        Assert.assertFalse(bounded.startsWith("A", "B", "X"));
+        Assert.assertFalse(bounded.startsWith("A"));
+        Assert.assertTrue(FlowHistory.of("A", "B").startsWith("A"));
+    }
+
+    @Test
+    public void thatDigestIsCarriedInJsonAndPreservedByGson() {
+        FlowEvent event = new Builder().event().correlationId("c").history(FlowHistory.of("A", "B", "C").bounded(1)).id("D").build();
+        String json = event.toJson();
+        Assert.assertEquals(json, new Gson().toJson(event));
+        Assert.assertTrue(json.contains("\"history\":[\"C\"],\"historyDigest\":\"" + event.getHistoryDigest() + "\""));
+
+        FlowEvent read = new Gson().fromJson(json, FlowEvent.class);
+        Assert.assertEquals(read.getFlowHistory(), event.getFlowHistory());
+        Assert.assertEquals(read.nextHistory(), event.nextHistory());
+        Assert.assertTrue(read.nextFlowHistory().startsWith("A", "B", "C", "D"));
+    }
+
+    @Test
+    public void thatMaxHistorySizeKeepsNextHistoryBounded() {
+        FlowHistory history = FlowHistory.empty();
+        for (int i = 0; i < 100; i++) {
+            FlowEvent event = new Builder().event().correlationId("c").maxHistorySize(3).history(history).id("E" + i).build();
+            history = event.nextFlowHistory();
+            Assert.assertTrue(history.size() <= 3);
+        }
+        Assert.assertEquals(history.toArray(), new String[]{"E97", "E98", "E99"});
+        Assert.assertEquals(history.foldedCount(), 97);
+        Assert.assertEquals(FlowHistory.parse(history.toString()), history);
+    }
+}
@@ -0,0 +1,86 @@
+package no.cantara.flow.flowlogger.event;
+
+import com.google.gson.Gson;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.SplittableRandom;
+
+public class FlowTimestampFormatTest {
+
+    @Test
+    public void thatFormatMatchesIsoOffsetDateTime() {
+        ZoneId[] zones = {ZoneOffset.UTC, ZoneId.of("Europe/Oslo"), ZoneId.of("America/St_Johns"), ZoneOffset.ofHoursMinutesSeconds(1, 2, 3), ZoneOffset.ofHours(-5)};
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < 20000; i++) {
+            long epochNanos = random.nextLong(-3_000_000_000_000_000_000L, 4_000_000_000_000_000_000L);
+            switch (i % 4) {
+                case 0:
+                    epochNanos -= epochNanos % 1_000_000_000L;
+                    break;
+                case 1:
+                    epochNanos -= epochNanos % 1_000_000L;
+                    break;
+                case 2:
+                    epochNanos = 1_490_490_000_000_000_000L + random.nextLong(7_200_000_000_000L); // around a DST change
+                    break;
+                default:
+            }
+            ZoneId zone = zones[i % zones.length];
+            Instant instant = Instant.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L), Math.floorMod(epochNanos, 1_000_000_000L));
+            String expected = instant.atZone(zone).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+            Assert.assertEquals(FlowTimestampFormat.format(epochNanos, zone), expected);
+            Assert.assertEquals(FlowTimestampFormat.offset(epochNanos, zone), instant.atZone(zone).getOffset());
+        }
+    }
+
+    @Test
+    public void thatSteppingClockGivesPredictableTimestamps() {
+        ZonedDateTime start = ZonedDateTime.of(2017, 6, 7, 10, 44, 31, 0, ZoneId.of("Europe/Oslo"));
+        Builder builder = new Builder().clock(FlowClocks.stepping(start, Duration.ofMillis(250)));
+        String[] timestamps = new String[5];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = builder.event().correlationId("c").id("E" + i).build().getEdge().getTimestamp();
+        }
+        Assert.assertEquals(timestamps, new String[]{
+                "2017-06-07T10:44:31+02:00",
+                "2017-06-07T10:44:31.25+02:00",
+                "2017-06-07T10:44:31.5+02:00",
+                "2017-06-07T10:44:31.75+02:00",
+                "2017-06-07T10:44:32+02:00"});
+
+        FlowEvent fixed = new Builder().clock(FlowClocks.fixed(start)).event().correlationId("c").id("A").build();
+        Assert.assertEquals(fixed.getEdge().getTimestamp(), "2017-06-07T10:44:31+02:00");
+    }
+
+    @Test
+    public void thatLazyTimestampIsFormattedWhenSerialized() {
+        ZonedDateTime start = ZonedDateTime.of(2017, 6, 7, 10, 44, 31, 123_000_000, ZoneId.of("Europe/Oslo"));
+        FlowEvent event = new Builder().clock(FlowClocks.fixed(start)).lazyTimestamps(true).event().correlationId("c").id("A").build();
+        Assert.assertNull(event.getEdge().timestamp);
+        Assert.assertEquals(event.getEdge().getEpochNanos(), 1_496_825_071_123_000_000L);
+
+        String gson = new Gson().toJson(event);
+        Assert.assertTrue(gson.contains("\"timestamp\":\"2017-06-07T10:44:31.123+02:00\""));
+        Assert.assertEquals(event.toJson(), gson);
+        Assert.assertEquals(new Gson().fromJson(gson, FlowEvent.class).getEdge().getTimestamp(), "2017-06-07T10:44:31.123+02:00");
+    }
+
+    @Test
+    public void thatFormattedTimestampIsParsedOnce() {
+        Edge edge = new Edge("A", null, "2017-06-07T10:44:31.123+02:00", null, "OK", null, null, null);
+        Assert.assertEquals(edge.getEpochNanos(), 1_496_825_071_123_000_000L);
+        edge.timestamp = "2017-06-07T10:44:32+02:00";
+        Assert.assertEquals(edge.getEpochNanos(), 1_496_825_071_123_000_000L);
+        Assert.assertEquals(new Edge("B", edge).getEpochNanos(), 1_496_825_071_123_000_000L);
+
+        Assert.assertEquals(new Edge("A", null, "not a timestamp", null, "OK", null, null, null).getEpochNanos(), Edge.UNKNOWN_TIME);
+        Assert.assertEquals(new Edge("A", null, null, null, "OK", null, null, null).getEpochNanos(), Edge.UNKNOWN_TIME);
+    }
+}
@@ -0,0 +1,122 @@
+package no.cantara.flow.flowlogger.graph;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static no.cantara.flow.flowlogger.FlowLogger.event;
+
+public class FlowGraphAssemblerTest {
+
+    @Test
+    public void thatTerminalEventEmitsLinkedGraph() {
+        List<FlowGraph> graphs = new ArrayList<>();
+        FlowGraphAssembler assembler = FlowGraphAssembler.builder(graphs::add).terminalMilestones("done").build();
+
+        FlowEvent a = event("c1").id("A").destination().type("queue").address("q1").payloadId("p1").build();
+        FlowEvent b = event("c1", "A").id("B").build();
+        FlowEvent c = event("c1", "A").id("C").build(); // split
+        FlowEvent d = event("c1").id("D").source().type("queue").address("q1").payloadId("p1").build(); // no history
+        FlowEvent e = event("c1", "A,B").id("E").milestone("done").build();
+        assembler.publish(a);
+        assembler.publish(b);
+        assembler.publish(c);
+        assembler.publish(d);
+        Assert.assertTrue(graphs.isEmpty());
+        assembler.publish(e);
+
+        Assert.assertEquals(graphs.size(), 1);
+        FlowGraph graph = graphs.get(0);
+        Assert.assertEquals(graph.getCorrelationId(), "c1");
+        Assert.assertEquals(graph.getCompletion(), FlowGraph.Completion.TERMINAL);
+        Assert.assertEquals(graph.size(), 5);
+        Assert.assertEquals(graph.getRoots().size(), 1);
+        FlowGraph.Vertex root = graph.getRoots().get(0);
+        Assert.assertSame(root.getEvent(), a);
+        Assert.assertEquals(root.getChildren().size(), 3);
+        Assert.assertSame(graph.getVertices().get(4).getParent().getEvent(), b);
+        Assert.assertSame(graph.getVertices().get(3).getParent(), root);
+        Assert.assertEquals(assembler.inFlightCount(), 0);
+    }
+
+    @Test
+    public void thatInactiveFlowsTimeOutAndLeastRecentFlowsAreEvicted() {
+        AtomicLong now = new AtomicLong();
+        List<FlowGraph> graphs = new ArrayList<>();
+        FlowGraphAssembler assembler = FlowGraphAssembler.builder(graphs::add)
+                .shards(1)
+                .maxInFlight(2)
+                .ttl(Duration.ofSeconds(10))
+                .nanoClock(now::get)
+                .build();
+
+        assembler.publish(event("c1").id("A").build());
+        now.addAndGet(Duration.ofSeconds(5).toNanos());
+        assembler.publish(event("c2").id("A").build());
+        assembler.publish(event("c1", "A").id("B").build()); // c2 is now least recently active
+        assembler.publish(event("c3").id("A").build());
+        Assert.assertEquals(graphs.size(), 1);
+        Assert.assertEquals(graphs.get(0).getCorrelationId(), "c2");
+        Assert.assertEquals(graphs.get(0).getCompletion(), FlowGraph.Completion.EVICTED);
+
+        now.addAndGet(Duration.ofSeconds(11).toNanos());
+        assembler.expire();
+        Assert.assertEquals(graphs.size(), 3);
+        Assert.assertEquals(graphs.get(1).getCompletion(), FlowGraph.Completion.TIMED_OUT);
+        Assert.assertEquals(graphs.get(1).getCorrelationId(), "c1");
+        Assert.assertEquals(graphs.get(1).size(), 2);
+
+        assembler.publish(event("c4").id("A").build());
+        assembler.close();
+        Assert.assertEquals(graphs.get(3).getCompletion(), FlowGraph.Completion.CLOSED);
+        Assert.assertFalse(assembler.publish(event("c5").id("A").build()));
+    }
+
+    @Test
+    public void thatManyFlowsAreTrackedAcrossShards() {
+        Map<String, Integer> sizes = new HashMap<>();
+        FlowGraphAssembler assembler = FlowGraphAssembler.builder(graph -> sizes.put(graph.getCorrelationId(), graph.size())).shards(8).build();
+        for (int hop = 0; hop < 3; hop++) {
+            for (int i = 0; i < 20000; i++) {
+                assembler.publish(event("c" + i).id("E" + hop).build());
+            }
+        }
+        Assert.assertEquals(assembler.inFlightCount(), 20000);
+        for (int i = 0; i < 20000; i += 2) {
+            assembler.publish(event("c" + i).id("X").build());
+        }
+        assembler.close();
+        Assert.assertEquals(sizes.size(), 20000);
+        Assert.assertEquals(sizes.get("c0").intValue(), 4);
+        Assert.assertEquals(sizes.get("c1").intValue(), 3);
+    }
+
+    @Test
+    public void thatCorrelationTableSurvivesRemovalsAndGrowth() {
+        CorrelationTable<Integer> table = new CorrelationTable<>(4);
+        for (int i = 0; i < 1000; i++) {
+            String id = "id" + i;
+            table.insert(id, CorrelationTable.hash(id), i, i);
+        }
+        for (int i = 0; i < 1000; i += 3) {
+            String id = "id" + i;
+            Assert.assertEquals(table.remove(table.find(id, CorrelationTable.hash(id)), CorrelationTable.hash(id)).intValue(), i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            String id = "id" + i;
+            int slot = table.find(id, CorrelationTable.hash(id));
+            Assert.assertEquals(slot < 0, i % 3 == 0, id);
+            if (slot >= 0) {
+                Assert.assertEquals(table.value(slot).intValue(), i);
+            }
+        }
+        Assert.assertEquals(table.id(table.eldest()), "id1");
+    }
+}
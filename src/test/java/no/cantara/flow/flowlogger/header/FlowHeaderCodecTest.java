@@ -0,0 +1,104 @@
+package no.cantara.flow.flowlogger.header;
+
+import no.cantara.flow.flowlogger.context.FlowContext;
+import no.cantara.flow.flowlogger.event.EdgeIdGenerator;
+import no.cantara.flow.flowlogger.event.EdgeIdGenerators;
+import no.cantara.flow.flowlogger.event.FlowHistory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+public class FlowHeaderCodecTest {
+
+    private static FlowContext roundTrip(FlowContext context) {
+        String header = FlowHeaderCodec.encodeToString(context);
+        Assert.assertTrue(header.matches("[A-Za-z0-9_-]+"), header);
+        FlowContext decoded = FlowHeaderCodec.decode(header);
+        Assert.assertEquals(decoded, context);
+        Assert.assertEquals(FlowHeaderCodec.decode(FlowHeaderCodec.encode(context)), context);
+        return decoded;
+    }
+
+    @Test
+    public void thatUuidAndDefaultIdsArePacked() {
+        EdgeIdGenerator generator = EdgeIdGenerators.seeded(42);
+        String[] ids = new String[8];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = generator.generateId();
+        }
+        FlowContext context = FlowContext.of(generator.generateCorrelationId(), FlowHistory.of(ids));
+        FlowContext decoded = roundTrip(context);
+        Assert.assertEquals(decoded.getHistory().toString(), String.join(",", ids));
+
+        // 2 + 16 + 1 + 1 + 8 * 30 bits
+        Assert.assertEquals(FlowHeaderCodec.encode(context).length, 2 + 16 + 2 + 30);
+        int textLength = context.getCorrelationId().length() + context.getHistory().toString().length();
+        Assert.assertTrue(FlowHeaderCodec.encodeToString(context).length() < textLength);
+    }
+
+    @Test
+    public void thatOtherCorrelationIdsAndIdsAreKeptAsText() {
+        roundTrip(FlowContext.of("ORDER-17-\u00e6", null));
+        roundTrip(FlowContext.of("6BA7B810-9DAD-11D1-80B4-00C04FD430C8", FlowHistory.of("A")));
+        roundTrip(FlowContext.of("c1", FlowHistory.of("abc", "defgh", "x=")));
+        roundTrip(FlowContext.of("c1", FlowHistory.of("abcdefghijkl", "mnopqrstuvwx")));
+        roundTrip(FlowContext.of("c1", FlowHistory.of("+/09", "zZaA")));
+    }
+
+    @Test
+    public void thatDigestOfBoundedHistoryIsKept() {
+        FlowHistory history = FlowHistory.of("AAAAA", "BBBBB", "CCCCC", "DDDDD").bounded(2);
+        FlowContext decoded = roundTrip(FlowContext.of("c1", history));
+        Assert.assertTrue(decoded.getHistory().hasDigest());
+        Assert.assertEquals(decoded.getHistory().foldedCount(), 2);
+        Assert.assertEquals(decoded.getHistory().toString(), history.toString());
+    }
+
+    @Test
+    public void thatTextHeadersAreUsedWithoutCompactHeader() {
+        FlowContext context = FlowContext.parse("c1", "AAAAA,BBBBB");
+        Assert.assertEquals(FlowHeaderCodec.decode(null, "c1", "AAAAA,BBBBB"), context);
+        Assert.assertEquals(FlowHeaderCodec.decode(FlowHeaderCodec.encodeToString(context), null, null), context);
+        Assert.assertNull(FlowHeaderCodec.decode(null, null, "AAAAA"));
+
+        byte[] newer = FlowHeaderCodec.encode(context);
+        newer[0] = 2;
+        Assert.assertEquals(FlowHeaderCodec.decode(Base64.getUrlEncoder().encodeToString(newer), "c1", "AAAAA,BBBBB"), context);
+    }
+
+    @Test
+    public void thatMalformedHeadersAreRejected() {
+        byte[] valid = FlowHeaderCodec.encode(FlowContext.parse("c1", "AAAAA,BBBBB"));
+        for (int length = 0; length < valid.length; length++) {
+            assertRejected(Arrays.copyOf(valid, length));
+        }
+        assertRejected(Arrays.copyOf(valid, valid.length + 1));
+        assertRejected(new byte[]{1, 0, 2, 'c', '1', (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F, 0});
+        assertRejected(new byte[]{1, 0, 2, 'c', '1', 1, 0, 2, 'a', ','});
+        try {
+            FlowHeaderCodec.decode("not base64!");
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static void assertRejected(byte[] header) {
+        try {
+            FlowHeaderCodec.decode(header);
+            Assert.fail("Expected IllegalArgumentException for " + Arrays.toString(header));
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void thatEdgeIdOutsideTheBase64AlphabetIsRejected() {
+        FlowHeaderCodec.encode(FlowContext.of("c1", FlowHistory.of("AbCdE", "order-1")));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void thatNullEdgeIdIsRejected() {
+        FlowHeaderCodec.encode(FlowContext.of("c1", FlowHistory.of("AbCdE", null)));
+    }
+}
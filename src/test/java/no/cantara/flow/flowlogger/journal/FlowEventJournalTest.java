@@ -0,0 +1,133 @@
+package no.cantara.flow.flowlogger.journal;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static no.cantara.flow.flowlogger.FlowLogger.event;
+
+public class FlowEventJournalTest {
+
+    private Path directory;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("flow-journal");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deleteDirectory() throws IOException {
+        for (Path segment : JournalSegments.list(directory)) {
+            Files.delete(segment);
+        }
+        Files.delete(directory);
+    }
+
+    private static List<String> replayIds(Path directory) throws IOException {
+        List<String> ids = new ArrayList<>();
+        FlowEventJournalReader.replay(directory, e -> ids.add(e.getEdge().getId()));
+        return ids;
+    }
+
+    @Test
+    public void thatEventsAreReplayedAcrossSegmentsAndReopens() throws IOException {
+        List<String> expected = new ArrayList<>();
+        try (FlowEventJournal journal = FlowEventJournal.builder(directory).segmentSize(1024).syncEvery(10).open()) {
+            for (int i = 0; i < 50; i++) {
+                journal.append(event("c1", "A,B").id("E" + i).comment("\u00e6\u00f8\u00e5").build());
+                expected.add("E" + i);
+            }
+        }
+        Assert.assertTrue(JournalSegments.list(directory).size() > 1);
+        try (FlowEventJournal journal = FlowEventJournal.builder(directory).segmentSize(1024).open()) {
+            List<FlowEvent> batch = new ArrayList<>();
+            for (int i = 50; i < 60; i++) {
+                batch.add(event("c1").id("E" + i).build());
+                expected.add("E" + i);
+            }
+            journal.append(batch);
+        }
+        Assert.assertEquals(replayIds(directory), expected);
+
+        FlowEventJournalReader reader = new FlowEventJournalReader(directory);
+        FlowEvent first = reader.next();
+        Assert.assertEquals(first.getHistory(), new String[]{"A", "B"});
+        Assert.assertEquals(first.getEdge().getComment(), "\u00e6\u00f8\u00e5");
+    }
+
+    @Test
+    public void thatTornTailRecordIsDiscardedOnOpen() throws IOException {
+        try (FlowEventJournal journal = FlowEventJournal.builder(directory).segmentSize(4096).open()) {
+            journal.append(event("c1").id("A").build());
+            journal.append(event("c1").id("B").build());
+        }
+        Path segment = JournalSegments.list(directory).get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int secondRecord = JournalSegments.RECORD_HEADER_SIZE + buffer.getInt(0);
+            buffer.put(secondRecord + JournalSegments.RECORD_HEADER_SIZE + 3, (byte) 'x'); // corrupt payload of B
+            buffer.force();
+        }
+        Assert.assertEquals(replayIds(directory).toString(), "[A]");
+
+        try (FlowEventJournal journal = FlowEventJournal.builder(directory).segmentSize(4096).open()) {
+            journal.append(event("c1").id("C").build());
+        }
+        Assert.assertEquals(replayIds(directory).toString(), "[A, C]");
+    }
+
+    @Test
+    public void thatOversizeEventIsRejectedWithoutRollingSegment() throws IOException {
+        StringBuilder comment = new StringBuilder();
+        for (int i = 0; i < 2048; i++) {
+            comment.append('x');
+        }
+        try (FlowEventJournal journal = FlowEventJournal.builder(directory).segmentSize(1024).open()) {
+            journal.append(event("c1").id("A").build());
+            try {
+                journal.append(event("c1").id("huge").comment(comment.toString()).build());
+                Assert.fail("oversize event was accepted");
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                journal.append(Collections.singletonList(event("c1").id("huge").comment(comment.toString()).build()));
+                Assert.fail("oversize event was accepted");
+            } catch (IllegalArgumentException expected) {
+            }
+            journal.append(event("c1").id("B").build());
+        }
+        Assert.assertEquals(JournalSegments.list(directory).size(), 1);
+        Assert.assertEquals(replayIds(directory).toString(), "[A, B]");
+    }
+
+    @Test
+    public void thatSegmentsCanBeDeletedAfterClose() throws IOException {
+        FlowEventJournal journal = FlowEventJournal.builder(directory).segmentSize(1024).open();
+        for (int i = 0; i < 20; i++) {
+            journal.append(event("c1").id("E" + i).build());
+        }
+        journal.close();
+        journal.close();
+        for (Path segment : JournalSegments.list(directory)) {
+            Files.delete(segment);
+        }
+        Assert.assertTrue(JournalSegments.list(directory).isEmpty());
+        try {
+            journal.append(event("c1").id("late").build());
+            Assert.fail("closed journal accepted an event");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
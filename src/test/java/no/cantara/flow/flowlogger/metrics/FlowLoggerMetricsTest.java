@@ -0,0 +1,182 @@
+package no.cantara.flow.flowlogger.metrics;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.sink.AsyncFlowEventSink;
+import no.cantara.flow.flowlogger.sink.BackpressurePolicy;
+import no.cantara.flow.flowlogger.sink.FlowEventDestination;
+import no.cantara.flow.flowlogger.sink.NdjsonDestination;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+import static no.cantara.flow.flowlogger.FlowLogger.event;
+
+public class FlowLoggerMetricsTest {
+
+    @Test
+    public void thatSnapshotReportsRecordedValues() throws Exception {
+        FlowLoggerMetrics metrics = new FlowLoggerMetrics();
+        FlowLoggerMetricsSnapshot before = metrics.snapshot();
+        metrics.eventBuilt();
+        metrics.eventBuilt();
+        metrics.idGenerated();
+        metrics.eventSerialized(1000);
+        metrics.eventSerialized(3000);
+        metrics.bytesWritten(512);
+        metrics.dropped(BackpressurePolicy.DROP_OLDEST, 3);
+        metrics.writeFailed(4);
+        IntSupplier queue = () -> 7;
+        metrics.addQueue(queue);
+        Thread.sleep(5);
+
+        FlowLoggerMetricsSnapshot snapshot = metrics.snapshot();
+
+        Assert.assertEquals(snapshot.getEventsBuilt(), 2L);
+        Assert.assertEquals(snapshot.getIdsGenerated(), 1L);
+        Assert.assertEquals(snapshot.getEventsSerialized(), 2L);
+        Assert.assertEquals(snapshot.getSerializationNanos().getCount(), 2L);
+        Assert.assertEquals(snapshot.getSerializationNanos().getMax(), 3000L);
+        Assert.assertEquals(snapshot.getBytesWritten(), 512L);
+        Assert.assertEquals(snapshot.getQueueDepth(), 7);
+        Assert.assertEquals(snapshot.getDroppedByPolicy().get(BackpressurePolicy.DROP_OLDEST), Long.valueOf(3));
+        Assert.assertEquals(snapshot.getDroppedByPolicy().get(BackpressurePolicy.BLOCK), Long.valueOf(0));
+        Assert.assertEquals(snapshot.getDroppedCount(), 3L);
+        Assert.assertEquals(snapshot.getFailedWrites(), 4L);
+        Assert.assertTrue(snapshot.idGenerationRate(before) > 0);
+        Assert.assertTrue(snapshot.eventBuildRate(before) > snapshot.idGenerationRate(before));
+
+        metrics.removeQueue(queue);
+        Assert.assertEquals(metrics.snapshot().getQueueDepth(), 0);
+    }
+
+    @Test
+    public void thatIdGenerationRateIsTheSameForEveryReaderWithinAWindow() throws Exception {
+        FlowLoggerMetrics metrics = new FlowLoggerMetrics(TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertEquals(metrics.getIdGenerationRate(), 0.0);
+        for (int i = 0; i < 100; i++) {
+            metrics.idGenerated();
+        }
+        Thread.sleep(60);
+
+        double rate = metrics.getIdGenerationRate();
+        Assert.assertTrue(rate > 0, "rate: " + rate);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(metrics.getIdGenerationRate(), rate);
+        }
+        Thread.sleep(60);
+        Assert.assertEquals(metrics.getIdGenerationRate(), 0.0);
+    }
+
+    @Test
+    public void thatSerializationIsOnlyTimedWhenEnabled() {
+        FlowLoggerMetrics metrics = new FlowLoggerMetrics();
+        Assert.assertFalse(metrics.isSerializationTimingEnabled());
+        metrics.serializationDone(metrics.serializationStarted());
+        metrics.setSerializationTimingEnabled(true);
+        metrics.serializationDone(metrics.serializationStarted());
+
+        FlowLoggerMetricsSnapshot snapshot = metrics.snapshot();
+        Assert.assertEquals(snapshot.getEventsSerialized(), 2L);
+        Assert.assertEquals(snapshot.getSerializationNanos().getCount(), 1L);
+    }
+
+    @Test
+    public void thatPipelineRecordsIntoGlobalMetrics() throws Exception {
+        FlowLoggerMetricsSnapshot before = FlowLoggerMetrics.global().snapshot();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NdjsonDestination destination = new NdjsonDestination(out);
+
+        List<FlowEvent> events = Arrays.asList(event("c1").generateId().build(), event("c1").generateId().build());
+        FlowLoggerMetrics.global().setSerializationTimingEnabled(true);
+        try {
+            destination.write(events);
+            destination.flush();
+        } finally {
+            FlowLoggerMetrics.global().setSerializationTimingEnabled(false);
+        }
+
+        FlowLoggerMetricsSnapshot after = FlowLoggerMetrics.global().snapshot();
+        Assert.assertTrue(after.getEventsBuilt() - before.getEventsBuilt() >= 2);
+        Assert.assertTrue(after.getIdsGenerated() - before.getIdsGenerated() >= 2);
+        Assert.assertTrue(after.getEventsSerialized() - before.getEventsSerialized() >= 2);
+        Assert.assertTrue(after.getBytesWritten() - before.getBytesWritten() >= out.size());
+        Assert.assertTrue(after.getSerializationNanos().getCount() - before.getSerializationNanos().getCount() >= 2);
+    }
+
+    @Test
+    public void thatDropsAndQueueDepthOfAsyncSinkAreRecorded() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        FlowEventDestination destination = new FlowEventDestination() {
+            @Override
+            public void write(List<FlowEvent> batch) throws IOException {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        long droppedBefore = FlowLoggerMetrics.global().snapshot().getDroppedByPolicy().get(BackpressurePolicy.DROP_NEWEST);
+        AsyncFlowEventSink sink = AsyncFlowEventSink.builder()
+                .destination(destination)
+                .capacity(4)
+                .batchSize(1)
+                .policy(BackpressurePolicy.DROP_NEWEST)
+                .build();
+        sink.publish(event("c").id("first").build());
+        writing.await();
+        for (int i = 0; i < 5; i++) {
+            sink.publish(event("c").id("Q" + i).build());
+        }
+
+        FlowLoggerMetricsSnapshot snapshot = FlowLoggerMetrics.global().snapshot();
+        Assert.assertTrue(snapshot.getQueueDepth() >= 4);
+        Assert.assertTrue(snapshot.getDroppedByPolicy().get(BackpressurePolicy.DROP_NEWEST) - droppedBefore >= 1);
+
+        release.countDown();
+        sink.close();
+    }
+
+    @Test
+    public void thatMetricsAreReadableOverJmx() throws Exception {
+        ObjectName name = FlowLoggerMetrics.registerMBean();
+        try {
+            Assert.assertEquals(FlowLoggerMetrics.registerMBean(), name);
+            event("c1").generateId().build();
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+            Assert.assertTrue((Long) server.getAttribute(name, "EventsBuilt") >= 1);
+            Assert.assertTrue((Long) server.getAttribute(name, "IdsGenerated") >= 1);
+            Assert.assertTrue((Double) server.getAttribute(name, "IdGenerationRate") >= 0);
+            Assert.assertEquals(server.getAttribute(name, "SerializationTimingEnabled"), Boolean.FALSE);
+            server.setAttribute(name, new Attribute("SerializationTimingEnabled", true));
+            Assert.assertTrue(FlowLoggerMetrics.global().isSerializationTimingEnabled());
+            Assert.assertNotNull(server.getAttribute(name, "DroppedEventsByPolicy"));
+        } finally {
+            FlowLoggerMetrics.global().setSerializationTimingEnabled(false);
+            FlowLoggerMetrics.unregisterMBean();
+        }
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
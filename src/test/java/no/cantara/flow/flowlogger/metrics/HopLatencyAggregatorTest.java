@@ -0,0 +1,93 @@
+package no.cantara.flow.flowlogger.metrics;
+
+import no.cantara.flow.flowlogger.event.Builder;
+import no.cantara.flow.flowlogger.event.FlowClocks;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class HopLatencyAggregatorTest {
+
+    private static final ZonedDateTime START = ZonedDateTime.of(2017, 6, 7, 10, 44, 31, 0, ZoneId.of("Europe/Oslo"));
+
+    private static Builder.EdgeBuilder event(String correlationId, String history, long offsetMillis) {
+        return new Builder().clock(FlowClocks.fixed(START.plus(Duration.ofMillis(offsetMillis)))).event().correlationId(correlationId).history(history);
+    }
+
+    @Test
+    public void thatHistogramBucketsBoundTheRecordedValues() {
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            int index = LogLinearHistogram.index(value);
+            Assert.assertTrue(index >= 0 && index < LogLinearHistogram.BUCKETS, String.valueOf(value));
+            Assert.assertTrue(LogLinearHistogram.lowerBound(index) <= value, String.valueOf(value));
+            Assert.assertTrue(LogLinearHistogram.upperBound(index) >= value, String.valueOf(value));
+            Assert.assertTrue(value - LogLinearHistogram.lowerBound(index) <= value / LogLinearHistogram.SUB_BUCKETS, String.valueOf(value));
+        }
+        Assert.assertEquals(LogLinearHistogram.index(Long.MAX_VALUE), LogLinearHistogram.BUCKETS - 1);
+    }
+
+    @Test
+    public void thatPercentilesAreWithinBucketPrecision() throws InterruptedException {
+        LogLinearHistogram histogram = new LogLinearHistogram(4);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (long v = 1; v <= 10_000; v++) {
+                    histogram.record(v * 1000);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        HistogramSnapshot snapshot = histogram.snapshotAndReset();
+        Assert.assertEquals(snapshot.getCount(), 40_000);
+        Assert.assertEquals(snapshot.getMax(), 10_000_000);
+        Assert.assertEquals(snapshot.getMean(), 5_000_500.0, 0.001);
+        Assert.assertEquals(snapshot.getValueAtPercentile(50), 5_000_000, 5_000_000 / LogLinearHistogram.SUB_BUCKETS);
+        Assert.assertEquals(snapshot.getValueAtPercentile(99), 9_900_000, 9_900_000 / LogLinearHistogram.SUB_BUCKETS);
+        Assert.assertEquals(snapshot.getValueAtPercentile(100), 10_000_000);
+
+        Assert.assertEquals(histogram.snapshot().getCount(), 0);
+        Assert.assertEquals(histogram.snapshot().getValueAtPercentile(50), 0);
+    }
+
+    @Test
+    public void thatLatencyIsJoinedToThePrecedingEdgePerHop() {
+        HopLatencyAggregator aggregator = HopLatencyAggregator.builder().recentEdges(1024).build();
+        for (int i = 0; i < 100; i++) {
+            String correlationId = "c" + i;
+            aggregator.publish(event(correlationId, null, 0).id("A").destination().type("queue").address("q1").payloadId("p" + i).build());
+            aggregator.publish(event(correlationId, "A", 10 + i).id("B").milestone("received")
+                    .source().type("queue").address("q1").payloadId("p" + i)
+                    .destination().type("http").address("/orders").build());
+            aggregator.publish(event(correlationId, "A,B", 1000).id("C").milestone("stored")
+                    .source().type("http").address("/orders")
+                    .destination().type("db").address("orders").build());
+        }
+        aggregator.publish(event("unknown", "X", 50).id("D").build()); // preceding edge never seen
+
+        Map<HopKey, HistogramSnapshot> snapshot = aggregator.snapshotAndReset();
+        Assert.assertEquals(snapshot.size(), 2);
+        HistogramSnapshot received = snapshot.get(new HopKey("queue", "q1", "http", "/orders", "received"));
+        Assert.assertEquals(received.getCount(), 100);
+        Assert.assertEquals(received.getMax(), Duration.ofMillis(109).toNanos());
+        Assert.assertEquals(received.getValueAtPercentile(0), Duration.ofMillis(10).toNanos(), Duration.ofMillis(10).toNanos() / LogLinearHistogram.SUB_BUCKETS);
+        HistogramSnapshot stored = snapshot.get(new HopKey("http", "/orders", "db", "orders", "stored"));
+        Assert.assertEquals(stored.getCount(), 100);
+        Assert.assertEquals(stored.getMax(), Duration.ofMillis(990).toNanos());
+
+        Assert.assertEquals(aggregator.snapshot().get(new HopKey("http", "/orders", "db", "orders", "stored")).getCount(), 0);
+    }
+}
@@ -0,0 +1,113 @@
+package no.cantara.flow.flowlogger.retry;
+
+import no.cantara.flow.flowlogger.event.Builder;
+import no.cantara.flow.flowlogger.event.FlowClocks;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.sink.FlowEventSink;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RetryGroupCollapserTest {
+
+    private static final ZonedDateTime START = ZonedDateTime.of(2017, 6, 7, 10, 44, 31, 0, ZoneId.of("Europe/Oslo"));
+
+    private static class CollectingSink implements FlowEventSink {
+        final List<FlowEvent> events = new ArrayList<>();
+
+        @Override
+        public synchronized boolean publish(FlowEvent event) {
+            events.add(event);
+            return true;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static Builder.EdgeBuilder attempt(String correlationId, long offsetMillis) {
+        return new Builder().clock(FlowClocks.fixed(START.plus(Duration.ofMillis(offsetMillis)))).event()
+                .correlationId(correlationId).history("A").retryGroupId("rg1");
+    }
+
+    @Test
+    public void thatAttemptsAreCollapsedIntoOneSummary() {
+        CollectingSink downstream = new CollectingSink();
+        RetryGroupCollapser collapser = RetryGroupCollapser.builder(downstream).build();
+
+        FlowEvent other = attempt("c1", 0).id("X").retryGroupId(null).build();
+        collapser.publish(other);
+        collapser.publish(attempt("c1", 100).id("R1").status("FAILED").errorType("Timeout").errorReason("no response").build());
+        collapser.publish(attempt("c2", 100).id("R1").status("FAILED").errorType("Timeout").build());
+        collapser.publish(attempt("c1", 200).id("R2").status("FAILED").errorType("IOException").errorReason("reset").build());
+        collapser.publish(attempt("c1", 300).id("R3").status("FAILED").errorType("Timeout").errorReason("no response").build());
+        Assert.assertEquals(downstream.events, Arrays.asList(other));
+        Assert.assertEquals(collapser.openGroupCount(), 2);
+
+        collapser.publish(attempt("c1", 400).id("R4").comment("finally").build());
+        Assert.assertEquals(downstream.events.size(), 2);
+        FlowEvent summary = downstream.events.get(1);
+        Assert.assertEquals(summary.getCorrelationId(), "c1");
+        Assert.assertEquals(summary.getEdge().getId(), "R4");
+        Assert.assertEquals(summary.getEdge().getStatus(), "OK");
+        Assert.assertEquals(summary.getFlowHistory().toString(), "A");
+
+        RetrySummary retries = RetrySummary.of(summary);
+        Assert.assertNotNull(retries);
+        Assert.assertEquals(retries.getAttempts(), 4);
+        Assert.assertEquals(retries.getFirstTimestamp(), "2017-06-07T10:44:31.1+02:00");
+        Assert.assertEquals(retries.getLastTimestamp(), "2017-06-07T10:44:31.4+02:00");
+        Assert.assertEquals(retries.getErrorTypes(), Arrays.asList("Timeout", "IOException"));
+        Assert.assertEquals(retries.getErrorReasons(), Arrays.asList("no response", "reset"));
+        Assert.assertEquals(retries.getFinalStatus(), "OK");
+        Assert.assertEquals(retries.getComment(), "finally");
+        Assert.assertEquals(collapser.collapsedCount(), 3);
+        Assert.assertNull(RetrySummary.of(other));
+
+        collapser.close(); // single attempt of c2 is forwarded unchanged
+        Assert.assertEquals(downstream.events.size(), 3);
+        Assert.assertNull(RetrySummary.of(downstream.events.get(2)));
+        Assert.assertEquals(downstream.events.get(2).getEdge().getErrorType(), "Timeout");
+    }
+
+    @Test
+    public void thatGroupsAreEmittedWhenTheWindowPasses() {
+        AtomicLong now = new AtomicLong();
+        CollectingSink downstream = new CollectingSink();
+        RetryGroupCollapser collapser = RetryGroupCollapser.builder(downstream)
+                .window(Duration.ofSeconds(10))
+                .completeOnSuccess(false)
+                .nanoClock(now::get)
+                .build();
+        for (int i = 0; i < 1000; i++) {
+            collapser.publish(attempt("c1", i).id("R" + i).status(i % 2 == 0 ? "FAILED" : "OK").build());
+        }
+        Assert.assertTrue(downstream.events.isEmpty());
+
+        now.addAndGet(Duration.ofSeconds(11).toNanos());
+        collapser.publish(attempt("c1", 2000).id("R1000").status("FAILED").build()); // starts the next window
+        Assert.assertEquals(downstream.events.size(), 1);
+        RetrySummary retries = RetrySummary.of(downstream.events.get(0));
+        Assert.assertEquals(retries.getAttempts(), 1000);
+        Assert.assertEquals(retries.getFinalStatus(), "OK");
+        Assert.assertTrue(retries.getErrorTypes().isEmpty());
+
+        now.addAndGet(Duration.ofSeconds(11).toNanos());
+        collapser.expire();
+        Assert.assertEquals(downstream.events.size(), 2);
+        Assert.assertEquals(downstream.events.get(1).getEdge().getId(), "R1000");
+        Assert.assertEquals(collapser.openGroupCount(), 0);
+    }
+}
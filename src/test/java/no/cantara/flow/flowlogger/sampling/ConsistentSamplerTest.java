@@ -0,0 +1,48 @@
+package no.cantara.flow.flowlogger.sampling;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class ConsistentSamplerTest {
+
+    private static long fnv1a(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    @Test
+    public void thatHashIsFnv1aOfUtf8() {
+        String[] ids = {"", "a", "corrId382", "\u00e6\u00f8\u00e5", "\u20ac100", "\ud83d\ude00x", "bad\ud83d"};
+        for (String id : ids) {
+            Assert.assertEquals(ConsistentSampler.hash(id), fnv1a(id.getBytes(StandardCharsets.UTF_8)), id);
+        }
+        Assert.assertEquals(ConsistentSampler.hash("a"), 0xaf63dc4c8601ec8cL); // published FNV-1a test vector
+    }
+
+    @Test
+    public void thatLowerRatesKeepSubsetsOfHigherRates() {
+        ConsistentSampler tenPercent = ConsistentSampler.ofRate(0.1);
+        ConsistentSampler onePercent = ConsistentSampler.ofRate(0.01);
+        int kept = 0;
+        for (int i = 0; i < 100_000; i++) {
+            String correlationId = "flow-" + i;
+            boolean sampled = tenPercent.isSampled(correlationId);
+            Assert.assertEquals(ConsistentSampler.ofRate(0.1).isEnabled(correlationId), sampled);
+            if (onePercent.isSampled(correlationId)) {
+                Assert.assertTrue(sampled, correlationId);
+            }
+            if (sampled) {
+                kept++;
+            }
+        }
+        Assert.assertEquals(kept, 10_000, 500);
+        Assert.assertTrue(ConsistentSampler.ofRate(1).isSampled("x"));
+        Assert.assertFalse(ConsistentSampler.ofRate(0).isSampled("x"));
+        Assert.assertTrue(ConsistentSampler.ofRate(0).isSampled((String) null));
+    }
+}
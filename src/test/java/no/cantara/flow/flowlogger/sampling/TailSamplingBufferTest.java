@@ -0,0 +1,114 @@
+package no.cantara.flow.flowlogger.sampling;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import no.cantara.flow.flowlogger.sink.FlowEventSink;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static no.cantara.flow.flowlogger.FlowLogger.event;
+
+public class TailSamplingBufferTest {
+
+    private static class CollectingSink implements FlowEventSink {
+        final List<FlowEvent> events = new ArrayList<>();
+        boolean closed;
+
+        @Override
+        public synchronized boolean publish(FlowEvent event) {
+            events.add(event);
+            return true;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void thatOnlyFlowsWithErrorsAreForwarded() {
+        AtomicLong now = new AtomicLong();
+        CollectingSink downstream = new CollectingSink();
+        TailSamplingBuffer buffer = TailSamplingBuffer.builder(downstream)
+                .shards(2)
+                .holdTime(Duration.ofSeconds(10))
+                .nanoClock(now::get)
+                .build();
+
+        FlowEvent a1 = event("c1").id("A").build();
+        FlowEvent b1 = event("c1", "A").id("B").status("FAILED").build();
+        buffer.publish(a1);
+        buffer.publish(event("c2").id("A").build());
+        Assert.assertTrue(downstream.events.isEmpty());
+        Assert.assertEquals(buffer.bufferedCount(), 2);
+
+        buffer.publish(b1);
+        Assert.assertEquals(downstream.events.size(), 2);
+        Assert.assertSame(downstream.events.get(0), a1);
+        Assert.assertSame(downstream.events.get(1), b1);
+
+        FlowEvent c1 = event("c1", "A,B").id("C").build();
+        buffer.publish(c1); // kept flow, forwarded directly
+        Assert.assertSame(downstream.events.get(2), c1);
+        buffer.publish(event("c3").id("A").errorType("Timeout").build());
+        Assert.assertEquals(downstream.events.size(), 4);
+        Assert.assertEquals(buffer.keptFlowCount(), 2);
+        Assert.assertEquals(buffer.bufferedCount(), 3); // c2 and two kept flows
+
+        now.addAndGet(Duration.ofSeconds(11).toNanos());
+        buffer.expire();
+        Assert.assertEquals(buffer.bufferedCount(), 0);
+        Assert.assertEquals(buffer.droppedFlowCount(), 1);
+        Assert.assertEquals(buffer.droppedCount(), 1);
+        Assert.assertEquals(downstream.events.size(), 4);
+
+        buffer.close();
+        Assert.assertTrue(downstream.closed);
+        Assert.assertFalse(buffer.publish(event("c4").id("A").status("FAILED").build()));
+    }
+
+    @Test
+    public void thatBufferedEventsAreCapped() {
+        CollectingSink downstream = new CollectingSink();
+        TailSamplingBuffer buffer = TailSamplingBuffer.builder(downstream)
+                .shards(1)
+                .maxBufferedEvents(10)
+                .build();
+        for (int i = 0; i < 100; i++) {
+            buffer.publish(event("c" + i).id("A").build());
+            buffer.publish(event("c" + i, "A").id("B").build());
+            Assert.assertTrue(buffer.bufferedCount() <= 10);
+        }
+        Assert.assertEquals(buffer.bufferedCount(), 10);
+        Assert.assertEquals(buffer.droppedFlowCount(), 95);
+
+        buffer.publish(event("c99", "A,B").id("C").status("FAILED").build());
+        Assert.assertEquals(downstream.events.size(), 3);
+        Assert.assertEquals(buffer.bufferedCount(), 9);
+    }
+
+    @Test
+    public void thatBaselineFlowsBypassTheBuffer() {
+        CollectingSink downstream = new CollectingSink();
+        TailSamplingBuffer buffer = TailSamplingBuffer.builder(downstream).baseline(ConsistentSampler.ofRate(0.5)).build();
+        int sampled = 0;
+        for (int i = 0; i < 1000; i++) {
+            String correlationId = "c" + i;
+            buffer.publish(event(correlationId).id("A").build());
+            if (ConsistentSampler.ofRate(0.5).isSampled(correlationId)) {
+                sampled++;
+            }
+        }
+        Assert.assertEquals(downstream.events.size(), sampled);
+        Assert.assertEquals(buffer.bufferedCount(), 1000 - sampled);
+    }
+}
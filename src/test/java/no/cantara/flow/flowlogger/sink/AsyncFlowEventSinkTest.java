@@ -0,0 +1,242 @@
+package no.cantara.flow.flowlogger.sink;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static no.cantara.flow.flowlogger.FlowLogger.event;
+
+public class AsyncFlowEventSinkTest {
+
+    @Test
+    public void thatEventsFromManyThreadsAreWrittenAsNdjson() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AsyncFlowEventSink sink = AsyncFlowEventSink.builder()
+                .destination(new NdjsonDestination(out))
+                .capacity(64)
+                .batchSize(16)
+                .policy(BackpressurePolicy.BLOCK)
+                .build();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    sink.publish(event("t" + thread).id("A" + i).build());
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        sink.flush();
+        Assert.assertEquals(sink.writtenCount(), 4000L);
+        sink.close();
+
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        Assert.assertEquals(lines.length, 4000);
+        Assert.assertTrue(lines[0].startsWith("{\"flowEventVersion\":\"0.1\""));
+        Assert.assertEquals(sink.droppedCount(), 0L);
+    }
+
+    @Test
+    public void thatDropNewestDropsWhenFull() throws Exception {
+        BlockingDestination destination = new BlockingDestination();
+        AsyncFlowEventSink sink = AsyncFlowEventSink.builder()
+                .destination(destination)
+                .capacity(4)
+                .batchSize(1)
+                .policy(BackpressurePolicy.DROP_NEWEST)
+                .build();
+        Assert.assertTrue(sink.publish(event("c").id("first").build()));
+        destination.writing.await();
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(sink.publish(event("c").id("Q" + i).build()));
+        }
+        Assert.assertFalse(sink.publish(event("c").id("X").build()));
+        Assert.assertEquals(sink.droppedCount(), 1L);
+        destination.release.countDown();
+        sink.close();
+        Assert.assertEquals(destination.ids.toString(), "[first, Q0, Q1, Q2, Q3]");
+    }
+
+    @Test
+    public void thatDropOldestEvictsQueuedEvents() throws Exception {
+        BlockingDestination destination = new BlockingDestination();
+        AsyncFlowEventSink sink = AsyncFlowEventSink.builder()
+                .destination(destination)
+                .capacity(4)
+                .batchSize(1)
+                .policy(BackpressurePolicy.DROP_OLDEST)
+                .build();
+        sink.publish(event("c").id("first").build());
+        destination.writing.await();
+        for (int i = 0; i < 6; i++) {
+            Assert.assertTrue(sink.publish(event("c").id("Q" + i).build()));
+        }
+        Assert.assertEquals(sink.droppedCount(), 2L);
+        destination.release.countDown();
+        sink.close();
+        Assert.assertEquals(destination.ids.toString(), "[first, Q2, Q3, Q4, Q5]");
+    }
+
+    @Test
+    public void thatFlushReturnsWhileProducersKeepTheBufferBusy() throws Exception {
+        AsyncFlowEventSink sink = AsyncFlowEventSink.builder()
+                .destination(new CountingDestination() {
+                    @Override
+                    public void write(List<FlowEvent> batch) {
+                        super.write(batch);
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                    }
+                })
+                .capacity(64)
+                .batchSize(8)
+                .policy(BackpressurePolicy.BLOCK)
+                .build();
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            producers.add(new Thread(() -> {
+                int i = 0;
+                while (running.get()) {
+                    sink.publish(event("busy").id("A" + i++).build());
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        try {
+            Thread.sleep(50);
+            Thread flusher = new Thread(sink::flush);
+            flusher.start();
+            flusher.join(5000);
+            Assert.assertFalse(flusher.isAlive(), "flush did not return while producers were publishing");
+        } finally {
+            running.set(false);
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            sink.close();
+        }
+    }
+
+    @Test
+    public void thatEveryAcceptedEventIsWrittenWhenClosedConcurrently() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            CountingDestination destination = new CountingDestination();
+            AsyncFlowEventSink sink = AsyncFlowEventSink.builder()
+                    .destination(destination)
+                    .capacity(1024)
+                    .policy(BackpressurePolicy.DROP_NEWEST)
+                    .build();
+            AtomicLong acceptedByPublish = new AtomicLong();
+            List<Thread> producers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                producers.add(new Thread(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        if (sink.publish(event("c").id("A" + i).build())) {
+                            acceptedByPublish.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            producers.forEach(Thread::start);
+            sink.close();
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            Assert.assertEquals(destination.count.get(), acceptedByPublish.get());
+        }
+    }
+
+    @Test
+    public void thatFailingErrorHandlerDoesNotStopTheConsumer() throws Exception {
+        CountingDestination destination = new CountingDestination() {
+            @Override
+            public void write(List<FlowEvent> batch) {
+                if (batch.get(0).getEdge().getId().equals("bad")) {
+                    throw new IllegalStateException("write failed");
+                }
+                super.write(batch);
+            }
+        };
+        AsyncFlowEventSink sink = AsyncFlowEventSink.builder()
+                .destination(destination)
+                .batchSize(1)
+                .errorHandler(e -> {
+                    throw new IllegalStateException("handler failed", e);
+                })
+                .build();
+        sink.publish(event("c").id("bad").build());
+        sink.flush();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(sink.publish(event("c").id("A" + i).build()));
+        }
+        sink.flush();
+        sink.close();
+        Assert.assertEquals(destination.count.get(), 10L);
+        Assert.assertEquals(sink.writtenCount(), 10L);
+        Assert.assertEquals(sink.failedCount(), 1L);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void thatNullErrorHandlerIsRejected() {
+        AsyncFlowEventSink.builder().errorHandler(null);
+    }
+
+    static class CountingDestination implements FlowEventDestination {
+        final AtomicLong count = new AtomicLong();
+
+        @Override
+        public void write(List<FlowEvent> batch) {
+            count.addAndGet(batch.size());
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    static class BlockingDestination implements FlowEventDestination {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> ids = new ArrayList<>();
+
+        @Override
+        public void write(List<FlowEvent> batch) throws IOException {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            for (FlowEvent event : batch) {
+                ids.add(event.getEdge().getId());
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package no.cantara.flow.flowlogger.slf4j;
+
+import no.cantara.flow.flowlogger.FlowLogger;
+import no.cantara.flow.flowlogger.ReporterFlowLogger;
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import org.slf4j.Logger;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class Slf4jFlowEventSinkTest {
+
+    /**
+     * A logger that records the arguments of info calls with a marker.
+     */
+    private static Logger logger(AtomicBoolean enabled, List<Object[]> calls) {
+        return (Logger) Proxy.newProxyInstance(Logger.class.getClassLoader(), new Class<?>[]{Logger.class}, (proxy, method, args) -> {
+            if (method.getName().equals("isInfoEnabled")) {
+                return enabled.get();
+            }
+            if (method.getName().equals("info")) {
+                calls.add(args);
+            }
+            return null;
+        });
+    }
+
+    @Test
+    public void thatEventsAreLoggedWithMarkerAndRenderedLazily() throws Exception {
+        List<Object[]> calls = new ArrayList<>();
+        AtomicBoolean enabled = new AtomicBoolean(true);
+        Slf4jFlowEventSink sink = new Slf4jFlowEventSink(logger(enabled, calls));
+
+        FlowEvent event = FlowLogger.event("c1").id("A").comment("x").build();
+        Assert.assertTrue(sink.publish(event));
+        Assert.assertEquals(calls.size(), 1);
+        Assert.assertSame(calls.get(0)[0], FlowEventMarkers.FLOW_EVENT);
+        Assert.assertEquals(calls.get(0)[1], "{}");
+        FlowEventArgument argument = (FlowEventArgument) calls.get(0)[2];
+        Assert.assertSame(argument.getEvent(), event);
+
+        StringBuilder buffer = new StringBuilder("prefix ");
+        argument.writeTo(buffer);
+        Assert.assertEquals(buffer.toString(), "prefix " + event.toJson());
+        Assert.assertEquals(argument.toString(), event.toJson());
+        Assert.assertSame(argument.toString(), argument.toString());
+
+        enabled.set(false);
+        Assert.assertFalse(sink.publish(event));
+        Assert.assertEquals(calls.size(), 1);
+    }
+
+    @Test
+    public void thatGuardSkipsBuildingWhileDisabled() {
+        List<Object[]> calls = new ArrayList<>();
+        AtomicBoolean enabled = new AtomicBoolean(false);
+        Slf4jFlowEventSink sink = new Slf4jFlowEventSink(logger(enabled, calls));
+        ReporterFlowLogger flow = FlowLogger.forReporter("d", "n", "v", "c", "i").withGuard(sink.guard());
+
+        Assert.assertFalse(flow.event("c1").id("A").emit(sink));
+        Assert.assertNull(flow.event("c1").id("A").buildLazy());
+        enabled.set(true);
+        Assert.assertTrue(flow.event("c1").id("A").emit(sink));
+        Assert.assertEquals(calls.size(), 1);
+    }
+}
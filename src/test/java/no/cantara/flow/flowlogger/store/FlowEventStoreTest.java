@@ -0,0 +1,215 @@
+package no.cantara.flow.flowlogger.store;
+
+import no.cantara.flow.flowlogger.event.FlowEvent;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static no.cantara.flow.flowlogger.FlowLogger.event;
+
+public class FlowEventStoreTest {
+
+    private static final ZonedDateTime START = ZonedDateTime.of(2017, 6, 7, 10, 0, 0, 0, ZoneOffset.UTC);
+
+    private Path directory;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("flow-store");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deleteDirectory() throws IOException {
+        for (Path segment : Segment.list(directory, "")) {
+            Files.delete(segment);
+        }
+        Files.delete(directory);
+    }
+
+    private static FlowEvent at(String correlationId, String id, int minute) {
+        return event(correlationId).id(id).timestamp(START.plusMinutes(minute)).build();
+    }
+
+    private static List<String> ids(List<FlowEvent> events) {
+        List<String> ids = new ArrayList<>();
+        for (FlowEvent event : events) {
+            ids.add(event.getEdge().getId());
+        }
+        return ids;
+    }
+
+    private static FlowEventStore.Builder builder(Path directory) {
+        return FlowEventStore.builder(directory).bucketDuration(Duration.ofHours(1)).maxBufferedEvents(1000);
+    }
+
+    /**
+     * 3 flows of 4 events each, spread over 2 hours and appended out of time order with a flush after every 3 events.
+     */
+    private static void fill(FlowEventStore store) throws IOException {
+        int n = 0;
+        for (int step = 3; step >= 0; step--) {
+            for (int flow = 0; flow < 3; flow++) {
+                store.append(at("c" + flow, "c" + flow + "e" + step, step * 30 + flow));
+                if (++n % 3 == 0) {
+                    store.flush();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void thatLookupFindsEventsInSegmentsAndBufferInTimeOrder() throws IOException {
+        try (FlowEventStore store = builder(directory).open()) {
+            fill(store);
+            store.append(at("c1", "late", 200));
+            Assert.assertEquals(store.bufferedCount(), 1);
+            Assert.assertEquals(ids(store.lookup("c1")), Arrays.asList("c1e0", "c1e1", "c1e2", "c1e3", "late"));
+            Assert.assertEquals(ids(store.lookup("c1", START.plusMinutes(30).toInstant(), START.plusMinutes(90).toInstant())), Arrays.asList("c1e1", "c1e2"));
+            Assert.assertTrue(store.lookup("unknown").isEmpty());
+        }
+        try (FlowEventStore store = builder(directory).open()) {
+            Assert.assertEquals(ids(store.lookup("c1")), Arrays.asList("c1e0", "c1e1", "c1e2", "c1e3", "late"));
+            Assert.assertEquals(ids(store.lookup("c2")), Arrays.asList("c2e0", "c2e1", "c2e2", "c2e3"));
+        }
+    }
+
+    @Test
+    public void thatScanReturnsEventsInRangeInTimeOrder() throws IOException {
+        try (FlowEventStore store = builder(directory).open()) {
+            fill(store);
+            store.append(at("c0", "buffered", 61));
+            List<String> scanned = new ArrayList<>();
+            store.scan(START.plusMinutes(30).toInstant(), START.plusMinutes(91).toInstant(), e -> scanned.add(e.getEdge().getId()));
+            Assert.assertEquals(scanned, Arrays.asList("c0e1", "c1e1", "c2e1", "c0e2", "c1e2", "buffered", "c2e2", "c0e3"));
+        }
+    }
+
+    @Test
+    public void thatCompactionMergesSmallSegmentsPerBucket() throws IOException {
+        Path first;
+        try (FlowEventStore store = builder(directory).open()) {
+            fill(store);
+            int before = store.segmentCount();
+            Assert.assertTrue(before > 2);
+
+            Path leftover = Files.createTempFile(directory, "segment", ".copy");
+            first = Segment.list(directory, Segment.SUFFIX).get(0);
+            Files.copy(first, leftover, StandardCopyOption.REPLACE_EXISTING);
+
+            Assert.assertEquals(store.compact(), before - 2);
+            Assert.assertEquals(store.segmentCount(), 2);
+            Assert.assertEquals(store.compact(), 0);
+            Assert.assertEquals(ids(store.lookup("c0")), Arrays.asList("c0e0", "c0e1", "c0e2", "c0e3"));
+
+            // a source segment left behind by a crash before it was deleted
+            Files.move(leftover, first);
+        }
+        try (FlowEventStore store = builder(directory).open()) {
+            Assert.assertEquals(store.segmentCount(), 2);
+            Assert.assertFalse(Files.exists(first));
+            Assert.assertEquals(ids(store.lookup("c0")), Arrays.asList("c0e0", "c0e1", "c0e2", "c0e3"));
+            List<FlowEvent> all = new ArrayList<>();
+            store.scan(Instant.MIN, Instant.MAX, all::add);
+            Assert.assertEquals(all.size(), 12);
+
+            Assert.assertEquals(store.deleteBefore(START.plusHours(1).toInstant()), 1);
+            Assert.assertEquals(ids(store.lookup("c0")), Arrays.asList("c0e2", "c0e3"));
+        }
+    }
+
+    @Test
+    public void thatSegmentsAreUnmappedWhenReplacedAndOnClose() throws IOException {
+        FlowEventStore store = builder(directory).open();
+        fill(store);
+        List<Path> flushed = Segment.list(directory, Segment.SUFFIX);
+        Assert.assertTrue(mapped(flushed.get(0)));
+        store.compact();
+        for (Path segment : flushed) {
+            Assert.assertFalse(mapped(segment), segment + " is still mapped");
+        }
+        List<Path> compacted = Segment.list(directory, Segment.SUFFIX);
+        Assert.assertEquals(ids(store.lookup("c0")), Arrays.asList("c0e0", "c0e1", "c0e2", "c0e3"));
+
+        store.close();
+        for (Path segment : compacted) {
+            Assert.assertFalse(mapped(segment), segment + " is still mapped");
+        }
+        Assert.assertTrue(store.lookup("c0").isEmpty());
+    }
+
+    @Test
+    public void thatLookupsDuringFlushesSeeEveryAppendedEvent() throws Exception {
+        try (FlowEventStore store = builder(directory).maxBufferedEvents(50).open()) {
+            AtomicInteger appended = new AtomicInteger();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 2000; i++) {
+                        store.append(at("c", "e" + i, i % 120));
+                        appended.incrementAndGet();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failure.set(e);
+                }
+            });
+            writer.start();
+            while (writer.isAlive()) {
+                int before = appended.get();
+                int found = store.lookup("c").size();
+                Assert.assertTrue(found >= before, "found " + found + " of at least " + before + " events");
+                List<FlowEvent> scanned = new ArrayList<>();
+                store.scan(Instant.MIN, Instant.MAX, scanned::add);
+                Assert.assertTrue(scanned.size() >= found, "scanned " + scanned.size() + " of at least " + found + " events");
+            }
+            writer.join();
+            Assert.assertNull(failure.get());
+            Assert.assertEquals(store.lookup("c").size(), 2000);
+            Assert.assertEquals(store.bufferedCount(), 0);
+        }
+    }
+
+    /**
+     * @return false if the file is not mapped by this process, or if that cannot be told on this platform.
+     */
+    private static boolean mapped(Path file) throws IOException {
+        Path maps = Paths.get("/proc/self/maps");
+        return Files.exists(maps) && new String(Files.readAllBytes(maps), StandardCharsets.UTF_8).contains(file.toAbsolutePath().toString());
+    }
+
+    @Test
+    public void thatBloomFilterHasNoFalseNegativesAndFewFalsePositives() {
+        BloomFilter bloom = BloomFilter.create(10_000, 10);
+        for (int i = 0; i < 10_000; i++) {
+            bloom.add(BloomFilter.hash(("c" + i).getBytes(StandardCharsets.UTF_8)));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            Assert.assertTrue(bloom.mightContain(BloomFilter.hash(("c" + i).getBytes(StandardCharsets.UTF_8))));
+            if (bloom.mightContain(BloomFilter.hash(("x" + i).getBytes(StandardCharsets.UTF_8)))) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue(falsePositives < 200, "false positives: " + falsePositives);
+
+        BloomFilter copy = new BloomFilter(LongBuffer.wrap(bloom.words().array().clone()), bloom.hashes());
+        Assert.assertTrue(copy.mightContain(BloomFilter.hash("c42".getBytes(StandardCharsets.UTF_8))));
+    }
+}